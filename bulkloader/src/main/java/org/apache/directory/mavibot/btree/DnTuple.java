@@ -48,6 +48,9 @@ public class DnTuple implements Comparable<DnTuple>
 
     private DnTuple parent;
 
+    /** The parent ID, when the parent tuple is not kept */
+    private String parentId;
+
     private int nbChildren = 0;
 
     private int nbDecendents = 0;
@@ -65,6 +68,15 @@ public class DnTuple implements Comparable<DnTuple>
     }
 
 
+    public DnTuple( Dn dn, long offset, int len, String id )
+    {
+        this.dn = dn;
+        this.offset = offset;
+        this.len = len;
+        this.id = id;
+    }
+
+
     public Dn getDn()
     {
         return dn;
@@ -87,13 +99,19 @@ public class DnTuple implements Comparable<DnTuple>
     {
         if ( parent == null )
         {
-            return Partition.ROOT_ID;
+            return ( parentId == null ) ? Partition.ROOT_ID : parentId;
         }
 
         return parent.getId();
     }
 
 
+    public void setParentId( String parentId )
+    {
+        this.parentId = parentId;
+    }
+
+
     public DnTuple getParent()
     {
         return parent;
@@ -174,6 +192,18 @@ public class DnTuple implements Comparable<DnTuple>
     }
 
 
+    public void setNbChildren( int nbChildren )
+    {
+        this.nbChildren = nbChildren;
+    }
+
+
+    public void setNbDecendents( int nbDecendents )
+    {
+        this.nbDecendents = nbDecendents;
+    }
+
+
     public void addChild()
     {
         nbChildren++;
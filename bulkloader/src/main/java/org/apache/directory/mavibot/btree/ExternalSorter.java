@@ -0,0 +1,503 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.mavibot.btree;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Sorts any number of records with a bounded memory. The records are kept in memory
+ * until their number reaches the configured limit, then they are sorted and written
+ * in a temporary run file. Once all the records have been added, the runs are merged
+ * while being read. If no run has been written, the records are sorted in memory.
+ * <br>
+ * At most <code>maxFanIn</code> runs are opened at once : when there are more runs, they
+ * are first merged by groups into bigger runs, until the remaining runs can be merged
+ * while being read. The runs are deleted when the sorter is closed.
+ *
+ * @param <T> The record type
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ExternalSorter<T> implements Closeable
+{
+    /** The logger */
+    private static final Logger LOG = LoggerFactory.getLogger( ExternalSorter.class );
+
+    /** The default number of records sorted in memory */
+    public static final int DEFAULT_MAX_RECORDS = 100000;
+
+    /** The default maximum number of runs merged at once */
+    public static final int DEFAULT_MAX_FAN_IN = 64;
+
+    /** The size of the buffers used to read and write the runs */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The records comparator */
+    private final Comparator<? super T> comparator;
+
+    /** The codec used to write and read the records */
+    private final Codec<T> codec;
+
+    /** The maximum number of records kept in memory */
+    private final int maxRecords;
+
+    /** The maximum number of runs merged at once */
+    private final int maxFanIn;
+
+    /** The directory where the runs are written */
+    private final File tmpDir;
+
+    /** The records not yet written */
+    private Object[] buffer;
+
+    /** The number of records in the buffer */
+    private int nbBuffered;
+
+    /** The written runs */
+    private final List<File> runs = new ArrayList<File>();
+
+    /** The opened runs */
+    private final List<DataInputStream> inputs = new ArrayList<DataInputStream>();
+
+    /** The total number of added records */
+    private long size;
+
+    /**
+     * Writes and reads the records in the runs.
+     *
+     * @param <T> The record type
+     */
+    public interface Codec<T>
+    {
+        /**
+         * Writes a record.
+         *
+         * @param out The output
+         * @param record The record
+         * @throws IOException If the record can't be written
+         */
+        void write( DataOutput out, T record ) throws IOException;
+
+
+        /**
+         * Reads a record.
+         *
+         * @param in The input
+         * @return The record
+         * @throws IOException If the record can't be read
+         */
+        T read( DataInput in ) throws IOException;
+    }
+
+
+    /**
+     * Creates a new instance of ExternalSorter.
+     *
+     * @param comparator The records comparator
+     * @param codec The codec used to write and read the records
+     * @param maxRecords The maximum number of records kept in memory
+     * @param tmpDir The directory where the runs are written
+     */
+    public ExternalSorter( Comparator<? super T> comparator, Codec<T> codec, int maxRecords, File tmpDir )
+    {
+        this( comparator, codec, maxRecords, DEFAULT_MAX_FAN_IN, tmpDir );
+    }
+
+
+    /**
+     * Creates a new instance of ExternalSorter.
+     *
+     * @param comparator The records comparator
+     * @param codec The codec used to write and read the records
+     * @param maxRecords The maximum number of records kept in memory
+     * @param maxFanIn The maximum number of runs merged at once
+     * @param tmpDir The directory where the runs are written
+     */
+    public ExternalSorter( Comparator<? super T> comparator, Codec<T> codec, int maxRecords, int maxFanIn,
+        File tmpDir )
+    {
+        if ( maxRecords <= 0 )
+        {
+            throw new IllegalArgumentException( "The number of records kept in memory must be positive" );
+        }
+
+        if ( maxFanIn < 2 )
+        {
+            throw new IllegalArgumentException( "At least two runs must be merged at once" );
+        }
+
+        this.comparator = comparator;
+        this.codec = codec;
+        this.maxRecords = maxRecords;
+        this.maxFanIn = maxFanIn;
+        this.tmpDir = tmpDir;
+        buffer = new Object[Math.min( maxRecords, 1024 )];
+    }
+
+
+    /**
+     * Adds a record, writing a run if the memory limit is reached.
+     *
+     * @param record The added record
+     * @throws IOException If a run can't be written
+     */
+    public void add( T record ) throws IOException
+    {
+        if ( nbBuffered == buffer.length )
+        {
+            if ( nbBuffered == maxRecords )
+            {
+                writeRun();
+            }
+            else
+            {
+                buffer = Arrays.copyOf( buffer, Math.min( maxRecords, buffer.length * 2 ) );
+            }
+        }
+
+        buffer[nbBuffered++] = record;
+        size++;
+    }
+
+
+    /**
+     * @return The number of added records
+     */
+    public long size()
+    {
+        return size;
+    }
+
+
+    /**
+     * @return The number of runs written so far
+     */
+    public int getNbRuns()
+    {
+        return runs.size();
+    }
+
+
+    /**
+     * Sorts the buffered records, using all the available processors.
+     */
+    @SuppressWarnings("unchecked")
+    private void sortBuffer()
+    {
+        Arrays.parallelSort( ( T[] ) buffer, 0, nbBuffered, comparator );
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private void writeRun() throws IOException
+    {
+        sortBuffer();
+
+        File run = createRun();
+
+        try ( DataOutputStream out = openRun( run ) )
+        {
+            for ( int i = 0; i < nbBuffered; i++ )
+            {
+                out.writeBoolean( true );
+                codec.write( out, ( T ) buffer[i] );
+                buffer[i] = null;
+            }
+
+            out.writeBoolean( false );
+        }
+
+        LOG.debug( "Written the run {} with {} records", run, nbBuffered );
+        nbBuffered = 0;
+    }
+
+
+    /**
+     * Creates a new run file. It is added to the runs right away, so that it is deleted
+     * on close even if it can't be completely written.
+     */
+    private File createRun() throws IOException
+    {
+        File run = File.createTempFile( "run-", ".sort", tmpDir );
+        runs.add( run );
+
+        return run;
+    }
+
+
+    private DataOutputStream openRun( File run ) throws IOException
+    {
+        return new DataOutputStream( new BufferedOutputStream( new FileOutputStream( run ), BUFFER_SIZE ) );
+    }
+
+
+    /**
+     * Opens the given runs, and reads their first record.
+     *
+     * @param merged The runs to open
+     * @param opened The list where the opened inputs are stored, to be closed by the caller
+     * @return The heads of the non empty runs
+     */
+    private PriorityQueue<Head> openRuns( List<File> merged, List<DataInputStream> opened ) throws IOException
+    {
+        PriorityQueue<Head> heads = new PriorityQueue<Head>( merged.size() );
+
+        for ( File run : merged )
+        {
+            DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( run ),
+                BUFFER_SIZE ) );
+            opened.add( in );
+            Head head = new Head( in );
+
+            if ( head.advance() )
+            {
+                heads.add( head );
+            }
+        }
+
+        return heads;
+    }
+
+
+    /**
+     * Merges the first maxFanIn runs into a new run, which is added at the end of the
+     * runs, and deletes them.
+     */
+    private void mergeRuns() throws IOException
+    {
+        List<File> merged = new ArrayList<File>( runs.subList( 0, maxFanIn ) );
+        List<DataInputStream> opened = new ArrayList<DataInputStream>( maxFanIn );
+        File run = createRun();
+        long nbRecords = 0L;
+
+        try ( DataOutputStream out = openRun( run ) )
+        {
+            PriorityQueue<Head> heads = openRuns( merged, opened );
+
+            while ( !heads.isEmpty() )
+            {
+                Head head = heads.poll();
+                out.writeBoolean( true );
+                codec.write( out, head.record );
+                nbRecords++;
+
+                if ( head.advance() )
+                {
+                    heads.add( head );
+                }
+            }
+
+            out.writeBoolean( false );
+        }
+        finally
+        {
+            for ( DataInputStream in : opened )
+            {
+                in.close();
+            }
+        }
+
+        for ( File mergedRun : merged )
+        {
+            deleteRun( mergedRun );
+        }
+
+        runs.removeAll( merged );
+
+        LOG.debug( "Merged {} runs into the run {} with {} records", merged.size(), run, nbRecords );
+    }
+
+
+    private void deleteRun( File run )
+    {
+        if ( !run.delete() )
+        {
+            LOG.warn( "Cannot delete the temporary file {}", run );
+        }
+    }
+
+
+    /**
+     * Gives the sorted records. No record can be added afterward.
+     *
+     * @return An iterator on the sorted records
+     * @throws IOException If the runs can't be read
+     */
+    @SuppressWarnings("unchecked")
+    public Iterator<T> iterator() throws IOException
+    {
+        if ( runs.isEmpty() )
+        {
+            sortBuffer();
+
+            return ( Iterator<T> ) Arrays.asList( buffer ).subList( 0, nbBuffered ).iterator();
+        }
+
+        if ( nbBuffered > 0 )
+        {
+            writeRun();
+        }
+
+        buffer = null;
+
+        // Reduce the number of runs, so that no more than maxFanIn files are read at once.
+        // The merged runs are added at the end, so each record is rewritten about
+        // log(nbRuns)/log(maxFanIn) times
+        while ( runs.size() > maxFanIn )
+        {
+            mergeRuns();
+        }
+
+        final PriorityQueue<Head> heads = openRuns( runs, inputs );
+
+        return new Iterator<T>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return !heads.isEmpty();
+            }
+
+
+            @Override
+            public T next()
+            {
+                Head head = heads.poll();
+
+                if ( head == null )
+                {
+                    throw new NoSuchElementException();
+                }
+
+                T record = head.record;
+
+                try
+                {
+                    if ( head.advance() )
+                    {
+                        heads.add( head );
+                    }
+                }
+                catch ( IOException ioe )
+                {
+                    throw new IllegalStateException( "Cannot read the sorted records", ioe );
+                }
+
+                return record;
+            }
+
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException( "Not supported" );
+            }
+        };
+    }
+
+
+    /**
+     * Deletes the runs.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        for ( DataInputStream in : inputs )
+        {
+            in.close();
+        }
+
+        inputs.clear();
+
+        for ( File run : runs )
+        {
+            deleteRun( run );
+        }
+
+        runs.clear();
+        buffer = null;
+    }
+
+    /**
+     * The current record of a run being merged.
+     */
+    private class Head implements Comparable<Head>
+    {
+        /** The run */
+        private final DataInputStream in;
+
+        /** The current record */
+        private T record;
+
+
+        private Head( DataInputStream in )
+        {
+            this.in = in;
+        }
+
+
+        /**
+         * Reads the next record of the run.
+         *
+         * @return false if there is no more record in the run
+         */
+        private boolean advance() throws IOException
+        {
+            if ( !in.readBoolean() )
+            {
+                record = null;
+
+                return false;
+            }
+
+            record = codec.read( in );
+
+            return true;
+        }
+
+
+        @Override
+        public int compareTo( Head other )
+        {
+            return comparator.compare( record, other.record );
+        }
+    }
+}
@@ -25,16 +25,20 @@ import static org.apache.directory.mavibot.btree.BTreeFactory.createNode;
 import static org.apache.directory.mavibot.btree.BTreeFactory.setKey;
 import static org.apache.directory.mavibot.btree.BTreeFactory.setValue;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Array;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -43,6 +47,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.stream.IntStream;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.CsnFactory;
@@ -134,8 +139,101 @@ public class MavibotPartitionBuilder
     /** The DN factory, used to check DN */ 
     private DnFactory dnFactory;
 
+    /** The maximum number of records each sorter keeps in memory */
+    private int sortBufferSize = ExternalSorter.DEFAULT_MAX_RECORDS;
+
+    /** The directory where the sorted runs are written */
+    private File tmpDir;
+
     private static final Logger LOG = LoggerFactory.getLogger( MavibotPartitionBuilder.class );
 
+    /** The number of entries read from the LDIF file and parsed in parallel */
+    private static final int PARSE_BATCH_SIZE = 1024;
+
+    /** The minimal number of records an index sorter keeps in memory */
+    private static final int MIN_SORT_BUFFER_SIZE = 1000;
+
+    /**
+     * Orders the tuples by their RDNs, compared from the suffix down. An entry is always
+     * followed by all its descendants, before any of its siblings : each subtree is
+     * contiguous, which is what the ancestors walk in sortDnTuples() expects.
+     */
+    private static final Comparator<DnTuple> DN_ORDER = new Comparator<DnTuple>()
+    {
+        @Override
+        public int compare( DnTuple dt0, DnTuple dt1 )
+        {
+            Dn dn0 = dt0.getDn();
+            Dn dn1 = dt1.getDn();
+            int size0 = dn0.size();
+            int size1 = dn1.size();
+
+            for ( int i = 1; ( i <= size0 ) && ( i <= size1 ); i++ )
+            {
+                int val = dn0.getRdn( size0 - i ).getNormName().compareTo( dn1.getRdn( size1 - i ).getNormName() );
+
+                if ( val != 0 )
+                {
+                    return val;
+                }
+            }
+
+            // One DN is an ancestor of the other, or they are equal
+            return size0 - size1;
+        }
+    };
+
+    /** Orders the tuples by ID */
+    private static final Comparator<DnTuple> ID_ORDER = new Comparator<DnTuple>()
+    {
+        @Override
+        public int compare( DnTuple dt0, DnTuple dt1 )
+        {
+            return dt0.getId().compareTo( dt1.getId() );
+        }
+    };
+
+    /** Orders the tuples by parent ID, then by RDN */
+    private static final Comparator<DnTuple> PARENT_ID_AND_RDN_ORDER = new Comparator<DnTuple>()
+    {
+        @Override
+        public int compare( DnTuple dt0, DnTuple dt1 )
+        {
+            int val = dt0.getParentId().compareTo( dt1.getParentId() );
+
+            if ( val != 0 )
+            {
+                return val;
+            }
+
+            Rdn[] dt0Rdns = dt0.getDn().getRdns().toArray( new Rdn[0] );
+
+            Rdn[] dt1Rdns = dt1.getDn().getRdns().toArray( new Rdn[0] );
+
+            if ( dt0Rdns.length == 1 )
+            {
+                // Special case : we only have one rdn.
+                val = dt0Rdns[0].getNormName().compareTo( dt1Rdns[0].getNormName() );
+
+                return val;
+            }
+            else
+            {
+                for ( int i = 0; i < dt0Rdns.length; i++ )
+                {
+                    val = dt0Rdns[i].getNormName().compareTo( dt1Rdns[i].getNormName() );
+
+                    if ( val != 0 )
+                    {
+                        return val;
+                    }
+                }
+
+                return 0;
+            }
+        }
+    };
+
 
     /**
      * Creates a new instance of MavibotPartitionBuilder.
@@ -169,6 +267,18 @@ public class MavibotPartitionBuilder
         this.csnFactory = new CsnFactory( rid );
     }
 
+
+    /**
+     * Sets the maximum number of records each sorter keeps in memory before writing
+     * them in a temporary file. This bounds the memory used by the builder.
+     *
+     * @param sortBufferSize The number of records kept in memory
+     */
+    public void setSortBufferSize( int sortBufferSize )
+    {
+        this.sortBufferSize = sortBufferSize;
+    }
+
     
     /**
      * Load the configuration. This is a needed step, as we have to know which indexes
@@ -471,7 +581,21 @@ public class MavibotPartitionBuilder
     }
 
 
-    private Set<DnTuple> getDnTuples() throws Exception
+    /**
+     * Reads all the DNs of the LDIF file, sorts them, and links each entry to its parent.
+     * The DNs are sorted in temporary files, so that only a limited number of them is
+     * kept in memory : while reading them in DN order, we only keep the ancestors of the
+     * current entry. Once all the descendants of an entry have been read, its number of
+     * children and descendants are known, and it is added to the sorters used to build
+     * the master table and the RDN index.
+     *
+     * @param idSorter The sorter ordering the entries by ID
+     * @param rdnSorter The sorter ordering the entries by parent ID and RDN
+     * @return The number of entries
+     * @throws Exception If the LDIF file can't be read
+     */
+    private int sortDnTuples( ExternalSorter<DnTuple> idSorter, ExternalSorter<DnTuple> rdnSorter )
+        throws Exception
     {
         File file = new File( ldifFile );
 
@@ -479,127 +603,104 @@ public class MavibotPartitionBuilder
 
         FastLdifReader reader = new FastLdifReader( file, dnFactory );
 
-        Set<DnTuple> sortedDnSet = new TreeSet<DnTuple>();
-
-        while ( reader.hasNext() )
+        try ( ExternalSorter<DnTuple> dnSorter = new ExternalSorter<DnTuple>( DN_ORDER, new DnTupleCodec(),
+            sortBufferSize, tmpDir ) )
         {
-            // FastLdifReader will always return NULL LdifEntry
-            // call getDnTuple() after next() to get a DnTuple
-            reader.next();
-            
-            DnTuple dt = reader.getDnTuple();
-            
-            dt.getDn().apply( schemaManager );
-            sortedDnSet.add( dt );
-
-            if ( dt.getDn().toString().equals( "uid=user.29998,ou=People,dc=example,dc=com" ) )
+            while ( reader.hasNext() )
             {
-                System.out.println( dt );
+                // FastLdifReader will always return NULL LdifEntry
+                // call getDnTuple() after next() to get a DnTuple
+                reader.next();
+
+                DnTuple dt = reader.getDnTuple();
+
+                dt.getDn().apply( schemaManager );
+                dnSorter.add( dt );
             }
-        }
 
-        reader.close();
+            reader.close();
 
-        if ( sortedDnSet.isEmpty() )
-        {
-            return Collections.EMPTY_SET;
-        }
+            if ( dnSorter.size() == 0 )
+            {
+                return 0;
+            }
 
-        Iterator<DnTuple> itr = sortedDnSet.iterator();
-        /*
-        FileWriter fw = new FileWriter( "/tmp/dntuples.txt" );
-        while( itr.hasNext() )
-        {
-            fw.write( itr.next().getDn().getName() + "\n" );
-        }
-        
-        fw.close();
-        itr = sortedDnSet.iterator();
-        */
-        DnTuple root = itr.next();
-        root.setParent( null );
+            Iterator<DnTuple> itr = dnSorter.iterator();
 
-        suffixDn = root.getDn();
-        
-        System.out.println( "Using " + suffixDn.getName() + " as the partition's root DN" );
-        
-        Map<String, DnTuple> parentDnIdMap = new HashMap<String, DnTuple>();
-        parentDnIdMap.put( root.getDn().getNormName(), root );
+            DnTuple root = itr.next();
+            root.setParent( null );
 
-        DnTuple prevTuple = root;
-        
-        while ( itr.hasNext() )
-        {
-            DnTuple dt = itr.next();
+            suffixDn = root.getDn();
+
+            System.out.println( "Using " + suffixDn.getName() + " as the partition's root DN" );
 
-            String parentDn = dt.getDn().getParent().getNormName();
-            DnTuple parent = parentDnIdMap.get( parentDn );
+            // The ancestors of the current entry, the closest first
+            Deque<DnTuple> ancestors = new ArrayDeque<DnTuple>();
+            ancestors.push( root );
+            int count = 1;
 
-            if ( parent == null )
+            while ( itr.hasNext() )
             {
-                if ( parentDn.equals( prevTuple.getDn().getNormName() ) )
+                DnTuple dt = itr.next();
+
+                if ( dt.getDn().equals( ancestors.peek().getDn() ) )
+                {
+                    LOG.warn( "Ignoring the duplicate entry {}", dt.getDn().getName() );
+                    continue;
+                }
+
+                while ( !ancestors.isEmpty() && !dt.getDn().isDescendantOf( ancestors.peek().getDn() ) )
                 {
-                    parentDnIdMap.put( prevTuple.getDn().getNormName(), prevTuple );
-                    parent = prevTuple;
+                    release( ancestors.pop(), idSorter, rdnSorter );
                 }
-                else
+
+                DnTuple parent = ancestors.peek();
+
+                if ( ( parent == null ) || !parent.getDn().equals( dt.getDn().getParent() ) )
                 {
                     throw new IllegalStateException( "Parent entry's ID of the entry " + dt.getDn().getName()
                         + " not found." );
                 }
+
+                dt.setParent( parent );
+                parent.addChild();
+                parent.addDecendent();
+
+                ancestors.push( dt );
+                count++;
             }
-            else
+
+            while ( !ancestors.isEmpty() )
             {
-                // load certain siblings
-                if( !dt.getDn().isDescendantOf( prevTuple.getDn() ) )
-                {
-                    //System.out.println( "adding dn " + prevTuple.getDn().getName() + " to the map");
-                    parentDnIdMap.put( prevTuple.getDn().getNormName(), root );
-                }
+                release( ancestors.pop(), idSorter, rdnSorter );
             }
-            
-            dt.setParent( parent );
-            parent.addChild();
-            parent.addDecendent();
-            
-            prevTuple = dt;
-        }
-
-//        for ( DnTuple dt : sortedDnSet )
-//        {
-//            System.out.println( dt );
-//        }
 
-        return sortedDnSet;
+            return count;
+        }
     }
 
 
-    private void buildMasterTable( Set<DnTuple> sortedDnSet ) throws Exception
+    /**
+     * Adds an entry whose descendants have all been read to the ID and RDN sorters. The
+     * link to the parent tuple is replaced by the parent ID, so that the ancestors are
+     * not kept in memory.
+     */
+    private void release( DnTuple dt, ExternalSorter<DnTuple> idSorter, ExternalSorter<DnTuple> rdnSorter )
+        throws IOException
     {
-        final Set<DnTuple> idSortedSet = new TreeSet<DnTuple>( new Comparator<DnTuple>()
-        {
-
-            @Override
-            public int compare( DnTuple dt0, DnTuple dt1 )
-            {
-                return dt0.getId().compareTo( dt1.getId() );
-            }
-        } );
+        dt.setParentId( dt.getParentId() );
+        dt.setParent( null );
 
-        idSortedSet.addAll( sortedDnSet );
+        idSorter.add( dt );
+        rdnSorter.add( dt );
+    }
 
-//        System.out.println( "Sorted on ID" );
-//        for ( DnTuple dt : idSortedSet )
-//        {
-//            System.out.println( dt );
-//        }
 
+    private void buildMasterTable( final Iterator<DnTuple> idSortedItr ) throws Exception
+    {
         Iterator<Tuple> entryItr = new Iterator<Tuple>()
         {
-
-            private Iterator<DnTuple> itr = idSortedSet.iterator();
-
-            final SchemaAwareLdifReader lar = new SchemaAwareLdifReader( schemaManager );
+            final ThreadLocal<SchemaAwareLdifReader> readers = new ThreadLocal<SchemaAwareLdifReader>();
 
             final AttributeType atEntryUUID = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.ENTRY_UUID_AT );
             final AttributeType atEntryParentID = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.ENTRY_PARENT_ID_AT );
@@ -610,117 +711,129 @@ public class MavibotPartitionBuilder
             final Attribute creatorsName = new DefaultAttribute( atCreator, ServerDNConstants.ADMIN_SYSTEM_DN );
             final Attribute createdTime = new DefaultAttribute( atCreatedTime, DateUtils.getGeneralizedTime() );
             final Attribute entryCsn = new DefaultAttribute( atCsn, csnFactory.newInstance().toString() );
-            
+
+            /** The tuples read but not yet parsed */
+            final List<DnTuple> batch = new ArrayList<DnTuple>( PARSE_BATCH_SIZE );
+
+            /** The parsed entries */
+            final Entry[] entries = new Entry[PARSE_BATCH_SIZE];
+
+            /** The position of the next entry in the batch */
+            int position;
+
             final Tuple t = new Tuple();
-            
+
+
             @Override
             public boolean hasNext()
             {
-                return itr.hasNext();
+                return ( position < batch.size() ) || idSortedItr.hasNext();
             }
 
 
             @Override
             public Tuple<String, Entry> next()
             {
+                if ( position == batch.size() )
+                {
+                    parseBatch();
+                }
 
-                DnTuple dt = itr.next();
-                t.setKey( dt.getId() );
+                DnTuple dt = batch.get( position );
+                Entry entry = entries[position];
+                entries[position] = null;
+                position++;
 
                 try
                 {
-                    
-                    byte[] data = new byte[dt.getLen()];
-                    raf.seek( dt.getOffset() );
-                    raf.readFully( data, 0, data.length );
-
-                    Entry entry = lar.parseLdifEntry( Strings.utf8ToString( data ) ).getEntry();
-
                     entry.add( atEntryUUID, dt.getId() );
                     entry.add( atEntryParentID, dt.getParentId() );
                     entry.add( entryCsn );
                     entry.add( creatorsName );
                     entry.add( createdTime );
-
-                    t.setValue( entry );
                 }
-                catch ( Exception e )
+                catch ( LdapException le )
                 {
-                    LOG.warn( "Failed to parse the entry for the DnTuple " + dt );
-                    throw new RuntimeException( e );
+                    LOG.warn( "Failed to add the operational attributes to the entry for the DnTuple " + dt );
+                    throw new RuntimeException( le );
                 }
 
+                t.setKey( dt.getId() );
+                t.setValue( entry );
+
                 return t;
             }
 
 
-            @Override
-            public void remove()
+            /**
+             * Reads the next entries from the LDIF file, and parses them in parallel.
+             */
+            private void parseBatch()
             {
-                throw new UnsupportedOperationException( "Not supported" );
-            }
+                batch.clear();
+                position = 0;
 
-        };
+                final List<byte[]> ldifs = new ArrayList<byte[]>( PARSE_BATCH_SIZE );
 
-        build( entryItr, masterTableName );
-    }
-
-
-    private void buildRdnIndex( Set<DnTuple> sortedDnSet ) throws Exception
-    {
-        final Set<DnTuple> parentIdRdnSortedSet = new TreeSet<DnTuple>( new Comparator<DnTuple>()
-        {
-
-            @Override
-            public int compare( DnTuple dt0, DnTuple dt1 )
-            {
-                int val = dt0.getParentId().compareTo( dt1.getParentId() );
-                if ( val != 0 )
+                try
                 {
-                    return val;
-                }
-
-                Rdn[] dt0Rdns = dt0.getDn().getRdns().toArray( new Rdn[0] );
-
-                Rdn[] dt1Rdns = dt1.getDn().getRdns().toArray( new Rdn[0] );
+                    while ( ( batch.size() < PARSE_BATCH_SIZE ) && idSortedItr.hasNext() )
+                    {
+                        DnTuple dt = idSortedItr.next();
+                        byte[] data = new byte[dt.getLen()];
+                        raf.seek( dt.getOffset() );
+                        raf.readFully( data, 0, data.length );
 
-                if ( dt0Rdns.length == 1 )
+                        batch.add( dt );
+                        ldifs.add( data );
+                    }
+                }
+                catch ( IOException ioe )
                 {
-                    // Special case : we only have one rdn.
-                    val = dt0Rdns[0].getNormName().compareTo( dt1Rdns[0].getNormName() );
-
-                    return val;
+                    LOG.warn( "Failed to read the LDIF entries" );
+                    throw new RuntimeException( ioe );
                 }
-                else
+
+                IntStream.range( 0, batch.size() ).parallel().forEach( i ->
                 {
-                    for ( int i = 0; i < dt0Rdns.length; i++ )
+                    try
                     {
-                        val = dt0Rdns[i].getNormName().compareTo( dt1Rdns[i].getNormName() );
+                        SchemaAwareLdifReader lar = readers.get();
 
-                        if ( val != 0 )
+                        if ( lar == null )
                         {
-                            return val;
+                            lar = new SchemaAwareLdifReader( schemaManager );
+                            readers.set( lar );
                         }
+
+                        entries[i] = lar.parseLdifEntry( Strings.utf8ToString( ldifs.get( i ) ) ).getEntry();
+                    }
+                    catch ( Exception e )
+                    {
+                        LOG.warn( "Failed to parse the entry for the DnTuple " + batch.get( i ) );
+                        throw new RuntimeException( e );
                     }
+                } );
+            }
 
-                    return 0;
-                }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException( "Not supported" );
             }
-        } );
 
-        parentIdRdnSortedSet.addAll( sortedDnSet );
+        };
 
-//        System.out.println( "Sorted on ParentID and RDNs" );
-//        for ( DnTuple dt : parentIdRdnSortedSet )
-//        {
-//            System.out.println( dt );
-//        }
+        build( entryItr, masterTableName );
+    }
 
+
+    private void buildRdnIndex( final Iterator<DnTuple> parentIdRdnSortedItr, final Iterator<DnTuple> idSortedItr )
+        throws Exception
+    {
         Iterator<Tuple> parentIdAndRdnFwdItr = new Iterator<Tuple>()
         {
-            Iterator<DnTuple> itr = parentIdRdnSortedSet.iterator();
-
-
             @Override
             public void remove()
             {
@@ -730,7 +843,7 @@ public class MavibotPartitionBuilder
             @Override
             public Tuple next()
             {
-                DnTuple dt = itr.next();
+                DnTuple dt = parentIdRdnSortedItr.next();
                 Tuple t = new Tuple();
 
                 ParentIdAndRdn rdn = new ParentIdAndRdn( dt.getParentId(), dt.getDn().getRdns() );
@@ -747,7 +860,7 @@ public class MavibotPartitionBuilder
             @Override
             public boolean hasNext()
             {
-                return itr.hasNext();
+                return parentIdRdnSortedItr.hasNext();
             }
         };
 
@@ -755,11 +868,9 @@ public class MavibotPartitionBuilder
 
         build( parentIdAndRdnFwdItr, forwardRdnTree );
 
+        // The reverse tree is keyed by the entry IDs
         Iterator<Tuple> parentIdAndRdnRevItr = new Iterator<Tuple>()
         {
-            Iterator<DnTuple> itr = parentIdRdnSortedSet.iterator();
-
-
             @Override
             public void remove()
             {
@@ -769,7 +880,7 @@ public class MavibotPartitionBuilder
             @Override
             public Tuple next()
             {
-                DnTuple dt = itr.next();
+                DnTuple dt = idSortedItr.next();
                 Tuple t = new Tuple();
 
                 ParentIdAndRdn rdn = new ParentIdAndRdn( dt.getParentId(), dt.getDn().getRdns() );
@@ -786,7 +897,7 @@ public class MavibotPartitionBuilder
             @Override
             public boolean hasNext()
             {
-                return itr.hasNext();
+                return idSortedItr.hasNext();
             }
         };
 
@@ -796,6 +907,17 @@ public class MavibotPartitionBuilder
     }
 
 
+    /**
+     * @return The time taken since the given start, and the number of entries processed per second
+     */
+    private static String throughput( long start, long nbEntries )
+    {
+        long duration = Math.max( 1L, System.currentTimeMillis() - start );
+
+        return ", time taken : " + duration + "ms, " + ( nbEntries * 1000L / duration ) + " entries/s";
+    }
+
+
     /**
      * Import a LDIF file and create a fully working Mavibot partition.
      * TODO buildPartition.
@@ -816,6 +938,9 @@ public class MavibotPartitionBuilder
             InstanceLayout instanceLayout = new InstanceLayout( outputDir );
             cacheService.initialize( instanceLayout );
 
+            // The directory where the sorted runs are written
+            tmpDir = new File( outputDir, "sort-tmp" );
+            tmpDir.mkdirs();
         }
         catch ( Exception e )
         {
@@ -824,21 +949,36 @@ public class MavibotPartitionBuilder
             return;
         }
 
+        try ( ExternalSorter<DnTuple> idSorter = new ExternalSorter<DnTuple>( ID_ORDER, new DnTupleCodec(),
+                sortBufferSize, tmpDir );
+            ExternalSorter<DnTuple> rdnSorter = new ExternalSorter<DnTuple>( PARENT_ID_AND_RDN_ORDER,
+                new DnTupleCodec(), sortBufferSize, tmpDir ) )
+        {
+            buildPartition( idSorter, rdnSorter );
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Failed to delete the temporary files", ioe );
+        }
+        finally
+        {
+            tmpDir.delete();
+        }
+    }
+
+
+    private void buildPartition( ExternalSorter<DnTuple> idSorter, ExternalSorter<DnTuple> rdnSorter )
+    {
         // Now, read all the DNs, and sort them
-        Set<DnTuple> sortedDnSet = null;
-        
         try
         {
             long sortT0 = System.currentTimeMillis();
             System.out.println( "Sorting the LDIF data..." );
             
-            sortedDnSet = getDnTuples();
-            long sortT1 = System.currentTimeMillis();
-
-            totalEntries = sortedDnSet.size();
+            totalEntries = sortDnTuples( idSorter, rdnSorter );
             
             System.out.println( "Completed sorting, total number of entries " + totalEntries + 
-                ", time taken : " + ( sortT1 - sortT0 ) + "ms" );
+                throughput( sortT0, totalEntries ) );
         }
         catch ( Exception e )
         {
@@ -847,11 +987,13 @@ public class MavibotPartitionBuilder
             return;
         }
         
-        if ( ( sortedDnSet == null ) || ( sortedDnSet.isEmpty() ) )
+        if ( totalEntries == 0 )
         {
             String message = "No entries found in the given LDIF file, aborting bulk load";
             System.out.println( message );
             LOG.info( message );
+
+            return;
         }
         
         MavibotPartition partition = null;
@@ -895,9 +1037,8 @@ public class MavibotPartitionBuilder
         {
             long masterT0 = System.currentTimeMillis();
             System.out.print( "Building master table..." );
-            buildMasterTable( sortedDnSet );
-            long masterT1 = System.currentTimeMillis();
-            System.out.println( ", time taken : " + ( masterT1 - masterT0 ) + "ms" );
+            buildMasterTable( idSorter.iterator() );
+            System.out.println( throughput( masterT0, totalEntries ) );
         }
         catch( Exception e )
         {
@@ -920,9 +1061,8 @@ public class MavibotPartitionBuilder
             
             long rdnT0 = System.currentTimeMillis();
             System.out.print( "Building RDN index." );
-            buildRdnIndex( sortedDnSet );
-            long rdnT1 = System.currentTimeMillis();
-            System.out.println( ", time taken : " + ( rdnT1 - rdnT0 ) + "ms" );
+            buildRdnIndex( rdnSorter.iterator(), idSorter.iterator() );
+            System.out.println( throughput( rdnT0, totalEntries ) );
         }
         catch( Exception e )
         {
@@ -931,10 +1071,8 @@ public class MavibotPartitionBuilder
             return;
         }
         
-        // not needed anymore
-        System.out.println( "Clearing the sorted DN set." );
-        sortedDnSet.clear();
-        
+        List<Index<?, String>> indexes = new ArrayList<Index<?, String>>();
+
         for( Index<?, String> id : partition.getAllIndices() )
         {
             // RDN and presence indices are built separately
@@ -946,43 +1084,17 @@ public class MavibotPartitionBuilder
                 continue;
             }
             
-            String ignoreVal = null;
-            
-            if( SchemaConstants.OBJECT_CLASS_AT_OID.equals( oid ) )
-            {
-                // should be a normalized val
-                ignoreVal = "top";
-            }
-            
-            try
-            {
-                long indexT0 = System.currentTimeMillis();
-                System.out.print("Building index " + id.getAttribute().getName() );
-                buildIndex( id, ignoreVal );
-                long indexT1 = System.currentTimeMillis();
-                System.out.println( ", time taken : " + ( indexT1 - indexT0 ) + "ms" );
-            }
-            catch( Exception e )
-            {
-                e.printStackTrace();
-                LOG.warn( "Failed to build the index " + id.getAttribute().getName() );
-                LOG.warn( "", e );
-                return;
-            }
+            indexes.add( id );
         }
-        
+
         try
         {
-            System.out.print( "Building presence index..." );
-            long presenceT0 = System.currentTimeMillis();
-            buildPresenceIndex( userIndexItr );
-            long presenceT1 = System.currentTimeMillis();
-            System.out.println( ", time taken : " + ( presenceT1 - presenceT0 ) + "ms" );
+            buildIndexes( indexes, userIndexItr );
         }
         catch( Exception e )
         {
             e.printStackTrace();
-            LOG.warn( "Failed to build the presence index." );
+            LOG.warn( "Failed to build the indexes." );
             LOG.warn( "", e );
             return;
         }
@@ -990,235 +1102,433 @@ public class MavibotPartitionBuilder
         System.out.println( "Patition building complete." );
     }
 
-    
-    private void buildPresenceIndex( Iterator<String> itr ) throws Exception
+
+    /**
+     * Builds all the indexes, reading the master table once. The tuples of all the
+     * indexes are extracted from each entry, and sorted by one sorter per tree, the
+     * memory budget being shared between the sorters. Then each tree is built from
+     * its sorted tuples.
+     *
+     * @param indexes The indexes to build, except the RDN and presence indexes
+     * @param userIndexItr The user indexes OIDs, which are stored in the presence index
+     * @throws Exception If an index can't be built
+     */
+    private void buildIndexes( List<Index<?, String>> indexes, Iterator<String> userIndexItr ) throws Exception
     {
         Set<String> idxOids = new HashSet<String>();
         
-        while( itr.hasNext() )
+        while( userIndexItr.hasNext() )
         {
-            idxOids.add( itr.next() );
+            idxOids.add( userIndexItr.next() );
         }
 
-        BTree masterTree = rm.getManagedTree( masterTableName );
-
-        BTree fwdTree = rm.getManagedTree( ApacheSchemaConstants.APACHE_PRESENCE_AT_OID + MavibotIndex.FORWARD_BTREE );
-        boolean fwdDupsAllowed = fwdTree.isAllowDuplicates();
-        
-        Comparator fwdKeyComparator = fwdTree.getKeySerializer().getComparator();
-        
-        final Map<String, Set> fwdMap = new TreeMap<String, Set>();
+        List<IndexSorter> sorters = new ArrayList<IndexSorter>();
+        int sorterBufferSize = Math.max( MIN_SORT_BUFFER_SIZE, sortBufferSize / ( 2 * indexes.size() + 1 ) );
 
-        TupleCursor<String, Entry> cursor = masterTree.browse();
-        
-        while ( cursor.hasNext() )
+        try
         {
-            Tuple<String, Entry> t = cursor.next();
-            
-            Entry e = t.getValue();
-            
-            for( String oid : idxOids )
+            for ( Index<?, String> idx : indexes )
+            {
+                sorters.add( new IndexSorter( idx, sorterBufferSize ) );
+            }
+
+            BTree presenceTree = rm.getManagedTree( ApacheSchemaConstants.APACHE_PRESENCE_AT_OID
+                + MavibotIndex.FORWARD_BTREE );
+            Comparator presenceKeyComparator = presenceTree.getKeySerializer().getComparator();
+
+            ExternalSorter<Tuple> presenceSorter = new ExternalSorter<Tuple>(
+                new TupleComparator( presenceKeyComparator, null ), TupleCodec.INSTANCE, sorterBufferSize, tmpDir );
+
+            try
             {
-                Attribute at = e.get( oid );
-                if( at == null )
+                long extractT0 = System.currentTimeMillis();
+                System.out.print( "Extracting the index tuples..." );
+
+                BTree masterTree = rm.getManagedTree( masterTableName );
+                TupleCursor<String, Entry> cursor = masterTree.browse();
+
+                while ( cursor.hasNext() )
                 {
-                    continue;
+                    Tuple<String, Entry> t = cursor.next();
+                    Entry e = t.getValue();
+
+                    for ( IndexSorter sorter : sorters )
+                    {
+                        sorter.add( t.getKey(), e );
+                    }
+
+                    for ( String oid : idxOids )
+                    {
+                        if ( e.get( oid ) != null )
+                        {
+                            presenceSorter.add( new Tuple( oid, t.getKey() ) );
+                        }
+                    }
                 }
-                
-                Set<String> idSet = fwdMap.get( oid );
-                
-                if( idSet == null )
+
+                cursor.close();
+
+                System.out.println( throughput( extractT0, totalEntries ) );
+
+                for ( IndexSorter sorter : sorters )
                 {
-                    idSet = new TreeSet<String>();
-                    idSet.add( t.getKey() );
+                    long indexT0 = System.currentTimeMillis();
+                    System.out.print( "Building index " + sorter.type.getName() );
+                    sorter.build();
+                    System.out.println( throughput( indexT0, totalEntries ) );
+                }
+
+                System.out.print( "Building presence index..." );
+                long presenceT0 = System.currentTimeMillis();
 
-                    fwdMap.put( oid, idSet );
+                if ( presenceSorter.size() > 0 )
+                {
+                    build( group( presenceSorter.iterator(), presenceTree.isAllowDuplicates(),
+                        presenceKeyComparator, null ), presenceTree.getName() );
                 }
+
+                System.out.println( throughput( presenceT0, totalEntries ) );
+            }
+            finally
+            {
+                presenceSorter.close();
             }
         }
-        
-        cursor.close();
-        
-        Iterator<Tuple> tupleItr = new Iterator<Tuple>()
+        finally
         {
-            Iterator<java.util.Map.Entry<String, Set>> itr = fwdMap.entrySet().iterator();
-            
-            @Override
-            public Tuple next()
+            for ( IndexSorter sorter : sorters )
             {
-                java.util.Map.Entry<String, Set> e = itr.next();
-                
-                Tuple t = new Tuple();
-                t.setKey( e.getKey() );
-                t.setValue( e.getValue() );
-                
-                return t;
+                sorter.close();
             }
-            
-            
+        }
+    }
+
+
+    /**
+     * Groups the values of the sorted tuples having the same key. If the tree allows
+     * duplicates, the values are gathered in a Set, otherwise only the first value is kept.
+     *
+     * @param sortedItr The tuples, sorted by key
+     * @param dupsAllowed Tells if the tree allows duplicates
+     * @param keyComparator The keys comparator
+     * @param valueComparator The values comparator, or null for the natural order
+     * @return The grouped tuples
+     */
+    private Iterator<Tuple> group( final Iterator<Tuple> sortedItr, final boolean dupsAllowed,
+        final Comparator keyComparator, final Comparator valueComparator )
+    {
+        return new Iterator<Tuple>()
+        {
+            /** The first tuple of the next group */
+            private Tuple pending;
+
+
             @Override
             public boolean hasNext()
             {
-                return itr.hasNext();
+                return ( pending != null ) || sortedItr.hasNext();
             }
-            
+
+
+            @Override
+            public Tuple next()
+            {
+                Tuple first = ( pending != null ) ? pending : sortedItr.next();
+                pending = null;
+
+                Set values = null;
+
+                if ( dupsAllowed )
+                {
+                    values = ( valueComparator == null ) ? new TreeSet() : new TreeSet( valueComparator );
+                    values.add( first.getValue() );
+                }
+
+                while ( sortedItr.hasNext() )
+                {
+                    Tuple tuple = sortedItr.next();
+
+                    if ( keyComparator.compare( first.getKey(), tuple.getKey() ) != 0 )
+                    {
+                        pending = tuple;
+                        break;
+                    }
+
+                    if ( dupsAllowed )
+                    {
+                        values.add( tuple.getValue() );
+                    }
+                }
+
+                return dupsAllowed ? new Tuple( first.getKey(), values ) : first;
+            }
+
+
             @Override
             public void remove()
             {
+                throw new UnsupportedOperationException( "Not supported" );
             }
         };
-        
-        build( tupleItr, fwdTree.getName() );
     }
-    
-    
-    private void buildIndex( Index<?, String> idx, String ignoreVal ) throws Exception
+
+
+    /**
+     * Sorts the forward and reverse tuples of an index.
+     */
+    private class IndexSorter
     {
-        BTree masterTree = rm.getManagedTree( masterTableName );
-        
-        AttributeType type = idx.getAttribute();
-        boolean isBinary = type.getSyntax().isHumanReadable();
-        boolean singleValued = type.isSingleValued();
-        
-        BTree fwdTree = rm.getManagedTree( type.getOid() + MavibotIndex.FORWARD_BTREE );
-        boolean fwdDupsAllowed = fwdTree.isAllowDuplicates();
-        
-        Comparator fwdKeyComparator = fwdTree.getKeySerializer().getComparator();
-        
-        Set<Tuple> fwdSet = new TreeSet<Tuple>( new IndexTupleComparator( fwdKeyComparator ) );
-        
-        Map fwdMap = new TreeMap( fwdKeyComparator );
-        
-        BTree revTree = null;
-        boolean revDupsAllowed;
-        Set<Tuple> revSet = null;
-        Map<String,Tuple> revMap = null;
-        Comparator revValComparator = null;
-        
-        if( idx.hasReverse() )
+        /** The indexed attribute */
+        private final AttributeType type;
+
+        /** The value we don't index */
+        private final String ignoreVal;
+
+        /** The forward tree */
+        private final BTree fwdTree;
+
+        /** The forward keys comparator */
+        private final Comparator fwdKeyComparator;
+
+        /** The forward tuples */
+        private final ExternalSorter<Tuple> fwdSorter;
+
+        /** The reverse tree, if any */
+        private BTree revTree;
+
+        /** The reverse values comparator */
+        private Comparator revValComparator;
+
+        /** The reverse tuples */
+        private ExternalSorter<Tuple> revSorter;
+
+
+        private IndexSorter( Index<?, String> idx, int bufferSize ) throws Exception
         {
-            revTree = rm.getManagedTree( type.getOid() + MavibotIndex.REVERSE_BTREE );
-            revDupsAllowed = revTree.isAllowDuplicates();
-            Comparator revKeyComparator = revTree.getKeySerializer().getComparator();
-            revValComparator = revTree.getValueSerializer().getComparator();
-            revSet = new TreeSet<Tuple>( new IndexTupleComparator( revKeyComparator ) );
-            revMap = new TreeMap( revKeyComparator );
+            type = idx.getAttribute();
+
+            if( SchemaConstants.OBJECT_CLASS_AT_OID.equals( type.getOid() ) )
+            {
+                // should be a normalized val
+                ignoreVal = "top";
+            }
+            else
+            {
+                ignoreVal = null;
+            }
+
+            fwdTree = rm.getManagedTree( type.getOid() + MavibotIndex.FORWARD_BTREE );
+            fwdKeyComparator = fwdTree.getKeySerializer().getComparator();
+            fwdSorter = new ExternalSorter<Tuple>( new TupleComparator( fwdKeyComparator, null ),
+                TupleCodec.INSTANCE, bufferSize, tmpDir );
+
+            if( idx.hasReverse() )
+            {
+                revTree = rm.getManagedTree( type.getOid() + MavibotIndex.REVERSE_BTREE );
+                revValComparator = revTree.getValueSerializer().getComparator();
+                revSorter = new ExternalSorter<Tuple>( new TupleComparator(
+                    revTree.getKeySerializer().getComparator(), revValComparator ), TupleCodec.INSTANCE,
+                    bufferSize, tmpDir );
+            }
         }
-        
-        
-        TupleCursor<String, Entry> cursor = masterTree.browse();
-        
-        while ( cursor.hasNext() )
+
+
+        /**
+         * Adds the tuples of an entry.
+         */
+        private void add( String id, Entry e ) throws IOException
         {
-            Tuple<String, Entry> t = cursor.next();
-            
-            Entry e = t.getValue();
             Attribute at = e.get( type );
+
             if( at == null )
             {
-                continue;
+                return;
             }
-            
-            if( singleValued )
+
+            for( Value v : at )
             {
-                Value v = at.get();
                 Object normVal = v.getNormValue();
-                
-                if( ignoreVal != null )
+
+                if( ( ignoreVal != null ) && normVal.equals( ignoreVal ) )
                 {
-                    if( normVal.equals( ignoreVal ) )
-                    {
-                        continue;
-                    }
+                    continue;
                 }
-                
-                Tuple fwdTuple = new Tuple( normVal, t.getKey() );
-                fwdSet.add( fwdTuple );
-                
-                if( revTree != null )
+
+                fwdSorter.add( new Tuple( normVal, id ) );
+
+                if( revSorter != null )
                 {
-                    Tuple revTuple = new Tuple( t.getKey(), v.getNormValue() );
-                    revSet.add( revTuple );
+                    revSorter.add( new Tuple( id, normVal ) );
                 }
             }
-            else
+        }
+
+
+        /**
+         * Builds the forward and reverse trees.
+         */
+        private void build() throws Exception
+        {
+            if( fwdSorter.size() == 0 )
             {
-                for( Value v : at )
-                {
-                    Object val = v.getNormValue();
-                    
-                    if( ignoreVal != null )
-                    {
-                        if( val.equals( ignoreVal ) )
-                        {
-                            continue;
-                        }
-                    }
-                    
-                    Tuple fwdTuple = ( Tuple ) fwdMap.get( val );
-                    
-                    if( fwdTuple == null )
-                    {
-                        Set<String> idSet = new TreeSet<String>();
-                        idSet.add( t.getKey() );
-                        
-                        fwdTuple = new Tuple( val, idSet );
-                        fwdMap.put( val, fwdTuple );
-                    }
-                    else
-                    {
-                        Set<String> idSet = ( Set<String> ) fwdTuple.getValue();
-                        idSet.add( t.getKey() );
-                    }
-                    
-                    if( revTree != null )
-                    {
-                        Tuple revTuple = revMap.get( t.getKey() );
-                        
-                        if( revTuple == null )
-                        {
-                            Set valSet = new TreeSet( revValComparator );
-                            valSet.add( val );
-                            revTuple = new Tuple( t.getKey(), valSet );
-                        }
-                        else
-                        {
-                            Set valSet = ( Set ) revTuple.getValue();
-                            valSet.add( val );
-                        }
-                    }
-                }
+                return;
+            }
+
+            MavibotPartitionBuilder.this.build( group( fwdSorter.iterator(), fwdTree.isAllowDuplicates(),
+                fwdKeyComparator, null ), fwdTree.getName() );
+
+            if( revSorter != null )
+            {
+                MavibotPartitionBuilder.this.build( group( revSorter.iterator(), revTree.isAllowDuplicates(),
+                    revTree.getKeySerializer().getComparator(), revValComparator ), revTree.getName() );
             }
         }
-        
-        cursor.close();
-        
-        if( singleValued )
+
+
+        private void close() throws IOException
         {
-            if( fwdSet.isEmpty() )
+            fwdSorter.close();
+
+            if( revSorter != null )
             {
-                return;
+                revSorter.close();
             }
-            
-            build( fwdSet.iterator(), fwdTree.getName() );
-            
-            if( revTree != null )
+        }
+    }
+
+
+    /**
+     * Orders the index tuples by key, then by value.
+     */
+    private static class TupleComparator implements Comparator<Tuple>
+    {
+        private final Comparator keyComparator;
+
+        private final Comparator valueComparator;
+
+
+        private TupleComparator( Comparator keyComparator, Comparator valueComparator )
+        {
+            this.keyComparator = keyComparator;
+            this.valueComparator = valueComparator;
+        }
+
+
+        @Override
+        public int compare( Tuple t1, Tuple t2 )
+        {
+            int comparison = keyComparator.compare( t1.getKey(), t2.getKey() );
+
+            if ( comparison != 0 )
+            {
+                return comparison;
+            }
+
+            if ( valueComparator != null )
             {
-                build( revSet.iterator(), revTree.getName() );
+                return valueComparator.compare( t1.getValue(), t2.getValue() );
             }
+
+            return ( ( Comparable ) t1.getValue() ).compareTo( t2.getValue() );
+        }
+    }
+
+
+    /**
+     * Writes and reads the index tuples, whose keys and values are Strings or byte[].
+     */
+    private static class TupleCodec implements ExternalSorter.Codec<Tuple>
+    {
+        private static final TupleCodec INSTANCE = new TupleCodec();
+
+
+        @Override
+        public void write( DataOutput out, Tuple tuple ) throws IOException
+        {
+            writeObject( out, tuple.getKey() );
+            writeObject( out, tuple.getValue() );
+        }
+
+
+        @Override
+        public Tuple read( DataInput in ) throws IOException
+        {
+            Object key = readObject( in );
+            Object value = readObject( in );
+
+            return new Tuple( key, value );
         }
-        else
+
+
+        private static void writeObject( DataOutput out, Object object ) throws IOException
         {
-            if( fwdMap.isEmpty() )
+            byte[] bytes;
+
+            if ( object instanceof String )
             {
-                return;
+                out.writeBoolean( true );
+                bytes = Strings.getBytesUtf8( ( String ) object );
             }
-            
-            build( fwdMap.values().iterator(), fwdTree.getName() );
+            else if ( object instanceof byte[] )
+            {
+                out.writeBoolean( false );
+                bytes = ( byte[] ) object;
+            }
+            else
+            {
+                throw new IOException( "Cannot sort the index value " + object );
+            }
+
+            out.writeInt( bytes.length );
+            out.write( bytes );
+        }
+
+
+        private static Object readObject( DataInput in ) throws IOException
+        {
+            boolean isString = in.readBoolean();
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully( bytes );
+
+            return isString ? Strings.utf8ToString( bytes ) : bytes;
+        }
+    }
+
 
-            if( revTree != null )
+    /**
+     * Writes and reads the DN tuples. The DN is parsed again when read.
+     */
+    private class DnTupleCodec implements ExternalSorter.Codec<DnTuple>
+    {
+        @Override
+        public void write( DataOutput out, DnTuple dt ) throws IOException
+        {
+            out.writeUTF( dt.getDn().getName() );
+            out.writeLong( dt.getOffset() );
+            out.writeInt( dt.getLen() );
+            out.writeUTF( dt.getId() );
+            out.writeUTF( dt.getParentId() );
+            out.writeInt( dt.getNbChildren() );
+            out.writeInt( dt.getNbDecendents() );
+        }
+
+
+        @Override
+        public DnTuple read( DataInput in ) throws IOException
+        {
+            try
             {
-                build( revMap.values().iterator(), revTree.getName() );
+                Dn dn = new Dn( schemaManager, in.readUTF() );
+                DnTuple dt = new DnTuple( dn, in.readLong(), in.readInt(), in.readUTF() );
+                dt.setParentId( in.readUTF() );
+                dt.setNbChildren( in.readInt() );
+                dt.setNbDecendents( in.readInt() );
+
+                return dt;
+            }
+            catch ( LdapInvalidDnException lide )
+            {
+                throw new IOException( lide.getMessage(), lide );
             }
         }
     }
@@ -1333,6 +1643,7 @@ public class MavibotPartitionBuilder
         int rid = 1;
         boolean cleanOutDir = false;
         boolean verifyMasterTable = false;
+        int sortBufferSize = ExternalSorter.DEFAULT_MAX_RECORDS;
 
         if ( args.length < 2 )
         {
@@ -1379,6 +1690,10 @@ public class MavibotPartitionBuilder
                     configDir = getArgAt( ++i, opt, args );
                     break;
 
+                case SORT_BUFFER_SIZE :
+                    sortBufferSize = Integer.parseInt( getArgAt( ++i, opt, args ) );
+                    break;
+
                 case UNKNOWN :
                     System.out.println( "Unknown option " + args[i] );
                     continue;
@@ -1413,6 +1728,7 @@ public class MavibotPartitionBuilder
         }
         
         MavibotPartitionBuilder builder = new MavibotPartitionBuilder( configDir, inFile, outDirPath, numKeysInNode, rid );
+        builder.setSortBufferSize( sortBufferSize );
         
         long start = System.currentTimeMillis();
         
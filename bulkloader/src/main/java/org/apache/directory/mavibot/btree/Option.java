@@ -33,6 +33,7 @@ package org.apache.directory.mavibot.btree;
  * <li>-o : the directory where the resulting partition will be stored</li>
  * <li>-rid : the replica ID</li>
  * <li>-verify : check that we have loaded all the entries in the MAsterTable</li>
+ * <li>-m : the number of records sorted in memory before being written to a temporary file</li>
  * </ul>
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
@@ -54,6 +55,8 @@ public enum Option
     CONFIG_DIR("-c", "The configuration partition directory"),
 
     VERIFY_MASTER_TABLE("-verify", "(optional) Verifies the master table by just browsing (entries are not verified)"),
+
+    SORT_BUFFER_SIZE("-m", "(optional) The number of records sorted in memory before being written to a temporary file, default is 100000"),
     
     UNKNOWN(null, "Unknown Option");
 
@@ -124,6 +127,11 @@ public enum Option
             return CONFIG_DIR;
         }
 
+        if ( opt.equalsIgnoreCase( SORT_BUFFER_SIZE.text ) )
+        {
+            return SORT_BUFFER_SIZE;
+        }
+
         return UNKNOWN;
     }
 }
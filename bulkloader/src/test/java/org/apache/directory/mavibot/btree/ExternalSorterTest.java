@@ -0,0 +1,172 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.mavibot.btree;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Tests for ExternalSorter.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ExternalSorterTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final ExternalSorter.Codec<Integer> CODEC = new ExternalSorter.Codec<Integer>()
+    {
+        @Override
+        public void write( DataOutput out, Integer record ) throws IOException
+        {
+            out.writeInt( record );
+        }
+
+
+        @Override
+        public Integer read( DataInput in ) throws IOException
+        {
+            return in.readInt();
+        }
+    };
+
+    private static final Comparator<Integer> ORDER = new Comparator<Integer>()
+    {
+        @Override
+        public int compare( Integer i1, Integer i2 )
+        {
+            return i1.compareTo( i2 );
+        }
+    };
+
+
+    private List<Integer> sort( int nbRecords, int maxRecords, File tmpDir ) throws IOException
+    {
+        return sort( nbRecords, maxRecords, ExternalSorter.DEFAULT_MAX_FAN_IN, tmpDir );
+    }
+
+
+    private List<Integer> sort( int nbRecords, int maxRecords, int maxFanIn, File tmpDir ) throws IOException
+    {
+        Random random = new Random( 42 );
+        List<Integer> expected = new ArrayList<Integer>();
+
+        try ( ExternalSorter<Integer> sorter = new ExternalSorter<Integer>( ORDER, CODEC, maxRecords, maxFanIn,
+            tmpDir ) )
+        {
+            for ( int i = 0; i < nbRecords; i++ )
+            {
+                int value = random.nextInt( 1000 );
+                expected.add( value );
+                sorter.add( value );
+            }
+
+            assertEquals( nbRecords, sorter.size() );
+            assertEquals( ( nbRecords - 1 ) / maxRecords, sorter.getNbRuns() );
+
+            Collections.sort( expected );
+
+            // The sorted records can be read several times
+            for ( int pass = 0; pass < 2; pass++ )
+            {
+                List<Integer> sorted = new ArrayList<Integer>();
+                Iterator<Integer> itr = sorter.iterator();
+
+                while ( itr.hasNext() )
+                {
+                    sorted.add( itr.next() );
+                }
+
+                assertEquals( expected, sorted );
+            }
+        }
+
+        return expected;
+    }
+
+
+    @Test
+    public void testInMemory() throws Exception
+    {
+        File tmpDir = folder.newFolder( "in-memory" );
+
+        sort( 500, 1000, tmpDir );
+        sort( 0, 1000, tmpDir );
+
+        assertEquals( 0, tmpDir.list().length );
+    }
+
+
+    @Test
+    public void testWithRuns() throws Exception
+    {
+        File tmpDir = folder.newFolder( "runs" );
+
+        sort( 10000, 128, tmpDir );
+        sort( 1024, 128, tmpDir );
+
+        // The runs are deleted when the sorter is closed
+        assertEquals( 0, tmpDir.list().length );
+    }
+
+
+    @Test
+    public void testMultiPassMerge() throws Exception
+    {
+        File tmpDir = folder.newFolder( "multi-pass" );
+
+        // 79 runs merged 3 by 3, 5 runs merged 2 by 2
+        sort( 10000, 128, 3, tmpDir );
+        sort( 640, 128, 2, tmpDir );
+
+        // The intermediate runs are deleted as well
+        assertEquals( 0, tmpDir.list().length );
+    }
+
+
+    @Test
+    public void testEmptyRun() throws Exception
+    {
+        File tmpDir = folder.newFolder( "empty" );
+
+        try ( ExternalSorter<Integer> sorter = new ExternalSorter<Integer>( ORDER, CODEC, 10, tmpDir ) )
+        {
+            assertFalse( sorter.iterator().hasNext() );
+        }
+    }
+}
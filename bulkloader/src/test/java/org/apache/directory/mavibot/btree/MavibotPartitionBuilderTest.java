@@ -22,6 +22,8 @@ package org.apache.directory.mavibot.btree;
 
 import java.io.File;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
 import org.apache.directory.api.util.FileUtils;
 import org.apache.directory.server.config.LdifConfigExtractor;
@@ -80,4 +82,56 @@ public class MavibotPartitionBuilderTest
         BTree masterTree = rm.getManagedTree( builder.getMasterTableName() );
         assertEquals( builder.getTotalEntries(), masterTree.getNbElems() );
     }
+    
+    
+    private String ou( String dn, String ou )
+    {
+        return "dn: " + dn + "\n"
+            + "objectClass: top\n"
+            + "objectClass: organizationalUnit\n"
+            + "ou: " + ou + "\n\n";
+    }
+    
+    
+    private String person( String dn, String cn )
+    {
+        return "dn: " + dn + "\n"
+            + "objectClass: top\n"
+            + "objectClass: person\n"
+            + "cn: " + cn + "\n"
+            + "sn: " + cn + "\n\n";
+    }
+    
+    
+    @Test
+    public void testInterleavedSubtrees() throws Exception
+    {
+        // The sibling subtrees are interleaved, and some children come before their parent
+        String ldif = ou( "ou=builder", "builder" )
+            + ou( "ou=b,ou=builder", "b" )
+            + person( "cn=z,ou=a,ou=builder", "z" )
+            + ou( "ou=a,ou=builder", "a" )
+            + person( "cn=y,ou=b,ou=builder", "y" )
+            + person( "cn=x,ou=a,ou=builder", "x" )
+            + person( "cn=w,ou=c,ou=a,ou=builder", "w" )
+            + ou( "ou=c,ou=a,ou=builder", "c" )
+            + person( "cn=v,ou=b,ou=builder", "v" )
+            + ou( "ou=ab,ou=builder", "ab" )
+            + person( "cn=u,ou=ab,ou=builder", "u" );
+
+        File file = new File( outDir, "interleaved.ldif" );
+        Files.write( file.toPath(), ldif.getBytes( StandardCharsets.UTF_8 ) );
+
+        MavibotPartitionBuilder builder = new MavibotPartitionBuilder( configFile, file.getAbsolutePath(), outDir.getAbsolutePath() );
+        
+        // Sort the DNs in several runs
+        builder.setSortBufferSize( 2 );
+        builder.buildPartition();
+        
+        assertEquals( 11, builder.getTotalEntries() );
+        
+        RecordManager rm = builder.getRm();
+        BTree masterTree = rm.getManagedTree( builder.getMasterTableName() );
+        assertEquals( 11, masterTree.getNbElems() );
+    }
 }
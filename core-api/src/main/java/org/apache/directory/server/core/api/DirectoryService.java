@@ -579,6 +579,21 @@ public interface DirectoryService extends ServerEntryFactory
     long getSyncPeriodMillis();
 
 
+    /**
+     * @return The memory, in bytes, a sorted search can use before writing the entries to sort
+     * in temporary files
+     */
+    long getSortMemoryBudget();
+
+
+    /**
+     * Sets the memory a sorted search can use before writing the entries to sort in temporary files.
+     *
+     * @param sortMemoryBudget The memory budget, in bytes
+     */
+    void setSortMemoryBudget( long sortMemoryBudget );
+
+
     /**
      * @return The AccessControl AdministrativePoint cache
      */
@@ -218,7 +218,8 @@ public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements E
      */
     public void after( Entry element ) throws LdapException, CursorException
     {
-        throw new UnsupportedOperationException();
+        wrapped.after( element );
+        prefetched = null;
     }
 
 
@@ -246,7 +247,8 @@ public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements E
      */
     public void before( Entry element ) throws LdapException, CursorException
     {
-        throw new UnsupportedOperationException();
+        wrapped.before( element );
+        prefetched = null;
     }
 
 
@@ -25,13 +25,16 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.message.Control;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 
 
@@ -83,6 +86,12 @@ public abstract class AbstractOperationContext implements OperationContext
     /** The partition this operation will be applied on */
     protected Partition partition;
 
+    /** The entries already looked up during this operation, created on demand */
+    private Map<Dn, Entry> entryMemo;
+
+    /** The nexus write count when the memoized entries have been read */
+    private long entryMemoWriteCount;
+
 
     /**
      * Creates a new instance of AbstractOperationContext.
@@ -386,6 +395,76 @@ public abstract class AbstractOperationContext implements OperationContext
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry lookupEntry( Dn dn ) throws LdapException
+    {
+        PartitionNexus nexus = session.getDirectoryService().getPartitionNexus();
+
+        // Any write since the entries were read, done by this operation or by
+        // a nested one, may have made them stale
+        long writeCount = nexus.getWriteCount();
+
+        if ( ( entryMemo != null ) && ( writeCount != entryMemoWriteCount ) )
+        {
+            entryMemo.clear();
+        }
+
+        entryMemoWriteCount = writeCount;
+
+        if ( entryMemo != null )
+        {
+            Entry memoized = entryMemo.get( dn );
+
+            if ( memoized != null )
+            {
+                return new ClonedServerEntry( memoized );
+            }
+        }
+        else
+        {
+            entryMemo = new HashMap<>( 4 );
+        }
+
+        LookupOperationContext lookupContext = new LookupOperationContext( session, dn,
+            SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+        lookupContext.setPartition( partition );
+        lookupContext.setTransaction( transaction );
+
+        Entry entry = nexus.lookup( lookupContext );
+
+        if ( entry != null )
+        {
+            // Keep our own copy, the returned entry belongs to the caller
+            entryMemo.put( dn, entry.clone() );
+        }
+
+        return entry;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void invalidateEntry( Dn dn )
+    {
+        if ( entryMemo != null )
+        {
+            if ( dn == null )
+            {
+                entryMemo.clear();
+            }
+            else
+            {
+                entryMemo.remove( dn );
+            }
+        }
+    }
+
+
     // TODO - need synchronization here and where we update links
     /**
      * {@inheritDoc}
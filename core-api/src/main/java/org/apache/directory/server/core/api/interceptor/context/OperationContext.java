@@ -250,6 +250,29 @@ public interface OperationContext
     Entry lookup( LookupOperationContext lookupContext ) throws LdapException;
 
 
+    /**
+     * Looks up an entry with all its attributes directly in the nexus, within this
+     * operation's partition and transaction. The result is memoized for the duration
+     * of the operation, so that the interceptors needing the same entry (the bound
+     * user, the modified entry...) don't fetch it again and again. The memo is
+     * invalidated by any write applied through the nexus, including the ones done
+     * by a nested operation context.
+     *
+     * @param dn The entry's Dn
+     * @return A copy of the entry, that the caller is free to modify
+     * @throws LdapException If the entry can't be found
+     */
+    Entry lookupEntry( Dn dn ) throws LdapException;
+
+
+    /**
+     * Removes an entry from the memo maintained by {@link #lookupEntry(Dn)}.
+     *
+     * @param dn The Dn of the entry which has been modified, or null to forget all the entries
+     */
+    void invalidateEntry( Dn dn );
+
+
     /**
      * Process the delete for inner operations. This is only valid for SubschemaSubentry
      * operations, and will most certainly be removed later.
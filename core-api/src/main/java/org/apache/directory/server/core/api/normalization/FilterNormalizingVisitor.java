@@ -66,6 +66,12 @@ public class FilterNormalizingVisitor implements FilterVisitor
     /** logger used by this class */
     private static final Logger LOG = LoggerFactory.getLogger( FilterNormalizingVisitor.class );
 
+    /**
+     * Set on the root of a normalized filter : its values have already been converted
+     * to the syntax of their AttributeType, there is no need to check them again
+     */
+    public static final String NORMALIZED_ANNOTATION = "normalized";
+
     /** the name component normalizer used by this visitor */
     private final NameComponentNormalizer ncn;
 
@@ -146,7 +152,9 @@ public class FilterNormalizingVisitor implements FilterVisitor
             }
             else
             {
-                normalized = ( Value ) ncn.normalizeByName( attributeType.getOid(), value.getBytes() );
+                // The binary value is made schema aware, as the SchemaInterceptor would do
+                Value normalizedBytes = ( Value ) ncn.normalizeByName( attributeType.getOid(), value.getBytes() );
+                normalized = new Value( attributeType, normalizedBytes.getBytes() );
             }
 
             return normalized;
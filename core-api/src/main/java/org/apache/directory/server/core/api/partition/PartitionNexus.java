@@ -100,6 +100,15 @@ public interface PartitionNexus extends Partition
     Partition getPartition( Dn dn ) throws LdapException;
 
 
+    /**
+     * Gives the number of writes (add, delete, modify, move and rename) applied through
+     * the nexus so far. An entry read before this number changed may be stale.
+     *
+     * @return The number of writes applied through the nexus
+     */
+    long getWriteCount();
+
+
     /**
      * Finds the distinguished name of the suffix that would hold an entry with
      * the supplied distinguished name parameter.  If the Dn argument does not
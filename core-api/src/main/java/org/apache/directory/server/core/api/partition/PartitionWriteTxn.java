@@ -20,6 +20,8 @@
 package org.apache.directory.server.core.api.partition;
 
 import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
  * The Write Transaction interface
@@ -28,12 +30,68 @@ import java.io.IOException;
  */
 public class PartitionWriteTxn implements PartitionTxn
 {
+    /** The actions to run if the transaction is aborted */
+    private Set<Runnable> abortActions;
+
+
+    /**
+     * Registers an action to run if this transaction is aborted. It's used by the
+     * partitions to discard the in-memory data they have updated along with the
+     * transaction. An action registered twice is run once.
+     *
+     * @param action The action to run
+     */
+    public synchronized void addAbortAction( Runnable action )
+    {
+        if ( abortActions == null )
+        {
+            abortActions = new LinkedHashSet<>();
+        }
+
+        abortActions.add( action );
+    }
+
+
+    /**
+     * Runs the registered abort actions, and forget them.
+     */
+    private void runAbortActions()
+    {
+        Set<Runnable> actions;
+
+        synchronized ( this )
+        {
+            actions = abortActions;
+            abortActions = null;
+        }
+
+        if ( actions != null )
+        {
+            for ( Runnable action : actions )
+            {
+                action.run();
+            }
+        }
+    }
+
+
+    /**
+     * Forget the registered abort actions, the transaction being committed.
+     */
+    private synchronized void clearAbortActions()
+    {
+        abortActions = null;
+    }
+
+
     /**
      * {@inheritDoc}
      */
     @Override
-    public void commit() throws IOException
+    public final void commit() throws IOException
     {
+        doCommit();
+        clearAbortActions();
     }
 
 
@@ -41,7 +99,38 @@ public class PartitionWriteTxn implements PartitionTxn
      * {@inheritDoc}
      */
     @Override
-    public void abort() throws IOException
+    public final void abort() throws IOException
+    {
+        try
+        {
+            doAbort();
+        }
+        finally
+        {
+            // The in-memory data must be discarded even if the rollback failed
+            runAbortActions();
+        }
+    }
+
+
+    /**
+     * Applies the changes made in this transaction. The implementations storing
+     * their data in a backend override it.
+     *
+     * @throws IOException If the changes can't be applied
+     */
+    protected void doCommit() throws IOException
+    {
+    }
+
+
+    /**
+     * Drops the changes made in this transaction. The implementations storing
+     * their data in a backend override it. The abort actions are run afterwards.
+     *
+     * @throws IOException If the changes can't be dropped
+     */
+    protected void doAbort() throws IOException
     {
     }
 
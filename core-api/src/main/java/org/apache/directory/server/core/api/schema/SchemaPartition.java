@@ -32,6 +32,7 @@ import org.apache.directory.api.ldap.model.entry.ModificationOperation;
 import org.apache.directory.api.ldap.model.exception.LdapContextNotEmptyException;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.filter.PresenceNode;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
@@ -230,6 +231,8 @@ public final class SchemaPartition extends AbstractPartition
             wrapped.setSuffixDn( schemaDN );
             wrapped.setSchemaManager( schemaManager );
 
+            // The wrapped partition is loaded here, on the startup thread, before any
+            // other component uses the schemaManager : relaxing it is not seen elsewhere
             try
             {
                 // The schemaManager *must* be relaxed, otherwise disabled schema
@@ -238,16 +241,23 @@ public final class SchemaPartition extends AbstractPartition
                 
                 // Load the schemas
                 wrapped.initialize();
-                
-                // Now we can get the schemaManager back to strict mode
-                schemaManager.setStrict();
 
                 synchronizer = new RegistrySynchronizerAdaptor( schemaManager );
             }
+            catch ( LdapException le )
+            {
+                LOG.error( I18n.err( I18n.ERR_90 ), le );
+                throw le;
+            }
             catch ( Exception e )
             {
                 LOG.error( I18n.err( I18n.ERR_90 ), e );
-                throw new RuntimeException( e );
+                throw new LdapOtherException( e.getMessage(), e );
+            }
+            finally
+            {
+                // Now we can get the schemaManager back to strict mode
+                schemaManager.setStrict();
             }
 
             schemaModificationDN = new Dn( schemaManager, SchemaConstants.SCHEMA_MODIFICATIONS_DN );
@@ -0,0 +1,548 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.api.schema;
+
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.registries.AbstractSchemaLoader;
+import org.apache.directory.api.ldap.model.schema.registries.DefaultSchema;
+import org.apache.directory.api.ldap.model.schema.registries.Schema;
+import org.apache.directory.api.ldap.model.schema.registries.SchemaLoader;
+import org.apache.directory.api.util.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A SchemaLoader reading all the schema elements from a single binary snapshot
+ * file, instead of parsing the hundreds of LDIF files of the schema partition.
+ * <br>
+ * The snapshot is built from another SchemaLoader, and stored with a checksum
+ * of the schema partition it has been built from : when the schema partition
+ * is modified, the checksum does not match anymore and the snapshot has to be
+ * built again.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SchemaSnapshotLoader extends AbstractSchemaLoader
+{
+    /** The class logger */
+    private static final Logger LOG = LoggerFactory.getLogger( SchemaSnapshotLoader.class );
+
+    /** The magic number starting a snapshot file */
+    private static final int MAGIC = 0x41445353;
+
+    /** The snapshot format version. To be incremented when the format changes */
+    private static final int VERSION = 1;
+
+    /** The schema elements kinds, in the order they are stored */
+    private enum Kind
+    {
+        COMPARATORS,
+        SYNTAX_CHECKERS,
+        NORMALIZERS,
+        SYNTAXES,
+        MATCHING_RULES,
+        ATTRIBUTE_TYPES,
+        MATCHING_RULE_USES,
+        NAME_FORMS,
+        DIT_CONTENT_RULES,
+        DIT_STRUCTURE_RULES,
+        OBJECT_CLASSES
+    }
+
+    /** The schema elements entries, per schema name and kind */
+    private final Map<String, Map<Kind, List<Entry>>> elements = new HashMap<>();
+
+
+    private SchemaSnapshotLoader()
+    {
+        super();
+    }
+
+
+    /**
+     * Creates a SchemaSnapshotLoader containing all the schema elements of a given loader
+     *
+     * @param loader The loader to read the schemas from
+     * @return A SchemaSnapshotLoader which can be written on disk
+     * @throws LdapException If the schema elements cannot be read
+     * @throws IOException If the schema elements cannot be read
+     */
+    public static SchemaSnapshotLoader copyOf( SchemaLoader loader ) throws LdapException, IOException
+    {
+        SchemaSnapshotLoader snapshot = new SchemaSnapshotLoader();
+
+        for ( Schema schema : loader.getAllSchemas() )
+        {
+            Map<Kind, List<Entry>> schemaElements = new EnumMap<>( Kind.class );
+
+            for ( Kind kind : Kind.values() )
+            {
+                schemaElements.put( kind, load( loader, kind, schema ) );
+            }
+
+            snapshot.addSchema( schema.getSchemaName(), schema.getOwner(), schema.getDependencies(),
+                schema.isDisabled(), schemaElements );
+        }
+
+        return snapshot;
+    }
+
+
+    private static List<Entry> load( SchemaLoader loader, Kind kind, Schema schema ) throws LdapException, IOException
+    {
+        switch ( kind )
+        {
+            case COMPARATORS:
+                return loader.loadComparators( schema );
+
+            case SYNTAX_CHECKERS:
+                return loader.loadSyntaxCheckers( schema );
+
+            case NORMALIZERS:
+                return loader.loadNormalizers( schema );
+
+            case SYNTAXES:
+                return loader.loadSyntaxes( schema );
+
+            case MATCHING_RULES:
+                return loader.loadMatchingRules( schema );
+
+            case ATTRIBUTE_TYPES:
+                return loader.loadAttributeTypes( schema );
+
+            case MATCHING_RULE_USES:
+                return loader.loadMatchingRuleUses( schema );
+
+            case NAME_FORMS:
+                return loader.loadNameForms( schema );
+
+            case DIT_CONTENT_RULES:
+                return loader.loadDitContentRules( schema );
+
+            case DIT_STRUCTURE_RULES:
+                return loader.loadDitStructureRules( schema );
+
+            default:
+                return loader.loadObjectClasses( schema );
+        }
+    }
+
+
+    private void addSchema( String name, String owner, String[] dependencies, boolean disabled,
+        Map<Kind, List<Entry>> schemaElements )
+    {
+        Schema schema = new DefaultSchema( this, name, owner, dependencies, disabled );
+        schemaMap.put( name, schema );
+        elements.put( Strings.toLowerCaseAscii( name ), schemaElements );
+    }
+
+
+    /**
+     * Reads a snapshot file. The file is memory mapped.
+     *
+     * @param snapshotFile The snapshot file
+     * @param checksum The expected checksum of the schema partition
+     * @return The loader, or null if the file does not exist, is corrupted, or has been built
+     * from another version of the schema partition
+     */
+    public static SchemaSnapshotLoader read( File snapshotFile, String checksum )
+    {
+        if ( !snapshotFile.isFile() )
+        {
+            return null;
+        }
+
+        try ( FileChannel channel = FileChannel.open( snapshotFile.toPath(), StandardOpenOption.READ ) )
+        {
+            final MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0L, channel.size() );
+
+            InputStream mapped = new InputStream()
+            {
+                @Override
+                public int read()
+                {
+                    return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+                }
+
+
+                @Override
+                public int read( byte[] bytes, int offset, int length )
+                {
+                    if ( length == 0 )
+                    {
+                        return 0;
+                    }
+
+                    if ( !buffer.hasRemaining() )
+                    {
+                        return -1;
+                    }
+
+                    int nbRead = Math.min( length, buffer.remaining() );
+                    buffer.get( bytes, offset, nbRead );
+
+                    return nbRead;
+                }
+            };
+
+            try ( ObjectInputStream in = new ObjectInputStream( mapped ) )
+            {
+                if ( ( in.readInt() != MAGIC ) || ( in.readInt() != VERSION ) || !checksum.equals( in.readUTF() ) )
+                {
+                    LOG.info( "The schema snapshot {} is stale", snapshotFile );
+
+                    return null;
+                }
+
+                SchemaSnapshotLoader snapshot = new SchemaSnapshotLoader();
+                int nbSchemas = in.readInt();
+
+                for ( int i = 0; i < nbSchemas; i++ )
+                {
+                    String name = in.readUTF();
+                    String owner = in.readBoolean() ? in.readUTF() : null;
+                    String[] dependencies = new String[in.readInt()];
+
+                    for ( int j = 0; j < dependencies.length; j++ )
+                    {
+                        dependencies[j] = in.readUTF();
+                    }
+
+                    boolean disabled = in.readBoolean();
+                    Map<Kind, List<Entry>> schemaElements = new EnumMap<>( Kind.class );
+
+                    for ( Kind kind : Kind.values() )
+                    {
+                        int nbEntries = in.readInt();
+                        List<Entry> entries = new ArrayList<>( nbEntries );
+
+                        for ( int j = 0; j < nbEntries; j++ )
+                        {
+                            Entry entry = new DefaultEntry();
+                            entry.readExternal( in );
+                            entries.add( entry );
+                        }
+
+                        schemaElements.put( kind, entries );
+                    }
+
+                    snapshot.addSchema( name, owner, dependencies, disabled, schemaElements );
+                }
+
+                return snapshot;
+            }
+        }
+        catch ( IOException | ClassNotFoundException | RuntimeException e )
+        {
+            LOG.warn( "Cannot read the schema snapshot {}", snapshotFile, e );
+
+            return null;
+        }
+    }
+
+
+    /**
+     * Writes the snapshot in a file. The snapshot is written in a temporary file
+     * which then replaces the previous snapshot, if any.
+     *
+     * @param snapshotFile The snapshot file
+     * @param checksum The checksum of the schema partition the snapshot has been built from
+     * @throws IOException If the snapshot cannot be written
+     */
+    public void write( File snapshotFile, String checksum ) throws IOException
+    {
+        File tmpFile = new File( snapshotFile.getPath() + ".tmp" );
+
+        try ( ObjectOutputStream out = new ObjectOutputStream(
+            new BufferedOutputStream( Files.newOutputStream( tmpFile.toPath() ) ) ) )
+        {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeUTF( checksum );
+            out.writeInt( schemaMap.size() );
+
+            for ( Schema schema : schemaMap.values() )
+            {
+                out.writeUTF( schema.getSchemaName() );
+
+                if ( schema.getOwner() == null )
+                {
+                    out.writeBoolean( false );
+                }
+                else
+                {
+                    out.writeBoolean( true );
+                    out.writeUTF( schema.getOwner() );
+                }
+
+                String[] dependencies = schema.getDependencies();
+
+                if ( dependencies == null )
+                {
+                    out.writeInt( 0 );
+                }
+                else
+                {
+                    out.writeInt( dependencies.length );
+
+                    for ( String dependency : dependencies )
+                    {
+                        out.writeUTF( dependency );
+                    }
+                }
+
+                out.writeBoolean( schema.isDisabled() );
+
+                Map<Kind, List<Entry>> schemaElements = elements.get( Strings.toLowerCaseAscii( schema.getSchemaName() ) );
+
+                for ( Kind kind : Kind.values() )
+                {
+                    List<Entry> entries = schemaElements.get( kind );
+                    out.writeInt( entries.size() );
+
+                    for ( Entry entry : entries )
+                    {
+                        entry.writeExternal( out );
+                    }
+                }
+            }
+        }
+
+        Files.move( tmpFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE );
+    }
+
+
+    /**
+     * Computes the checksum of a schema partition directory, from the path and
+     * the content of all its files. Reading the files is much cheaper than parsing
+     * them, and any modification is detected, even when the size and the
+     * modification date of the file are preserved.
+     *
+     * @param schemaDirectory The schema partition directory
+     * @return The checksum
+     * @throws IOException If the directory cannot be read
+     */
+    public static String checksum( File schemaDirectory ) throws IOException
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+            update( digest, schemaDirectory, "" );
+
+            return Strings.dumpBytes( digest.digest() );
+        }
+        catch ( NoSuchAlgorithmException nsae )
+        {
+            throw new IOException( nsae.getMessage(), nsae );
+        }
+    }
+
+
+    private static void update( MessageDigest digest, File directory, String path ) throws IOException
+    {
+        File[] files = directory.listFiles();
+
+        if ( files == null )
+        {
+            throw new IOException( "Cannot list the content of " + directory );
+        }
+
+        // Make the checksum independent of the listing order
+        Arrays.sort( files );
+
+        for ( File file : files )
+        {
+            String filePath = path + '/' + file.getName();
+
+            if ( file.isDirectory() )
+            {
+                update( digest, file, filePath );
+            }
+            else
+            {
+                byte[] content = Files.readAllBytes( file.toPath() );
+
+                digest.update( filePath.getBytes( StandardCharsets.UTF_8 ) );
+                digest.update( ByteBuffer.allocate( 4 ).putInt( content.length ).array() );
+                digest.update( content );
+            }
+        }
+    }
+
+
+    private List<Entry> getElements( Kind kind, Schema... schemas )
+    {
+        List<Entry> entries = new ArrayList<>();
+
+        if ( schemas == null )
+        {
+            return entries;
+        }
+
+        for ( Schema schema : schemas )
+        {
+            Map<Kind, List<Entry>> schemaElements = elements.get( Strings.toLowerCaseAscii( schema.getSchemaName() ) );
+
+            if ( schemaElements != null )
+            {
+                entries.addAll( schemaElements.get( kind ) );
+            }
+        }
+
+        return entries;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadComparators( Schema... schemas ) throws LdapException, IOException
+    {
+        return getElements( Kind.COMPARATORS, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadSyntaxCheckers( Schema... schemas ) throws LdapException, IOException
+    {
+        return getElements( Kind.SYNTAX_CHECKERS, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadNormalizers( Schema... schemas ) throws LdapException, IOException
+    {
+        return getElements( Kind.NORMALIZERS, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadSyntaxes( Schema... schemas ) throws LdapException, IOException
+    {
+        return getElements( Kind.SYNTAXES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadMatchingRules( Schema... schemas ) throws LdapException, IOException
+    {
+        return getElements( Kind.MATCHING_RULES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadAttributeTypes( Schema... schemas ) throws LdapException, IOException
+    {
+        return getElements( Kind.ATTRIBUTE_TYPES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadMatchingRuleUses( Schema... schemas ) throws LdapException, IOException
+    {
+        return getElements( Kind.MATCHING_RULE_USES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadNameForms( Schema... schemas ) throws LdapException, IOException
+    {
+        return getElements( Kind.NAME_FORMS, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadDitContentRules( Schema... schemas ) throws LdapException, IOException
+    {
+        return getElements( Kind.DIT_CONTENT_RULES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadDitStructureRules( Schema... schemas ) throws LdapException, IOException
+    {
+        return getElements( Kind.DIT_STRUCTURE_RULES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadObjectClasses( Schema... schemas ) throws LdapException, IOException
+    {
+        return getElements( Kind.OBJECT_CLASSES, schemas );
+    }
+}
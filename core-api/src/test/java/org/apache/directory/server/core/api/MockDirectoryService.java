@@ -477,6 +477,17 @@ public class MockDirectoryService implements DirectoryService
     }
 
 
+    public long getSortMemoryBudget()
+    {
+        return 0;
+    }
+
+
+    public void setSortMemoryBudget( long sortMemoryBudget )
+    {
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -152,6 +152,17 @@ public class MockOperation implements OperationContext
     }
 
 
+    public Entry lookupEntry( Dn dn ) throws LdapException
+    {
+        return null;
+    }
+
+
+    public void invalidateEntry( Dn dn )
+    {
+    }
+
+
     public LookupOperationContext newLookupContext( Dn dn, String... attributes )
     {
         return null;
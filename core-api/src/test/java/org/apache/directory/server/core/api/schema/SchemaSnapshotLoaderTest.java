@@ -0,0 +1,133 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.api.schema;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.entry.SchemaAwareEntryTest;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests the SchemaSnapshotLoader.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SchemaSnapshotLoaderTest
+{
+    private static File workingDirectory;
+
+    private static File schemaRepository;
+
+
+    @BeforeAll
+    public static void setup() throws Exception
+    {
+        String workingDirectoryPath = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectoryPath == null )
+        {
+            String path = SchemaAwareEntryTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectoryPath = path.substring( 0, targetPos + 6 );
+        }
+
+        workingDirectory = new File( workingDirectoryPath );
+        schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( workingDirectory );
+        extractor.extractOrCopy( true );
+    }
+
+
+    @Test
+    public void testWriteAndReadSnapshot() throws Exception
+    {
+        File snapshotFile = new File( workingDirectory, "schema.snapshot" );
+        String checksum = SchemaSnapshotLoader.checksum( schemaRepository );
+
+        SchemaSnapshotLoader.copyOf( new LdifSchemaLoader( schemaRepository ) ).write( snapshotFile, checksum );
+
+        // A snapshot built from another schema partition is ignored
+        assertNull( SchemaSnapshotLoader.read( snapshotFile, "stale" ) );
+
+        SchemaSnapshotLoader snapshot = SchemaSnapshotLoader.read( snapshotFile, checksum );
+        assertNotNull( snapshot );
+
+        SchemaManager schemaManager = new DefaultSchemaManager( snapshot.getAllSchemas() );
+        schemaManager.loadAllEnabled();
+
+        assertTrue( schemaManager.getErrors().isEmpty(), Exceptions.printErrors( schemaManager.getErrors() ) );
+
+        // The snapshot contains the same elements than the LDIF files
+        SchemaManager ldifSchemaManager = new DefaultSchemaManager( new LdifSchemaLoader( schemaRepository ) );
+        ldifSchemaManager.loadAllEnabled();
+
+        assertEquals( ldifSchemaManager.getAttributeTypeRegistry().size(),
+            schemaManager.getAttributeTypeRegistry().size() );
+        assertEquals( ldifSchemaManager.getObjectClassRegistry().size(),
+            schemaManager.getObjectClassRegistry().size() );
+        assertEquals( ldifSchemaManager.getEnabled().size(), schemaManager.getEnabled().size() );
+        assertNotNull( schemaManager.lookupAttributeTypeRegistry( "cn" ) );
+    }
+
+
+    @Test
+    public void testChecksumContent() throws Exception
+    {
+        File directory = Files.createTempDirectory( "schema-checksum" ).toFile();
+        File file = new File( directory, "cn=test.ldif" );
+
+        try
+        {
+            Files.write( file.toPath(), "cn: first\n".getBytes( StandardCharsets.UTF_8 ) );
+            long lastModified = file.lastModified();
+            String checksum = SchemaSnapshotLoader.checksum( directory );
+
+            assertEquals( checksum, SchemaSnapshotLoader.checksum( directory ) );
+
+            // Same size, same modification date, but another content
+            Files.write( file.toPath(), "cn: other\n".getBytes( StandardCharsets.UTF_8 ) );
+            assertTrue( file.setLastModified( lastModified ) );
+
+            assertNotEquals( checksum, SchemaSnapshotLoader.checksum( directory ) );
+        }
+        finally
+        {
+            Files.deleteIfExists( file.toPath() );
+            Files.deleteIfExists( directory.toPath() );
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authn;
+
+
+import static org.apache.directory.api.ldap.model.constants.PasswordPolicySchemaConstants.PWD_ACCOUNT_LOCKED_TIME_AT;
+import static org.apache.directory.api.ldap.model.constants.PasswordPolicySchemaConstants.PWD_FAILURE_TIME_AT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.server.core.annotations.ContextEntry;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.annotations.CreatePartition;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.api.authn.ppolicy.PasswordPolicyConfiguration;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.authn.ppolicy.BindStateStore;
+import org.apache.directory.server.core.authn.ppolicy.PpolicyConfigContainer;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.core.integ.IntegrationUtils;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Tests the password policy states kept in memory by the BindStateStore, and
+ * written asynchronously.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(name = "BindStateStoreIT",
+    partitions =
+        {
+            @CreatePartition(
+                type = BindStateStoreIT.FailingPartition.class,
+                name = "failing",
+                suffix = "ou=failing",
+                contextEntry = @ContextEntry(
+                    entryLdif =
+                    "dn: ou=failing\n" +
+                        "ou: failing\n" +
+                        "objectClass: top\n" +
+                        "objectClass: organizationalUnit\n\n"))
+    })
+public class BindStateStoreIT extends AbstractLdapTestUnit
+{
+    /** A flush interval long enough for the states to be flushed by the tests only */
+    private static final long FLUSH_INTERVAL = 3600000L;
+
+    private AuthenticationInterceptor authenticationInterceptor;
+
+    private BindStateStore bindStateStore;
+
+    private LdapConnection adminConnection;
+
+
+    /**
+     * A partition which rejects the modifications on demand
+     */
+    public static class FailingPartition extends AvlPartition
+    {
+        private static volatile boolean failing;
+
+
+        public FailingPartition( SchemaManager schemaManager, DnFactory dnFactory )
+        {
+            super( schemaManager, dnFactory );
+        }
+
+
+        @Override
+        public void modify( ModifyOperationContext modifyContext ) throws LdapException
+        {
+            if ( failing )
+            {
+                throw new LdapOtherException( "The partition is failing" );
+            }
+
+            super.modify( modifyContext );
+        }
+    }
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        PasswordPolicyConfiguration policyConfig = new PasswordPolicyConfiguration();
+        policyConfig.setPwdMaxFailure( 2 );
+        policyConfig.setPwdLockout( true );
+        policyConfig.setPwdLockoutDuration( 0 );
+        policyConfig.setPwdFailureCountInterval( 30 );
+
+        PpolicyConfigContainer policyContainer = new PpolicyConfigContainer();
+        Dn defaultPolicyDn = new Dn( getService().getSchemaManager(), "cn=default" );
+        policyContainer.addPolicy( defaultPolicyDn, policyConfig );
+        policyContainer.setDefaultPolicyDn( defaultPolicyDn );
+
+        authenticationInterceptor = ( AuthenticationInterceptor ) getService()
+            .getInterceptor( InterceptorEnum.AUTHENTICATION_INTERCEPTOR.getName() );
+
+        // The store is created when the interceptor is initialized
+        authenticationInterceptor.destroy();
+        authenticationInterceptor.setBindStateFlushInterval( FLUSH_INTERVAL );
+        authenticationInterceptor.init( getService() );
+        authenticationInterceptor.setPwdPolicies( policyContainer );
+
+        bindStateStore = authenticationInterceptor.getBindStateStore();
+        adminConnection = IntegrationUtils.getAdminConnection( getService() );
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        FailingPartition.failing = false;
+        adminConnection.close();
+        IntegrationUtils.closeConnections();
+
+        authenticationInterceptor.destroy();
+        authenticationInterceptor.setBindStateFlushInterval( 0L );
+        authenticationInterceptor.init( getService() );
+        authenticationInterceptor.setPwdPolicies( null );
+    }
+
+
+    private Dn addUser( String cn, String parentDn ) throws Exception
+    {
+        Entry userEntry = new DefaultEntry(
+            getService().getSchemaManager(),
+            "cn=" + cn + "," + parentDn,
+            "objectClass: top",
+            "objectClass: person",
+            "cn", cn,
+            "sn: user_sn",
+            "userPassword: secret" );
+
+        adminConnection.add( userEntry );
+
+        return userEntry.getDn();
+    }
+
+
+    private boolean bind( Dn userDn, String password )
+    {
+        try
+        {
+            LdapConnection userConnection = IntegrationUtils.getConnectionAs( getService(), userDn, password );
+            boolean authenticated = userConnection.isAuthenticated();
+            userConnection.close();
+
+            return authenticated;
+        }
+        catch ( Exception e )
+        {
+            return false;
+        }
+    }
+
+
+    private void lock( Dn userDn ) throws Exception
+    {
+        for ( int i = 0; i < 3; i++ )
+        {
+            assertFalse( bind( userDn, "wrong" ) );
+        }
+
+        // Nothing has been written yet
+        assertTrue( bindStateStore.hasPendingState( userDn ) );
+        assertFalse( bind( userDn, "secret" ) );
+    }
+
+
+    @Test
+    public void testLockoutPersistedByFlush() throws Exception
+    {
+        Dn userDn = addUser( "locked", "ou=system" );
+        lock( userDn );
+
+        Entry entry = adminConnection.lookup( userDn, SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+        assertNull( entry.get( PWD_ACCOUNT_LOCKED_TIME_AT ) );
+
+        bindStateStore.flush();
+        assertFalse( bindStateStore.hasPendingState( userDn ) );
+
+        entry = adminConnection.lookup( userDn, SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+        assertNotNull( entry.get( PWD_ACCOUNT_LOCKED_TIME_AT ) );
+        assertNotNull( entry.get( PWD_FAILURE_TIME_AT ) );
+
+        // Still locked once the state has been written
+        assertFalse( bind( userDn, "secret" ) );
+    }
+
+
+    @Test
+    public void testUnlockAfterFlush() throws Exception
+    {
+        Dn userDn = addUser( "unlocked", "ou=system" );
+        lock( userDn );
+
+        // The written state is kept in the store for a while
+        bindStateStore.flush();
+        assertEquals( 1, bindStateStore.size() );
+
+        // Deleting the password unlocks the account
+        adminConnection.modify( userDn, new DefaultModification(
+            ModificationOperation.REMOVE_ATTRIBUTE,
+            SchemaConstants.USER_PASSWORD_AT ) );
+        adminConnection.modify( userDn, new DefaultModification(
+            ModificationOperation.ADD_ATTRIBUTE,
+            SchemaConstants.USER_PASSWORD_AT, "newSecret" ) );
+
+        assertEquals( 0, bindStateStore.size() );
+
+        Entry entry = adminConnection.lookup( userDn, SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+        assertNull( entry.get( PWD_ACCOUNT_LOCKED_TIME_AT ) );
+
+        // The old state does not lock the account again
+        assertTrue( bind( userDn, "newSecret" ) );
+        bindStateStore.flush();
+
+        entry = adminConnection.lookup( userDn, SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+        assertNull( entry.get( PWD_ACCOUNT_LOCKED_TIME_AT ) );
+        assertNull( entry.get( PWD_FAILURE_TIME_AT ) );
+    }
+
+
+    @Test
+    public void testFlushFailure() throws Exception
+    {
+        Dn userDn = addUser( "retried", "ou=failing" );
+        lock( userDn );
+
+        FailingPartition.failing = true;
+        bindStateStore.flush();
+
+        // The state is kept, the account is still locked
+        assertTrue( bindStateStore.hasPendingState( userDn ) );
+        assertFalse( bind( userDn, "secret" ) );
+
+        // And written on the next flush
+        FailingPartition.failing = false;
+        bindStateStore.flush();
+        assertFalse( bindStateStore.hasPendingState( userDn ) );
+
+        Entry entry = adminConnection.lookup( userDn, SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+        assertNotNull( entry.get( PWD_ACCOUNT_LOCKED_TIME_AT ) );
+    }
+
+
+    @Test
+    public void testStateKeptWhenModifyFails() throws Exception
+    {
+        Dn userDn = addUser( "kept", "ou=failing" );
+        lock( userDn );
+
+        // The state can't be written before the modification, it's not dropped
+        FailingPartition.failing = true;
+
+        try
+        {
+            adminConnection.modify( userDn, new DefaultModification(
+                ModificationOperation.REPLACE_ATTRIBUTE, "sn", "new_sn" ) );
+            fail();
+        }
+        catch ( LdapException le )
+        {
+            // Expected
+        }
+
+        assertTrue( bindStateStore.hasPendingState( userDn ) );
+        assertFalse( bind( userDn, "secret" ) );
+
+        // The modification writes the state once the partition is back
+        FailingPartition.failing = false;
+        adminConnection.modify( userDn, new DefaultModification(
+            ModificationOperation.REPLACE_ATTRIBUTE, "sn", "new_sn" ) );
+
+        assertFalse( bindStateStore.hasPendingState( userDn ) );
+
+        Entry entry = adminConnection.lookup( userDn, SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+        assertNotNull( entry.get( PWD_ACCOUNT_LOCKED_TIME_AT ) );
+    }
+
+
+    @Test
+    public void testFlushAttemptsLimited() throws Exception
+    {
+        Dn userDn = addUser( "dropped", "ou=failing" );
+        lock( userDn );
+
+        FailingPartition.failing = true;
+
+        // The state is retried up to 10 times, then dropped
+        for ( int i = 0; i < 9; i++ )
+        {
+            bindStateStore.flush();
+            assertTrue( bindStateStore.hasPendingState( userDn ) );
+        }
+
+        bindStateStore.flush();
+        assertFalse( bindStateStore.hasPendingState( userDn ) );
+        assertEquals( 0, bindStateStore.size() );
+    }
+}
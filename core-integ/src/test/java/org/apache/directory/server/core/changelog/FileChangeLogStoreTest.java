@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifRevertor;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.DefaultDirectoryService;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.InstanceLayout;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.changelog.ChangeLogEvent;
+import org.apache.directory.server.core.api.changelog.Tag;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the FileChangeLogStore.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class FileChangeLogStoreTest
+{
+    private static DirectoryService directoryService;
+
+    private static SchemaManager schemaManager;
+
+
+    @BeforeClass
+    public static void setUp() throws Exception
+    {
+        directoryService = new DefaultDirectoryService();
+        String tmpDirPath = System.getProperty( "workingDirectory", System.getProperty( "java.io.tmpdir" ) );
+        File workingDirectory = new File( tmpDirPath + "/server-work-"
+            + FileChangeLogStoreTest.class.getSimpleName() );
+        InstanceLayout instanceLayout = new InstanceLayout( workingDirectory );
+        directoryService.setInstanceLayout( instanceLayout );
+
+        if ( !workingDirectory.exists() )
+        {
+            workingDirectory.mkdirs();
+        }
+
+        directoryService.getInstanceLayout().setPartitionsDir( workingDirectory );
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( workingDirectory );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        directoryService.setSchemaManager( schemaManager );
+
+        // Start from an empty changelog
+        File changeLogDirectory = new File( instanceLayout.getLogDirectory(), "changelog" );
+        File[] files = changeLogDirectory.listFiles();
+
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                file.delete();
+            }
+        }
+    }
+
+
+    private ChangeLogEvent log( FileChangeLogStore store, int i ) throws Exception
+    {
+        LdifEntry forward = new LdifEntry();
+        forward.setDn( "ou=test" + i + ",ou=system" );
+        forward.setChangeType( ChangeType.Add );
+        forward.putAttribute( "objectClass", "organizationalUnit" );
+        forward.putAttribute( "ou", "test" + i );
+
+        LdifEntry reverse = LdifRevertor.reverseAdd( forward.getDn() );
+
+        return store.log( new LdapPrincipal( schemaManager ), forward, reverse );
+    }
+
+
+    @Test
+    public void testLogReloadAndTruncate() throws Exception
+    {
+        FileChangeLogStore store = new FileChangeLogStore();
+        // Small segments, to get many of them
+        store.setSegmentSize( 1024L );
+        store.init( directoryService );
+
+        assertEquals( 0L, store.getCurrentRevision() );
+
+        for ( int i = 1; i <= 50; i++ )
+        {
+            assertEquals( i, log( store, i ).getRevision() );
+        }
+
+        Tag tag = store.tag( 20L );
+        store.destroy();
+
+        // Reload the store from the disk
+        store = new FileChangeLogStore();
+        store.setSegmentSize( 1024L );
+        store.init( directoryService );
+
+        assertEquals( 50L, store.getCurrentRevision() );
+        assertEquals( tag, store.getLatest() );
+        assertEquals( "ou=test30,ou=system", store.lookup( 30L ).getForwardLdif().getDn().getName() );
+
+        // Browse the events after the tag, backward
+        Cursor<ChangeLogEvent> cursor = store.findAfter( tag.getRevision() );
+        cursor.afterLast();
+        long expected = 50L;
+
+        while ( cursor.previous() )
+        {
+            assertEquals( expected--, cursor.get().getRevision() );
+        }
+
+        cursor.close();
+        assertEquals( 20L, expected );
+
+        // Remove everything up to the tag
+        store.truncate( tag );
+
+        assertEquals( 21L, store.getFirstRevision() );
+        assertNull( store.lookup( 20L ) );
+        assertEquals( 21L, store.lookup( 21L ).getRevision() );
+
+        cursor = store.find();
+        assertTrue( cursor.first() );
+        assertEquals( 21L, cursor.get().getRevision() );
+        cursor.close();
+
+        // New events are still appended
+        assertEquals( 51L, log( store, 51 ).getRevision() );
+
+        cursor = store.find( 49L, 51L );
+        assertTrue( cursor.last() );
+        assertEquals( 51L, cursor.get().getRevision() );
+        assertTrue( cursor.previous() );
+        assertTrue( cursor.previous() );
+        assertEquals( 49L, cursor.get().getRevision() );
+        assertFalse( cursor.previous() );
+        cursor.close();
+
+        store.destroy();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.operations.lookup;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.annotations.ApplyLdifs;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionNexus;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Test the entries memoized by the operation contexts' lookupEntry()
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(name = "LookupEntryMemoIT")
+@ApplyLdifs(
+    {
+        // Entry # 1
+        "dn: cn=test,ou=system",
+        "objectClass: person",
+        "cn: test",
+        "sn: sn_test",
+        })
+public class LookupEntryMemoIT extends AbstractLdapTestUnit
+{
+    private CoreSession session;
+
+    private PartitionNexus nexus;
+
+    private Dn dn;
+
+    private AttributeType snAt;
+
+
+    @Before
+    public void setup() throws Exception
+    {
+        session = getService().getAdminSession();
+        nexus = getService().getPartitionNexus();
+        dn = new Dn( getService().getSchemaManager(), "cn=test,ou=system" );
+        snAt = getService().getSchemaManager().getAttributeType( "sn" );
+    }
+
+
+    private Modification replaceSn( String sn )
+    {
+        return new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, snAt, sn );
+    }
+
+
+    /**
+     * The entry modified by the operation itself is read again
+     */
+    @Test
+    public void testModifyInvalidatesMemo() throws Exception
+    {
+        Partition partition = nexus.getPartition( dn );
+        List<Modification> mods = new ArrayList<>();
+        mods.add( replaceSn( "sn_modified" ) );
+        ModifyOperationContext modifyContext = new ModifyOperationContext( session, dn, mods );
+        modifyContext.setPartition( partition );
+
+        try ( PartitionTxn transaction = partition.beginWriteTransaction() )
+        {
+            modifyContext.setTransaction( transaction );
+
+            Entry before = modifyContext.lookupEntry( dn );
+            assertEquals( "sn_test", before.get( snAt ).getString() );
+
+            // The memoized entry is a copy, modifying the returned one does not alter it
+            before.put( snAt, "sn_altered" );
+            Entry memoized = modifyContext.lookupEntry( dn );
+            assertNotSame( before, memoized );
+            assertEquals( "sn_test", memoized.get( snAt ).getString() );
+
+            nexus.modify( modifyContext );
+
+            assertEquals( "sn_modified", modifyContext.lookupEntry( dn ).get( snAt ).getString() );
+            transaction.commit();
+        }
+    }
+
+
+    /**
+     * An entry modified by a nested operation is not served stale by the outer one,
+     * and the nested operation doesn't see the outer one's memo
+     */
+    @Test
+    public void testNestedOperationInvalidatesMemo() throws Exception
+    {
+        Partition partition = nexus.getPartition( dn );
+        LookupOperationContext outerContext = new LookupOperationContext( session, dn );
+        outerContext.setPartition( partition );
+
+        try ( PartitionTxn transaction = partition.beginReadTransaction() )
+        {
+            outerContext.setTransaction( transaction );
+            assertEquals( "sn_test", outerContext.lookupEntry( dn ).get( snAt ).getString() );
+
+            // A nested operation, with its own context, modifies the entry
+            session.modify( dn, replaceSn( "sn_nested" ) );
+
+            assertEquals( "sn_nested", outerContext.lookupEntry( dn ).get( snAt ).getString() );
+
+            // Another operation memoizes its own copy
+            LookupOperationContext otherContext = new LookupOperationContext( session, dn );
+            otherContext.setPartition( partition );
+            otherContext.setTransaction( transaction );
+            assertEquals( "sn_nested", otherContext.lookupEntry( dn ).get( snAt ).getString() );
+
+            session.modify( dn, replaceSn( "sn_again" ) );
+
+            assertEquals( "sn_again", otherContext.lookupEntry( dn ).get( snAt ).getString() );
+            assertEquals( "sn_again", outerContext.lookupEntry( dn ).get( snAt ).getString() );
+        }
+    }
+}
@@ -417,4 +417,83 @@ public class SortedSearchIT extends AbstractLdapTestUnit
         }
     }
 
+
+    @Test
+    public void testSortByMultipleKeys() throws Exception
+    {
+        // user0 and user2 have the same uid, they are sorted on their sn in reverse order
+        sk.setAttributeTypeDesc( "uid" );
+        SortKey snKey = new SortKey( "sn", null, true );
+        ctrl.addSortKey( snKey );
+
+        List<String> expectedOrder = new ArrayList<String>();
+        expectedOrder.add( "uid=person1,ou=parent,ou=system" );
+        expectedOrder.add( "uid=person2,ou=parent,ou=system" );
+        expectedOrder.add( "uid=person3,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user2,ou=children,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user0,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user1,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user3,ou=children,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user4,ou=grandchildren,ou=children,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user5,ou=grandchildren,ou=children,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user6,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user7,ou=parent,ou=system" );
+
+        List<String> actualOrder = search();
+
+        // the LAST 3 entries don't have an "uid" attribute
+        assertEquals( expectedOrder, actualOrder.subList( 0, expectedOrder.size() ) );
+        assertEquals( expectedOrder.size() + 3, actualOrder.size() );
+
+        // check with the second key in the natural order
+        snKey.setReverseOrder( false );
+        actualOrder = search();
+
+        assertEquals( "uid=user0,ou=parent,ou=system", actualOrder.get( 3 ) );
+        assertEquals( "uid=user2,ou=children,ou=parent,ou=system", actualOrder.get( 4 ) );
+    }
+
+
+    @Test
+    public void testSortInTemporaryFiles() throws Exception
+    {
+        sk.setAttributeTypeDesc( "sn" );
+        List<String> expectedOrder = search();
+
+        // Each entry now exceeds the memory budget, and is written in its own file
+        long memoryBudget = getService().getSortMemoryBudget();
+        getService().setSortMemoryBudget( 1L );
+
+        try
+        {
+            List<String> actualOrder = search();
+
+            // the LAST 3 entries don't have a "sn" attribute, there is no guaranteed order for them
+            assertEquals( expectedOrder.size(), actualOrder.size() );
+            assertEquals( expectedOrder.subList( 0, 11 ), actualOrder.subList( 0, 11 ) );
+            assertEquals( "uid=person1,ou=parent,ou=system", actualOrder.get( 0 ) );
+            assertEquals( "uid=user7,ou=parent,ou=system", actualOrder.get( 10 ) );
+        }
+        finally
+        {
+            getService().setSortMemoryBudget( memoryBudget );
+        }
+    }
+
+
+    private List<String> search() throws Exception
+    {
+        List<String> actualOrder = new ArrayList<String>();
+        SearchCursor cursor = connection.search( req );
+
+        while ( cursor.next() )
+        {
+            SearchResultEntry se = ( SearchResultEntry ) cursor.get();
+            actualOrder.add( se.getEntry().getDn().getName() );
+        }
+
+        cursor.close();
+
+        return actualOrder;
+    }
 }
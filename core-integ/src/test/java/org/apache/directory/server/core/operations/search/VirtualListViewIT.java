@@ -0,0 +1,314 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.operations.search;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequest;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequestImpl;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponse;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResultCode;
+import org.apache.directory.api.ldap.model.cursor.SearchCursor;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchResultDone;
+import org.apache.directory.api.ldap.model.message.SearchResultEntry;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.apache.directory.api.ldap.model.message.controls.SortRequest;
+import org.apache.directory.api.ldap.model.message.controls.SortRequestImpl;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.server.core.annotations.ApplyLdifs;
+import org.apache.directory.server.core.annotations.ContextEntry;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.annotations.CreateIndex;
+import org.apache.directory.server.core.annotations.CreatePartition;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.core.integ.IntegrationUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Tests for searching with the Virtual List View control. The entries are sorted on sn,
+ * which is indexed, or on cn, which is not.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(name = "VirtualListViewDS",
+    partitions =
+        {
+            @CreatePartition(
+                name = "vlv",
+                suffix = "dc=vlv,dc=com",
+                contextEntry = @ContextEntry(
+                    entryLdif =
+                    "dn: dc=vlv,dc=com\n" +
+                        "dc: vlv\n" +
+                        "objectClass: top\n" +
+                        "objectClass: domain\n\n"),
+                indexes =
+                    {
+                        @CreateIndex(attribute = "objectClass"),
+                        @CreateIndex(attribute = "sn")
+                })
+    })
+@ApplyLdifs(
+    {
+        "dn: cn=Evans,dc=vlv,dc=com",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: Evans",
+        "sn: Evans",
+        "",
+        "dn: cn=Clark,dc=vlv,dc=com",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: Clark",
+        "sn: Clark",
+        "",
+        "dn: cn=Adams,dc=vlv,dc=com",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: Adams",
+        "sn: Adams",
+        "",
+        "dn: cn=Davis,dc=vlv,dc=com",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: Davis",
+        "sn: Davis",
+        "",
+        "dn: cn=Baker,dc=vlv,dc=com",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: Baker",
+        "sn: Baker",
+        ""
+})
+public class VirtualListViewIT extends AbstractLdapTestUnit
+{
+    /** A direct connection to the server */
+    private LdapConnection connection;
+
+    private SearchRequest req;
+
+    private SortKey sk;
+
+    private VirtualListViewRequest vlv;
+
+
+    @Before
+    public void createConnection() throws Exception
+    {
+        connection = IntegrationUtils.getAdminConnection( getService() );
+
+        req = new SearchRequestImpl();
+        req.setBase( new Dn( "dc=vlv,dc=com" ) );
+        req.setFilter( new PresenceNode( "objectClass" ) );
+        req.setScope( SearchScope.SUBTREE );
+
+        sk = new SortKey( "sn" );
+        SortRequest sortCtrl = new SortRequestImpl();
+        sortCtrl.addSortKey( sk );
+        req.addControl( sortCtrl );
+
+        vlv = new VirtualListViewRequestImpl();
+        vlv.setCritical( true );
+        req.addControl( vlv );
+    }
+
+
+    @After
+    public void closeConnection() throws Exception
+    {
+        connection.close();
+    }
+
+
+    private List<String> search( List<String> expected ) throws Exception
+    {
+        List<String> actual = new ArrayList<String>();
+        SearchCursor cursor = connection.search( req );
+
+        while ( cursor.next() )
+        {
+            SearchResultEntry se = ( SearchResultEntry ) cursor.get();
+            actual.add( se.getEntry().getDn().getRdn().getValue() );
+        }
+
+        cursor.close();
+
+        assertEquals( expected, actual );
+
+        return actual;
+    }
+
+
+    private VirtualListViewResponse getResponse( ResultCodeEnum resultCode ) throws Exception
+    {
+        SearchCursor cursor = connection.search( req );
+
+        while ( cursor.next() )
+        {
+            cursor.get();
+        }
+
+        cursor.close();
+
+        SearchResultDone sd = cursor.getSearchResultDone();
+        assertEquals( resultCode, sd.getLdapResult().getResultCode() );
+
+        VirtualListViewResponse resp = ( VirtualListViewResponse ) sd.getControl( VirtualListViewResponse.OID );
+        assertNotNull( resp );
+
+        return resp;
+    }
+
+
+    @Test
+    public void testByOffsetWithIndex() throws Exception
+    {
+        vlv.setOffset( 1 );
+        vlv.setBeforeCount( 0 );
+        vlv.setAfterCount( 2 );
+
+        search( Arrays.asList( "Adams", "Baker", "Clark" ) );
+
+        VirtualListViewResponse resp = getResponse( ResultCodeEnum.SUCCESS );
+        assertEquals( VirtualListViewResultCode.SUCCESS, resp.getViewResult() );
+        assertEquals( 1, resp.getTargetPosition() );
+
+        vlv.setOffset( 3 );
+        vlv.setBeforeCount( 1 );
+        vlv.setAfterCount( 1 );
+
+        search( Arrays.asList( "Baker", "Clark", "Davis" ) );
+
+        // The context entry has no sn, it comes last
+        vlv.setOffset( 6 );
+        vlv.setBeforeCount( 0 );
+        vlv.setAfterCount( 5 );
+
+        search( Arrays.asList( "Evans", "vlv" ) );
+    }
+
+
+    @Test
+    public void testByAssertionWithIndex() throws Exception
+    {
+        vlv.setAssertionValue( Strings.getBytesUtf8( "C" ) );
+        vlv.setBeforeCount( 1 );
+        vlv.setAfterCount( 1 );
+
+        search( Arrays.asList( "Baker", "Clark", "Davis" ) );
+
+        VirtualListViewResponse resp = getResponse( ResultCodeEnum.SUCCESS );
+        assertEquals( 3, resp.getTargetPosition() );
+        assertEquals( 6, resp.getContentCount() );
+
+        // In reverse order
+        sk.setReverseOrder( true );
+
+        search( Arrays.asList( "Clark", "Baker", "Adams" ) );
+    }
+
+
+    @Test
+    public void testByOffsetWithoutIndex() throws Exception
+    {
+        sk.setAttributeTypeDesc( "cn" );
+        vlv.setOffset( 2 );
+        vlv.setBeforeCount( 1 );
+        vlv.setAfterCount( 1 );
+
+        search( Arrays.asList( "Adams", "Baker", "Clark" ) );
+
+        VirtualListViewResponse resp = getResponse( ResultCodeEnum.SUCCESS );
+        assertEquals( 2, resp.getTargetPosition() );
+        assertEquals( 6, resp.getContentCount() );
+
+        // The offset is scaled to our content count
+        vlv.setOffset( 6 );
+        vlv.setContentCount( 12 );
+        vlv.setBeforeCount( 0 );
+        vlv.setAfterCount( 0 );
+
+        search( Arrays.asList( "Clark" ) );
+    }
+
+
+    @Test
+    public void testByAssertionWithoutIndex() throws Exception
+    {
+        sk.setAttributeTypeDesc( "cn" );
+        vlv.setAssertionValue( Strings.getBytesUtf8( "d" ) );
+        vlv.setBeforeCount( 0 );
+        vlv.setAfterCount( 1 );
+
+        search( Arrays.asList( "Davis", "Evans" ) );
+
+        VirtualListViewResponse resp = getResponse( ResultCodeEnum.SUCCESS );
+        assertEquals( 4, resp.getTargetPosition() );
+    }
+
+
+    @Test
+    public void testFilterOnUnindexedAttribute() throws Exception
+    {
+        // All the entries are candidates, the filter is checked on the entries of the window only
+        req.setFilter( "(|(cn=Adams)(cn=Clark)(cn=Evans))" );
+        vlv.setOffset( 1 );
+        vlv.setBeforeCount( 0 );
+        vlv.setAfterCount( 5 );
+
+        search( Arrays.asList( "Adams", "Clark", "Evans" ) );
+
+        VirtualListViewResponse resp = getResponse( ResultCodeEnum.SUCCESS );
+        assertEquals( 1, resp.getTargetPosition() );
+    }
+
+
+    @Test
+    public void testWithoutSortControl() throws Exception
+    {
+        req.removeControl( req.getControl( SortRequest.OID ) );
+        vlv.setOffset( 1 );
+
+        search( new ArrayList<String>() );
+
+        VirtualListViewResponse resp = getResponse( ResultCodeEnum.UNAVAILABLE_CRITICAL_EXTENSION );
+        assertEquals( VirtualListViewResultCode.SORTCONTROLMISSING, resp.getViewResult() );
+    }
+}
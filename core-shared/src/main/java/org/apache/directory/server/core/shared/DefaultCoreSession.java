@@ -20,10 +20,8 @@
 package org.apache.directory.server.core.shared;
 
 
-import java.io.File;
 import java.io.IOException;
 import java.net.SocketAddress;
-import java.nio.file.Files;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -33,14 +31,17 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
-import jdbm.recman.BaseRecordManager;
-
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValue;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequest;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponse;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResultCode;
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
 import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
@@ -1212,15 +1213,57 @@ public class DefaultCoreSession implements CoreSession
             }
         }
 
+        // Check if we received a Virtual List View Control. It requires the entries to be sorted
+        VirtualListViewRequest vlvControl = ( VirtualListViewRequest ) searchRequest.getControls().get(
+            VirtualListViewRequest.OID );
+
+        if ( vlvControl != null )
+        {
+            if ( ( sortRespCtrl == null ) || ( sortRespCtrl.getSortResult() != SortResultCode.SUCCESS ) )
+            {
+                if ( vlvControl.isCritical() )
+                {
+                    ldapResult.setDiagnosticMessage( "A Virtual List View request requires a valid sort control" );
+                    ldapResult.setResultCode( ResultCodeEnum.UNAVAILABLE_CRITICAL_EXTENSION );
+                    done.addControl( VirtualListViewUtils.createResponse( vlvControl,
+                        VirtualListViewResultCode.SORTCONTROLMISSING, 0, 0 ) );
+
+                    return new EmptyCursor<>();
+                }
+
+                // Ignore the control, and don't let the partition use it
+                vlvControl = null;
+                searchContext.setRequestControls( withoutControl( searchRequest, VirtualListViewRequest.OID ) );
+            }
+            else if ( searchRequest.getBase().isEmpty() )
+            {
+                // A search from the RootDSE spans many partitions : we build the list here
+                searchContext.setRequestControls( withoutControl( searchRequest, VirtualListViewRequest.OID ) );
+            }
+        }
+
         Cursor<Entry> cursor = null;
 
         try
         {
             cursor = operationManager.search( searchContext );
 
-            if ( ( sortRespCtrl != null ) && ( sortRespCtrl.getSortResult() == SortResultCode.SUCCESS ) )
+            // The partition may already have returned the requested part of the list, using an index
+            boolean listViewed = ( vlvControl != null )
+                && searchContext.hasResponseControl( VirtualListViewResponse.OID );
+
+            if ( ( sortRespCtrl != null ) && ( sortRespCtrl.getSortResult() == SortResultCode.SUCCESS )
+                && !listViewed )
             {
-                cursor = sortResults( cursor, sortControl, getDirectoryService().getSchemaManager() );
+                // The whole list is needed to build a Virtual List View
+                long sizeLimit = ( vlvControl == null ) ? searchContext.getSizeLimit() : 0L;
+                cursor = sortResults( cursor, sortControl, sizeLimit, getDirectoryService().getSchemaManager() );
+
+                if ( vlvControl != null )
+                {
+                    cursor = viewList( cursor, vlvControl, sortControl, searchContext,
+                        getDirectoryService().getSchemaManager() );
+                }
             }
 
             // the below condition is to satisfy the scenario 6 in section 2 of rfc2891
@@ -1304,18 +1347,33 @@ public class DefaultCoreSession implements CoreSession
     {
         SortResponse resp = new SortResponseImpl();
 
-        List<SortKey> keys = sortControl.getSortKeys();
-
-        // only ONE key is supported by the server for now
-        if ( keys.size() > 1 )
+        // All the keys must be usable
+        for ( SortKey sk : sortControl.getSortKeys() )
         {
-            ldapResult.setDiagnosticMessage( "Cannot sort results based on more than one attribute" );
-            resp.setSortResult( SortResultCode.UNWILLINGTOPERFORM );
-            return resp;
+            if ( !canSort( sk, resp, ldapResult, schemaManager ) )
+            {
+                return resp;
+            }
         }
 
-        SortKey sk = keys.get( 0 );
+        resp.setSortResult( SortResultCode.SUCCESS );
 
+        return resp;
+    }
+
+
+    /**
+     * Checks if the search results can be sorted on the given key. If not, the reason is
+     * stored in the sort response control.
+     * 
+     * @param sk the sort key
+     * @param resp the sort response control
+     * @param ldapResult the refrence to the LDAP result of the ongoing search operation
+     * @param schemaManager schema manager
+     * @return true if the key can be used
+     */
+    private boolean canSort( SortKey sk, SortResponse resp, LdapResult ldapResult, SchemaManager schemaManager )
+    {
         AttributeType at = schemaManager.getAttributeType( sk.getAttributeTypeDesc() );
 
         if ( at == null )
@@ -1324,7 +1382,7 @@ public class DefaultCoreSession implements CoreSession
                 + " exists in the server's schema" );
             resp.setSortResult( SortResultCode.NOSUCHATTRIBUTE );
             resp.setAttributeName( sk.getAttributeTypeDesc() );
-            return resp;
+            return false;
         }
 
         String mrOid = sk.getMatchingRuleId();
@@ -1339,7 +1397,7 @@ public class DefaultCoreSession implements CoreSession
                     + " is not applicable for the attribute " + sk.getAttributeTypeDesc() );
                 resp.setSortResult( SortResultCode.INAPPROPRIATEMATCHING );
                 resp.setAttributeName( sk.getAttributeTypeDesc() );
-                return resp;
+                return false;
             }
 
             try
@@ -1351,7 +1409,7 @@ public class DefaultCoreSession implements CoreSession
                 ldapResult.setDiagnosticMessage( "Given matchingrule " + mrOid + " is not supported" );
                 resp.setSortResult( SortResultCode.INAPPROPRIATEMATCHING );
                 resp.setAttributeName( sk.getAttributeTypeDesc() );
-                return resp;
+                return false;
             }
         }
         else
@@ -1363,46 +1421,153 @@ public class DefaultCoreSession implements CoreSession
                 mr = at.getEquality();
             }
 
-            ldapResult.setDiagnosticMessage( "Matchingrule is required for sorting by the attribute "
-                + sk.getAttributeTypeDesc() );
-            resp.setSortResult( SortResultCode.INAPPROPRIATEMATCHING );
-            resp.setAttributeName( sk.getAttributeTypeDesc() );
+            boolean hasComparator = mr != null;
 
-            if ( mr == null )
+            if ( hasComparator )
             {
-                return resp;
+                try
+                {
+                    schemaManager.lookupComparatorRegistry( mr.getOid() );
+                }
+                catch ( LdapException e )
+                {
+                    hasComparator = false;
+                }
             }
 
-            try
+            if ( !hasComparator )
             {
-                schemaManager.lookupComparatorRegistry( mr.getOid() );
+                ldapResult.setDiagnosticMessage( "Matchingrule is required for sorting by the attribute "
+                    + sk.getAttributeTypeDesc() );
+                resp.setSortResult( SortResultCode.INAPPROPRIATEMATCHING );
+                resp.setAttributeName( sk.getAttributeTypeDesc() );
+                return false;
             }
-            catch ( LdapException e )
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Copy the controls of a request, without the given one
+     */
+    private Map<String, Control> withoutControl( SearchRequest searchRequest, String oid )
+    {
+        Map<String, Control> controls = new HashMap<>( searchRequest.getControls() );
+        controls.remove( oid );
+
+        return controls;
+    }
+
+
+    /**
+     * Extracts the part of the sorted entries requested by a Virtual List View control,
+     * and stores the response control in the search context.
+     * 
+     * @param sortedEntries the cursor containing the sorted entries
+     * @param vlvControl the Virtual List View control
+     * @param sortControl the sort control
+     * @param searchContext the search context
+     * @param schemaManager schema manager
+     * @return a cursor containing the requested entries
+     * @throws CursorException
+     * @throws LdapException
+     * @throws IOException
+     */
+    private Cursor<Entry> viewList( Cursor<Entry> sortedEntries, VirtualListViewRequest vlvControl,
+        SortRequest sortControl, SearchOperationContext searchContext, SchemaManager schemaManager )
+        throws CursorException, LdapException, IOException
+    {
+        SortedEntryComparator comparator = null;
+        Entry assertion = null;
+
+        if ( vlvControl.hasAssertionValue() )
+        {
+            // We compare the entries with an entry holding the assertion value
+            SortKey sk = sortControl.getSortKeys().get( 0 );
+            AttributeType at = schemaManager.getAttributeType( sk.getAttributeTypeDesc() );
+            comparator = new SortedEntryComparator( at, sk.getMatchingRuleId(), sk.isReverseOrder(), schemaManager );
+            assertion = new DefaultEntry( schemaManager );
+
+            if ( at.getSyntax().isHumanReadable() )
             {
-                return resp;
+                Value value = new Value( at, Strings.utf8ToString( vlvControl.getAssertionValue() ) );
+                assertion.add( at, value.getNormalized() );
+            }
+            else
+            {
+                assertion.add( at, vlvControl.getAssertionValue() );
             }
         }
 
-        resp.setSortResult( SortResultCode.SUCCESS );
+        // First, count the entries, and find the target when we have an assertion value
+        int contentCount = 0;
+        int targetPosition = 0;
+        sortedEntries.beforeFirst();
 
-        return resp;
+        while ( sortedEntries.next() )
+        {
+            contentCount++;
+
+            if ( ( assertion != null ) && ( targetPosition == 0 )
+                && ( comparator.compare( sortedEntries.get(), assertion ) >= 0 ) )
+            {
+                targetPosition = contentCount;
+            }
+        }
+
+        if ( assertion == null )
+        {
+            targetPosition = VirtualListViewUtils.getTargetPosition( vlvControl, contentCount );
+        }
+        else if ( targetPosition == 0 )
+        {
+            // All the entries are before the assertion value
+            targetPosition = contentCount + 1;
+        }
+
+        // Then read the requested entries
+        int first = VirtualListViewUtils.getFirstPosition( targetPosition, vlvControl.getBeforeCount() );
+        int last = VirtualListViewUtils.getLastPosition( targetPosition, vlvControl.getAfterCount(), contentCount );
+        List<Entry> entries = new ArrayList<>();
+        int position = 0;
+        sortedEntries.beforeFirst();
+
+        while ( ( position < last ) && sortedEntries.next() )
+        {
+            position++;
+
+            if ( position >= first )
+            {
+                entries.add( sortedEntries.get() );
+            }
+        }
+
+        sortedEntries.close();
+
+        searchContext.addResponseControl( VirtualListViewUtils.createResponse( vlvControl,
+            VirtualListViewResultCode.SUCCESS, targetPosition, contentCount ) );
+
+        return new ListCursor<>( entries );
     }
 
 
     /**
-     * Sorts the entries based on the given sortkey and returns the cursor
+     * Sorts the entries based on all the keys of the given sort control and returns the cursor.
+     * When the size limit is small, only the first entries are kept.
      * 
      * @param unsortedEntries the cursor containing un-sorted entries
      * @param control the sort control
+     * @param sizeLimit the size limit of the search, 0 if there is none
      * @param schemaManager schema manager
      * @return a cursor containing sorted entries
      * @throws CursorException
      * @throws LdapException
      * @throws IOException
-     * @throws KeyNotFoundException 
      */
-    private Cursor<Entry> sortResults( Cursor<Entry> unsortedEntries, SortRequest control, SchemaManager schemaManager )
-        throws CursorException, LdapException, IOException
+    private Cursor<Entry> sortResults( Cursor<Entry> unsortedEntries, SortRequest control, long sizeLimit,
+        SchemaManager schemaManager ) throws CursorException, LdapException, IOException
     {
         unsortedEntries.beforeFirst();
 
@@ -1420,49 +1585,32 @@ public class DefaultCoreSession implements CoreSession
             return unsortedEntries;
         }
 
-        SortKey sk = control.getSortKeys().get( 0 );
+        EntrySorter sorter = new EntrySorter( control.getSortKeys(), schemaManager,
+            getDirectoryService().getSortMemoryBudget(), sizeLimit );
 
-        AttributeType at = schemaManager.getAttributeType( sk.getAttributeTypeDesc() );
+        try
+        {
+            sorter.add( first );
 
-        SortedEntryComparator comparator = new SortedEntryComparator( at, sk.getMatchingRuleId(), sk.isReverseOrder(),
-            schemaManager );
+            // at this stage the cursor will be _on_ the next element, so read it
+            sorter.add( unsortedEntries.get() );
 
-        SortedEntrySerializer keySerializer = new SortedEntrySerializer();
-        SortedEntrySerializer.setSchemaManager( schemaManager );
-        
-        File file = null;
-        
-        try 
-        {
-            file = Files.createTempFile( "replica", ".sorted-data" ).toFile();    // see DIRSERVER-2007
-        } 
-        catch ( IOException e ) 
+            while ( unsortedEntries.next() )
+            {
+                sorter.add( unsortedEntries.get() );
+            }
+
+            return sorter.sort();
+        }
+        catch ( CursorException | LdapException | IOException | RuntimeException e )
         {
-            // see DIRSERVER-2091
-            LOG.error( "Error creating temp file in directory {} for sorting: {}",  
-                System.getProperty( "java.io.tmpdir" ),  e.getMessage(), e );
+            sorter.close();
             throw e;
         }
-
-        BaseRecordManager recMan = new BaseRecordManager( file.getAbsolutePath() );
-
-        jdbm.btree.BTree<Entry, String> btree = new jdbm.btree.BTree<>( recMan, comparator, keySerializer, NullStringSerializer.INSTANCE );
-        
-
-        btree.insert( first, "", false );
-
-        // at this stage the cursor will be _on_ the next element, so read it
-        btree.insert( unsortedEntries.get(), "", false );
-
-        while ( unsortedEntries.next() )
+        finally
         {
-            Entry entry = unsortedEntries.get();
-            btree.insert( entry, "", false );
+            unsortedEntries.close();
         }
-
-        unsortedEntries.close();
-
-        return new SortedEntryCursor( btree, recMan, file );
     }
 
 
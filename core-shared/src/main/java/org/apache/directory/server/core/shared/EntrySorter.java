@@ -0,0 +1,690 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.LdapComparator;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.ParsedDnComparator;
+import org.apache.directory.api.util.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Sorts the entries returned by a search on all the keys of a sort control, as per
+ * <a href="http://tools.ietf.org/html/rfc2891">RFC 2891</a>. The sort keys of an entry
+ * are extracted once, when the entry is added, using the ordering rule of each key.
+ * <br>
+ * The entries are sorted in memory as long as they fit in the memory budget. Above it,
+ * they are written with their sort keys in sorted runs, in temporary files, which are
+ * merged while the sorted entries are read : only the current entry of each run is then
+ * held in memory, and an entry is only deserialized when it is returned. When the search
+ * has a small size limit, only the first entries are kept, in a bounded heap.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class EntrySorter implements Closeable
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( EntrySorter.class );
+
+    /** The largest size limit for which the first entries are kept in a heap */
+    static final long MAX_TOP_SIZE = 1000L;
+
+    /** The estimated memory used by an entry, without its attributes */
+    private static final long ENTRY_OVERHEAD = 128L;
+
+    /** The estimated memory used by an attribute, without its values */
+    private static final long ATTRIBUTE_OVERHEAD = 64L;
+
+    /** The estimated memory used by a value, without its content */
+    private static final long VALUE_OVERHEAD = 48L;
+
+    /** The size of the buffers used to read and write the runs */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The sort keys */
+    private final KeyExtractor[] keys;
+
+    /** The comparator ordering the records on all the sort keys */
+    private final Comparator<SortedRecord> comparator = this::compare;
+
+    /** The serializer used to write the entries in the runs */
+    private final SortedEntrySerializer serializer = new SortedEntrySerializer();
+
+    /** The memory the sorted entries can use, in bytes */
+    private final long memoryBudget;
+
+    /** The heap keeping the first entries when the size limit is small, the last one on top */
+    private PriorityQueue<SortedRecord> top;
+
+    /** The maximum number of entries kept in the heap */
+    private int topSize;
+
+    /** The records not yet written in a run */
+    private List<SortedRecord> records = new ArrayList<>();
+
+    /** The estimated memory used by the records */
+    private long memoryUsed;
+
+    /** The number of added entries, used to keep the sort stable */
+    private long sequence;
+
+    /** The written runs */
+    private final List<File> runs = new ArrayList<>();
+
+    /** The opened runs */
+    private final List<DataInputStream> inputs = new ArrayList<>();
+
+    /** The current record of each opened run, the least first */
+    private PriorityQueue<Head> heads;
+
+
+    /**
+     * Creates a new instance of EntrySorter.
+     *
+     * @param sortKeys The sort keys
+     * @param schemaManager The SchemaManager
+     * @param memoryBudget The memory the sorted entries can use, in bytes
+     * @param sizeLimit The search size limit, 0 if there is none
+     * @throws LdapException If a key's comparator can't be found
+     */
+    EntrySorter( List<SortKey> sortKeys, SchemaManager schemaManager, long memoryBudget, long sizeLimit )
+        throws LdapException
+    {
+        keys = new KeyExtractor[sortKeys.size()];
+
+        for ( int i = 0; i < keys.length; i++ )
+        {
+            keys[i] = new KeyExtractor( sortKeys.get( i ), schemaManager );
+        }
+
+        this.memoryBudget = memoryBudget;
+        SortedEntrySerializer.setSchemaManager( schemaManager );
+
+        if ( ( sizeLimit > 0L ) && ( sizeLimit <= MAX_TOP_SIZE ) )
+        {
+            // One more entry, for the caller to know that the size limit has been exceeded
+            topSize = ( int ) sizeLimit + 1;
+            top = new PriorityQueue<>( topSize, comparator.reversed() );
+        }
+    }
+
+
+    /**
+     * Adds an entry to sort, writing a run if the memory budget is exceeded.
+     *
+     * @param entry The entry to sort
+     * @throws IOException If a run can't be written
+     */
+    void add( Entry entry ) throws IOException
+    {
+        Object[] values = new Object[keys.length];
+
+        for ( int i = 0; i < keys.length; i++ )
+        {
+            values[i] = keys[i].extract( entry );
+        }
+
+        SortedRecord record = new SortedRecord( values, sequence++, entry, null );
+
+        if ( top != null )
+        {
+            if ( top.size() < topSize )
+            {
+                top.add( record );
+            }
+            else if ( compare( record, top.peek() ) < 0 )
+            {
+                top.poll();
+                top.add( record );
+            }
+
+            return;
+        }
+
+        records.add( record );
+        memoryUsed += estimateSize( entry );
+
+        if ( memoryUsed > memoryBudget )
+        {
+            writeRun();
+        }
+    }
+
+
+    /**
+     * Sorts the added entries. No entry can be added afterward.
+     *
+     * @return A cursor on the sorted entries
+     * @throws IOException If the runs can't be written or read
+     */
+    Cursor<Entry> sort() throws IOException
+    {
+        if ( top != null )
+        {
+            records = new ArrayList<>( top );
+            top = null;
+        }
+
+        if ( runs.isEmpty() )
+        {
+            records.sort( comparator );
+            List<Entry> entries = new ArrayList<>( records.size() );
+
+            for ( SortedRecord record : records )
+            {
+                entries.add( record.entry );
+            }
+
+            records = null;
+
+            return new ListCursor<>( entries );
+        }
+
+        if ( !records.isEmpty() )
+        {
+            writeRun();
+        }
+
+        records = null;
+
+        return new SortedEntryCursor( this );
+    }
+
+
+    /**
+     * Starts the merge of the runs from their beginning.
+     *
+     * @throws IOException If the runs can't be read
+     */
+    void rewind() throws IOException
+    {
+        closeInputs();
+        heads = new PriorityQueue<>( Math.max( 1, runs.size() ) );
+
+        for ( File run : runs )
+        {
+            DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( run ),
+                BUFFER_SIZE ) );
+            inputs.add( in );
+            Head head = new Head( in );
+
+            if ( head.advance() )
+            {
+                heads.add( head );
+            }
+        }
+    }
+
+
+    /**
+     * Reads the next sorted entry from the runs.
+     *
+     * @return The next entry, or null if all the entries have been read
+     * @throws IOException If the runs can't be read
+     */
+    Entry next() throws IOException
+    {
+        Head head = ( heads == null ) ? null : heads.poll();
+
+        if ( head == null )
+        {
+            return null;
+        }
+
+        SortedRecord record = head.record;
+
+        if ( head.advance() )
+        {
+            heads.add( head );
+        }
+
+        return ( Entry ) serializer.deserialize( record.serialized );
+    }
+
+
+    /**
+     * Deletes the runs.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        closeInputs();
+
+        for ( File run : runs )
+        {
+            if ( !run.delete() )
+            {
+                LOG.warn( "Failed to delete the sorted entry data file {}", run );
+            }
+        }
+
+        runs.clear();
+        records = null;
+        top = null;
+    }
+
+
+    private void closeInputs() throws IOException
+    {
+        for ( DataInputStream in : inputs )
+        {
+            in.close();
+        }
+
+        inputs.clear();
+        heads = null;
+    }
+
+
+    /**
+     * Compares two records on all the sort keys, then on their addition order.
+     */
+    private int compare( SortedRecord record1, SortedRecord record2 )
+    {
+        for ( int i = 0; i < keys.length; i++ )
+        {
+            int c = keys[i].compare( record1.values[i], record2.values[i] );
+
+            if ( c != 0 )
+            {
+                return c;
+            }
+        }
+
+        return Long.compare( record1.sequence, record2.sequence );
+    }
+
+
+    /**
+     * Sorts the records, and writes them in a new run.
+     */
+    private void writeRun() throws IOException
+    {
+        records.sort( comparator );
+
+        File run = null;
+
+        try
+        {
+            run = Files.createTempFile( "sorted-entries-", ".run" ).toFile();
+        }
+        catch ( IOException e )
+        {
+            // see DIRSERVER-2091
+            LOG.error( "Error creating temp file in directory {} for sorting: {}",
+                System.getProperty( "java.io.tmpdir" ), e.getMessage(), e );
+            throw e;
+        }
+
+        runs.add( run );
+
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+            new FileOutputStream( run ), BUFFER_SIZE ) ) )
+        {
+            for ( SortedRecord record : records )
+            {
+                out.writeBoolean( true );
+                write( out, record );
+            }
+
+            out.writeBoolean( false );
+        }
+
+        LOG.debug( "Written the sorted entry data file {} with {} entries", run, records.size() );
+
+        records.clear();
+        memoryUsed = 0L;
+    }
+
+
+    /**
+     * Writes a record : its sort keys, its addition order and the serialized entry.
+     */
+    private void write( DataOutputStream out, SortedRecord record ) throws IOException
+    {
+        for ( Object value : record.values )
+        {
+            if ( value == null )
+            {
+                out.writeByte( 0 );
+            }
+            else if ( value instanceof String )
+            {
+                out.writeByte( 1 );
+                writeBytes( out, Strings.getBytesUtf8( ( String ) value ) );
+            }
+            else
+            {
+                out.writeByte( 2 );
+                writeBytes( out, ( byte[] ) value );
+            }
+        }
+
+        out.writeLong( record.sequence );
+        writeBytes( out, serializer.serialize( record.entry ) );
+    }
+
+
+    /**
+     * Reads a record, without deserializing the entry.
+     */
+    private SortedRecord read( DataInputStream in ) throws IOException
+    {
+        Object[] values = new Object[keys.length];
+
+        for ( int i = 0; i < values.length; i++ )
+        {
+            switch ( in.readByte() )
+            {
+                case 0:
+                    values[i] = null;
+                    break;
+
+                case 1:
+                    values[i] = Strings.utf8ToString( readBytes( in ) );
+                    break;
+
+                default:
+                    values[i] = readBytes( in );
+                    break;
+            }
+        }
+
+        long recordSequence = in.readLong();
+
+        return new SortedRecord( values, recordSequence, null, readBytes( in ) );
+    }
+
+
+    private static void writeBytes( DataOutputStream out, byte[] bytes ) throws IOException
+    {
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+
+    private static byte[] readBytes( DataInputStream in ) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully( bytes );
+
+        return bytes;
+    }
+
+
+    /**
+     * Estimates the memory used by an entry.
+     */
+    private static long estimateSize( Entry entry )
+    {
+        long size = ENTRY_OVERHEAD + 2L * entry.getDn().getName().length();
+
+        for ( Attribute attribute : entry )
+        {
+            size += ATTRIBUTE_OVERHEAD;
+
+            for ( Value value : attribute )
+            {
+                if ( value.isHumanReadable() )
+                {
+                    // The user provided and the normalized values
+                    size += VALUE_OVERHEAD + 4L * value.getString().length();
+                }
+                else
+                {
+                    size += VALUE_OVERHEAD + value.getBytes().length;
+                }
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * An entry and its sort keys. The entry read from a run is kept serialized until it
+     * is returned.
+     */
+    private static class SortedRecord
+    {
+        /** The least value of each sort key, null if the entry has no value */
+        private final Object[] values;
+
+        /** The addition order */
+        private final long sequence;
+
+        /** The entry */
+        private final Entry entry;
+
+        /** The serialized entry */
+        private final byte[] serialized;
+
+
+        private SortedRecord( Object[] values, long sequence, Entry entry, byte[] serialized )
+        {
+            this.values = values;
+            this.sequence = sequence;
+            this.entry = entry;
+            this.serialized = serialized;
+        }
+    }
+
+    /**
+     * The current record of a run being merged.
+     */
+    private class Head implements Comparable<Head>
+    {
+        /** The run */
+        private final DataInputStream in;
+
+        /** The current record */
+        private SortedRecord record;
+
+
+        private Head( DataInputStream in )
+        {
+            this.in = in;
+        }
+
+
+        /**
+         * Reads the next record of the run.
+         *
+         * @return false if there is no more record in the run
+         */
+        private boolean advance() throws IOException
+        {
+            if ( !in.readBoolean() )
+            {
+                record = null;
+
+                return false;
+            }
+
+            record = read( in );
+
+            return true;
+        }
+
+
+        @Override
+        public int compareTo( Head other )
+        {
+            return compare( record, other.record );
+        }
+    }
+
+    /**
+     * Extracts and compares the values of a sort key. An entry is sorted on the least value
+     * of a multi-valued attribute, and the entries without value come last, or first in
+     * reverse order.
+     */
+    private static class KeyExtractor
+    {
+        /** The sort attribute */
+        private final AttributeType attributeType;
+
+        /** The comparator of the ordering rule */
+        private final LdapComparator<Object> comparator;
+
+        /** Tells if the order is reversed */
+        private final boolean reverse;
+
+        /** Tells if the values are compared as strings */
+        private final boolean humanReadable;
+
+        /** Tells if the attribute is the entryDn, which values are compared as DNs */
+        private final boolean entryDn;
+
+
+        @SuppressWarnings("unchecked")
+        private KeyExtractor( SortKey sortKey, SchemaManager schemaManager ) throws LdapException
+        {
+            attributeType = schemaManager.lookupAttributeTypeRegistry( sortKey.getAttributeTypeDesc() );
+            reverse = sortKey.isReverseOrder();
+            entryDn = SchemaConstants.ENTRY_DN_AT_OID.equals( attributeType.getOid() );
+
+            LdapComparator<?> ldapComparator;
+
+            if ( entryDn )
+            {
+                ldapComparator = new ParsedDnComparator( SchemaConstants.ENTRY_DN_AT_OID );
+                humanReadable = true;
+            }
+            else
+            {
+                humanReadable = attributeType.getSyntax().isHumanReadable();
+                String mrOid = sortKey.getMatchingRuleId();
+
+                if ( mrOid == null )
+                {
+                    MatchingRule mr = attributeType.getOrdering();
+
+                    if ( mr == null )
+                    {
+                        mr = attributeType.getEquality();
+                    }
+
+                    mrOid = mr.getOid();
+                }
+
+                ldapComparator = schemaManager.lookupComparatorRegistry( mrOid );
+            }
+
+            ldapComparator.setSchemaManager( schemaManager );
+            comparator = ( LdapComparator<Object> ) ldapComparator;
+        }
+
+
+        /**
+         * @return The least value of the entry, or null if it has none
+         */
+        private Object extract( Entry entry )
+        {
+            Attribute attribute = entry.get( attributeType );
+
+            if ( attribute == null )
+            {
+                return null;
+            }
+
+            Object least = null;
+
+            for ( Value value : attribute )
+            {
+                Object current;
+
+                if ( entryDn )
+                {
+                    current = value.getString();
+                }
+                else if ( humanReadable )
+                {
+                    current = value.getNormalized();
+                }
+                else
+                {
+                    current = value.getBytes();
+                }
+
+                if ( ( least == null ) || ( comparator.compare( current, least ) < 0 ) )
+                {
+                    least = current;
+                }
+            }
+
+            return least;
+        }
+
+
+        private int compare( Object value1, Object value2 )
+        {
+            if ( value1 == null )
+            {
+                if ( value2 == null )
+                {
+                    return 0;
+                }
+
+                return reverse ? -1 : 1;
+            }
+            else if ( value2 == null )
+            {
+                return reverse ? 1 : -1;
+            }
+
+            if ( reverse )
+            {
+                return comparator.compare( value2, value1 );
+            }
+            else
+            {
+                return comparator.compare( value1, value2 );
+            }
+        }
+    }
+}
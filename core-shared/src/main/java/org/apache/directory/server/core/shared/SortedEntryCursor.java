@@ -20,15 +20,8 @@
 package org.apache.directory.server.core.shared;
 
 
-import java.io.File;
 import java.io.IOException;
 import java.util.List;
-import java.util.NoSuchElementException;
-
-import jdbm.RecordManager;
-import jdbm.btree.BTree;
-import jdbm.helper.Tuple;
-import jdbm.helper.TupleBrowser;
 
 import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
@@ -43,10 +36,10 @@ import org.slf4j.LoggerFactory;
 
 
 /**
- * Cursor for sorted entries.
- * 
- * Note: This currently uses JDBM, but will be migrated to use Mavibot
- *       when ready.
+ * Cursor for sorted entries which did not fit in memory. The entries are read while
+ * merging the sorted runs written in temporary files, which are deleted when the cursor
+ * is closed. Moving backward restarts the merge, so this cursor is meant to be read
+ * forward.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -54,31 +47,31 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
 {
 
     private static final Logger LOG = LoggerFactory.getLogger( SortedEntryCursor.class );
-    
-    private TupleBrowser browser;
 
-    private final Tuple tuple = new Tuple();
+    /** The sorter holding the runs */
+    private final EntrySorter sorter;
+
+    /** The current entry */
+    private Entry current;
 
-    private RecordManager recMan;
+    /** The position of the current entry, starting at 1. 0 is before the first entry */
+    private long position;
 
-    private File dataFile;
-    
-    private BTree<Entry, String> btree;
-    
+    /** Tells if the cursor is after the last entry */
+    private boolean afterLast;
 
-    public SortedEntryCursor( BTree<Entry, String> btree, RecordManager recMan, File dataFile ) throws IOException
+
+    SortedEntryCursor( EntrySorter sorter ) throws IOException
     {
-        this.recMan = recMan;
-        this.dataFile = dataFile;
-        this.btree = btree;
-        browser = btree.browse();
+        this.sorter = sorter;
+        sorter.rewind();
     }
 
 
     @Override
     public boolean available()
     {
-        return tuple.getKey() != null;
+        return current != null;
     }
 
 
@@ -101,29 +94,26 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
     {
         try
         {
-            clearValue();
-            browser = btree.browse();
+            sorter.rewind();
         }
         catch ( IOException e )
         {
             throw new CursorException( e );
         }
+
+        current = null;
+        position = 0L;
+        afterLast = false;
     }
 
 
     @Override
     public void afterLast() throws LdapException, CursorException
     {
-        try
-        {
-            clearValue();
-            browser = btree.browse( null );
-        }
-        catch ( IOException e )
+        while ( next() )
         {
-            throw new CursorException( e );
+            // Read all the remaining entries
         }
-
     }
 
 
@@ -146,80 +136,64 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
     @Override
     public boolean previous() throws LdapException, CursorException
     {
-        try
-        {
+        long target = position - 1L;
+        beforeFirst();
 
-            if ( browser == null )
-            {
-                browser = btree.browse( null );
-            }
-            
-            if ( browser.getPrevious( tuple ) )
-            {
-                return true;
-            }
-        }
-        catch ( IOException e )
+        while ( ( position < target ) && next() )
         {
-            throw new CursorException( e );
-        }
-        catch ( NoSuchElementException e )
-        {
-            // ignore this is due to the call wrapped.prev()
-            // instead of doing a check like if(wrapped.hasPrev())
+            // Read the entries up to the previous one
         }
 
-        clearValue();
-        return false;
+        return available();
     }
 
 
     @Override
     public boolean next() throws LdapException, CursorException
     {
+        if ( afterLast )
+        {
+            return false;
+        }
+
         try
         {
-            if ( browser == null )
-            {
-                browser = btree.browse();
-            }
-            
-            if ( browser.getNext( tuple ) )
-            {
-                return true;
-            }
+            current = sorter.next();
         }
         catch ( IOException e )
         {
             throw new CursorException( e );
         }
-        catch ( NoSuchElementException e )
+
+        position++;
+
+        if ( current == null )
         {
-            // ignore, this is due to the call wrapped.prev()
-            // instead of doing a check like if(wrapped.hasNext())
+            afterLast = true;
+
+            return false;
         }
 
-        clearValue();
-        return false;
+        return true;
     }
 
 
     @Override
     public Entry get() throws CursorException
     {
-        if ( tuple.getKey() == null )
+        if ( current == null )
         {
             throw new InvalidCursorPositionException();
         }
 
-        return ( Entry ) tuple.getKey();
+        return current;
     }
 
 
     @Override
     public void close() throws IOException
     {
-        deleteFile();
+        deleteRuns();
         super.close();
     }
 
@@ -227,7 +201,7 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
     @Override
     public void close( Exception cause ) throws IOException
     {
-        deleteFile();
+        deleteRuns();
         super.close( cause );
     }
 
@@ -252,29 +226,16 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
         return null;
     }
 
-    
-    private void clearValue()
-    {
-        tuple.setKey( null );
-        tuple.setValue( null );
-    }
 
-    
-    private void deleteFile()
+    private void deleteRuns()
     {
-        if ( recMan == null )
-        {
-            return;
-        }
-
         try
         {
-            recMan.close();
-            dataFile.delete();
+            sorter.close();
         }
         catch ( IOException e )
         {
-            LOG.warn( "Failed to delete the sorted entry data file {}", dataFile, e );
+            LOG.warn( "Failed to delete the sorted entry data files", e );
         }
     }
 }
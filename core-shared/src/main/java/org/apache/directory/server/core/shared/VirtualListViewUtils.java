@@ -0,0 +1,120 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequest;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponse;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponseImpl;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResultCode;
+
+
+/**
+ * Helper methods computing the window of a Virtual List View request, as described in
+ * <a href="https://tools.ietf.org/html/draft-ietf-ldapext-ldapv3-vlv-09">draft-ietf-ldapext-ldapv3-vlv-09</a>.
+ * The positions are 1-based.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class VirtualListViewUtils
+{
+    private VirtualListViewUtils()
+    {
+    }
+
+
+    /**
+     * Compute the position of the target entry of a request by offset. The offset is
+     * scaled when the client's estimate of the list size differs from ours.
+     *
+     * @param request The VLV request
+     * @param contentCount The number of entries in the list
+     * @return The position of the target entry, between 1 and contentCount, or 0 if the list is empty
+     */
+    public static int getTargetPosition( VirtualListViewRequest request, int contentCount )
+    {
+        if ( contentCount == 0 )
+        {
+            return 0;
+        }
+
+        long offset = request.getOffset();
+        int clientCount = request.getContentCount();
+
+        if ( ( clientCount > 0 ) && ( clientCount != contentCount ) )
+        {
+            if ( offset >= clientCount )
+            {
+                offset = contentCount;
+            }
+            else
+            {
+                offset = offset * contentCount / clientCount;
+            }
+        }
+
+        return ( int ) Math.max( 1L, Math.min( offset, contentCount ) );
+    }
+
+
+    /**
+     * @param targetPosition The position of the target entry
+     * @param beforeCount The number of entries requested before the target
+     * @return The position of the first entry of the window, at least 1
+     */
+    public static int getFirstPosition( int targetPosition, int beforeCount )
+    {
+        return Math.max( 1, targetPosition - beforeCount );
+    }
+
+
+    /**
+     * @param targetPosition The position of the target entry
+     * @param afterCount The number of entries requested after the target
+     * @param contentCount The number of entries in the list
+     * @return The position of the last entry of the window, at most contentCount
+     */
+    public static int getLastPosition( int targetPosition, int afterCount, int contentCount )
+    {
+        return ( int ) Math.min( contentCount, ( long ) targetPosition + afterCount );
+    }
+
+
+    /**
+     * Create the response control of a VLV request.
+     *
+     * @param request The VLV request
+     * @param resultCode The VLV result
+     * @param targetPosition The position of the target entry
+     * @param contentCount The number of entries in the list, or an estimate of it
+     * @return The response control
+     */
+    public static VirtualListViewResponse createResponse( VirtualListViewRequest request,
+        VirtualListViewResultCode resultCode, int targetPosition, int contentCount )
+    {
+        VirtualListViewResponse response = new VirtualListViewResponseImpl();
+        response.setViewResult( resultCode );
+        response.setTargetPosition( targetPosition );
+        response.setContentCount( contentCount );
+        response.setContextId( request.getContextId() );
+
+        return response;
+    }
+}
@@ -31,6 +31,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
@@ -129,6 +130,9 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     /** The cn=schema Dn */
     private Dn subschemaSubentryDn;
 
+    /** The number of writes applied so far, checked by the operation contexts' entry memo */
+    private final AtomicLong writeCount = new AtomicLong();
+
 
     /**
      * Creates the root nexus singleton of the entire system.  The root DSE has
@@ -374,6 +378,17 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     {
         Partition partition = addContext.getPartition();
         partition.add( addContext );
+        writeCount.incrementAndGet();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getWriteCount()
+    {
+        return writeCount.get();
     }
 
 
@@ -425,7 +440,10 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public Entry delete( DeleteOperationContext deleteContext ) throws LdapException
     {
         Partition partition = getPartition( deleteContext.getDn() );
-        return partition.delete( deleteContext );
+        Entry deleted = partition.delete( deleteContext );
+        writeCount.incrementAndGet();
+
+        return deleted;
     }
 
 
@@ -500,6 +518,7 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         Partition partition = getPartition( modifyContext.getDn() );
 
         partition.modify( modifyContext );
+        writeCount.incrementAndGet();
 
         if ( modifyContext.isPushToEvtInterceptor() )
         {
@@ -518,6 +537,7 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         Partition partition = getPartition( moveContext.getDn() );
 
         partition.move( moveContext );
+        writeCount.incrementAndGet();
     }
 
 
@@ -529,6 +549,7 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     {
         Partition partition = getPartition( moveAndRenameContext.getDn() );
         partition.moveAndRename( moveAndRenameContext );
+        writeCount.incrementAndGet();
     }
 
 
@@ -540,6 +561,7 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     {
         Partition partition = getPartition( renameContext.getDn() );
         partition.rename( renameContext );
+        writeCount.incrementAndGet();
     }
 
 
@@ -201,6 +201,12 @@ public class DefaultDirectoryService implements DirectoryService
     /** The default delay to wait between sync on disk : 15 seconds */
     private static final long DEFAULT_SYNC_PERIOD = 15000;
 
+    /** The default memory budget of a sorted search : 16 MB */
+    public static final long DEFAULT_SORT_MEMORY_BUDGET = 16L * 1024L * 1024L;
+
+    /** The memory a sorted search can use before writing the entries in temporary files */
+    private long sortMemoryBudget = DEFAULT_SORT_MEMORY_BUDGET;
+
     /** The default timeLimit : 100 entries */
     public static final int MAX_SIZE_LIMIT_DEFAULT = 100;
 
@@ -2321,6 +2327,24 @@ public class DefaultDirectoryService implements DirectoryService
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public long getSortMemoryBudget()
+    {
+        return sortMemoryBudget;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setSortMemoryBudget( long sortMemoryBudget )
+    {
+        this.sortMemoryBudget = sortMemoryBudget;
+    }
+
+
     /**
      * checks if the working directory is already in use by some other directory service, if yes
      * then throws a runtime exception else will obtain the lock on the working directory
@@ -32,6 +32,7 @@ import static org.apache.directory.api.ldap.model.constants.PasswordPolicySchema
 import java.io.IOException;
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -51,6 +52,7 @@ import org.apache.directory.server.core.api.authn.ppolicy.PasswordPolicyExceptio
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.authn.ppolicy.BindStateStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -271,6 +273,13 @@ public abstract class AbstractAuthenticator implements Authenticator
             .getInterceptor(
             InterceptorEnum.AUTHENTICATION_INTERCEPTOR.getName() );
         PasswordPolicyConfiguration pPolicyConfig = authenticationInterceptor.getPwdPolicy( userEntry );
+        BindStateStore bindStateStore = authenticationInterceptor.getBindStateStore();
+
+        if ( bindStateStore != null )
+        {
+            // Some failures or successes may not have been written yet
+            userEntry = bindStateStore.overlay( userEntry );
+        }
 
         // check for locked out account
         if ( pPolicyConfig.isPwdLockout() )
@@ -301,6 +310,28 @@ public abstract class AbstractAuthenticator implements Authenticator
                         throw new PasswordPolicyException( "account will remain locked till " + unlockDate,
                             ACCOUNT_LOCKED.getValue() );
                     }
+                    else if ( bindStateStore != null )
+                    {
+                        // remove pwdAccountLockedTime attribute, unless it has been changed meanwhile
+                        final String expiredLockTime = lockedTime;
+
+                        bindStateStore.update( userEntry, new BindStateStore.Update()
+                        {
+                            @Override
+                            public List<Modification> modifications( Entry current )
+                            {
+                                Attribute currentLockAttr = current.get( PWD_ACCOUNT_LOCKED_TIME_AT );
+
+                                if ( ( currentLockAttr == null ) || !currentLockAttr.contains( expiredLockTime ) )
+                                {
+                                    return Collections.emptyList();
+                                }
+
+                                return Collections.<Modification>singletonList( new DefaultModification(
+                                    ModificationOperation.REMOVE_ATTRIBUTE, currentLockAttr ) );
+                            }
+                        } );
+                    }
                     else
                     {
                         // remove pwdAccountLockedTime attribute
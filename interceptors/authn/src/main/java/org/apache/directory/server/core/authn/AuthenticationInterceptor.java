@@ -102,6 +102,7 @@ import org.apache.directory.server.core.api.interceptor.context.SearchOperationC
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.authn.ppolicy.BindStateStore;
 import org.apache.directory.server.core.authn.ppolicy.PpolicyConfigContainer;
 import org.apache.directory.server.core.shared.DefaultCoreSession;
 import org.apache.directory.server.i18n.I18n;
@@ -155,6 +156,12 @@ public class AuthenticationInterceptor extends BaseInterceptor
     /** a container to hold all the ppolicies */
     private PpolicyConfigContainer pwdPolicyContainer;
 
+    /** The delay (in ms) between two writes of the bind states. 0 means they are written synchronously */
+    private long bindStateFlushInterval = 0L;
+
+    /** The store holding the bind states not yet written, if the writes are asynchronous */
+    private BindStateStore bindStateStore;
+
 
     /**
      * Creates an authentication service interceptor.
@@ -187,6 +194,13 @@ public class AuthenticationInterceptor extends BaseInterceptor
         }
 
         loadPwdPolicyStateAttributeTypes();
+
+        if ( bindStateFlushInterval > 0 )
+        {
+            bindStateStore = new BindStateStore( directoryService, bindStateFlushInterval,
+                pwdFailurTimeAT, pwdAccountLockedTimeAT, pwdLastSuccessAT );
+            bindStateStore.start();
+        }
     }
 
 
@@ -262,6 +276,12 @@ public class AuthenticationInterceptor extends BaseInterceptor
     @Override
     public void destroy()
     {
+        if ( bindStateStore != null )
+        {
+            bindStateStore.stop();
+            bindStateStore = null;
+        }
+
         authenticatorsMapByType.clear();
         Set<Authenticator> copy = new HashSet<>( authenticators );
         authenticators = new HashSet<>();
@@ -625,6 +645,12 @@ public class AuthenticationInterceptor extends BaseInterceptor
             lookupContext.setTransaction( bindContext.getTransaction() );
             
             userEntry = directoryService.getPartitionNexus().lookup( lookupContext );
+
+            if ( bindStateStore != null )
+            {
+                // The state attributes may not have been written yet
+                userEntry = bindStateStore.overlay( userEntry );
+            }
         }
 
         // check if the user entry is null, it will be null
@@ -643,52 +669,32 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
             if ( ( policyConfig != null ) && ( userEntry != null ) )
             {
-                Attribute pwdFailTimeAt = userEntry.get( pwdFailurTimeAT );
+                List<Modification> mods;
 
-                if ( pwdFailTimeAt == null )
+                if ( bindStateStore == null )
                 {
-                    pwdFailTimeAt = new DefaultAttribute( pwdFailurTimeAT );
+                    mods = buildBindFailureModifications( userEntry, policyConfig, pwdRespCtrl );
                 }
                 else
                 {
-                    purgeFailureTimes( policyConfig, pwdFailTimeAt );
-                }
-
-                String failureTime = DateUtils.getGeneralizedTime( directoryService.getTimeProvider() );
-                pwdFailTimeAt.add( failureTime );
-                Modification pwdFailTimeMod = new DefaultModification( REPLACE_ATTRIBUTE, pwdFailTimeAt );
-
-                List<Modification> mods = new ArrayList<>();
-                mods.add( pwdFailTimeMod );
+                    // Record the failure in the bind state store, it will be written later
+                    final PasswordPolicyConfiguration config = policyConfig;
+                    final PasswordPolicyResponse responseControl = pwdRespCtrl;
 
-                int numFailures = pwdFailTimeAt.size();
-
-                if ( policyConfig.isPwdLockout() && ( numFailures >= policyConfig.getPwdMaxFailure() ) )
-                {
-                    // Checking that we're not locking the admin user of the system partition
-                    // See DIRSERVER-1812 (The default admin account should never get locked forever)
-                    if ( !userEntry.getDn().equals( new Dn( schemaManager, ServerDNConstants.ADMIN_SYSTEM_DN ) ) )
+                    mods = bindStateStore.update( userEntry, new BindStateStore.Update()
                     {
-                        Attribute pwdAccountLockedTimeAt = new DefaultAttribute( pwdAccountLockedTimeAT );
-
-                        // if zero, lockout permanently, only admin can unlock it
-                        if ( policyConfig.getPwdLockoutDuration() == 0 )
-                        {
-                            pwdAccountLockedTimeAt.add( "000001010000Z" );
-                        }
-                        else
+                        @Override
+                        public List<Modification> modifications( Entry current ) throws LdapException
                         {
-                            pwdAccountLockedTimeAt.add( failureTime );
+                            return buildBindFailureModifications( current, config, responseControl );
                         }
+                    } );
+                }
 
-                        Modification pwdAccountLockedMod = new DefaultModification( REPLACE_ATTRIBUTE,
-                            pwdAccountLockedTimeAt );
-                        mods.add( pwdAccountLockedMod );
+                int numFailures = mods.get( 0 ).getAttribute().size();
 
-                        pwdRespCtrl.setPasswordPolicyError( PasswordPolicyErrorEnum.ACCOUNT_LOCKED );
-                    }
-                }
-                else if ( policyConfig.getPwdMinDelay() > 0 )
+                if ( !( policyConfig.isPwdLockout() && ( numFailures >= policyConfig.getPwdMaxFailure() ) )
+                    && ( policyConfig.getPwdMinDelay() > 0 ) )
                 {
                     int numDelay = numFailures * policyConfig.getPwdMinDelay();
                     int maxDelay = policyConfig.getPwdMaxDelay();
@@ -710,7 +716,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
                     }
                 }
 
-                if ( !mods.isEmpty() )
+                if ( bindStateStore == null )
                 {
                     String csnVal = directoryService.getCSN().toString();
                     Modification csnMod = new DefaultModification( REPLACE_ATTRIBUTE, directoryService.getAtProvider()
@@ -733,28 +739,23 @@ public class AuthenticationInterceptor extends BaseInterceptor
         {
             List<Modification> mods = new ArrayList<>();
 
-            if ( policyConfig.getPwdMaxIdle() > 0 )
+            if ( bindStateStore == null )
             {
-                Attribute pwdLastSuccesTimeAt = new DefaultAttribute( pwdLastSuccessAT );
-                pwdLastSuccesTimeAt.add( DateUtils.getGeneralizedTime( directoryService.getTimeProvider() ) );
-                Modification pwdLastSuccesTimeMod = new DefaultModification( REPLACE_ATTRIBUTE, pwdLastSuccesTimeAt );
-                mods.add( pwdLastSuccesTimeMod );
+                mods.addAll( buildBindSuccessModifications( userEntry, policyConfig ) );
             }
-
-            Attribute pwdFailTimeAt = userEntry.get( pwdFailurTimeAT );
-
-            if ( pwdFailTimeAt != null )
+            else
             {
-                Modification pwdFailTimeMod = new DefaultModification( REMOVE_ATTRIBUTE, pwdFailTimeAt );
-                mods.add( pwdFailTimeMod );
-            }
+                // Record the success in the bind state store, it will be written later
+                final PasswordPolicyConfiguration config = policyConfig;
 
-            Attribute pwdAccLockedTimeAt = userEntry.get( pwdAccountLockedTimeAT );
-
-            if ( pwdAccLockedTimeAt != null )
-            {
-                Modification pwdAccLockedTimeMod = new DefaultModification( REMOVE_ATTRIBUTE, pwdAccLockedTimeAt );
-                mods.add( pwdAccLockedTimeMod );
+                bindStateStore.update( userEntry, new BindStateStore.Update()
+                {
+                    @Override
+                    public List<Modification> modifications( Entry current ) throws LdapException
+                    {
+                        return buildBindSuccessModifications( current, config );
+                    }
+                } );
             }
 
             // checking the expiration time *after* performing authentication, do we need to care about millisecond precision?
@@ -828,6 +829,102 @@ public class AuthenticationInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * Build the modifications to apply on the user entry after a failed bind :
+     * the failure time is added, and the account is locked if the maximum number
+     * of failures has been reached. The first modification is always the one
+     * containing all the failure times.
+     */
+    private List<Modification> buildBindFailureModifications( Entry userEntry, PasswordPolicyConfiguration policyConfig,
+        PasswordPolicyResponse pwdRespCtrl ) throws LdapException
+    {
+        Attribute pwdFailTimeAt = userEntry.get( pwdFailurTimeAT );
+
+        if ( pwdFailTimeAt == null )
+        {
+            pwdFailTimeAt = new DefaultAttribute( pwdFailurTimeAT );
+        }
+        else
+        {
+            pwdFailTimeAt = pwdFailTimeAt.clone();
+            purgeFailureTimes( policyConfig, pwdFailTimeAt );
+        }
+
+        String failureTime = DateUtils.getGeneralizedTime( directoryService.getTimeProvider() );
+        pwdFailTimeAt.add( failureTime );
+        Modification pwdFailTimeMod = new DefaultModification( REPLACE_ATTRIBUTE, pwdFailTimeAt );
+
+        List<Modification> mods = new ArrayList<>();
+        mods.add( pwdFailTimeMod );
+
+        int numFailures = pwdFailTimeAt.size();
+
+        if ( policyConfig.isPwdLockout() && ( numFailures >= policyConfig.getPwdMaxFailure() ) )
+        {
+            // Checking that we're not locking the admin user of the system partition
+            // See DIRSERVER-1812 (The default admin account should never get locked forever)
+            if ( !userEntry.getDn().equals( new Dn( schemaManager, ServerDNConstants.ADMIN_SYSTEM_DN ) ) )
+            {
+                Attribute pwdAccountLockedTimeAt = new DefaultAttribute( pwdAccountLockedTimeAT );
+
+                // if zero, lockout permanently, only admin can unlock it
+                if ( policyConfig.getPwdLockoutDuration() == 0 )
+                {
+                    pwdAccountLockedTimeAt.add( "000001010000Z" );
+                }
+                else
+                {
+                    pwdAccountLockedTimeAt.add( failureTime );
+                }
+
+                Modification pwdAccountLockedMod = new DefaultModification( REPLACE_ATTRIBUTE,
+                    pwdAccountLockedTimeAt );
+                mods.add( pwdAccountLockedMod );
+
+                pwdRespCtrl.setPasswordPolicyError( PasswordPolicyErrorEnum.ACCOUNT_LOCKED );
+            }
+        }
+
+        return mods;
+    }
+
+
+    /**
+     * Build the modifications to apply on the user entry after a successful bind :
+     * the last success time is updated, the failure times and the lock are removed.
+     */
+    private List<Modification> buildBindSuccessModifications( Entry userEntry, PasswordPolicyConfiguration policyConfig )
+    {
+        List<Modification> mods = new ArrayList<>();
+
+        if ( policyConfig.getPwdMaxIdle() > 0 )
+        {
+            Attribute pwdLastSuccesTimeAt = new DefaultAttribute( pwdLastSuccessAT );
+            pwdLastSuccesTimeAt.add( DateUtils.getGeneralizedTime( directoryService.getTimeProvider() ) );
+            Modification pwdLastSuccesTimeMod = new DefaultModification( REPLACE_ATTRIBUTE, pwdLastSuccesTimeAt );
+            mods.add( pwdLastSuccesTimeMod );
+        }
+
+        Attribute pwdFailTimeAt = userEntry.get( pwdFailurTimeAT );
+
+        if ( pwdFailTimeAt != null )
+        {
+            Modification pwdFailTimeMod = new DefaultModification( REMOVE_ATTRIBUTE, pwdFailTimeAt );
+            mods.add( pwdFailTimeMod );
+        }
+
+        Attribute pwdAccLockedTimeAt = userEntry.get( pwdAccountLockedTimeAT );
+
+        if ( pwdAccLockedTimeAt != null )
+        {
+            Modification pwdAccLockedTimeMod = new DefaultModification( REMOVE_ATTRIBUTE, pwdAccLockedTimeAt );
+            mods.add( pwdAccLockedTimeMod );
+        }
+
+        return mods;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -860,6 +957,11 @@ public class AuthenticationInterceptor extends BaseInterceptor
         checkPwdReset( deleteContext );
         next( deleteContext );
         invalidateAuthenticatorCaches( deleteContext.getDn() );
+
+        if ( bindStateStore != null )
+        {
+            bindStateStore.remove( deleteContext.getDn() );
+        }
     }
 
 
@@ -942,18 +1044,63 @@ public class AuthenticationInterceptor extends BaseInterceptor
         }
 
         checkAuthenticated( modifyContext );
+        flushBindState( modifyContext );
 
-        if ( !directoryService.isPwdPolicyEnabled() || modifyContext.isReplEvent() )
+        try
         {
-            processStandardModify( modifyContext );
+            if ( !directoryService.isPwdPolicyEnabled() || modifyContext.isReplEvent() )
+            {
+                processStandardModify( modifyContext );
+            }
+            else
+            {
+                processPasswordPolicydModify( modifyContext );
+            }
         }
-        else
+        finally
         {
-            processPasswordPolicydModify( modifyContext );
+            if ( bindStateStore != null )
+            {
+                // A bind may have cached the entry state while it was being modified
+                bindStateStore.remove( modifyContext.getDn() );
+            }
         }
     }
 
-    
+
+    /**
+     * Write the pending bind state of the modified entry, if any, so that the
+     * modification is applied on top of it, and discard it : the modification
+     * may change the state attributes (an account being unlocked, for instance).
+     * The entry stored in the context is read again, as it does not contain the
+     * state which has just been written.
+     */
+    private void flushBindState( ModifyOperationContext modifyContext ) throws LdapException
+    {
+        if ( bindStateStore == null )
+        {
+            return;
+        }
+
+        boolean pending = bindStateStore.hasPendingState( modifyContext.getDn() );
+        bindStateStore.invalidate( modifyContext, modifyContext.getDn() );
+
+        if ( !pending )
+        {
+            return;
+        }
+
+        // The flush has been written by another operation, the memoized entry is stale
+        modifyContext.invalidateEntry( modifyContext.getDn() );
+        Entry entry = modifyContext.lookupEntry( modifyContext.getDn() );
+
+        if ( entry != null )
+        {
+            modifyContext.setEntry( entry );
+        }
+    }
+
+
     /**
      * Proceed with the Modification operation when the PasswordPolicy is not activated.
      */
@@ -1074,12 +1221,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
                 invalidateAuthenticatorCaches( modifyContext.getDn() );
 
-                LookupOperationContext lookupContext = new LookupOperationContext( adminSession, modifyContext.getDn(),
-                    SchemaConstants.ALL_ATTRIBUTES_ARRAY );
-                lookupContext.setPartition( modifyContext.getPartition() );
-                lookupContext.setTransaction( modifyContext.getTransaction() );
-                
-                entry = directoryService.getPartitionNexus().lookup( lookupContext );
+                entry = modifyContext.lookupEntry( modifyContext.getDn() );
 
                 if ( ( policyConfig.getPwdMinAge() > 0 ) || ( policyConfig.getPwdMaxAge() > 0 ) )
                 {
@@ -1332,6 +1474,13 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
         checkAuthenticated( moveContext );
         checkPwdReset( moveContext );
+
+        if ( bindStateStore != null )
+        {
+            // The pending state must be written before the entry is moved
+            bindStateStore.invalidate( moveContext, moveContext.getDn() );
+        }
+
         next( moveContext );
         invalidateAuthenticatorCaches( moveContext.getDn() );
     }
@@ -1350,6 +1499,13 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
         checkAuthenticated( moveAndRenameContext );
         checkPwdReset( moveAndRenameContext );
+
+        if ( bindStateStore != null )
+        {
+            // The pending state must be written before the entry is moved
+            bindStateStore.invalidate( moveAndRenameContext, moveAndRenameContext.getDn() );
+        }
+
         next( moveAndRenameContext );
         invalidateAuthenticatorCaches( moveAndRenameContext.getDn() );
     }
@@ -1368,6 +1524,13 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
         checkAuthenticated( renameContext );
         checkPwdReset( renameContext );
+
+        if ( bindStateStore != null )
+        {
+            // The pending state must be written before the entry is moved
+            bindStateStore.invalidate( renameContext, renameContext.getDn() );
+        }
+
         next( renameContext );
         invalidateAuthenticatorCaches( renameContext.getDn() );
     }
@@ -1864,6 +2027,42 @@ public class AuthenticationInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * @return The delay (in ms) between two writes of the bind states. 0 means
+     * the states are written synchronously, during the bind
+     */
+    public long getBindStateFlushInterval()
+    {
+        return bindStateFlushInterval;
+    }
+
+
+    /**
+     * Sets the delay (in ms) between two writes of the password policy states
+     * (pwdFailureTime, pwdAccountLockedTime, pwdLastSuccess) modified by the binds.
+     * When greater than 0, the states are kept in memory and written in batch,
+     * instead of being written during each bind. It must be set before the
+     * interceptor is initialized. It's configured by the ads-pwdBindStateFlushInterval
+     * attribute of the authentication interceptor entry.
+     *
+     * @param bindStateFlushInterval The delay between two writes, 0 to disable it
+     */
+    public void setBindStateFlushInterval( long bindStateFlushInterval )
+    {
+        this.bindStateFlushInterval = Math.max( 0L, bindStateFlushInterval );
+    }
+
+
+    /**
+     * @return The store holding the pending bind states, or null if they are
+     * written synchronously
+     */
+    public BindStateStore getBindStateStore()
+    {
+        return bindStateStore;
+    }
+
+
     /**
      * @return the pwdPolicyContainer
      */
@@ -21,10 +21,16 @@ package org.apache.directory.server.core.authn;
 
 
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.naming.Context;
 
-import org.apache.commons.collections4.map.LRUMap;
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -45,6 +51,9 @@ import org.apache.directory.server.core.api.interceptor.context.LookupOperationC
 import org.apache.directory.server.i18n.I18n;
 import org.apache.mina.core.session.IoSession;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
 
 /**
  * A simple {@link Authenticator} that authenticates clear text passwords
@@ -52,7 +61,9 @@ import org.apache.mina.core.session.IoSession;
  * password is stored with a one-way encryption applied (e.g. SHA), the password
  * is hashed the same way before comparison.
  *
- * We use a cache to speedup authentication, where the Dn/password are stored.
+ * We use a cache to speedup authentication, where the Dn/password are stored,
+ * along with a salted digest of the credentials which have already been verified
+ * against them, so that a repeated bind does not have to hash the password again.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -75,21 +86,52 @@ public class SimpleAuthenticator extends AbstractAuthenticator
      * just have to offer an access to refresh the local cache.
      *
      * We need to be sure that frequently used passwords be always in cache, and not discarded.
-     * We will use a LRU cache for this purpose.
+     * The cache is bounded, and keyed by the normalized Dn.
      */
-    private final LRUMap credentialCache;
+    private final Cache<String, CachedCredentials> credentialCache;
 
     /** Declare a default for this cache. 100 entries seems to be enough */
     private static final int DEFAULT_CACHE_SIZE = 100;
 
+    /** The maximum number of verified credentials kept for a single entry */
+    private static final int MAX_VERIFIED_CREDENTIALS = 4;
+
+    /** The salt used to digest the verified credentials */
+    private final byte[] digestSalt = new byte[16];
+
+    /** The number of binds which have skipped the password verification */
+    private final LongAdder verificationsSkipped = new LongAdder();
+
+    /** The number of binds which have verified the password */
+    private final LongAdder verificationsDone = new LongAdder();
+
+
+    /**
+     * The stored passwords of an entry, and the digests of the credentials which
+     * have been successfully verified against them.
+     */
+    private static class CachedCredentials
+    {
+        /** The passwords read from the entry */
+        private final byte[][] userPasswords;
+
+        /** The digests of the verified credentials */
+        private final Set<ByteBuffer> verified = ConcurrentHashMap.newKeySet();
+
+
+        private CachedCredentials( byte[][] userPasswords )
+        {
+            this.userPasswords = userPasswords;
+        }
+    }
+
 
     /**
      * Creates a new instance.
      */
     public SimpleAuthenticator()
     {
-        super( AuthenticationLevel.SIMPLE );
-        credentialCache = new LRUMap( DEFAULT_CACHE_SIZE );
+        this( DEFAULT_CACHE_SIZE, Dn.ROOT_DSE );
     }
 
 
@@ -101,8 +143,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
      */
     public SimpleAuthenticator( Dn baseDn )
     {
-        super( AuthenticationLevel.SIMPLE, baseDn );
-        credentialCache = new LRUMap( DEFAULT_CACHE_SIZE );
+        this( DEFAULT_CACHE_SIZE, baseDn );
     }
 
 
@@ -112,9 +153,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
      */
     public SimpleAuthenticator( int cacheSize )
     {
-        super( AuthenticationLevel.SIMPLE, Dn.ROOT_DSE );
-
-        credentialCache = new LRUMap( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE );
+        this( cacheSize, Dn.ROOT_DSE );
     }
 
 
@@ -128,36 +167,37 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     {
         super( AuthenticationLevel.SIMPLE, baseDn );
 
-        credentialCache = new LRUMap( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE );
+        credentialCache = Caffeine.newBuilder().maximumSize( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE )
+            .recordStats().build();
+        new SecureRandom().nextBytes( digestSalt );
     }
 
 
     /**
      * Get the password either from cache or from backend.
-     * @param principalDN The Dn from which we want the password
-     * @return A byte array which can be empty if the password was not found
+     *
+     * @param bindContext The bind context
+     * @return The stored credentials
      * @throws Exception If we have a problem during the lookup operation
      */
-    private LdapPrincipal getStoredPassword( BindOperationContext bindContext ) throws LdapException
+    private CachedCredentials getStoredCredentials( BindOperationContext bindContext ) throws LdapException
     {
-        LdapPrincipal principal = null;
+        CachedCredentials cachedCredentials = null;
+        String normName = bindContext.getDn().getNormName();
 
         // use cache only if pwdpolicy is not enabled
-        if ( !getDirectoryService().isPwdPolicyEnabled() )
+        boolean useCache = !getDirectoryService().isPwdPolicyEnabled();
+
+        if ( useCache )
         {
-            synchronized ( credentialCache )
-            {
-                principal = ( LdapPrincipal ) credentialCache.get( bindContext.getDn() );
-            }
+            cachedCredentials = credentialCache.getIfPresent( normName );
         }
 
-        byte[][] storedPasswords;
-
-        if ( principal == null )
+        if ( cachedCredentials == null )
         {
             // Not found in the cache
             // Get the user password from the backend
-            storedPasswords = lookupUserPassword( bindContext );
+            byte[][] storedPasswords = lookupUserPassword( bindContext );
 
             // Deal with the special case where the user didn't enter a password
             // We will compare the empty array with the credentials. Sometime,
@@ -169,22 +209,37 @@ public class SimpleAuthenticator extends AbstractAuthenticator
                     {};
             }
 
-            // Create the new principal before storing it in the cache
-            principal = new LdapPrincipal( getDirectoryService().getSchemaManager(), bindContext.getDn(),
-                AuthenticationLevel.SIMPLE );
-            principal.setUserPassword( storedPasswords );
+            cachedCredentials = new CachedCredentials( storedPasswords );
 
             // Now, update the local cache ONLY if pwdpolicy is not enabled.
-            if ( !getDirectoryService().isPwdPolicyEnabled() )
+            if ( useCache )
             {
-                synchronized ( credentialCache )
-                {
-                    credentialCache.put( bindContext.getDn().getNormName(), principal );
-                }
+                credentialCache.put( normName, cachedCredentials );
             }
         }
 
-        return principal;
+        return cachedCredentials;
+    }
+
+
+    /**
+     * Compute a salted digest of the given credentials. It's used to recognize
+     * credentials which have already been verified, without keeping them.
+     */
+    private ByteBuffer digest( byte[] credentials )
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+            digest.update( digestSalt );
+
+            return ByteBuffer.wrap( digest.digest( credentials ) );
+        }
+        catch ( NoSuchAlgorithmException nsae )
+        {
+            // Can't happen, SHA-256 is always available
+            throw new IllegalStateException( nsae );
+        }
     }
 
 
@@ -206,7 +261,14 @@ public class SimpleAuthenticator extends AbstractAuthenticator
         // ---- extract password from JNDI environment
         byte[] credentials = bindContext.getCredentials();
 
-        LdapPrincipal principal = getStoredPassword( bindContext );
+        // Get the stored password, either from cache or from backend
+        CachedCredentials cachedCredentials = getStoredCredentials( bindContext );
+        byte[][] storedPasswords = cachedCredentials.userPasswords;
+
+        // The principal is created for each bind, as it holds the client address
+        LdapPrincipal principal = new LdapPrincipal( getDirectoryService().getSchemaManager(), bindContext.getDn(),
+            AuthenticationLevel.SIMPLE );
+        principal.setUserPassword( storedPasswords );
 
         IoSession session = bindContext.getIoSession();
 
@@ -218,9 +280,6 @@ public class SimpleAuthenticator extends AbstractAuthenticator
             principal.setServerAddress( serverAddress );
         }
 
-        // Get the stored password, either from cache or from backend
-        byte[][] storedPasswords = principal.getUserPasswords();
-
         PasswordPolicyException ppe = null;
         try
         {
@@ -231,6 +290,23 @@ public class SimpleAuthenticator extends AbstractAuthenticator
             ppe = e;
         }
 
+        ByteBuffer credentialsDigest = digest( credentials );
+
+        if ( ( ppe == null ) && cachedCredentials.verified.contains( credentialsDigest ) )
+        {
+            // Those credentials have already been checked against the stored passwords
+            verificationsSkipped.increment();
+
+            if ( IS_DEBUG )
+            {
+                LOG.debug( "{} Authenticated from the cache", bindContext.getDn() );
+            }
+
+            return principal;
+        }
+
+        verificationsDone.increment();
+
         // Now, compare the passwords.
         for ( byte[] storedPassword : storedPasswords )
         {
@@ -242,6 +318,13 @@ public class SimpleAuthenticator extends AbstractAuthenticator
                     throw ppe;
                 }
 
+                if ( cachedCredentials.verified.size() >= MAX_VERIFIED_CREDENTIALS )
+                {
+                    cachedCredentials.verified.clear();
+                }
+
+                cachedCredentials.verified.add( credentialsDigest );
+
                 if ( IS_DEBUG )
                 {
                     LOG.debug( "{} Authenticated", bindContext.getDn() );
@@ -354,9 +437,53 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     @Override
     public void invalidateCache( Dn bindDn )
     {
-        synchronized ( credentialCache )
-        {
-            credentialCache.remove( bindDn.getNormName() );
-        }
+        credentialCache.invalidate( bindDn.getNormName() );
+    }
+
+
+    /**
+     * @return The ratio of the binds which have found the entry passwords in the cache
+     */
+    public double getCacheHitRate()
+    {
+        return credentialCache.stats().hitRate();
+    }
+
+
+    /**
+     * @return The number of binds which have found the entry passwords in the cache
+     */
+    public long getCacheHitCount()
+    {
+        return credentialCache.stats().hitCount();
+    }
+
+
+    /**
+     * @return The number of binds which had to read the entry passwords from the backend
+     */
+    public long getCacheMissCount()
+    {
+        return credentialCache.stats().missCount();
+    }
+
+
+    /**
+     * @return The number of binds which have skipped the password verification,
+     * as their credentials had already been verified
+     */
+    public long getVerificationSkippedCount()
+    {
+        return verificationsSkipped.sum();
+    }
+
+
+    /**
+     * @return The number of binds which have verified the credentials against
+     * the stored passwords
+     */
+    public long getVerificationCount()
+    {
+        return verificationsDone.sum();
     }
 }
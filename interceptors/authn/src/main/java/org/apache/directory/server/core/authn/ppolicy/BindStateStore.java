@@ -0,0 +1,881 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+
+package org.apache.directory.server.core.authn.ppolicy;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An in-memory store for the password policy state attributes modified on each
+ * bind (pwdFailureTime, pwdAccountLockedTime, pwdLastSuccess). Instead of doing
+ * a write operation for each bind, the AuthenticationInterceptor records the new
+ * values here, and they are written to the entries by a background thread, all
+ * the pending states of a partition being flushed in a single write transaction.
+ * Many binds done on the same entry between two flushes are coalesced into a
+ * single modification.
+ * <br>
+ * Until it is flushed, the state stored here is the reference : the entries read
+ * by the authenticators are overlaid with it, so the lockout decisions are made
+ * on the exact number of failures. A state is evicted from the store once it
+ * has been written and hasn't changed for a while, or as soon as an operation
+ * modifies, moves or deletes the entry : the entry is then the reference again,
+ * and an administrator unlocking an account or resetting a password is not
+ * hidden by an older state.
+ * <br>
+ * A state which can't be written is kept, and written again on the next flush, up
+ * to a maximum number of attempts. The state of an entry which is about to be
+ * modified or moved is written in the transaction of the operation.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BindStateStore
+{
+    /** The logger */
+    private static final Logger LOG = LoggerFactory.getLogger( BindStateStore.class );
+
+    /** The minimum delay (in ms) before a written state is evicted */
+    private static final long MIN_EVICTION_DELAY = 60000L;
+
+    /** The maximum number of failed writes of a state before it's dropped */
+    private static final int MAX_FLUSH_ATTEMPTS = 10;
+
+    /** The directory service */
+    private final DirectoryService directoryService;
+
+    /** The attribute types which are stored here instead of being written on each bind */
+    private final AttributeType[] stateAttributeTypes;
+
+    /** The pending states, per normalized Dn */
+    private final Map<String, BindState> states = new ConcurrentHashMap<>();
+
+    /** The delay (in ms) between two flushes */
+    private final long flushInterval;
+
+    /** The delay (in ms) after which a written state which hasn't been modified is evicted */
+    private final long evictionDelay;
+
+    /** The thread flushing the states */
+    private ScheduledExecutorService flusher;
+
+
+    /**
+     * The password policy state of a single entry.
+     */
+    private static final class BindState
+    {
+        /** The entry Dn */
+        private final Dn dn;
+
+        /** The current attribute values, per attribute type OID. A null value means the attribute is absent */
+        private final Map<String, Attribute> values = new HashMap<>();
+
+        /** The attribute types modified since the state was last written */
+        private final Set<AttributeType> modified = new HashSet<>();
+
+        /** Incremented on each modification */
+        private long version;
+
+        /** The last time this state has been modified */
+        private long lastModified;
+
+        /** Set when the state has been evicted from the store */
+        private boolean removed;
+
+        /** The number of consecutive failed writes of this state */
+        private int failures;
+
+
+        private BindState( Entry entry, AttributeType[] stateAttributeTypes )
+        {
+            dn = entry.getDn();
+
+            for ( AttributeType attributeType : stateAttributeTypes )
+            {
+                Attribute attribute = entry.get( attributeType );
+                values.put( attributeType.getOid(), attribute == null ? null : attribute.clone() );
+            }
+        }
+
+
+        /**
+         * Creates a copy of an entry where the state attributes are replaced by
+         * the values stored in this state. Must be called while holding the
+         * state lock.
+         *
+         * @param entry The entry read from the backend
+         * @return A copy of the entry with the current state
+         * @throws LdapException If the attributes can't be replaced
+         */
+        private Entry overlay( Entry entry ) throws LdapException
+        {
+            Entry overlaid = entry.clone();
+
+            for ( Map.Entry<String, Attribute> value : values.entrySet() )
+            {
+                overlaid.removeAttributes( value.getKey() );
+
+                if ( value.getValue() != null )
+                {
+                    overlaid.put( value.getValue().clone() );
+                }
+            }
+
+            return overlaid;
+        }
+
+
+        /**
+         * Apply some modifications on the state. The modifications on attributes
+         * which are not part of the state are ignored. Must be called while holding
+         * the state lock.
+         *
+         * @param modifications The modifications to apply
+         * @throws LdapException If a modification can't be applied
+         */
+        private void apply( List<Modification> modifications ) throws LdapException
+        {
+            for ( Modification modification : modifications )
+            {
+                Attribute modAttribute = modification.getAttribute();
+                AttributeType attributeType = modAttribute.getAttributeType();
+
+                if ( ( attributeType == null ) || !values.containsKey( attributeType.getOid() ) )
+                {
+                    continue;
+                }
+
+                Attribute current = values.get( attributeType.getOid() );
+
+                switch ( modification.getOperation() )
+                {
+                    case REPLACE_ATTRIBUTE:
+                        current = modAttribute.size() == 0 ? null : modAttribute.clone();
+                        break;
+
+                    case REMOVE_ATTRIBUTE:
+                        if ( current != null )
+                        {
+                            if ( modAttribute.size() == 0 )
+                            {
+                                current = null;
+                            }
+                            else
+                            {
+                                current = current.clone();
+
+                                for ( Value value : modAttribute )
+                                {
+                                    current.remove( value );
+                                }
+
+                                if ( current.size() == 0 )
+                                {
+                                    current = null;
+                                }
+                            }
+                        }
+
+                        break;
+
+                    case ADD_ATTRIBUTE:
+                        if ( current == null )
+                        {
+                            current = modAttribute.clone();
+                        }
+                        else
+                        {
+                            current = current.clone();
+
+                            for ( Value value : modAttribute )
+                            {
+                                current.add( value );
+                            }
+                        }
+
+                        break;
+
+                    default:
+                        continue;
+                }
+
+                values.put( attributeType.getOid(), current );
+                modified.add( attributeType );
+            }
+
+            version++;
+            lastModified = System.currentTimeMillis();
+        }
+
+
+        /**
+         * Build the modifications which write this state in the entry
+         */
+        private List<Modification> toModifications()
+        {
+            List<Modification> modifications = new ArrayList<>( modified.size() );
+
+            for ( AttributeType attributeType : modified )
+            {
+                Attribute attribute = values.get( attributeType.getOid() );
+
+                if ( attribute == null )
+                {
+                    // A replace with no value removes the attribute, if it exists
+                    attribute = new DefaultAttribute( attributeType );
+                }
+                else
+                {
+                    attribute = attribute.clone();
+                }
+
+                modifications.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, attribute ) );
+            }
+
+            return modifications;
+        }
+    }
+
+
+    /**
+     * Computes the modifications to apply on the state of an entry.
+     */
+    public interface Update
+    {
+        /**
+         * Compute the modifications to apply on an entry state.
+         *
+         * @param current The entry, with its current state
+         * @return The modifications to apply on the state
+         * @throws LdapException If the modifications can't be computed
+         */
+        List<Modification> modifications( Entry current ) throws LdapException;
+    }
+
+
+    /**
+     * A pending state, with the modifications and the version being flushed
+     */
+    private static final class PendingFlush
+    {
+        private final BindState state;
+        private final List<Modification> modifications;
+        private final long version;
+
+
+        private PendingFlush( BindState state, List<Modification> modifications, long version )
+        {
+            this.state = state;
+            this.modifications = modifications;
+            this.version = version;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of BindStateStore.
+     *
+     * @param directoryService The directory service
+     * @param flushInterval The delay (in ms) between two flushes
+     * @param stateAttributeTypes The attribute types managed by this store
+     */
+    public BindStateStore( DirectoryService directoryService, long flushInterval,
+        AttributeType... stateAttributeTypes )
+    {
+        this.directoryService = directoryService;
+        this.flushInterval = flushInterval;
+        this.evictionDelay = Math.max( flushInterval * 10, MIN_EVICTION_DELAY );
+        this.stateAttributeTypes = stateAttributeTypes;
+    }
+
+
+    /**
+     * Starts the thread which periodically flushes the pending states.
+     */
+    public void start()
+    {
+        flusher = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "ppolicy-bind-state-flusher" );
+                thread.setDaemon( true );
+
+                return thread;
+            }
+        } );
+
+        flusher.scheduleWithFixedDelay( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    flush();
+                }
+                catch ( Exception e )
+                {
+                    LOG.error( "Failed to flush the password policy bind states", e );
+                }
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS );
+    }
+
+
+    /**
+     * Stops the flushing thread, and write all the pending states.
+     */
+    public void stop()
+    {
+        if ( flusher != null )
+        {
+            flusher.shutdown();
+
+            try
+            {
+                flusher.awaitTermination( flushInterval * 2, TimeUnit.MILLISECONDS );
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            flusher = null;
+        }
+
+        try
+        {
+            flush();
+        }
+        catch ( LdapException le )
+        {
+            LOG.error( "Failed to flush the password policy bind states on shutdown", le );
+        }
+    }
+
+
+    /**
+     * Atomically update the state of an entry : the update is computed on the
+     * entry overlaid with its current state, and the resulting modifications are
+     * applied on the state, while holding the state lock. Concurrent binds on the
+     * same entry are thus serialized, and see each other's changes.
+     *
+     * @param entry The entry, as read from the backend
+     * @param update The update to apply
+     * @return The modifications which have been applied
+     * @throws LdapException If the update can't be applied
+     */
+    public List<Modification> update( Entry entry, Update update ) throws LdapException
+    {
+        while ( true )
+        {
+            BindState state = getOrCreate( entry );
+
+            synchronized ( state )
+            {
+                if ( state.removed )
+                {
+                    // Evicted in the meantime, retry with a new state
+                    continue;
+                }
+
+                List<Modification> modifications = update.modifications( state.overlay( entry ) );
+                state.apply( modifications );
+
+                return modifications;
+            }
+        }
+    }
+
+
+    private BindState getOrCreate( Entry entry )
+    {
+        String key = entry.getDn().getNormName();
+        BindState state = states.get( key );
+
+        if ( state == null )
+        {
+            BindState newState = new BindState( entry, stateAttributeTypes );
+            state = states.putIfAbsent( key, newState );
+
+            if ( state == null )
+            {
+                state = newState;
+            }
+        }
+
+        return state;
+    }
+
+
+    /**
+     * Overlay an entry with its pending state, if any.
+     *
+     * @param entry The entry read from the backend
+     * @return The entry itself if it has no pending state, a modified copy otherwise
+     * @throws LdapException If the entry can't be modified
+     */
+    public Entry overlay( Entry entry ) throws LdapException
+    {
+        if ( entry == null )
+        {
+            return null;
+        }
+
+        BindState state = states.get( entry.getDn().getNormName() );
+
+        if ( state == null )
+        {
+            return entry;
+        }
+
+        synchronized ( state )
+        {
+            return state.overlay( entry );
+        }
+    }
+
+
+    /**
+     * Tells if an entry has a state which has not yet been written
+     *
+     * @param dn The entry Dn
+     * @return true if the entry has a pending state
+     */
+    public boolean hasPendingState( Dn dn )
+    {
+        BindState state = states.get( dn.getNormName() );
+
+        if ( state == null )
+        {
+            return false;
+        }
+
+        synchronized ( state )
+        {
+            return !state.modified.isEmpty();
+        }
+    }
+
+
+    /**
+     * Discard the pending state of an entry, typically because it has been deleted.
+     *
+     * @param dn The entry Dn
+     */
+    public void remove( Dn dn )
+    {
+        BindState state = states.get( dn.getNormName() );
+
+        if ( state != null )
+        {
+            synchronized ( state )
+            {
+                evict( state );
+            }
+        }
+    }
+
+
+    /**
+     * Remove a state from the store. Must be called while holding the state lock.
+     */
+    private void evict( BindState state )
+    {
+        state.removed = true;
+        states.remove( state.dn.getNormName(), state );
+    }
+
+
+    /**
+     * @return The number of entries which have a pending state
+     */
+    public int size()
+    {
+        return states.size();
+    }
+
+
+    /**
+     * Write the pending state of a single entry, if any. This is used before
+     * an operation modifies or moves the entry.
+     *
+     * @param dn The entry Dn
+     * @throws LdapException If the state can't be written
+     */
+    public void flush( Dn dn ) throws LdapException
+    {
+        BindState state = states.get( dn.getNormName() );
+
+        if ( state != null )
+        {
+            flush( Collections.singletonList( state ) );
+        }
+    }
+
+
+    /**
+     * Write the pending state of a single entry, if any, and discard it. This is
+     * used before an operation modifies or moves the entry : the next binds will
+     * read the state from the modified entry.
+     * <br>
+     * The state is written in the transaction of the operation, the caller holding
+     * the write lock. If this transaction is aborted, the state is restored. If the
+     * state can't be written, it's kept and the operation must fail.
+     *
+     * @param operationContext The operation about to modify or move the entry
+     * @param dn The entry Dn
+     * @throws LdapException If the state can't be written
+     */
+    public void invalidate( OperationContext operationContext, Dn dn ) throws LdapException
+    {
+        BindState state = states.get( dn.getNormName() );
+
+        if ( state == null )
+        {
+            return;
+        }
+
+        PartitionTxn partitionTxn = operationContext.getTransaction();
+
+        if ( partitionTxn == null )
+        {
+            // No transaction to join, write the state in its own transaction
+            flush( Collections.singletonList( state ) );
+
+            if ( hasPendingState( dn ) )
+            {
+                throw new LdapOtherException( "Cannot write the password policy state of " + dn );
+            }
+
+            remove( dn );
+
+            return;
+        }
+
+        PendingFlush pending;
+
+        synchronized ( state )
+        {
+            pending = state.modified.isEmpty() ? null
+                : new PendingFlush( state, state.toModifications(), state.version );
+        }
+
+        if ( pending != null )
+        {
+            Partition partition = operationContext.getPartition();
+
+            if ( partition == null )
+            {
+                partition = directoryService.getPartitionNexus().getPartition( dn );
+            }
+
+            write( partition, partitionTxn, pending );
+
+            if ( partitionTxn instanceof PartitionWriteTxn )
+            {
+                // The state is not in the entry anymore if the operation is aborted
+                ( ( PartitionWriteTxn ) partitionTxn ).addAbortAction( () -> restore( pending.state ) );
+            }
+        }
+
+        remove( dn );
+    }
+
+
+    /**
+     * Put back an evicted state which has not been written
+     */
+    private void restore( BindState state )
+    {
+        synchronized ( state )
+        {
+            state.removed = false;
+        }
+
+        states.putIfAbsent( state.dn.getNormName(), state );
+    }
+
+
+    /**
+     * Write all the pending states to the entries, using one write transaction
+     * per partition.
+     *
+     * @throws LdapException If the states can't be written
+     */
+    public void flush() throws LdapException
+    {
+        if ( states.isEmpty() )
+        {
+            return;
+        }
+
+        List<BindState> toFlush = new ArrayList<>();
+        long now = System.currentTimeMillis();
+
+        for ( BindState state : states.values() )
+        {
+            synchronized ( state )
+            {
+                if ( !state.modified.isEmpty() )
+                {
+                    toFlush.add( state );
+                }
+                else if ( now - state.lastModified > evictionDelay )
+                {
+                    // The state has been written a while ago, and not modified since
+                    evict( state );
+                }
+            }
+        }
+
+        flush( toFlush );
+    }
+
+
+    private void flush( List<BindState> toFlush ) throws LdapException
+    {
+        // Group the states per partition
+        Map<Partition, List<PendingFlush>> perPartition = new HashMap<>();
+
+        for ( BindState state : toFlush )
+        {
+            PendingFlush pending;
+
+            synchronized ( state )
+            {
+                if ( state.modified.isEmpty() )
+                {
+                    // Nothing to write
+                    continue;
+                }
+
+                pending = new PendingFlush( state, state.toModifications(), state.version );
+            }
+
+            Partition partition = directoryService.getPartitionNexus().getPartition( state.dn );
+            List<PendingFlush> pendings = perPartition.get( partition );
+
+            if ( pendings == null )
+            {
+                pendings = new ArrayList<>();
+                perPartition.put( partition, pendings );
+            }
+
+            pendings.add( pending );
+        }
+
+        if ( perPartition.isEmpty() )
+        {
+            return;
+        }
+
+        directoryService.getOperationManager().lockWrite();
+
+        try
+        {
+            for ( Map.Entry<Partition, List<PendingFlush>> partitionFlush : perPartition.entrySet() )
+            {
+                flush( partitionFlush.getKey(), partitionFlush.getValue() );
+            }
+        }
+        finally
+        {
+            directoryService.getOperationManager().unlockWrite();
+        }
+    }
+
+
+    private void flush( Partition partition, List<PendingFlush> pendings ) throws LdapException
+    {
+        List<PendingFlush> written = new ArrayList<>( pendings.size() );
+        PartitionTxn partitionTxn = null;
+
+        try
+        {
+            partitionTxn = partition.beginWriteTransaction();
+
+            for ( PendingFlush pending : pendings )
+            {
+                try
+                {
+                    if ( write( partition, partitionTxn, pending ) )
+                    {
+                        written.add( pending );
+                    }
+                }
+                catch ( LdapException le )
+                {
+                    failed( pending.state, le );
+                }
+            }
+
+            partitionTxn.commit();
+        }
+        catch ( IOException ioe )
+        {
+            try
+            {
+                if ( partitionTxn != null )
+                {
+                    partitionTxn.abort();
+                }
+            }
+            catch ( IOException ioe2 )
+            {
+                LOG.error( "Cannot abort the transaction", ioe2 );
+            }
+
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        if ( LOG.isDebugEnabled() )
+        {
+            LOG.debug( "Flushed {} password policy states in {}", written.size(), partition.getId() );
+        }
+
+        // The states which haven't been modified while being written are now
+        // stored in the entries. They are kept until they get evicted, so that a
+        // bind which has read the entry before the commit still sees them. Any
+        // operation modifying the entry evicts them before that.
+        for ( PendingFlush pending : written )
+        {
+            synchronized ( pending.state )
+            {
+                pending.state.failures = 0;
+
+                if ( pending.state.version == pending.version )
+                {
+                    pending.state.modified.clear();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Write a pending state in its entry, using the given transaction.
+     *
+     * @return false if the entry does not exist anymore
+     */
+    private boolean write( Partition partition, PartitionTxn partitionTxn, PendingFlush pending ) throws LdapException
+    {
+        Dn dn = pending.state.dn;
+        LookupOperationContext lookupContext = new LookupOperationContext(
+            directoryService.getAdminSession(), dn, SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+        lookupContext.setPartition( partition );
+        lookupContext.setTransaction( partitionTxn );
+
+        Entry entry = directoryService.getPartitionNexus().lookup( lookupContext );
+
+        if ( entry == null )
+        {
+            // The entry has been removed
+            remove( dn );
+
+            return false;
+        }
+
+        List<Modification> modifications = new ArrayList<>( pending.modifications );
+        modifications.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            directoryService.getAtProvider().getEntryCSN(), directoryService.getCSN().toString() ) );
+
+        ModifyOperationContext modifyContext = new ModifyOperationContext(
+            directoryService.getAdminSession() );
+        modifyContext.setDn( dn );
+        modifyContext.setEntry( entry );
+        modifyContext.setModItems( modifications );
+        modifyContext.setPushToEvtInterceptor( true );
+        modifyContext.setPartition( partition );
+        modifyContext.setTransaction( partitionTxn );
+
+        directoryService.getPartitionNexus().modify( modifyContext );
+
+        return true;
+    }
+
+
+    /**
+     * Records a failed write. The state is kept to be written on the next flush,
+     * unless it has already failed too many times.
+     */
+    private void failed( BindState state, LdapException le )
+    {
+        boolean dropped;
+
+        synchronized ( state )
+        {
+            state.failures++;
+            dropped = state.failures >= MAX_FLUSH_ATTEMPTS;
+
+            if ( dropped )
+            {
+                evict( state );
+            }
+        }
+
+        if ( dropped )
+        {
+            LOG.error( "Cannot write the password policy state of {} after {} attempts, it is dropped", state.dn,
+                MAX_FLUSH_ATTEMPTS, le );
+        }
+        else
+        {
+            LOG.warn( "Cannot write the password policy state of {}, it will be retried", state.dn, le );
+        }
+    }
+}
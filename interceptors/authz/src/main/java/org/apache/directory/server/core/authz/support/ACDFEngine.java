@@ -24,15 +24,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 
 import org.apache.directory.api.ldap.aci.ACITuple;
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapNoPermissionException;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
-import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.event.Evaluator;
 import org.apache.directory.server.core.api.event.ExpressionEvaluator;
-import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.subtree.SubtreeEvaluator;
 import org.apache.directory.server.core.api.subtree.RefinementEvaluator;
 import org.apache.directory.server.core.api.subtree.RefinementLeafEvaluator;
@@ -123,13 +120,8 @@ public class ACDFEngine
             throw new IllegalArgumentException( "entryName" );
         }
 
-        CoreSession session = aciContext.getOperationContext().getSession();
-        LookupOperationContext lookupContext = new LookupOperationContext( session, aciContext.getUserDn(),
-            SchemaConstants.ALL_ATTRIBUTES_ARRAY );
-        lookupContext.setPartition( aciContext.getOperationContext().getPartition() );
-        lookupContext.setTransaction( aciContext.getOperationContext().getTransaction() );
-        
-        Entry userEntry = session.getDirectoryService().getPartitionNexus().lookup( lookupContext );
+        // The bound user's entry is memoized by the operation, as we are called for every value
+        Entry userEntry = aciContext.getOperationContext().lookupEntry( aciContext.getUserDn() );
 
         // Determine the scope of the requested operation.
         OperationScope scope;
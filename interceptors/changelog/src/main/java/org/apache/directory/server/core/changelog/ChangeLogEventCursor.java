@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import java.io.IOException;
+
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.changelog.ChangeLogEvent;
+
+
+/**
+ * A Cursor over a range of revisions stored in a {@link FileChangeLogStore}.
+ * The events are read from the disk one at a time, as the cursor moves, so
+ * browsing a large range does not load it in memory. The range is fixed when
+ * the cursor is created : the events logged afterward are not seen.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class ChangeLogEventCursor extends AbstractCursor<ChangeLogEvent>
+{
+    /** The store the events are read from */
+    private final FileChangeLogStore store;
+
+    /** The first revision of the range */
+    private final long startRevision;
+
+    /** The last revision of the range, inclusive */
+    private final long endRevision;
+
+    /** The current revision. startRevision - 1 is before first, endRevision + 1 after last */
+    private long current;
+
+    /** The event at the current position, if any */
+    private ChangeLogEvent event;
+
+
+    /**
+     * Creates a new instance of ChangeLogEventCursor, positioned before the first revision.
+     *
+     * @param store The store containing the events
+     * @param startRevision The first revision of the range
+     * @param endRevision The last revision of the range, inclusive
+     */
+    ChangeLogEventCursor( FileChangeLogStore store, long startRevision, long endRevision )
+    {
+        this.store = store;
+        this.startRevision = startRevision;
+        this.endRevision = endRevision;
+        this.current = startRevision - 1;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean available()
+    {
+        return event != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void before( ChangeLogEvent element ) throws LdapException, CursorException
+    {
+        checkNotClosed();
+        position( element.getRevision() - 1 );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void after( ChangeLogEvent element ) throws LdapException, CursorException
+    {
+        checkNotClosed();
+        position( element.getRevision() );
+    }
+
+
+    private void position( long revision )
+    {
+        current = Math.max( startRevision - 1, Math.min( revision, endRevision + 1 ) );
+        event = null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        position( startRevision - 1 );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        position( endRevision + 1 );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        if ( current <= startRevision )
+        {
+            position( startRevision - 1 );
+
+            return false;
+        }
+
+        current--;
+        event = read( current );
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        if ( current >= endRevision )
+        {
+            position( endRevision + 1 );
+
+            return false;
+        }
+
+        current++;
+        event = read( current );
+
+        return true;
+    }
+
+
+    private ChangeLogEvent read( long revision ) throws CursorException
+    {
+        try
+        {
+            ChangeLogEvent read = store.read( revision );
+
+            if ( read == null )
+            {
+                throw new CursorException( "The revision " + revision + " has been removed from the changelog" );
+            }
+
+            return read;
+        }
+        catch ( IOException ioe )
+        {
+            throw new CursorException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ChangeLogEvent get() throws CursorException
+    {
+        checkNotClosed();
+
+        if ( event == null )
+        {
+            throw new InvalidCursorPositionException();
+        }
+
+        return event;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString( String tabs )
+    {
+        return tabs + "ChangeLogEventCursor[" + startRevision + ".." + endRevision + ", current=" + current + "]";
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return toString( "" );
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An append-only file containing a contiguous range of serialized ChangeLogEvents.
+ * Each record is stored as :
+ * <pre>
+ * [revision (8 bytes)][length (4 bytes)][serialized event (length bytes)]
+ * </pre>
+ * The offset of each record is kept in memory, so that an event can be read
+ * directly from its revision. The index is rebuilt when the segment is opened,
+ * by reading the record headers only. An incomplete record at the end of the
+ * file (after a crash) is discarded.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class ChangeLogSegment
+{
+    /** The class logger */
+    private static final Logger LOG = LoggerFactory.getLogger( ChangeLogSegment.class );
+
+    /** The segment files prefix */
+    static final String PREFIX = "changelog-";
+
+    /** The segment files suffix */
+    static final String SUFFIX = ".log";
+
+    /** The size of a record header */
+    private static final int HEADER_SIZE = 12;
+
+    /** The segment file */
+    private final File file;
+
+    /** The revision of the first record */
+    private final long firstRevision;
+
+    /** The offsets of the records, indexed by revision - firstRevision */
+    private long[] offsets = new long[256];
+
+    /** The number of records */
+    private int count;
+
+    /** The channel used to read and write the file */
+    private FileChannel channel;
+
+    /** The current size of the file */
+    private long size;
+
+
+    /**
+     * Creates a new instance of ChangeLogSegment. The segment must be opened before being used.
+     *
+     * @param directory The directory containing the segments
+     * @param firstRevision The revision of the first event stored in this segment
+     */
+    ChangeLogSegment( File directory, long firstRevision )
+    {
+        this.file = new File( directory, fileName( firstRevision ) );
+        this.firstRevision = firstRevision;
+    }
+
+
+    /**
+     * @return The name of the file storing the segment starting at the given revision
+     */
+    static String fileName( long firstRevision )
+    {
+        return String.format( "%s%020d%s", PREFIX, firstRevision, SUFFIX );
+    }
+
+
+    /**
+     * @return The first revision of the segment stored in the given file, or -1
+     * if the file is not a segment
+     */
+    static long parseFirstRevision( String fileName )
+    {
+        if ( !fileName.startsWith( PREFIX ) || !fileName.endsWith( SUFFIX ) )
+        {
+            return -1L;
+        }
+
+        try
+        {
+            return Long.parseLong( fileName.substring( PREFIX.length(), fileName.length() - SUFFIX.length() ) );
+        }
+        catch ( NumberFormatException nfe )
+        {
+            return -1L;
+        }
+    }
+
+
+    /**
+     * Open the segment file, creating it if needed, and build the offsets index.
+     *
+     * @throws IOException If the file can't be read
+     */
+    void open() throws IOException
+    {
+        channel = FileChannel.open( file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE );
+
+        ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+        long fileSize = channel.size();
+        long position = 0L;
+
+        while ( position + HEADER_SIZE <= fileSize )
+        {
+            header.clear();
+            readFully( header, position );
+            header.flip();
+
+            long revision = header.getLong();
+            int length = header.getInt();
+
+            if ( ( revision != firstRevision + count ) || ( length < 0 )
+                || ( position + HEADER_SIZE + length > fileSize ) )
+            {
+                // Incomplete or corrupted record, the rest of the file is discarded
+                break;
+            }
+
+            addOffset( position );
+            position += HEADER_SIZE + length;
+        }
+
+        if ( position < fileSize )
+        {
+            LOG.warn( "Discarding {} trailing bytes in the changelog segment {}", fileSize - position, file );
+            channel.truncate( position );
+        }
+
+        size = position;
+    }
+
+
+    private void addOffset( long offset )
+    {
+        if ( count == offsets.length )
+        {
+            offsets = Arrays.copyOf( offsets, count * 2 );
+        }
+
+        offsets[count++] = offset;
+    }
+
+
+    private void readFully( ByteBuffer buffer, long position ) throws IOException
+    {
+        long current = position;
+
+        while ( buffer.hasRemaining() )
+        {
+            int nbRead = channel.read( buffer, current );
+
+            if ( nbRead < 0 )
+            {
+                throw new EOFException( "Unexpected end of the changelog segment " + file );
+            }
+
+            current += nbRead;
+        }
+    }
+
+
+    /**
+     * Append a serialized event at the end of the segment. The revision must
+     * be the one following the last stored revision.
+     *
+     * @param revision The event revision
+     * @param data The serialized event
+     * @throws IOException If the event can't be written
+     */
+    synchronized void append( long revision, byte[] data ) throws IOException
+    {
+        if ( revision != firstRevision + count )
+        {
+            throw new IOException( "Revision " + revision + " is not contiguous with segment " + file );
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate( HEADER_SIZE + data.length );
+        buffer.putLong( revision );
+        buffer.putInt( data.length );
+        buffer.put( data );
+        buffer.flip();
+
+        long position = size;
+
+        while ( buffer.hasRemaining() )
+        {
+            position += channel.write( buffer, position );
+        }
+
+        addOffset( size );
+        size = position;
+    }
+
+
+    /**
+     * Read the serialized event stored for a revision.
+     *
+     * @param revision The event revision
+     * @return The serialized event, or null if the revision is not stored in this segment
+     * @throws IOException If the event can't be read
+     */
+    byte[] read( long revision ) throws IOException
+    {
+        int index;
+        long offset;
+
+        synchronized ( this )
+        {
+            if ( !contains( revision ) )
+            {
+                return null;
+            }
+
+            index = ( int ) ( revision - firstRevision );
+            offset = offsets[index];
+        }
+
+        ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+        readFully( header, offset );
+        header.flip();
+        header.getLong();
+
+        ByteBuffer data = ByteBuffer.allocate( header.getInt() );
+        readFully( data, offset + HEADER_SIZE );
+
+        return data.array();
+    }
+
+
+    /**
+     * @return true if the given revision is stored in this segment
+     */
+    synchronized boolean contains( long revision )
+    {
+        return ( revision >= firstRevision ) && ( revision < firstRevision + count );
+    }
+
+
+    /**
+     * @return The first revision stored in this segment
+     */
+    long getFirstRevision()
+    {
+        return firstRevision;
+    }
+
+
+    /**
+     * @return The last revision stored in this segment, or firstRevision - 1 if it's empty
+     */
+    synchronized long getLastRevision()
+    {
+        return firstRevision + count - 1;
+    }
+
+
+    /**
+     * @return The size of the segment file
+     */
+    synchronized long getSize()
+    {
+        return size;
+    }
+
+
+    /**
+     * @return The segment file
+     */
+    File getFile()
+    {
+        return file;
+    }
+
+
+    /**
+     * Force the written records to the disk.
+     *
+     * @throws IOException If the file can't be synced
+     */
+    void force() throws IOException
+    {
+        channel.force( false );
+    }
+
+
+    /**
+     * Close the segment file.
+     *
+     * @throws IOException If the file can't be closed
+     */
+    void close() throws IOException
+    {
+        if ( channel != null )
+        {
+            channel.close();
+        }
+    }
+
+
+    /**
+     * Close and delete the segment file.
+     *
+     * @throws IOException If the file can't be deleted
+     */
+    void delete() throws IOException
+    {
+        close();
+        Files.deleteIfExists( file.toPath() );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "ChangeLogSegment[" + file.getName() + ", " + firstRevision + ".." + getLastRevision() + "]";
+    }
+}
@@ -44,7 +44,8 @@ import org.slf4j.LoggerFactory;
 
 /**
  * The default ChangeLog service implementation. It stores operations 
- * in memory.
+ * in memory, unless another store is provided : a {@link FileChangeLogStore}
+ * keeps them on disk.
  * 
  * Entries are stored into a dedicated partition, named ou=changelog, under which
  * we have two other sub-entries : ou=tags and ou= revisions :
@@ -0,0 +1,897 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.util.DateUtils;
+import org.apache.directory.api.util.TimeProvider;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.changelog.ChangeLogEvent;
+import org.apache.directory.server.core.api.changelog.ChangeLogEventSerializer;
+import org.apache.directory.server.core.api.changelog.Tag;
+import org.apache.directory.server.core.api.changelog.TaggableChangeLogStore;
+import org.apache.directory.server.i18n.I18n;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A change log store that keeps its events on disk, in append-only segment
+ * files. Each segment holds a contiguous range of revisions, and a new segment
+ * is started when the current one reaches a configured size. Only the offsets
+ * of the events are kept in memory : the events themselves are read from the
+ * disk when they are looked up or browsed with a Cursor.
+ * <br>
+ * The old events can be discarded :
+ * <ul>
+ *   <li>automatically, by setting a maximum number of retained revisions. Only
+ *   whole segments are removed, and never past the oldest tag, so that it's
+ *   always possible to revert to a tagged revision</li>
+ *   <li>explicitly, by truncating the log up to a revision or a tag. The segment
+ *   containing the truncation point is compacted, i.e. rewritten without the
+ *   discarded events</li>
+ * </ul>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class FileChangeLogStore implements TaggableChangeLogStore
+{
+    /** The class logger */
+    private static final Logger LOG = LoggerFactory.getLogger( FileChangeLogStore.class );
+
+    /** The directory containing the segments, under the log directory */
+    private static final String CHANGELOG_DIR = "changelog";
+
+    private static final String REV_FILE = "revision";
+    private static final String TAG_FILE = "tags";
+
+    /** The default size above which a new segment is started */
+    public static final long DEFAULT_SEGMENT_SIZE = 8L * 1024L * 1024L;
+
+    /** An incremental number giving the current revision */
+    private long currentRevision;
+
+    /** The latest tag */
+    private Tag latest;
+
+    /** The tags, ordered by revision */
+    private final TreeMap<Long, Tag> tags = new TreeMap<>();
+
+    /** The segments, ordered by revision. The last one is the one being written */
+    private final List<ChangeLogSegment> segments = new CopyOnWriteArrayList<>();
+
+    /** The directory containing the segments */
+    private File workingDirectory;
+
+    /** The size above which a new segment is started */
+    private long segmentSize = DEFAULT_SEGMENT_SIZE;
+
+    /** The maximum number of revisions to keep. 0 means all the revisions are kept */
+    private long maxRevisions;
+
+    /** The DirectoryService */
+    private DirectoryService directoryService;
+
+    private TimeProvider timeProvider = TimeProvider.DEFAULT;
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void init( DirectoryService service ) throws LdapException
+    {
+        workingDirectory = new File( service.getInstanceLayout().getLogDirectory(), CHANGELOG_DIR );
+        this.directoryService = service;
+        this.timeProvider = service.getTimeProvider();
+
+        try
+        {
+            if ( !workingDirectory.exists() && !workingDirectory.mkdirs() )
+            {
+                throw new IOException( I18n.err( I18n.ERR_112_COULD_NOT_CREATE_DIRECTORY, workingDirectory ) );
+            }
+
+            loadRevision();
+            loadTags();
+            loadSegments();
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    private void loadRevision() throws IOException
+    {
+        File revFile = new File( workingDirectory, REV_FILE );
+
+        if ( revFile.exists() )
+        {
+            try ( BufferedReader reader = Files.newBufferedReader( revFile.toPath(), StandardCharsets.UTF_8 ) )
+            {
+                String line = reader.readLine();
+                currentRevision = Long.parseLong( line );
+            }
+        }
+    }
+
+
+    private void saveRevision() throws IOException
+    {
+        File revFile = new File( workingDirectory, REV_FILE );
+
+        try ( PrintWriter out = new PrintWriter( Files.newBufferedWriter( revFile.toPath(), StandardCharsets.UTF_8 ) ) )
+        {
+            out.println( currentRevision );
+            out.flush();
+        }
+    }
+
+
+    private void loadTags() throws IOException
+    {
+        File tagFile = new File( workingDirectory, TAG_FILE );
+
+        if ( tagFile.exists() )
+        {
+            Properties props = new Properties();
+
+            try ( InputStream in = Files.newInputStream( tagFile.toPath() ) )
+            {
+                props.load( in );
+            }
+
+            synchronized ( tags )
+            {
+                tags.clear();
+
+                for ( String key : props.stringPropertyNames() )
+                {
+                    long revision = Long.parseLong( key );
+                    String desc = props.getProperty( key );
+
+                    if ( "null".equals( desc ) )
+                    {
+                        desc = null;
+                    }
+
+                    tags.put( revision, new Tag( revision, desc ) );
+                }
+
+                latest = tags.isEmpty() ? null : tags.lastEntry().getValue();
+            }
+        }
+    }
+
+
+    private void saveTags() throws IOException
+    {
+        File tagFile = new File( workingDirectory, TAG_FILE );
+        Properties props = new Properties();
+
+        synchronized ( tags )
+        {
+            for ( Tag tag : tags.values() )
+            {
+                String key = String.valueOf( tag.getRevision() );
+
+                if ( tag.getDescription() == null )
+                {
+                    props.setProperty( key, "null" );
+                }
+                else
+                {
+                    props.setProperty( key, tag.getDescription() );
+                }
+            }
+        }
+
+        try ( OutputStream out = Files.newOutputStream( tagFile.toPath() ) )
+        {
+            props.store( out, null );
+            out.flush();
+        }
+    }
+
+
+    /**
+     * Open all the segments found in the working directory, and rebuild their index.
+     */
+    private void loadSegments() throws IOException
+    {
+        List<Long> firstRevisions = new ArrayList<>();
+        File[] files = workingDirectory.listFiles();
+
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                long firstRevision = ChangeLogSegment.parseFirstRevision( file.getName() );
+
+                if ( firstRevision > 0 )
+                {
+                    firstRevisions.add( firstRevision );
+                }
+            }
+        }
+
+        Collections.sort( firstRevisions );
+        List<ChangeLogSegment> loaded = new ArrayList<>( firstRevisions.size() );
+
+        for ( long firstRevision : firstRevisions )
+        {
+            ChangeLogSegment segment = new ChangeLogSegment( workingDirectory, firstRevision );
+            segment.open();
+
+            if ( !loaded.isEmpty() )
+            {
+                ChangeLogSegment previous = loaded.get( loaded.size() - 1 );
+
+                if ( previous.getLastRevision() + 1 != firstRevision )
+                {
+                    // A hole in the revisions : the previous segments can't be used anymore
+                    LOG.warn( "The changelog segment {} does not follow {}, discarding the older segments",
+                        segment, previous );
+
+                    for ( ChangeLogSegment discarded : loaded )
+                    {
+                        discarded.delete();
+                    }
+
+                    loaded.clear();
+                }
+            }
+
+            loaded.add( segment );
+        }
+
+        segments.clear();
+        segments.addAll( loaded );
+
+        if ( !segments.isEmpty() )
+        {
+            currentRevision = Math.max( currentRevision, segments.get( segments.size() - 1 ).getLastRevision() );
+        }
+
+        LOG.debug( "Loaded {} changelog segments, current revision is {}", segments.size(), currentRevision );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sync() throws LdapException
+    {
+        try
+        {
+            if ( !segments.isEmpty() )
+            {
+                segments.get( segments.size() - 1 ).force();
+            }
+
+            saveRevision();
+            saveTags();
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Save tags and revision on disk, and close the segments
+     */
+    @Override
+    public void destroy() throws LdapException
+    {
+        sync();
+
+        try
+        {
+            for ( ChangeLogSegment segment : segments )
+            {
+                segment.close();
+            }
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapException( ioe.getMessage(), ioe );
+        }
+
+        segments.clear();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCurrentRevision()
+    {
+        return currentRevision;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ChangeLogEvent log( LdapPrincipal principal, LdifEntry forward, LdifEntry reverse )
+    {
+        List<LdifEntry> reverses = new ArrayList<>( 1 );
+        reverses.add( reverse );
+
+        return log( principal, forward, reverses );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The event is forced to the disk before this method returns. The I/O errors are
+     * thrown as an {@link UncheckedIOException}.
+     */
+    @Override
+    public synchronized ChangeLogEvent log( LdapPrincipal principal, LdifEntry forward, List<LdifEntry> reverses )
+    {
+        long revision = currentRevision + 1;
+        ChangeLogEvent event = new ChangeLogEvent( revision,
+            DateUtils.getGeneralizedTime( timeProvider ), principal, forward, reverses );
+
+        try
+        {
+            append( event );
+        }
+        catch ( IOException ioe )
+        {
+            throw new UncheckedIOException( ioe );
+        }
+
+        // The event is in the segment now, even if it can't be synced
+        currentRevision = revision;
+
+        try
+        {
+            segments.get( segments.size() - 1 ).force();
+        }
+        catch ( IOException ioe )
+        {
+            throw new UncheckedIOException( ioe );
+        }
+
+        return event;
+    }
+
+
+    private void append( ChangeLogEvent event ) throws IOException
+    {
+        ChangeLogSegment active = segments.isEmpty() ? null : segments.get( segments.size() - 1 );
+
+        if ( ( active == null ) || ( active.getSize() >= segmentSize ) )
+        {
+            if ( active != null )
+            {
+                active.force();
+            }
+
+            active = new ChangeLogSegment( workingDirectory, event.getRevision() );
+            active.open();
+            segments.add( active );
+
+            applyRetention();
+        }
+
+        active.append( event.getRevision(), serialize( event ) );
+    }
+
+
+    private byte[] serialize( ChangeLogEvent event ) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        try ( ObjectOutputStream out = new ObjectOutputStream( baos ) )
+        {
+            ChangeLogEventSerializer.serialize( event, out );
+        }
+
+        return baos.toByteArray();
+    }
+
+
+    /**
+     * Read the event stored for a revision.
+     *
+     * @param revision The revision to read
+     * @return The event, or null if it's not stored anymore
+     * @throws IOException If the event can't be read
+     */
+    ChangeLogEvent read( long revision ) throws IOException
+    {
+        ChangeLogSegment segment = findSegment( revision );
+
+        if ( segment == null )
+        {
+            return null;
+        }
+
+        byte[] data = segment.read( revision );
+
+        if ( data == null )
+        {
+            return null;
+        }
+
+        try ( ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( data ) ) )
+        {
+            ChangeLogEvent event = ChangeLogEventSerializer.deserialize( directoryService.getSchemaManager(), in );
+            event.getCommitterPrincipal().setSchemaManager( directoryService.getSchemaManager() );
+
+            return event;
+        }
+    }
+
+
+    /**
+     * Find the segment containing a revision, using a binary search on the segments
+     */
+    private ChangeLogSegment findSegment( long revision )
+    {
+        Object[] snapshot = segments.toArray();
+        int low = 0;
+        int high = snapshot.length - 1;
+
+        while ( low <= high )
+        {
+            int middle = ( low + high ) >>> 1;
+            ChangeLogSegment segment = ( ChangeLogSegment ) snapshot[middle];
+
+            if ( revision < segment.getFirstRevision() )
+            {
+                high = middle - 1;
+            }
+            else if ( revision > segment.getLastRevision() )
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                return segment;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * @return The oldest revision still stored, or currentRevision + 1 if the log is empty
+     */
+    public long getFirstRevision()
+    {
+        for ( ChangeLogSegment segment : segments )
+        {
+            if ( segment.getLastRevision() >= segment.getFirstRevision() )
+            {
+                return segment.getFirstRevision();
+            }
+        }
+
+        return currentRevision + 1;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ChangeLogEvent lookup( long revision )
+    {
+        if ( revision < 0 )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_239 ) );
+        }
+
+        if ( revision > getCurrentRevision() )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_240 ) );
+        }
+
+        try
+        {
+            return read( revision );
+        }
+        catch ( IOException ioe )
+        {
+            throw new UncheckedIOException( ioe );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> find()
+    {
+        return new ChangeLogEventCursor( this, getFirstRevision(), currentRevision );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> findBefore( long revision )
+    {
+        return new ChangeLogEventCursor( this, getFirstRevision(), Math.min( revision - 1, currentRevision ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> findAfter( long revision )
+    {
+        return new ChangeLogEventCursor( this, Math.max( revision + 1, getFirstRevision() ), currentRevision );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<ChangeLogEvent> find( long startRevision, long endRevision )
+    {
+        if ( startRevision > endRevision )
+        {
+            throw new IllegalArgumentException( "The start revision " + startRevision
+                + " is above the end revision " + endRevision );
+        }
+
+        return new ChangeLogEventCursor( this, Math.max( startRevision, getFirstRevision() ),
+            Math.min( endRevision, currentRevision ) );
+    }
+
+
+    /**
+     * Remove the segments which are entirely older than the retained revisions.
+     * The segment being written, and the revisions following the oldest tag,
+     * are always kept.
+     */
+    private void applyRetention() throws IOException
+    {
+        if ( maxRevisions <= 0 )
+        {
+            return;
+        }
+
+        long limit = currentRevision - maxRevisions;
+
+        synchronized ( tags )
+        {
+            if ( !tags.isEmpty() )
+            {
+                limit = Math.min( limit, tags.firstKey() );
+            }
+        }
+
+        while ( segments.size() > 1 )
+        {
+            ChangeLogSegment oldest = segments.get( 0 );
+
+            if ( oldest.getLastRevision() > limit )
+            {
+                break;
+            }
+
+            LOG.debug( "Removing the changelog segment {}, older than the retained revisions", oldest );
+            segments.remove( 0 );
+            oldest.delete();
+        }
+    }
+
+
+    /**
+     * Remove all the events up to the given revision, included. The segments
+     * entirely older than the revision are deleted, and the segment containing
+     * the revision is compacted. The tags older than the revision are removed
+     * too, as it's not possible to revert to them anymore.
+     *
+     * @param revision The last revision to remove
+     * @throws LdapException If the segments can't be removed or compacted
+     */
+    public synchronized void truncate( long revision ) throws LdapException
+    {
+        try
+        {
+            while ( !segments.isEmpty() )
+            {
+                ChangeLogSegment oldest = segments.get( 0 );
+
+                if ( oldest.getFirstRevision() > revision )
+                {
+                    break;
+                }
+
+                if ( oldest.getLastRevision() <= revision )
+                {
+                    segments.remove( 0 );
+                    oldest.delete();
+                }
+                else
+                {
+                    segments.set( 0, compact( oldest, revision + 1 ) );
+
+                    break;
+                }
+            }
+
+            synchronized ( tags )
+            {
+                Iterator<Map.Entry<Long, Tag>> iterator = tags.headMap( revision, false ).entrySet().iterator();
+
+                while ( iterator.hasNext() )
+                {
+                    iterator.next();
+                    iterator.remove();
+                }
+
+                if ( ( latest != null ) && !tags.containsKey( latest.getRevision() ) )
+                {
+                    latest = tags.isEmpty() ? null : tags.lastEntry().getValue();
+                }
+            }
+
+            saveTags();
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Remove all the events which are not needed anymore to revert to the given
+     * tag, and the older tags.
+     *
+     * @param tag The oldest tag to keep
+     * @throws LdapException If the segments can't be removed or compacted
+     */
+    public void truncate( Tag tag ) throws LdapException
+    {
+        truncate( tag.getRevision() );
+    }
+
+
+    /**
+     * Rewrite a segment, starting at a given revision
+     */
+    private ChangeLogSegment compact( ChangeLogSegment segment, long fromRevision ) throws IOException
+    {
+        File tmpDirectory = new File( workingDirectory, "compact" );
+
+        if ( !tmpDirectory.exists() && !tmpDirectory.mkdirs() )
+        {
+            throw new IOException( I18n.err( I18n.ERR_112_COULD_NOT_CREATE_DIRECTORY, tmpDirectory ) );
+        }
+
+        ChangeLogSegment compacted = new ChangeLogSegment( tmpDirectory, fromRevision );
+        compacted.open();
+
+        for ( long revision = fromRevision; revision <= segment.getLastRevision(); revision++ )
+        {
+            compacted.append( revision, segment.read( revision ) );
+        }
+
+        compacted.force();
+        compacted.close();
+
+        File target = new File( workingDirectory, compacted.getFile().getName() );
+        Files.move( compacted.getFile().toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING );
+
+        ChangeLogSegment result = new ChangeLogSegment( workingDirectory, fromRevision );
+        result.open();
+        segment.delete();
+
+        LOG.debug( "Compacted {} into {}", segment, result );
+
+        return result;
+    }
+
+
+    /**
+     * @return The size above which a new segment is started
+     */
+    public long getSegmentSize()
+    {
+        return segmentSize;
+    }
+
+
+    /**
+     * @param segmentSize The size above which a new segment is started
+     */
+    public void setSegmentSize( long segmentSize )
+    {
+        this.segmentSize = segmentSize;
+    }
+
+
+    /**
+     * @return The maximum number of revisions kept, 0 if they are all kept
+     */
+    public long getMaxRevisions()
+    {
+        return maxRevisions;
+    }
+
+
+    /**
+     * Sets the maximum number of revisions to keep. The older segments are
+     * removed when a new segment is started, unless they are needed to revert
+     * to a tag.
+     *
+     * @param maxRevisions The maximum number of revisions to keep, 0 to keep all of them
+     */
+    public void setMaxRevisions( long maxRevisions )
+    {
+        this.maxRevisions = Math.max( 0L, maxRevisions );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Tag tag( long revision )
+    {
+        return tag( revision, null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Tag tag()
+    {
+        return tag( ( String ) null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Tag tag( String description )
+    {
+        synchronized ( tags )
+        {
+            if ( ( latest != null ) && ( latest.getRevision() == currentRevision ) )
+            {
+                return latest;
+            }
+
+            latest = new Tag( currentRevision, description );
+            tags.put( currentRevision, latest );
+
+            return latest;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Tag tag( long revision, String description )
+    {
+        synchronized ( tags )
+        {
+            Tag tag = tags.get( revision );
+
+            if ( tag != null )
+            {
+                return tag;
+            }
+
+            latest = new Tag( revision, description );
+            tags.put( revision, latest );
+
+            return latest;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Tag getLatest()
+    {
+        return latest;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Tag removeTag( long revision )
+    {
+        synchronized ( tags )
+        {
+            return tags.remove( revision );
+        }
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( "FileChangeLog\n" );
+        sb.append( "latest tag : " ).append( latest ).append( '\n' );
+        sb.append( "current revision : " ).append( currentRevision ).append( '\n' );
+
+        for ( ChangeLogSegment segment : segments )
+        {
+            sb.append( "  " ).append( segment ).append( '\n' );
+        }
+
+        return sb.toString();
+    }
+}
@@ -34,12 +34,10 @@ import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
-import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InterceptorEnum;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
@@ -52,7 +50,6 @@ import org.apache.directory.server.core.api.event.RegistrationEntry;
 import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
-import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
@@ -317,13 +314,7 @@ public class EventInterceptor extends BaseInterceptor
         }
 
         // Get the modified entry
-        CoreSession session = modifyContext.getSession();
-        LookupOperationContext lookupContext = new LookupOperationContext( session, modifyContext.getDn(),
-            SchemaConstants.ALL_ATTRIBUTES_ARRAY );
-        lookupContext.setPartition( modifyContext.getPartition() );
-        lookupContext.setTransaction( modifyContext.getTransaction() );
-
-        Entry alteredEntry = directoryService.getPartitionNexus().lookup( lookupContext );
+        Entry alteredEntry = modifyContext.lookupEntry( modifyContext.getDn() );
         modifyContext.setAlteredEntry( alteredEntry );
 
         for ( final RegistrationEntry registration : selecting )
@@ -407,13 +398,7 @@ public class EventInterceptor extends BaseInterceptor
         }
 
         // Get the modified entry
-        CoreSession session = renameContext.getSession();
-        LookupOperationContext lookupContext = new LookupOperationContext( session, renameContext.getNewDn(),
-            SchemaConstants.ALL_ATTRIBUTES_ARRAY );
-        lookupContext.setPartition( renameContext.getPartition() );
-        lookupContext.setTransaction( renameContext.getTransaction() );
-
-        Entry alteredEntry = directoryService.getPartitionNexus().lookup( lookupContext );
+        Entry alteredEntry = renameContext.lookupEntry( renameContext.getNewDn() );
         renameContext.setModifiedEntry( alteredEntry );
 
         for ( final RegistrationEntry registration : selecting )
@@ -103,6 +103,11 @@ public class DefaultJournal implements Journal
             store = new DefaultJournalStore();
         }
 
+        if ( store instanceof DefaultJournalStore )
+        {
+            ( ( DefaultJournalStore ) store ).setRotation( rotation );
+        }
+
         try
         {
             store.init( directoryService );
@@ -132,7 +137,10 @@ public class DefaultJournal implements Journal
     @Override
     public void log( LdapPrincipal principal, long revision, LdifEntry entry ) throws LdapException
     {
-        store.log( principal, revision, entry );
+        if ( !store.log( principal, revision, entry ) )
+        {
+            throw new LdapException( "Cannot log the revision " + revision + " in the journal" );
+        }
     }
 
 
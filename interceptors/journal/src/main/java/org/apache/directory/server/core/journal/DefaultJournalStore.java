@@ -22,11 +22,16 @@ package org.apache.directory.server.core.journal;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.ldif.LdifEntry;
@@ -34,16 +39,36 @@ import org.apache.directory.api.ldap.model.ldif.LdifUtils;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.LdapPrincipal;
 import org.apache.directory.server.core.api.journal.JournalStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
  * The default Journal Store implementation. It creates a file on disk in which
  * the logs will be appended.
+ * <br>
+ * The records are encoded by the threads logging them, and pushed into a
+ * lock-free ring buffer. A dedicated thread drains the buffer, writes the
+ * pending records with a single write, and syncs them to the disk depending
+ * on the {@link JournalDurability} mode. The journal file is rotated when it
+ * reaches a given size, or a given number of logged operations.
  *  
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
 */
 public class DefaultJournalStore implements JournalStore
 {
+    /** The class logger */
+    private static final Logger LOG = LoggerFactory.getLogger( DefaultJournalStore.class );
+
+    /** The default number of records the ring buffer can hold */
+    public static final int DEFAULT_BUFFER_CAPACITY = 4096;
+
+    /** The default journal file size above which it is rotated */
+    public static final long DEFAULT_MAX_FILE_SIZE = 64L * 1024L * 1024L;
+
+    /** The maximum number of records written at once */
+    private static final int MAX_GROUP_SIZE = 256;
+
     /** The directory where the journal is stored */
     private File workingDirectory;
 
@@ -53,8 +78,53 @@ public class DefaultJournalStore implements JournalStore
     /** The file containing the journal */
     private File journal;
 
-    /** The stream used to write data into the journal */
-    private Writer writer;
+    /** The channel used to write data into the journal */
+    private volatile FileChannel channel;
+
+    /** The current size of the journal file */
+    private long fileSize;
+
+    /** The number of operations logged in the current journal file */
+    private final AtomicInteger nbOperations = new AtomicInteger( 0 );
+
+    /** The index of the last rotated file */
+    private int lastRotatedFile;
+
+    /** The guarantee given when a record is logged */
+    private JournalDurability durability = JournalDurability.GROUP;
+
+    /** The size above which the journal file is rotated. 0 means no size limit */
+    private long maxFileSize = DEFAULT_MAX_FILE_SIZE;
+
+    /** The number of operations above which the journal file is rotated. 0 means no limit */
+    private int rotation;
+
+    /** The number of records the ring buffer can hold */
+    private int bufferCapacity = DEFAULT_BUFFER_CAPACITY;
+
+    /** The buffer containing the records not yet written */
+    private JournalRingBuffer ringBuffer;
+
+    /** The thread writing the records */
+    private Thread writerThread;
+
+    /** Tells if the store accepts records */
+    private volatile boolean running;
+
+    /** All the records before this position have been written (and synced if needed) */
+    private volatile long writtenPosition;
+
+    /** The error which stopped the writer thread, if any */
+    private volatile IOException writeFailure;
+
+    /** The number of threads waiting for their record to be written */
+    private final AtomicInteger waiters = new AtomicInteger( 0 );
+
+    /** The monitor the waiting threads are waiting on */
+    private final Object writtenMonitor = new Object();
+
+    /** The latest logged revision */
+    private final AtomicLong currentRevision = new AtomicLong( 0L );
 
 
     /**
@@ -63,9 +133,34 @@ public class DefaultJournalStore implements JournalStore
     @Override
     public void destroy() throws IOException
     {
-        if ( writer != null )
+        if ( !running )
+        {
+            return;
+        }
+
+        running = false;
+
+        if ( writerThread != null )
+        {
+            LockSupport.unpark( writerThread );
+
+            try
+            {
+                writerThread.join( TimeUnit.SECONDS.toMillis( 30L ) );
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            writerThread = null;
+        }
+
+        // The channel may have been closed by a failed rotation
+        if ( ( channel != null ) && channel.isOpen() )
         {
-            writer.close();
+            channel.force( true );
+            channel.close();
         }
     }
 
@@ -88,80 +183,225 @@ public class DefaultJournalStore implements JournalStore
         }
 
         journal = new File( workingDirectory, fileName );
+        lastRotatedFile = findLastRotatedFile();
 
         // The new requests are added at the end of the existing journal
-        writer = new PrintWriter(
-            Files.newBufferedWriter( journal.toPath(), StandardCharsets.UTF_8, StandardOpenOption.APPEND ) );
+        openJournal();
+
+        ringBuffer = new JournalRingBuffer( bufferCapacity );
+        writtenPosition = 0L;
+        writeFailure = null;
+        running = true;
+
+        writerThread = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                writeLoop();
+            }
+        }, "journal-writer" );
+        writerThread.setDaemon( true );
+        writerThread.start();
+    }
+
+
+    private void openJournal() throws IOException
+    {
+        channel = FileChannel.open( journal.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND );
+        fileSize = channel.size();
+        nbOperations.set( 0 );
     }
 
 
     /**
-     * Stores an event into the journal.
-     * 
-     * @param principal The principal who is logging the change
-     * @param revision The operation revision
-     * @param forward The change to log
+     * @return The highest index of the rotated journal files
      */
-    @Override
-    public boolean log( LdapPrincipal principal, long revision, LdifEntry forward )
+    private int findLastRotatedFile()
     {
-        synchronized ( writer )
+        int last = 0;
+        String prefix = fileName + ".";
+        File[] files = workingDirectory.listFiles();
+
+        if ( files != null )
         {
+            for ( File file : files )
+            {
+                String name = file.getName();
+
+                if ( name.startsWith( prefix ) )
+                {
+                    try
+                    {
+                        last = Math.max( last, Integer.parseInt( name.substring( prefix.length() ) ) );
+                    }
+                    catch ( NumberFormatException nfe )
+                    {
+                        // Not a rotated journal
+                    }
+                }
+            }
+        }
+
+        return last;
+    }
+
+
+    /**
+     * Close the current journal file, rename it, and start a new one
+     */
+    private void rotate() throws IOException
+    {
+        channel.force( true );
+        channel.close();
+
+        lastRotatedFile++;
+        File rotated = new File( workingDirectory, fileName + "." + lastRotatedFile );
+        Files.move( journal.toPath(), rotated.toPath() );
+
+        LOG.debug( "Rotated the journal into {}", rotated );
+
+        openJournal();
+    }
+
+
+    /**
+     * The writer thread loop : drain the ring buffer, write the records, and
+     * sync them if needed, until the store is stopped and the buffer is empty.
+     * The thread parks when there is nothing to write, and is unparked by the
+     * producers. If a group can't be written, the written position is not moved
+     * any more : the failure is reported to the waiting threads, and no other
+     * record is accepted.
+     */
+    private void writeLoop()
+    {
+        ByteBuffer[] group = new ByteBuffer[MAX_GROUP_SIZE];
+
+        while ( true )
+        {
+            int nbRecords = 0;
+            long groupSize = 0L;
+            byte[] record;
+
+            while ( ( nbRecords < MAX_GROUP_SIZE ) && ( ( record = ringBuffer.poll() ) != null ) )
+            {
+                group[nbRecords++] = ByteBuffer.wrap( record );
+                groupSize += record.length;
+            }
+
+            if ( nbRecords == 0 )
+            {
+                if ( !running && ( ringBuffer.getHead() == ringBuffer.getTail() ) )
+                {
+                    break;
+                }
+
+                // Wait for a producer, or for the store to be stopped
+                LockSupport.park( this );
+
+                continue;
+            }
+
             try
             {
-                // Write the LdapPrincipal
-                writer.write( "# principal: " );
-                writer.write( principal.getName() );
-                writer.write( '\n' );
-
-                // Write the timestamp
-                writer.write( "# timestamp: " );
-                writer.write( Long.toString( System.currentTimeMillis() ) );
-                writer.write( '\n' );
-
-                // Write the revision
-                writer.write( "# revision: " );
-                writer.write( Long.toString( revision ) );
-                writer.write( "\n" );
-
-                // Write the entry
-                writer.write( LdifUtils.convertToLdif( forward, 80 ) );
-                writer.flush();
+                write( group, nbRecords, groupSize );
             }
-            catch ( LdapException | IOException e )
+            catch ( IOException ioe )
             {
-                return false;
+                LOG.error( "Cannot write {} records in the journal {}", nbRecords, journal, ioe );
+                writeFailure = ioe;
+
+                break;
+            }
+
+            for ( int i = 0; i < nbRecords; i++ )
+            {
+                group[i] = null;
+            }
+
+            writtenPosition = ringBuffer.getHead();
+
+            if ( waiters.get() > 0 )
+            {
+                synchronized ( writtenMonitor )
+                {
+                    writtenMonitor.notifyAll();
+                }
             }
         }
 
-        return true;
+        // Release the threads which may still wait
+        if ( writeFailure == null )
+        {
+            writtenPosition = Long.MAX_VALUE;
+        }
+
+        synchronized ( writtenMonitor )
+        {
+            writtenMonitor.notifyAll();
+        }
+    }
+
+
+    private void write( ByteBuffer[] group, int nbRecords, long groupSize ) throws IOException
+    {
+        if ( ( ( maxFileSize > 0 ) && ( fileSize >= maxFileSize ) )
+            || ( ( rotation > 0 ) && ( nbOperations.get() >= rotation ) ) )
+        {
+            rotate();
+        }
+
+        long remaining = groupSize;
+
+        while ( remaining > 0 )
+        {
+            remaining -= channel.write( group, 0, nbRecords );
+        }
+
+        fileSize += groupSize;
+
+        if ( durability != JournalDurability.NONE )
+        {
+            channel.force( false );
+        }
     }
 
 
     /**
-     * Records a ack for a change
+     * Push an encoded record in the ring buffer, waiting for some room if it's
+     * full, and for the record to be written if the durability mode requires it.
      *
-     * @param revision The change revision which is acked
-     * @return <code>true</code> if the ack has been written
+     * @return <code>false</code> if the store is stopped, if a previous write has failed,
+     * or if the record can't be written in SYNC mode
      */
-    @Override
-    public boolean ack( long revision )
+    private boolean append( String text )
     {
-        synchronized ( writer )
+        if ( !running || ( writeFailure != null ) )
         {
-            try
-            {
-                // Write the revision
-                writer.write( "# ack-revision: " );
-                writer.write( Long.toString( revision ) );
-                writer.write( "\n\n" );
+            return false;
+        }
 
-                writer.flush();
-            }
-            catch ( IOException ioe )
+        byte[] record = text.getBytes( StandardCharsets.UTF_8 );
+        long position;
+
+        while ( ( position = ringBuffer.offer( record ) ) < 0L )
+        {
+            if ( !running || ( writeFailure != null ) )
             {
                 return false;
             }
+
+            // The buffer is full, let the writer catch up
+            LockSupport.unpark( writerThread );
+            LockSupport.parkNanos( TimeUnit.MICROSECONDS.toNanos( 50L ) );
+        }
+
+        LockSupport.unpark( writerThread );
+
+        if ( durability == JournalDurability.SYNC )
+        {
+            return awaitWritten( position );
         }
 
         return true;
@@ -169,48 +409,154 @@ public class DefaultJournalStore implements JournalStore
 
 
     /**
-     * Records a nack for a change
+     * Wait until the record at the given position has been written
      *
-     * @param revision The change revision which is nacked
-     * @return <code>true</code> if the nack has been written
+     * @return <code>true</code> if the record has been written, <code>false</code> if
+     * the writer has failed before writing it, or if the thread was interrupted
      */
-    @Override
-    public boolean nack( long revision )
+    private boolean awaitWritten( long position )
     {
-        synchronized ( writer )
+        if ( writtenPosition > position )
         {
-            try
-            {
-                // Write the revision
-                writer.write( "# nack-revision: " );
-                writer.write( Long.toString( revision ) );
-                writer.write( "\n\n" );
+            return true;
+        }
 
-                writer.flush();
-            }
-            catch ( IOException ioe )
+        waiters.incrementAndGet();
+
+        try
+        {
+            synchronized ( writtenMonitor )
             {
-                return false;
+                while ( ( writtenPosition <= position ) && ( writeFailure == null ) )
+                {
+                    writtenMonitor.wait( 10L );
+                }
             }
         }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            waiters.decrementAndGet();
+        }
+
+        return writtenPosition > position;
+    }
+
+
+    /**
+     * Stores an event into the journal.
+     * 
+     * @param principal The principal who is logging the change
+     * @param revision The operation revision
+     * @param forward The change to log
+     */
+    @Override
+    public boolean log( LdapPrincipal principal, long revision, LdifEntry forward )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        try
+        {
+            // Write the LdapPrincipal
+            sb.append( "# principal: " ).append( principal.getName() ).append( '\n' );
+
+            // Write the timestamp
+            sb.append( "# timestamp: " ).append( System.currentTimeMillis() ).append( '\n' );
+
+            // Write the revision
+            sb.append( "# revision: " ).append( revision ).append( '\n' );
+
+            // Write the entry
+            sb.append( LdifUtils.convertToLdif( forward, 80 ) );
+        }
+        catch ( LdapException le )
+        {
+            return false;
+        }
+
+        if ( !append( sb.toString() ) )
+        {
+            return false;
+        }
+
+        nbOperations.incrementAndGet();
+        currentRevision.accumulateAndGet( revision, Math::max );
 
         return true;
     }
 
 
+    /**
+     * Records a ack for a change
+     *
+     * @param revision The change revision which is acked
+     * @return <code>true</code> if the ack has been written
+     */
+    @Override
+    public boolean ack( long revision )
+    {
+        return append( "# ack-revision: " + revision + "\n\n" );
+    }
+
+
+    /**
+     * Records a nack for a change
+     *
+     * @param revision The change revision which is nacked
+     * @return <code>true</code> if the nack has been written
+     */
+    @Override
+    public boolean nack( long revision )
+    {
+        return append( "# nack-revision: " + revision + "\n\n" );
+    }
+
+
+    /**
+     * Wait until all the records logged so far have been written, and sync them to the disk.
+     */
     @Override
     public void sync() throws IOException
     {
-        // TODO Auto-generated method stub
+        if ( !running )
+        {
+            return;
+        }
+
+        long position = ringBuffer.getTail() - 1;
 
+        if ( position >= 0 )
+        {
+            LockSupport.unpark( writerThread );
+            awaitWritten( position );
+        }
+
+        if ( writeFailure != null )
+        {
+            throw new IOException( "The journal " + journal + " can't be written", writeFailure );
+        }
+
+        try
+        {
+            channel.force( true );
+        }
+        catch ( ClosedChannelException cce )
+        {
+            // The journal has just been rotated, and synced before being closed
+        }
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
     @Override
     public long getCurrentRevision()
     {
-        // TODO Auto-generated method stub
-        return 0;
+        return currentRevision.get();
     }
 
 
@@ -241,4 +587,68 @@ public class DefaultJournalStore implements JournalStore
     {
         this.workingDirectory = new File( workingDirectoryName );
     }
+
+
+    /**
+     * @return The guarantee given when a record is logged
+     */
+    public JournalDurability getDurability()
+    {
+        return durability;
+    }
+
+
+    /**
+     * @param durability The guarantee given when a record is logged
+     */
+    public void setDurability( JournalDurability durability )
+    {
+        this.durability = durability;
+    }
+
+
+    /**
+     * @return The size above which the journal file is rotated, 0 if there is no limit
+     */
+    public long getMaxFileSize()
+    {
+        return maxFileSize;
+    }
+
+
+    /**
+     * @param maxFileSize The size above which the journal file is rotated, 0 for no limit
+     */
+    public void setMaxFileSize( long maxFileSize )
+    {
+        this.maxFileSize = maxFileSize;
+    }
+
+
+    /**
+     * @return The number of operations above which the journal file is rotated, 0 if there is no limit
+     */
+    public int getRotation()
+    {
+        return rotation;
+    }
+
+
+    /**
+     * @param rotation The number of operations above which the journal file is rotated, 0 for no limit
+     */
+    public void setRotation( int rotation )
+    {
+        this.rotation = rotation;
+    }
+
+
+    /**
+     * @param bufferCapacity The number of records which can be waiting to be written.
+     * It must be set before the store is initialized
+     */
+    public void setBufferCapacity( int bufferCapacity )
+    {
+        this.bufferCapacity = bufferCapacity;
+    }
 }
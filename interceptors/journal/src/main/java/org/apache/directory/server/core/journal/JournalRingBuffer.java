@@ -0,0 +1,152 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.journal;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * A bounded, lock-free ring buffer of encoded journal records, written by many
+ * threads and read by a single one. Each slot carries a sequence number telling
+ * whether it's free for the producer claiming a position, or ready for the
+ * consumer : producers only compete on a CAS on the tail, and never block each
+ * other while copying their record.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class JournalRingBuffer
+{
+    /** The records */
+    private final AtomicReferenceArray<byte[]> slots;
+
+    /** The sequence of each slot */
+    private final AtomicLongArray sequences;
+
+    /** The mask used to compute a slot index from a position */
+    private final int mask;
+
+    /** The next position to be claimed by a producer */
+    private final AtomicLong tail = new AtomicLong( 0L );
+
+    /** The next position to be read by the consumer. Only modified by the consumer */
+    private volatile long head;
+
+
+    /**
+     * Creates a new instance of JournalRingBuffer.
+     *
+     * @param capacity The number of slots, rounded up to the next power of 2
+     */
+    JournalRingBuffer( int capacity )
+    {
+        int size = Integer.highestOneBit( Math.max( 2, capacity ) - 1 ) << 1;
+
+        slots = new AtomicReferenceArray<>( size );
+        sequences = new AtomicLongArray( size );
+        mask = size - 1;
+
+        for ( int i = 0; i < size; i++ )
+        {
+            sequences.set( i, i );
+        }
+    }
+
+
+    /**
+     * Add a record in the buffer.
+     *
+     * @param record The record to add
+     * @return The position of the record, or -1 if the buffer is full
+     */
+    long offer( byte[] record )
+    {
+        while ( true )
+        {
+            long position = tail.get();
+            int index = ( int ) ( position & mask );
+            long difference = sequences.get( index ) - position;
+
+            if ( difference == 0L )
+            {
+                if ( tail.compareAndSet( position, position + 1 ) )
+                {
+                    slots.lazySet( index, record );
+
+                    // Publish the record
+                    sequences.set( index, position + 1 );
+
+                    return position;
+                }
+            }
+            else if ( difference < 0L )
+            {
+                // The consumer has not yet freed this slot
+                return -1L;
+            }
+        }
+    }
+
+
+    /**
+     * Get the next record, if it has been published. Must only be called by the consumer.
+     *
+     * @return The next record, or null if there is none
+     */
+    byte[] poll()
+    {
+        long position = head;
+        int index = ( int ) ( position & mask );
+
+        if ( sequences.get( index ) != position + 1 )
+        {
+            return null;
+        }
+
+        byte[] record = slots.get( index );
+        slots.lazySet( index, null );
+
+        // Free the slot for the producer which will wrap around
+        sequences.set( index, position + mask + 1 );
+        head = position + 1;
+
+        return record;
+    }
+
+
+    /**
+     * @return The position of the next record to be read
+     */
+    long getHead()
+    {
+        return head;
+    }
+
+
+    /**
+     * @return The position of the next record to be added
+     */
+    long getTail()
+    {
+        return tail.get();
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.journal;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests the {@link DefaultJournalStore} writer : the durability modes, the
+ * idle writer thread, and the write failures.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DefaultJournalStoreTest
+{
+    private File workingDirectory;
+
+    private DefaultJournalStore store;
+
+    private LdapPrincipal principal;
+
+
+    @BeforeEach
+    public void setUp() throws Exception
+    {
+        workingDirectory = Files.createTempDirectory( "journal" ).toFile();
+        principal = new LdapPrincipal( null, new Dn( "uid=admin,ou=system" ), AuthenticationLevel.SIMPLE );
+
+        store = new DefaultJournalStore();
+        store.setWorkingDirectory( workingDirectory.getAbsolutePath() );
+        store.setFileName( "journal.ldif" );
+    }
+
+
+    @AfterEach
+    public void tearDown() throws Exception
+    {
+        store.destroy();
+
+        File[] files = workingDirectory.listFiles();
+
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                Files.delete( file.toPath() );
+            }
+        }
+
+        Files.delete( workingDirectory.toPath() );
+    }
+
+
+    private LdifEntry createEntry( int i ) throws Exception
+    {
+        LdifEntry ldif = new LdifEntry();
+        ldif.setChangeType( ChangeType.Delete );
+        ldif.setDn( "cn=entry" + i + ",ou=system" );
+
+        return ldif;
+    }
+
+
+    private String readJournal() throws IOException
+    {
+        return new String( Files.readAllBytes( new File( workingDirectory, "journal.ldif" ).toPath() ),
+            StandardCharsets.UTF_8 );
+    }
+
+
+    private Thread.State getWriterState()
+    {
+        for ( Thread thread : Thread.getAllStackTraces().keySet() )
+        {
+            if ( "journal-writer".equals( thread.getName() ) && thread.isAlive() )
+            {
+                return thread.getState();
+            }
+        }
+
+        return null;
+    }
+
+
+    @Test
+    public void testSyncLog() throws Exception
+    {
+        store.setDurability( JournalDurability.SYNC );
+        store.init( null );
+
+        // The record is written when log() returns
+        assertTrue( store.log( principal, 1L, createEntry( 1 ) ) );
+        assertTrue( readJournal().contains( "# revision: 1\n" ) );
+
+        assertTrue( store.ack( 1L ) );
+        assertTrue( readJournal().contains( "# ack-revision: 1\n" ) );
+        assertEquals( 1L, store.getCurrentRevision() );
+    }
+
+
+    @Test
+    public void testGroupLog() throws Exception
+    {
+        store.setDurability( JournalDurability.GROUP );
+        store.init( null );
+
+        for ( int i = 1; i <= 100; i++ )
+        {
+            assertTrue( store.log( principal, i, createEntry( i ) ) );
+        }
+
+        // All the records logged so far are written by sync()
+        store.sync();
+        String journal = readJournal();
+
+        for ( int i = 1; i <= 100; i++ )
+        {
+            assertTrue( journal.contains( "dn: cn=entry" + i + ",ou=system\n" ) );
+        }
+
+        assertEquals( 100L, store.getCurrentRevision() );
+    }
+
+
+    @Test
+    public void testIdleWriter() throws Exception
+    {
+        store.init( null );
+        assertTrue( store.log( principal, 1L, createEntry( 1 ) ) );
+        store.sync();
+
+        // The writer has nothing to do, it waits without any timeout
+        long deadline = System.currentTimeMillis() + 10000L;
+
+        while ( ( getWriterState() != Thread.State.WAITING ) && ( System.currentTimeMillis() < deadline ) )
+        {
+            Thread.sleep( 10L );
+        }
+
+        assertEquals( Thread.State.WAITING, getWriterState() );
+
+        // And is woken up by a new record
+        assertTrue( store.log( principal, 2L, createEntry( 2 ) ) );
+        store.sync();
+        assertTrue( readJournal().contains( "# revision: 2\n" ) );
+    }
+
+
+    @Test
+    public void testWriteFailure() throws Exception
+    {
+        store.setDurability( JournalDurability.SYNC );
+        store.setRotation( 1 );
+        store.init( null );
+
+        assertTrue( store.log( principal, 1L, createEntry( 1 ) ) );
+
+        // The journal can't be rotated : the next group can't be written
+        assertTrue( new File( workingDirectory, "journal.ldif.1" ).createNewFile() );
+
+        assertFalse( store.log( principal, 2L, createEntry( 2 ) ) );
+        assertEquals( 1L, store.getCurrentRevision() );
+
+        // The following records are rejected
+        assertFalse( store.ack( 2L ) );
+        assertFalse( store.log( principal, 3L, createEntry( 3 ) ) );
+
+        assertThrows( IOException.class, () ->
+        {
+            store.sync();
+        } );
+    }
+}
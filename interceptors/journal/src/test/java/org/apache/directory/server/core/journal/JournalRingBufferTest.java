@@ -0,0 +1,155 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.journal;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests the {@link JournalRingBuffer}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JournalRingBufferTest
+{
+    @Test
+    public void testOfferPoll()
+    {
+        JournalRingBuffer ringBuffer = new JournalRingBuffer( 4 );
+        assertNull( ringBuffer.poll() );
+
+        byte[] first = new byte[]
+            { 1 };
+        byte[] second = new byte[]
+            { 2 };
+
+        assertEquals( 0L, ringBuffer.offer( first ) );
+        assertEquals( 1L, ringBuffer.offer( second ) );
+        assertEquals( 2L, ringBuffer.getTail() );
+
+        // The records are read in order
+        assertSame( first, ringBuffer.poll() );
+        assertSame( second, ringBuffer.poll() );
+        assertNull( ringBuffer.poll() );
+        assertEquals( 2L, ringBuffer.getHead() );
+    }
+
+
+    @Test
+    public void testFullBuffer()
+    {
+        // Rounded up to 4 slots
+        JournalRingBuffer ringBuffer = new JournalRingBuffer( 3 );
+
+        for ( int i = 0; i < 4; i++ )
+        {
+            assertEquals( i, ringBuffer.offer( new byte[]
+                { ( byte ) i } ) );
+        }
+
+        assertEquals( -1L, ringBuffer.offer( new byte[0] ) );
+
+        // Reading a record frees its slot
+        assertEquals( 0, ringBuffer.poll()[0] );
+        assertEquals( 4L, ringBuffer.offer( new byte[]
+            { 4 } ) );
+
+        // The buffer wraps around
+        for ( int i = 1; i < 5; i++ )
+        {
+            assertEquals( i, ringBuffer.poll()[0] );
+        }
+
+        assertNull( ringBuffer.poll() );
+    }
+
+
+    @Test
+    public void testConcurrentProducers() throws Exception
+    {
+        final JournalRingBuffer ringBuffer = new JournalRingBuffer( 64 );
+        final int nbProducers = 4;
+        final int nbRecords = 10000;
+        List<Thread> producers = new ArrayList<>();
+
+        for ( int p = 0; p < nbProducers; p++ )
+        {
+            final int producer = p;
+
+            Thread thread = new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for ( int i = 0; i < nbRecords; i++ )
+                    {
+                        byte[] record = ( producer + ":" + i ).getBytes();
+
+                        while ( ringBuffer.offer( record ) < 0L )
+                        {
+                            Thread.yield();
+                        }
+                    }
+                }
+            } );
+
+            producers.add( thread );
+            thread.start();
+        }
+
+        // Every record is read exactly once
+        Set<String> read = new HashSet<>();
+        long deadline = System.currentTimeMillis() + 30000L;
+
+        while ( ( read.size() < nbProducers * nbRecords ) && ( System.currentTimeMillis() < deadline ) )
+        {
+            byte[] record = ringBuffer.poll();
+
+            if ( record == null )
+            {
+                Thread.yield();
+            }
+            else
+            {
+                assertTrue( read.add( new String( record ) ) );
+            }
+        }
+
+        for ( Thread thread : producers )
+        {
+            thread.join();
+        }
+
+        assertEquals( nbProducers * nbRecords, read.size() );
+        assertNull( ringBuffer.poll() );
+        assertEquals( ringBuffer.getTail(), ringBuffer.getHead() );
+    }
+}
@@ -20,6 +20,9 @@
 package org.apache.directory.server.core.normalization;
 
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
 import org.apache.directory.api.ldap.model.entry.Entry;
@@ -43,6 +46,7 @@ import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.normalizers.ConcreteNameComponentNormalizer;
 import org.apache.directory.api.ldap.model.schema.normalizers.NameComponentNormalizer;
+import org.apache.directory.api.ldap.model.schema.registries.Registries;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InterceptorEnum;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursorImpl;
@@ -84,6 +88,33 @@ public class NormalizationInterceptor extends BaseInterceptor
     /** a filter node value normalizer and undefined node remover */
     private FilterNormalizingVisitor normVisitor;
 
+    /** The maximum number of normalized filters kept */
+    private static final int FILTER_CACHE_SIZE = 1000;
+
+    /** The normalized filters, with the registries they have been normalized with */
+    private volatile FilterCache filterCache;
+
+
+    /**
+     * The normalized filters, by filter as received. They are only valid for
+     * the registries they have been normalized with.
+     */
+    private static final class FilterCache
+    {
+        /** The registries the filters have been normalized with */
+        private final Registries registries;
+
+        /** The normalized filters */
+        private final Cache<String, ExprNode> filters;
+
+
+        private FilterCache( Registries registries )
+        {
+            this.registries = registries;
+            filters = Caffeine.newBuilder().maximumSize( FILTER_CACHE_SIZE ).build();
+        }
+    }
+
 
     /**
      * Creates a new instance of a NormalizationInterceptor.
@@ -106,6 +137,7 @@ public class NormalizationInterceptor extends BaseInterceptor
 
         NameComponentNormalizer ncn = new ConcreteNameComponentNormalizer( schemaManager );
         normVisitor = new FilterNormalizingVisitor( ncn, schemaManager );
+        filterCache = new FilterCache( schemaManager.getRegistries() );
     }
 
 
@@ -397,17 +429,14 @@ public class NormalizationInterceptor extends BaseInterceptor
         }
 
         // Normalize the filter
-        filter = ( ExprNode ) filter.accept( normVisitor );
+        ExprNode modifiedFilter = normalizeFilter( filter );
 
-        if ( filter == null )
+        if ( modifiedFilter == null )
         {
             LOG.warn( "undefined filter based on undefined attributeType not evaluted at all.  Returning empty enumeration." );
             return new EntryFilteringCursorImpl( new EmptyCursor<Entry>(), searchContext, schemaManager );
         }
 
-        // We now have to remove the (ObjectClass=*) filter if it's present, and to add the scope filter
-        ExprNode modifiedFilter = removeObjectClass( filter );
-
         searchContext.setFilter( modifiedFilter );
 
         // TODO Normalize the returned Attributes, storing the UP attributes to format the returned values.
@@ -415,6 +444,60 @@ public class NormalizationInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * Normalizes a filter, and removes the (ObjectClass=*) nodes from it. A filter which has
+     * already been seen is not normalized again : we return a copy of the normalized filter
+     * kept in the cache. The cache is dropped when the schema is modified.
+     *
+     * @param filter The filter to normalize
+     * @return The normalized filter, or null if it contains an undefined AttributeType
+     * @throws LdapException If the filter can't be normalized
+     */
+    private ExprNode normalizeFilter( ExprNode filter ) throws LdapException
+    {
+        FilterCache cache = filterCache;
+        Registries registries = schemaManager.getRegistries();
+
+        if ( cache.registries != registries )
+        {
+            // The schema has changed, the normalized filters are not valid anymore
+            cache = new FilterCache( registries );
+            filterCache = cache;
+        }
+
+        // The visitor modifies the filter, the key must be computed first
+        String key = filter.toString();
+        ExprNode normalized = cache.filters.getIfPresent( key );
+
+        if ( normalized != null )
+        {
+            return normalized.clone();
+        }
+
+        normalized = ( ExprNode ) filter.accept( normVisitor );
+
+        if ( normalized == null )
+        {
+            return null;
+        }
+
+        // We now have to remove the (ObjectClass=*) filter if it's present
+        normalized = removeObjectClass( normalized );
+
+        if ( ( normalized instanceof ObjectClassNode ) || ( normalized instanceof UndefinedNode ) )
+        {
+            // Those nodes are shared, they can't be annotated
+            return normalized;
+        }
+
+        // The values have been converted, the SchemaInterceptor does not have to check them again
+        normalized.set( FilterNormalizingVisitor.NORMALIZED_ANNOTATION, Boolean.TRUE );
+        cache.filters.put( key, normalized.clone() );
+
+        return normalized;
+    }
+
+
     /**
      * Remove the (ObjectClass=*) node from an AndNode, if we have one.
      */
@@ -39,7 +39,6 @@ import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
-import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
@@ -324,12 +323,7 @@ public class ReferralInterceptor extends BaseInterceptor
         // TODO: this can be spare, as we already have the altered entry
         // into the opContext, but for an unknow reason, this will fail
         // on eferral tests...
-        LookupOperationContext lookupContext =
-            new LookupOperationContext( modifyContext.getSession(), dn, SchemaConstants.ALL_ATTRIBUTES_ARRAY );
-        lookupContext.setPartition( modifyContext.getPartition() );
-        lookupContext.setTransaction( modifyContext.getTransaction() );
-
-        Entry newEntry = nexus.lookup( lookupContext );
+        Entry newEntry = modifyContext.lookupEntry( dn );
 
         // Update the referralManager.
         // Check that we have the entry, just in case
@@ -428,12 +422,7 @@ public class ReferralInterceptor extends BaseInterceptor
         if ( isReferral )
         {
             // Update the referralManager
-            LookupOperationContext lookupContext = new LookupOperationContext( renameContext.getSession(),
-                renameContext.getNewDn(), SchemaConstants.ALL_ATTRIBUTES_ARRAY );
-            lookupContext.setPartition( renameContext.getPartition() );
-            lookupContext.setTransaction( renameContext.getTransaction() );
-
-            Entry newEntry = nexus.lookup( lookupContext );
+            Entry newEntry = renameContext.lookupEntry( renameContext.getNewDn() );
 
             referralManager.lockWrite();
 
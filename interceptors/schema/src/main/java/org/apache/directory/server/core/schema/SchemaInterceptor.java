@@ -86,6 +86,7 @@ import org.apache.directory.server.core.api.interceptor.context.ModifyOperationC
 import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.normalization.FilterNormalizingVisitor;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.shared.SchemaService;
 import org.apache.directory.server.i18n.I18n;
@@ -1488,8 +1489,12 @@ public class SchemaInterceptor extends BaseInterceptor
         Dn base = searchContext.getDn();
         ExprNode filter = searchContext.getFilter();
 
-        // We also have to check the H/R flag for the filter attributes
-        checkFilter( filter );
+        // We also have to check the H/R flag for the filter attributes, unless the
+        // filter has already been normalized and converted
+        if ( ( filter == null ) || ( filter.get( FilterNormalizingVisitor.NORMALIZED_ANNOTATION ) == null ) )
+        {
+            checkFilter( filter );
+        }
 
         // Deal with the normal case : searching for a normal value (not subSchemaSubEntry)
         if ( !subschemaSubentryDn.equals( base ) )
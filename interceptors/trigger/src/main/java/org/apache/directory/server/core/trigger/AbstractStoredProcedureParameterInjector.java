@@ -27,14 +27,13 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.trigger.StoredProcedureParameter;
 import org.apache.directory.api.ldap.trigger.StoredProcedureParameter.Generic_LDAP_CONTEXT;
-import org.apache.directory.server.core.api.CoreSession;
-import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 
 
@@ -61,13 +60,7 @@ public abstract class AbstractStoredProcedureParameterInjector implements Stored
             Generic_LDAP_CONTEXT ldapCtxParam = ( Generic_LDAP_CONTEXT ) param;
             Dn ldapCtxName = ldapCtxParam.getCtxName();
 
-            CoreSession session = opContext.getSession();
-            LookupOperationContext lookupContext = 
-                new LookupOperationContext( session, ldapCtxName, SchemaConstants.ALL_ATTRIBUTES_ARRAY );
-            lookupContext.setPartition( opContext.getPartition() );
-            lookupContext.setTransaction( opContext.getTransaction() );
-
-            return session.getDirectoryService().getPartitionNexus().lookup( lookupContext );
+            return opContext.lookupEntry( ldapCtxName );
         }
     };
 
@@ -88,6 +81,37 @@ public abstract class AbstractStoredProcedureParameterInjector implements Stored
     }
 
 
+    /**
+     * Gets an entry from the operation's memo, without its operational attributes
+     * (especially the subentry related ones like "triggerExecutionSubentries").
+     *
+     * @param opContext The operation context
+     * @param dn The entry's Dn
+     * @return The entry user attributes
+     * @throws LdapException If the entry can't be found
+     */
+    protected Entry lookupUserAttributes( OperationContext opContext, Dn dn ) throws LdapException
+    {
+        Entry entry = opContext.lookupEntry( dn );
+        List<Attribute> operationalAttributes = new ArrayList<>();
+
+        for ( Attribute attribute : entry )
+        {
+            if ( ( attribute.getAttributeType() != null ) && !attribute.getAttributeType().isUserAttribute() )
+            {
+                operationalAttributes.add( attribute );
+            }
+        }
+
+        for ( Attribute attribute : operationalAttributes )
+        {
+            entry.remove( attribute );
+        }
+
+        return entry;
+    }
+
+
     protected Map<Class<?>, MicroInjector> getInjectors()
     {
         return injectors;
@@ -22,13 +22,10 @@ package org.apache.directory.server.core.trigger;
 
 import java.util.Map;
 
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.trigger.StoredProcedureParameter;
-import org.apache.directory.server.core.api.CoreSession;
-import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 
 
@@ -73,12 +70,6 @@ public class DeleteStoredProcedureParameterInjector extends AbstractStoredProced
          * Using LOOKUP_EXCLUDING_OPR_ATTRS_BYPASS here to exclude operational attributes
          * especially subentry related ones like "triggerExecutionSubentries".
          */
-        CoreSession session = opContext.getSession();
-        LookupOperationContext lookupContext = new LookupOperationContext( session, deletedEntryName,
-            SchemaConstants.ALL_USER_ATTRIBUTES_ARRAY );
-        lookupContext.setPartition( opContext.getPartition() );
-        lookupContext.setTransaction( opContext.getTransaction() );
-        
-        return session.getDirectoryService().getPartitionNexus().lookup( lookupContext );
+        return lookupUserAttributes( opContext, deletedEntryName );
     }
 }
@@ -24,15 +24,12 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.trigger.StoredProcedureParameter;
-import org.apache.directory.server.core.api.CoreSession;
-import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 
@@ -105,12 +102,6 @@ public class ModifyStoredProcedureParameterInjector extends AbstractStoredProced
          * Exclude operational attributes while doing lookup
          * especially subentry related ones like "triggerExecutionSubentries".
          */
-        CoreSession session = opContext.getSession();
-        LookupOperationContext lookupContext = new LookupOperationContext( session, modifiedEntryName,
-            SchemaConstants.ALL_USER_ATTRIBUTES_ARRAY );
-        lookupContext.setPartition( opContext.getPartition() );
-        lookupContext.setTransaction( opContext.getTransaction() );
-        
-        return session.getDirectoryService().getPartitionNexus().lookup( lookupContext );
+        return lookupUserAttributes( opContext, modifiedEntryName );
     }
 }
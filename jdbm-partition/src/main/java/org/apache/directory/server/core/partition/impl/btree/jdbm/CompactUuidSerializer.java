@@ -0,0 +1,200 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import java.io.IOException;
+
+import jdbm.helper.Serializer;
+
+
+/**
+ * A {@link Serializer} for UUIDs, storing the canonical form of a UUID as its 16
+ * bytes instead of its 36 characters. Any other String is stored as is, so the
+ * first byte tells which form is used : 1 for a binary UUID, 0 for a String.
+ * <br>
+ * Both forms have an odd length, when the {@link UuidSerializer} always produces
+ * an even number of bytes : the IDs written by the UuidSerializer are still read.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CompactUuidSerializer implements Serializer
+{
+    private static final long serialVersionUID = 4018733452095847251L;
+    public static final CompactUuidSerializer INSTANCE = new CompactUuidSerializer();
+
+    /** The length of a UUID in its binary form */
+    static final int UUID_LENGTH = 16;
+
+    /** The length of a UUID in its canonical String form */
+    private static final int UUID_STRING_LENGTH = 36;
+
+    /** The tag of a binary UUID */
+    private static final byte BINARY_UUID = 1;
+
+    /** The tag of a String */
+    private static final byte STRING = 0;
+
+    /** The hexadecimal digits */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public byte[] serialize( Object o ) throws IOException
+    {
+        String uuid = ( String ) o;
+        byte[] binary = new byte[UUID_LENGTH + 1];
+
+        if ( toBytes( uuid, binary, 1 ) )
+        {
+            binary[0] = BINARY_UUID;
+
+            return binary;
+        }
+
+        byte[] string = StringSerializer.INSTANCE.serialize( uuid );
+        byte[] bytes = new byte[string.length + 1];
+        bytes[0] = STRING;
+        System.arraycopy( string, 0, bytes, 1, string.length );
+
+        return bytes;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object deserialize( byte[] bytes ) throws IOException
+    {
+        if ( ( bytes.length & 1 ) == 0 )
+        {
+            // Written by the UuidSerializer
+            return StringSerializer.INSTANCE.deserialize( bytes );
+        }
+
+        if ( bytes[0] == BINARY_UUID )
+        {
+            return toString( bytes, 1 );
+        }
+
+        byte[] string = new byte[bytes.length - 1];
+        System.arraycopy( bytes, 1, string, 0, string.length );
+
+        return StringSerializer.INSTANCE.deserialize( string );
+    }
+
+
+    /**
+     * Writes the 16 bytes of a UUID in its canonical form (lower case hexadecimal
+     * digits and dashes) into a buffer.
+     *
+     * @param uuid The UUID
+     * @param buffer The buffer
+     * @param offset The position of the first byte in the buffer
+     * @return <tt>false</tt> if the String is not a canonical UUID, in which case
+     * the buffer content is not significant
+     */
+    static boolean toBytes( String uuid, byte[] buffer, int offset )
+    {
+        if ( ( uuid == null ) || ( uuid.length() != UUID_STRING_LENGTH ) )
+        {
+            return false;
+        }
+
+        int pos = offset;
+        int i = 0;
+
+        while ( i < UUID_STRING_LENGTH )
+        {
+            if ( ( i == 8 ) || ( i == 13 ) || ( i == 18 ) || ( i == 23 ) )
+            {
+                if ( uuid.charAt( i ) != '-' )
+                {
+                    return false;
+                }
+
+                i++;
+                continue;
+            }
+
+            int high = hexValue( uuid.charAt( i ) );
+            int low = hexValue( uuid.charAt( i + 1 ) );
+
+            if ( ( high < 0 ) || ( low < 0 ) )
+            {
+                return false;
+            }
+
+            buffer[pos++] = ( byte ) ( ( high << 4 ) | low );
+            i += 2;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Reads the canonical form of a UUID from its 16 bytes.
+     *
+     * @param buffer The buffer containing the UUID
+     * @param offset The position of the first byte in the buffer
+     * @return The UUID
+     */
+    static String toString( byte[] buffer, int offset )
+    {
+        char[] chars = new char[UUID_STRING_LENGTH];
+        int pos = 0;
+
+        for ( int i = 0; i < UUID_LENGTH; i++ )
+        {
+            if ( ( i == 4 ) || ( i == 6 ) || ( i == 8 ) || ( i == 10 ) )
+            {
+                chars[pos++] = '-';
+            }
+
+            int b = buffer[offset + i] & 0xFF;
+            chars[pos++] = HEX_DIGITS[b >> 4];
+            chars[pos++] = HEX_DIGITS[b & 0x0F];
+        }
+
+        return new String( chars );
+    }
+
+
+    /**
+     * @return the value of a lower case hexadecimal digit, or -1
+     */
+    private static int hexValue( char c )
+    {
+        if ( ( c >= '0' ) && ( c <= '9' ) )
+        {
+            return c - '0';
+        }
+
+        if ( ( c >= 'a' ) && ( c <= 'f' ) )
+        {
+            return c - 'a' + 10;
+        }
+
+        return -1;
+    }
+}
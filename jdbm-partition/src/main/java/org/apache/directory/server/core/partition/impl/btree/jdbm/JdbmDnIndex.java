@@ -119,8 +119,8 @@ public class JdbmDnIndex extends JdbmIndex<Dn>
         DnSerializer dnSerializer = new DnSerializer( schemaManager );
 
         forward = new JdbmTable<Dn, String>( schemaManager, attributeType.getOid() + FORWARD_BTREE,
-            recMan, comp, dnSerializer, UuidSerializer.INSTANCE );
+            recMan, comp, dnSerializer, CompactUuidSerializer.INSTANCE );
         reverse = new JdbmTable<String, Dn>( schemaManager, attributeType.getOid() + REVERSE_BTREE,
-            recMan, UuidComparator.INSTANCE, UuidSerializer.INSTANCE, dnSerializer );
+            recMan, UuidComparator.INSTANCE, CompactUuidSerializer.INSTANCE, dnSerializer );
     }
 }
@@ -208,13 +208,13 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
         {
             forward = new JdbmTable<>( schemaManager, attributeType.getOid() + FORWARD_BTREE, numDupLimit,
                 recMan,
-                comp, UuidComparator.INSTANCE, StringSerializer.INSTANCE, UuidSerializer.INSTANCE );
+                comp, UuidComparator.INSTANCE, StringSerializer.INSTANCE, CompactUuidSerializer.INSTANCE );
         }
         else
         {
             forward = new JdbmTable<>( schemaManager, attributeType.getOid() + FORWARD_BTREE, numDupLimit,
                 recMan,
-                comp, UuidComparator.INSTANCE, new ByteArraySerializer(), UuidSerializer.INSTANCE );
+                comp, UuidComparator.INSTANCE, new ByteArraySerializer(), CompactUuidSerializer.INSTANCE );
         }
 
         /*
@@ -228,13 +228,13 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
             if ( attributeType.isSingleValued() )
             {
                 reverse = new JdbmTable<>( schemaManager, attributeType.getOid() + REVERSE_BTREE, recMan,
-                    UuidComparator.INSTANCE, UuidSerializer.INSTANCE, null );
+                    UuidComparator.INSTANCE, CompactUuidSerializer.INSTANCE, null );
             }
             else
             {
                 reverse = new JdbmTable<>( schemaManager, attributeType.getOid() + REVERSE_BTREE, numDupLimit,
                     recMan,
-                    UuidComparator.INSTANCE, comp, UuidSerializer.INSTANCE, null );
+                    UuidComparator.INSTANCE, comp, CompactUuidSerializer.INSTANCE, null );
             }
         }
     }
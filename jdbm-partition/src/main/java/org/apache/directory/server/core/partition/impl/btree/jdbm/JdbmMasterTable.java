@@ -48,7 +48,7 @@ public class JdbmMasterTable extends JdbmTable<String, Entry> implements MasterT
      */
     public JdbmMasterTable( RecordManager recMan, SchemaManager schemaManager ) throws IOException
     {
-        super( schemaManager, DBF, recMan, UuidComparator.INSTANCE, UuidSerializer.INSTANCE,
+        super( schemaManager, DBF, recMan, UuidComparator.INSTANCE, CompactUuidSerializer.INSTANCE,
             new EntrySerializer( schemaManager ) );
 
         UuidComparator.INSTANCE.setSchemaManager( schemaManager );
@@ -58,7 +58,7 @@ public class JdbmMasterTable extends JdbmTable<String, Entry> implements MasterT
     protected JdbmMasterTable( RecordManager recMan, SchemaManager schemaManager, String dbName, Serializer serializer )
         throws Exception
     {
-        super( schemaManager, DBF, recMan, UuidComparator.INSTANCE, UuidSerializer.INSTANCE, serializer );
+        super( schemaManager, DBF, recMan, UuidComparator.INSTANCE, CompactUuidSerializer.INSTANCE, serializer );
     }
 
 
@@ -57,7 +57,7 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
      * {@inheritDoc}
      */
     @Override
-    public void commit() throws IOException
+    protected void doCommit() throws IOException
     {
         recordManager.commit();
         
@@ -85,7 +85,7 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
      * {@inheritDoc}
      */
     @Override
-    public void abort() throws IOException
+    protected void doAbort() throws IOException
     {
         recordManager.rollback();
     }
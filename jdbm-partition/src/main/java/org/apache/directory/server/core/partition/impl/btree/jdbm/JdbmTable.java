@@ -117,7 +117,12 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
         // TODO make the size of the duplicate btree cache configurable via constructor
         duplicateBtrees = new SynchronizedLRUMap( 100 );
 
-        if ( valueSerializer != null )
+        if ( isUuidSerializer( valueSerializer ) )
+        {
+            // The entry IDs are stored in their compact form
+            marshaller = ( Marshaller ) new UuidArrayMarshaller( ( Comparator<String> ) valueComparator );
+        }
+        else if ( valueSerializer != null )
         {
             marshaller = new ArrayMarshaller<>( valueComparator,
                 new MarshallerSerializerBridge<V>( valueSerializer ) );
@@ -149,6 +154,7 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
         {
             bt = new BTree<K, V>().load( recMan, recId );
             ( ( SerializableComparator<K> ) bt.getComparator() ).setSchemaManager( schemaManager );
+            upgradeSerializers( bt );
             
             count = bt.size();
         }
@@ -190,6 +196,7 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
             bt = new BTree<K, V>().load( recMan, recId );
             ( ( SerializableComparator<K> ) bt.getComparator() ).setSchemaManager( schemaManager );
             bt.setValueSerializer( valueSerializer );
+            upgradeSerializers( bt );
             
             count = bt.size();
         }
@@ -989,6 +996,7 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
 
         BTree<K, V> tree = new BTree<K, V>().load( recMan, redirect.getRecId() );
         ( ( SerializableComparator<K> ) tree.getComparator() ).setSchemaManager( schemaManager );
+        upgradeSerializers( tree );
         duplicateBtrees.put( redirect.getRecId(), tree );
 
         return tree;
@@ -1050,11 +1058,45 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
     }
 
 
+    /**
+     * The BTrees created before the entry IDs were stored in their compact form have
+     * persisted the UuidSerializer, which would keep being used once they are loaded.
+     * The CompactUuidSerializer reads both forms, so it replaces it : the existing
+     * records are still read, and converted as their pages get rewritten.
+     */
+    private static void upgradeSerializers( BTree<?, ?> tree )
+    {
+        if ( tree.getKeySerializer() instanceof UuidSerializer )
+        {
+            tree.setKeySerializer( CompactUuidSerializer.INSTANCE );
+        }
+
+        if ( tree.getValueSerializer() instanceof UuidSerializer )
+        {
+            tree.setValueSerializer( CompactUuidSerializer.INSTANCE );
+        }
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the given serializer is used for entry IDs
+     */
+    private static boolean isUuidSerializer( Serializer serializer )
+    {
+        return ( serializer instanceof UuidSerializer ) || ( serializer instanceof CompactUuidSerializer );
+    }
+
+
     private BTree<V, K> convertToBTree( ArrayTree<V> arrayTree ) throws IOException, CursorException, LdapException
     {
         BTree<V, K> bTree;
 
-        if ( valueSerializer != null )
+        if ( isUuidSerializer( valueSerializer ) )
+        {
+            // The existing duplicate BTrees keep their serializer, the new ones use the compact one
+            bTree = new BTree<>( recMan, valueComparator, CompactUuidSerializer.INSTANCE, null );
+        }
+        else if ( valueSerializer != null )
         {
             bTree = new BTree<>( recMan, valueComparator, valueSerializer, null );
         }
@@ -0,0 +1,205 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Comparator;
+
+import org.apache.directory.server.core.avltree.ArrayMarshaller;
+import org.apache.directory.server.core.avltree.ArrayTree;
+import org.apache.directory.server.core.avltree.Marshaller;
+
+
+/**
+ * A compact Marshaller for the sorted sets of entry IDs stored under a single key
+ * of an index. Each UUID is stored as its 16 bytes, prefixed by the number of
+ * leading bytes it shares with the previous one : only the remaining bytes are
+ * written. The serialized form is :
+ * <pre>
+ *   [2][number of IDs, variable length][shared length][remaining bytes]...
+ * </pre>
+ * The sets containing an ID which is not a canonical UUID are stored using the
+ * {@link ArrayMarshaller} format, which starts with a 0. Both forms are read, so
+ * the existing sets are converted the next time they are modified.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class UuidArrayMarshaller implements Marshaller<ArrayTree<String>>
+{
+    /** The first byte of the compact form. 0 is used by the ArrayMarshaller, 1 by the BTreeRedirect */
+    static final byte COMPACT = 2;
+
+    /** The marshaller used for the sets which can't be compacted, and to read the old sets */
+    private final ArrayMarshaller<String> arrayMarshaller;
+
+    /** The IDs comparator */
+    private final Comparator<String> comparator;
+
+
+    /**
+     * Creates a new instance of UuidArrayMarshaller.
+     *
+     * @param comparator The IDs comparator
+     */
+    public UuidArrayMarshaller( Comparator<String> comparator )
+    {
+        this.comparator = comparator;
+        arrayMarshaller = new ArrayMarshaller<>( comparator,
+            new MarshallerSerializerBridge<String>( UuidSerializer.INSTANCE ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public byte[] serialize( ArrayTree<String> tree ) throws IOException
+    {
+        if ( ( tree == null ) || ( tree.size() == 0 ) )
+        {
+            return arrayMarshaller.serialize( tree );
+        }
+
+        int size = tree.size();
+        ByteArrayOutputStream out = new ByteArrayOutputStream( 8 + size * 4 );
+        byte[] previous = new byte[CompactUuidSerializer.UUID_LENGTH];
+        byte[] current = new byte[CompactUuidSerializer.UUID_LENGTH];
+
+        out.write( COMPACT );
+        writeVarInt( out, size );
+
+        for ( int position = 0; position < size; position++ )
+        {
+            if ( !CompactUuidSerializer.toBytes( tree.get( position ), current, 0 ) )
+            {
+                return arrayMarshaller.serialize( tree );
+            }
+
+            int shared = 0;
+
+            if ( position > 0 )
+            {
+                while ( ( shared < CompactUuidSerializer.UUID_LENGTH ) && ( previous[shared] == current[shared] ) )
+                {
+                    shared++;
+                }
+            }
+
+            out.write( shared );
+            out.write( current, shared, CompactUuidSerializer.UUID_LENGTH - shared );
+
+            byte[] tmp = previous;
+            previous = current;
+            current = tmp;
+        }
+
+        return out.toByteArray();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public ArrayTree<String> deserialize( byte[] data ) throws IOException
+    {
+        if ( ( data == null ) || ( data.length == 0 ) || ( data[0] != COMPACT ) )
+        {
+            return arrayMarshaller.deserialize( data );
+        }
+
+        int[] pos = new int[]
+            { 1 };
+        int size = readVarInt( data, pos );
+        String[] ids = new String[size];
+        byte[] uuid = new byte[CompactUuidSerializer.UUID_LENGTH];
+
+        try
+        {
+            for ( int i = 0; i < size; i++ )
+            {
+                int shared = data[pos[0]++];
+
+                if ( ( shared < 0 ) || ( shared > CompactUuidSerializer.UUID_LENGTH ) )
+                {
+                    throw new IOException( "Invalid shared length " + shared + " in a compact ID set" );
+                }
+
+                int remaining = CompactUuidSerializer.UUID_LENGTH - shared;
+                System.arraycopy( data, pos[0], uuid, shared, remaining );
+                pos[0] += remaining;
+                ids[i] = CompactUuidSerializer.toString( uuid, 0 );
+            }
+        }
+        catch ( ArrayIndexOutOfBoundsException aioobe )
+        {
+            throw new IOException( "Truncated compact ID set", aioobe );
+        }
+
+        return new ArrayTree<>( comparator, ids );
+    }
+
+
+    /**
+     * Writes a positive int using 7 bits per byte, the high bit telling if there are more bytes.
+     */
+    private static void writeVarInt( ByteArrayOutputStream out, int value )
+    {
+        int remaining = value;
+
+        while ( ( remaining & ~0x7F ) != 0 )
+        {
+            out.write( ( remaining & 0x7F ) | 0x80 );
+            remaining >>>= 7;
+        }
+
+        out.write( remaining );
+    }
+
+
+    /**
+     * Reads a positive int written by {@link #writeVarInt(ByteArrayOutputStream, int)}, moving the position.
+     */
+    private static int readVarInt( byte[] data, int[] pos ) throws IOException
+    {
+        int value = 0;
+        int shift = 0;
+
+        while ( shift < 32 )
+        {
+            if ( pos[0] >= data.length )
+            {
+                throw new IOException( "Truncated compact ID set" );
+            }
+
+            byte b = data[pos[0]++];
+            value |= ( b & 0x7F ) << shift;
+
+            if ( ( b & 0x80 ) == 0 )
+            {
+                return value;
+            }
+
+            shift += 7;
+        }
+
+        throw new IOException( "Invalid size in a compact ID set" );
+    }
+}
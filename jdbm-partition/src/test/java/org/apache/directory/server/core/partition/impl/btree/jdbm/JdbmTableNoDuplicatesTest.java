@@ -34,10 +34,12 @@ import jdbm.recman.BaseRecordManager;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
+import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
 import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
 import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
 import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
 import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
 import org.apache.directory.api.util.exception.Exceptions;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.xdbm.MockPartitionReadTxn;
@@ -164,6 +166,44 @@ public class JdbmTableNoDuplicatesTest
     }
 
 
+    /**
+     * A table written with the UuidSerializer is still read once reopened, and
+     * its new records are written in the compact form.
+     */
+    @Test
+    public void testReopenUuidSerializerTable() throws Exception
+    {
+        String oldId = Strings.getUUID( 1L );
+        String newId = Strings.getUUID( 2L );
+        UuidComparator.INSTANCE.setSchemaManager( schemaManager );
+
+        JdbmTable<String, String> uuids = new JdbmTable<String, String>( schemaManager, "uuids", recman,
+            UuidComparator.INSTANCE, UuidSerializer.INSTANCE, StringSerializer.INSTANCE );
+        uuids.put( partitionTxn, oldId, "old" );
+        recman.commit();
+        recman.close();
+
+        // Reopen the existing table with the compact serializer
+        recman = new BaseRecordManager( dbFile.getAbsolutePath() );
+        uuids = new JdbmTable<String, String>( schemaManager, "uuids", recman,
+            UuidComparator.INSTANCE, CompactUuidSerializer.INSTANCE, StringSerializer.INSTANCE );
+        assertTrue( uuids.getBTree().getKeySerializer() instanceof CompactUuidSerializer );
+        assertEquals( "old", uuids.get( partitionTxn, oldId ) );
+
+        uuids.put( partitionTxn, newId, "new" );
+        recman.commit();
+        recman.close();
+
+        // Both forms are read
+        recman = new BaseRecordManager( dbFile.getAbsolutePath() );
+        uuids = new JdbmTable<String, String>( schemaManager, "uuids", recman,
+            UuidComparator.INSTANCE, CompactUuidSerializer.INSTANCE, StringSerializer.INSTANCE );
+        assertEquals( 2L, uuids.count( partitionTxn ) );
+        assertEquals( "old", uuids.get( partitionTxn, oldId ) );
+        assertEquals( "new", uuids.get( partitionTxn, newId ) );
+    }
+
+
     @Test
     public void testConfigMethods() throws Exception
     {
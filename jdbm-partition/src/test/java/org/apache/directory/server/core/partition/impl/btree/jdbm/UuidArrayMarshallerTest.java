@@ -0,0 +1,183 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.UUID;
+
+import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.avltree.ArrayMarshaller;
+import org.apache.directory.server.core.avltree.ArrayTree;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+
+/**
+ * Tests the compact serialization of the entry ID sets.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@Execution(ExecutionMode.SAME_THREAD)
+public class UuidArrayMarshallerTest
+{
+    private final UuidArrayMarshaller marshaller = new UuidArrayMarshaller( UuidComparator.INSTANCE );
+
+    private final ArrayMarshaller<String> arrayMarshaller = new ArrayMarshaller<>( UuidComparator.INSTANCE,
+        new MarshallerSerializerBridge<String>( UuidSerializer.INSTANCE ) );
+
+
+    private ArrayTree<String> createTree( int size, boolean sequential )
+    {
+        ArrayTree<String> tree = new ArrayTree<>( UuidComparator.INSTANCE );
+
+        for ( int i = 0; i < size; i++ )
+        {
+            tree.insert( sequential ? Strings.getUUID( i ) : UUID.randomUUID().toString() );
+        }
+
+        return tree;
+    }
+
+
+    private void assertSameIds( ArrayTree<String> expected, ArrayTree<String> actual )
+    {
+        assertEquals( expected.size(), actual.size() );
+
+        for ( int i = 0; i < expected.size(); i++ )
+        {
+            assertEquals( expected.get( i ), actual.get( i ) );
+        }
+    }
+
+
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        for ( int size : new int[]
+            { 0, 1, 2, 127, 128, 512 } )
+        {
+            ArrayTree<String> sequential = createTree( size, true );
+            assertSameIds( sequential, marshaller.deserialize( marshaller.serialize( sequential ) ) );
+
+            ArrayTree<String> random = createTree( size, false );
+            assertSameIds( random, marshaller.deserialize( marshaller.serialize( random ) ) );
+        }
+    }
+
+
+    @Test
+    public void testReadOldFormat() throws Exception
+    {
+        ArrayTree<String> tree = createTree( 50, false );
+        byte[] old = arrayMarshaller.serialize( tree );
+
+        assertSameIds( tree, marshaller.deserialize( old ) );
+    }
+
+
+    @Test
+    public void testNonCanonicalIds() throws Exception
+    {
+        ArrayTree<String> tree = createTree( 10, false );
+        tree.insert( UUID.randomUUID().toString().toUpperCase() );
+
+        byte[] serialized = marshaller.serialize( tree );
+
+        assertEquals( 0, serialized[0] );
+        assertSameIds( tree, marshaller.deserialize( serialized ) );
+    }
+
+
+    @Test
+    public void testNotARedirect() throws Exception
+    {
+        // A single ID sharing nothing with a previous one takes 1 + 1 + 1 + 16 bytes
+        ArrayTree<String> tree = createTree( 1, false );
+        byte[] serialized = marshaller.serialize( tree );
+
+        assertEquals( UuidArrayMarshaller.COMPACT, serialized[0] );
+        assertFalse( BTreeRedirectMarshaller.isRedirect( serialized ) );
+    }
+
+
+    @Test
+    public void testCompactUuidSerializer() throws Exception
+    {
+        String uuid = UUID.randomUUID().toString();
+        byte[] serialized = CompactUuidSerializer.INSTANCE.serialize( uuid );
+
+        assertEquals( 17, serialized.length );
+        assertEquals( uuid, CompactUuidSerializer.INSTANCE.deserialize( serialized ) );
+
+        String other = "1";
+        assertEquals( other, CompactUuidSerializer.INSTANCE.deserialize(
+            CompactUuidSerializer.INSTANCE.serialize( other ) ) );
+
+        // The IDs written by the UuidSerializer are still read
+        assertEquals( uuid, CompactUuidSerializer.INSTANCE.deserialize( UuidSerializer.INSTANCE.serialize( uuid ) ) );
+        assertEquals( other, CompactUuidSerializer.INSTANCE.deserialize( UuidSerializer.INSTANCE.serialize( other ) ) );
+        assertEquals( "", CompactUuidSerializer.INSTANCE.deserialize( UuidSerializer.INSTANCE.serialize( "" ) ) );
+    }
+
+
+    /**
+     * Compares the size and the decoding time of a set of 500 IDs, just below the default
+     * duplicate limit, with the size and decoding time of the ArrayMarshaller form.
+     */
+    @Test
+    public void testCompareWithArrayMarshaller() throws Exception
+    {
+        for ( boolean sequential : new boolean[]
+            { true, false } )
+        {
+            ArrayTree<String> tree = createTree( 500, sequential );
+            byte[] old = arrayMarshaller.serialize( tree );
+            byte[] compact = marshaller.serialize( tree );
+
+            assertTrue( compact.length * 4 < old.length );
+
+            long t0 = System.nanoTime();
+
+            for ( int i = 0; i < 1000; i++ )
+            {
+                arrayMarshaller.deserialize( old );
+            }
+
+            long t1 = System.nanoTime();
+
+            for ( int i = 0; i < 1000; i++ )
+            {
+                marshaller.deserialize( compact );
+            }
+
+            long t2 = System.nanoTime();
+
+            System.out.println( ( sequential ? "Sequential" : "Random" ) + " IDs : ArrayMarshaller " + old.length
+                + " bytes, " + ( ( t1 - t0 ) / 1000 ) + " ns per set; compact " + compact.length + " bytes, "
+                + ( ( t2 - t1 ) / 1000 ) + " ns per set" );
+        }
+    }
+}
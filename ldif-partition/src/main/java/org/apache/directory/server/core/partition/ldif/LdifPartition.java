@@ -26,9 +26,14 @@ import java.io.IOException;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.CsnFactory;
@@ -553,114 +558,197 @@ public class LdifPartition extends AbstractLdifPartition
      * NOTE: this dir setup is just to ease the testing of this partition, this needs to be
      * replaced with some kind of bootstrapping the default config from a jar file and
      * write to the FS in LDIF format
+     * 
+     * The LDIF files are parsed in parallel in the common fork-join pool, then the entries
+     * are sorted by DN depth, so that a parent is always added before its children, and
+     * added in one single write transaction.
      *
      * @throws Exception
      */
     private void loadEntries( File entryDir ) throws LdapException
     {
-        LOG.debug( "Processing dir {}", entryDir.getName() );
+        List<File> files = new ArrayList<>();
+        collectEntryFiles( entryDir, files );
 
-        // First, load the entries
-        File[] entries = entryDir.listFiles( entryFilter );
+        LOG.debug( "Parsing {} ldif files", files.size() );
 
-        if ( ( entries != null ) && ( entries.length != 0 ) )
-        {
-            LdifReader ldifReader = new LdifReader( schemaManager );
+        List<Entry> entries = parseEntries( files );
 
-            for ( File entry : entries )
+        // The sort is stable : entries at the same depth keep the directory walk order
+        entries.sort( ( entry1, entry2 ) -> Integer.compare( entry1.getDn().size(), entry2.getDn().size() ) );
+
+        // call add on the wrapped partition not on the self
+        PartitionTxn partitionTxn = beginWriteTransaction();
+
+        try
+        {
+            for ( Entry serverEntry : entries )
             {
-                LOG.debug( "parsing ldif file {}", entry.getName() );
-                List<LdifEntry> ldifEntries = ldifReader.parseLdifFile( entry.getAbsolutePath() );
-                
-                try
-                {
-                    ldifReader.close();
-                }
-                catch ( IOException ioe )
+                if ( !serverEntry.containsAttribute( SchemaConstants.ENTRY_CSN_AT ) )
                 {
-                    throw new LdapOtherException( ioe.getMessage(), ioe );
+                    serverEntry.put( SchemaConstants.ENTRY_CSN_AT, defaultCSNFactory.newInstance().toString() );
                 }
 
-                if ( ( ldifEntries != null ) && !ldifEntries.isEmpty() )
+                if ( !serverEntry.containsAttribute( SchemaConstants.ENTRY_UUID_AT ) )
                 {
-                    // this ldif will have only one entry
-                    LdifEntry ldifEntry = ldifEntries.get( 0 );
-                    LOG.debug( "Adding entry {}", ldifEntry );
-
-                    Entry serverEntry = new DefaultEntry( schemaManager, ldifEntry.getEntry() );
+                    serverEntry.put( SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString() );
+                }
 
-                    if ( !serverEntry.containsAttribute( SchemaConstants.ENTRY_CSN_AT ) )
-                    {
-                        serverEntry.put( SchemaConstants.ENTRY_CSN_AT, defaultCSNFactory.newInstance().toString() );
-                    }
+                LOG.debug( "Adding entry {}", serverEntry.getDn() );
 
-                    if ( !serverEntry.containsAttribute( SchemaConstants.ENTRY_UUID_AT ) )
-                    {
-                        serverEntry.put( SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString() );
-                    }
+                AddOperationContext addContext = new AddOperationContext( null, serverEntry );
+                addContext.setTransaction( partitionTxn );
+                addContext.setPartition( this );
 
-                    // call add on the wrapped partition not on the self
-                    AddOperationContext addContext = new AddOperationContext( null, serverEntry );
-                    PartitionTxn partitionTxn = beginWriteTransaction();
-                    
-                    try
-                    {
-                        addContext.setTransaction( partitionTxn );
-                        addContext.setPartition( this );
-                    
-                        super.add( addContext );
-                        
-                        partitionTxn.commit();
-                    }
-                    catch ( LdapException le )
-                    {
-                        try
-                        {
-                            partitionTxn.abort();
-                        }
-                        catch ( IOException ioe )
-                        {
-                            throw new LdapOtherException( ioe.getMessage(), ioe );
-                        }
-                        
-                        throw le;
-                    }
-                    catch ( IOException ioe )
-                    {
-                        try
-                        {
-                            partitionTxn.abort();
-                        }
-                        catch ( IOException ioe2 )
-                        {
-                            throw new LdapOtherException( ioe2.getMessage(), ioe2 );
-                        }
-                        
-                        throw new LdapOtherException( ioe.getMessage(), ioe );
-                    }
-                }
+                super.add( addContext );
             }
 
+            partitionTxn.commit();
         }
-        else
+        catch ( LdapException le )
+        {
+            try
+            {
+                partitionTxn.abort();
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+            
+            throw le;
+        }
+        catch ( IOException ioe )
+        {
+            try
+            {
+                partitionTxn.abort();
+            }
+            catch ( IOException ioe2 )
+            {
+                throw new LdapOtherException( ioe2.getMessage(), ioe2 );
+            }
+            
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Walks the partition directory and gathers all the ldif files. A directory
+     * without ldif files can't have any sub-directory we are interested in, so
+     * we don't go down into it.
+     */
+    private void collectEntryFiles( File entryDir, List<File> files )
+    {
+        LOG.debug( "Processing dir {}", entryDir.getName() );
+
+        // First, gather the entries
+        File[] entries = entryDir.listFiles( entryFilter );
+
+        if ( ( entries == null ) || ( entries.length == 0 ) )
         {
             // If we don't have ldif files, we won't have sub-directories
             return;
         }
 
+        for ( File entry : entries )
+        {
+            files.add( entry );
+        }
+
         // Second, recurse on the sub directories
         File[] dirs = entryDir.listFiles( dirFilter );
 
-        if ( ( dirs != null ) && ( dirs.length != 0 ) )
+        if ( dirs != null )
         {
-            for ( File f : dirs )
+            for ( File dir : dirs )
             {
-                loadEntries( f );
+                collectEntryFiles( dir, files );
             }
         }
     }
 
 
+    /**
+     * Parses the given ldif files in parallel. The returned list follows the
+     * files order, the empty files being skipped.
+     */
+    private List<Entry> parseEntries( List<File> files ) throws LdapException
+    {
+        List<Callable<Entry>> tasks = new ArrayList<>( files.size() );
+
+        for ( File file : files )
+        {
+            tasks.add( () -> parseEntry( file ) );
+        }
+
+        List<Future<Entry>> results = ForkJoinPool.commonPool().invokeAll( tasks );
+        List<Entry> entries = new ArrayList<>( files.size() );
+
+        for ( Future<Entry> result : results )
+        {
+            try
+            {
+                Entry entry = result.get();
+
+                if ( entry != null )
+                {
+                    entries.add( entry );
+                }
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+
+                throw new LdapOtherException( ie.getMessage(), ie );
+            }
+            catch ( ExecutionException ee )
+            {
+                Throwable cause = ee.getCause();
+
+                if ( cause instanceof LdapException )
+                {
+                    throw ( LdapException ) cause;
+                }
+
+                throw new LdapOtherException( cause.getMessage(), cause );
+            }
+        }
+
+        return entries;
+    }
+
+
+    /**
+     * Parses one ldif file. A LdifReader is not thread safe, so each file gets its own.
+     * 
+     * @return The schema aware entry, or null if the file is empty
+     */
+    private Entry parseEntry( File file ) throws LdapException
+    {
+        LOG.debug( "parsing ldif file {}", file.getName() );
+        List<LdifEntry> ldifEntries;
+
+        try ( LdifReader ldifReader = new LdifReader( schemaManager ) )
+        {
+            ldifEntries = ldifReader.parseLdifFile( file.getAbsolutePath() );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        if ( ( ldifEntries == null ) || ldifEntries.isEmpty() )
+        {
+            return null;
+        }
+
+        // this ldif will have only one entry
+        return new DefaultEntry( schemaManager, ldifEntries.get( 0 ).getEntry() );
+    }
+
+
     /**
      * Create the file name from the entry Dn.
      */
@@ -25,11 +25,23 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
@@ -37,6 +49,7 @@ import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
 import org.apache.directory.api.ldap.model.exception.LdapOperationException;
 import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
 import org.apache.directory.api.ldap.model.ldif.LdifEntry;
 import org.apache.directory.api.ldap.model.ldif.LdifReader;
 import org.apache.directory.api.ldap.model.ldif.LdifUtils;
@@ -60,6 +73,11 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A Partition implementation backed by a single LDIF file.
+ * <br>
+ * By default, the whole LDIF file is written again after each modification. When the journal
+ * is enabled, the modified entries are appended to a journal file instead, stored next to the
+ * LDIF file. The journal is compacted in the background into a fresh LDIF file once it contains
+ * enough records, and replayed when the partition is started.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -77,6 +95,39 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     /** lock for serializing the operations on the backing LDIF file */
     private Object lock = new Object();
 
+    /** The extension of the journal file, appended to the LDIF file name */
+    public static final String JOURNAL_EXTN = ".journal";
+
+    /** The default number of journal records triggering a compaction */
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 1000;
+
+    /** flag to enable/disable the journal, default is set to false */
+    private boolean journalEnabled = false;
+
+    /** The number of journal records triggering a compaction */
+    private int compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    /** The LDIF file */
+    private File partitionFile;
+
+    /** the journal holding the changes not yet compacted into the LDIF file */
+    private RandomAccessFile journal;
+
+    /** The number of records in the journal */
+    private int journalSize;
+
+    /** flag set when a compaction has been scheduled and is not yet done */
+    private boolean compactionPending;
+
+    /** The thread compacting the journal */
+    private ExecutorService compactor;
+
+    /** Writes an entry in one of the files */
+    private interface EntryWriter
+    {
+        void write( Entry entry ) throws LdapException, IOException;
+    }
+
     private static final Logger LOG = LoggerFactory.getLogger( SingleFileLdifPartition.class );
 
 
@@ -102,7 +153,7 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
                 throw new IllegalArgumentException( "Partition path cannot be null" );
             }
 
-            File partitionFile = new File( getPartitionPath() );
+            partitionFile = new File( getPartitionPath() );
 
             if ( partitionFile.exists() && !partitionFile.isFile() )
             {
@@ -112,6 +163,12 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
             try
             {
                 ldifFile = new RandomAccessFile( partitionFile, "rws" );
+
+                if ( journalEnabled )
+                {
+                    journal = new RandomAccessFile( getJournalFile(), "rws" );
+                    startCompactor();
+                }
             }
             catch ( FileNotFoundException fnfe )
             {
@@ -142,52 +199,192 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
 
 
     /**
-     * load the entries from the LDIF file if present
+     * load the entries from the LDIF file if present, and replay the journal on top of them
      * @throws Exception
      */
     private void loadEntries() throws LdapException
     {
+        List<Entry> entries = readEntries();
+        boolean replay = false;
+
+        try
+        {
+            replay = ( journal != null ) && ( journal.length() > 0L );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        if ( replay )
+        {
+            entries = replayJournal( entries );
+        }
+
+        if ( !entries.isEmpty() )
+        {
+            contextEntry = entries.get( 0 );
+
+            if ( !suffixDn.equals( contextEntry.getDn() ) )
+            {
+                throw new LdapException( "The given LDIF file doesn't contain the context entry" );
+            }
+        }
+
+        for ( Entry entry : entries )
+        {
+            addMandatoryOpAt( entry );
+
+            AddOperationContext addContext = new AddOperationContext( null, entry );
+            addContext.setPartition( this );
+            addContext.setTransaction( this.beginWriteTransaction() );
+
+            super.add( addContext );
+        }
+
+        if ( replay )
+        {
+            // Start again with an empty journal
+            try ( PartitionTxn partitionTxn = beginReadTransaction() )
+            {
+                compact( partitionTxn );
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+        }
+    }
+
+
+    /**
+     * Read the entries stored in the LDIF file, the context entry first
+     */
+    private List<Entry> readEntries() throws LdapException
+    {
+        List<Entry> entries = new ArrayList<>();
+
         try ( RandomAccessLdifReader parser = new RandomAccessLdifReader( schemaManager ) )
         {
             Iterator<LdifEntry> itr = parser.iterator();
-    
-            if ( !itr.hasNext() )
+
+            while ( itr.hasNext() )
             {
-                return;
+                entries.add( new DefaultEntry( schemaManager, itr.next().getEntry() ) );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        return entries;
+    }
+
+
+    /**
+     * Apply the journal records to the entries read from the LDIF file. The records
+     * are full entries, or deletions, so a record already compacted into the LDIF
+     * file can be replayed again without harm.
+     *
+     * @param snapshot The entries read from the LDIF file
+     * @return The resulting entries, sorted so that a parent comes before its children
+     */
+    private List<Entry> replayJournal( List<Entry> snapshot ) throws LdapException
+    {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        Map<Dn, String> ids = new HashMap<>();
+
+        for ( Entry entry : snapshot )
+        {
+            addMandatoryOpAt( entry );
+            String id = entry.get( SchemaConstants.ENTRY_UUID_AT ).getString();
+            entries.put( id, entry );
+            ids.put( entry.getDn(), id );
+        }
+
+        List<LdifEntry> records = readJournal();
+
+        for ( LdifEntry record : records )
+        {
+            if ( record.isChangeAdd() )
+            {
+                Entry entry = new DefaultEntry( schemaManager, record.getEntry() );
+                addMandatoryOpAt( entry );
+                String id = entry.get( SchemaConstants.ENTRY_UUID_AT ).getString();
+                Entry previous = entries.put( id, entry );
+
+                if ( previous != null )
+                {
+                    ids.remove( previous.getDn(), id );
+                }
+
+                ids.put( entry.getDn(), id );
             }
-    
-            LdifEntry ldifEntry = itr.next();
-    
-            contextEntry = new DefaultEntry( schemaManager, ldifEntry.getEntry() );
-    
-            if ( suffixDn.equals( contextEntry.getDn() ) )
+            else if ( record.isChangeDelete() )
             {
-                addMandatoryOpAt( contextEntry );
-    
-                AddOperationContext addContext = new AddOperationContext( null, contextEntry );
-                addContext.setPartition( this );
-                addContext.setTransaction( this.beginWriteTransaction() );
+                String id = ids.remove( new Dn( schemaManager, record.getDn() ) );
 
-                super.add( addContext );
+                if ( id != null )
+                {
+                    entries.remove( id );
+                }
             }
             else
             {
-                throw new LdapException( "The given LDIF file doesn't contain the context entry" );
+                LOG.warn( "Ignoring the unexpected journal record {}", record );
             }
-    
-            while ( itr.hasNext() )
+        }
+
+        LOG.debug( "Replayed {} journal records", records.size() );
+
+        List<Entry> result = new ArrayList<>( entries.values() );
+
+        // The sort is stable : the entries keep the LDIF file order at the same depth
+        result.sort( ( entry1, entry2 ) -> Integer.compare( entry1.getDn().size(), entry2.getDn().size() ) );
+
+        return result;
+    }
+
+
+    /**
+     * Reads the journal records. A record is complete once the empty line ending it is
+     * written : an incomplete last record, left by a crash in the middle of an append,
+     * is dropped and cut from the journal.
+     *
+     * @return The complete journal records
+     * @throws LdapException If the journal can't be read
+     */
+    private List<LdifEntry> readJournal() throws LdapException
+    {
+        try
+        {
+            byte[] content = new byte[( int ) journal.length()];
+            journal.seek( 0L );
+            journal.readFully( content );
+
+            // A '\n' byte can't be part of a multi-bytes UTF-8 character
+            int end = content.length;
+
+            while ( ( end >= 2 ) && ( ( content[end - 1] != '\n' ) || ( content[end - 2] != '\n' ) ) )
             {
-                ldifEntry = itr.next();
-    
-                Entry entry = new DefaultEntry( schemaManager, ldifEntry.getEntry() );
-    
-                addMandatoryOpAt( entry );
-    
-                AddOperationContext addContext = new AddOperationContext( null, entry );
-                addContext.setPartition( this );
-                addContext.setTransaction( this.beginWriteTransaction() );
+                end--;
+            }
 
-                super.add( addContext );
+            if ( end < 2 )
+            {
+                end = 0;
+            }
+
+            if ( end < content.length )
+            {
+                LOG.warn( "Dropping the incomplete last record of the journal {}", getJournalFile() );
+                journal.setLength( end );
+            }
+
+            try ( LdifReader reader = new LdifReader( schemaManager ) )
+            {
+                return reader.parseLdif( Strings.utf8ToString( content, end ) );
             }
         }
         catch ( IOException ioe )
@@ -210,18 +407,20 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
         {
             super.add( addContext );
 
+            Entry entry = addContext.getEntry();
+
             if ( contextEntry == null )
             {
-                Entry entry = addContext.getEntry();
-
                 if ( entry.getDn().equals( suffixDn ) )
                 {
                     contextEntry = entry;
                 }
             }
 
-            dirty = true;
-            rewritePartitionData( addContext.getTransaction() );
+            PartitionTxn partitionTxn = addContext.getTransaction();
+            String id = isJournaled() ? getEntryId( partitionTxn, entry.getDn() ) : null;
+
+            saveChanges( partitionTxn, id, false );
         }
     }
 
@@ -236,6 +435,8 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
         
         synchronized ( lock )
         {
+            String id = isJournaled() ? getEntryId( partitionTxn, modifyContext.getDn() ) : null;
+
             try
             {
                 Entry modifiedEntry = super.modify( partitionTxn, modifyContext.getDn(),
@@ -252,8 +453,7 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
                 throw new LdapOperationException( e.getMessage(), e );
             }
 
-            dirty = true;
-            rewritePartitionData( partitionTxn );
+            saveChanges( partitionTxn, id, false );
         }
     }
 
@@ -266,9 +466,13 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     {
         synchronized ( lock )
         {
+            PartitionTxn partitionTxn = renameContext.getTransaction();
+
+            // The entry ID does not change, we get it before the DN does
+            String id = isJournaled() ? getEntryId( partitionTxn, renameContext.getDn() ) : null;
+
             super.rename( renameContext );
-            dirty = true;
-            rewritePartitionData( renameContext.getTransaction() );
+            saveChanges( partitionTxn, id, true );
         }
     }
 
@@ -281,9 +485,13 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     {
         synchronized ( lock )
         {
+            PartitionTxn partitionTxn = moveContext.getTransaction();
+
+            // The entry ID does not change, we get it before the DN does
+            String id = isJournaled() ? getEntryId( partitionTxn, moveContext.getDn() ) : null;
+
             super.move( moveContext );
-            dirty = true;
-            rewritePartitionData( moveContext.getTransaction() );
+            saveChanges( partitionTxn, id, true );
         }
     }
 
@@ -296,9 +504,13 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     {
         synchronized ( lock )
         {
+            PartitionTxn partitionTxn = opContext.getTransaction();
+
+            // The entry ID does not change, we get it before the DN does
+            String id = isJournaled() ? getEntryId( partitionTxn, opContext.getDn() ) : null;
+
             super.moveAndRename( opContext );
-            dirty = true;
-            rewritePartitionData( opContext.getTransaction() );
+            saveChanges( partitionTxn, id, true );
         }
     }
 
@@ -308,15 +520,90 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     {
         synchronized ( lock )
         {
+            Dn dn = isJournaled() ? buildEntryDn( partitionTxn, id ) : null;
             Entry deletedEntry = super.delete( partitionTxn, id );
-            dirty = true;
-            rewritePartitionData( partitionTxn );
+
+            if ( ( dn != null ) && isJournaled() )
+            {
+                if ( dn.equals( suffixDn ) )
+                {
+                    contextEntry = null;
+                }
+
+                try
+                {
+                    LdifEntry record = new LdifEntry();
+                    record.setChangeType( ChangeType.Delete );
+                    record.setDn( dn );
+
+                    appendJournal( record );
+                }
+                catch ( IOException ioe )
+                {
+                    throw new LdapOtherException( ioe.getMessage(), ioe );
+                }
+            }
+            else
+            {
+                dirty = true;
+                rewritePartitionData( partitionTxn );
+            }
 
             return deletedEntry;
         }
     }
 
 
+    /**
+     * Save the changes done on an entry and its descendants, either by appending them to
+     * the journal, or by re-writing the whole LDIF file.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The modified entry ID, null when the journal is not used
+     * @param withDescendants true when the descendants DN have changed too (rename and move)
+     * @throws LdapException If the changes can't be written
+     */
+    private void saveChanges( PartitionTxn partitionTxn, String id, boolean withDescendants ) throws LdapException
+    {
+        if ( ( id != null ) && isJournaled() )
+        {
+            try
+            {
+                Entry entry = fetch( partitionTxn, id );
+
+                // Don't write the EntryDN attribute
+                entry.removeAttributes( entryDnAT );
+
+                journalEntry( entry );
+
+                // The descendants DN change with a rename or a move
+                if ( withDescendants )
+                {
+                    int nbChildren = rdnIdx.reverseLookup( partitionTxn, id ).getNbChildren();
+
+                    if ( nbChildren > 0 )
+                    {
+                        appendRecursive( partitionTxn, id, nbChildren, this::journalEntry );
+                    }
+                }
+            }
+            catch ( LdapException e )
+            {
+                throw e;
+            }
+            catch ( Exception e )
+            {
+                throw new LdapException( e );
+            }
+        }
+        else
+        {
+            dirty = true;
+            rewritePartitionData( partitionTxn );
+        }
+    }
+
+
     /**
      * writes the partition's data to the file if {@link #enableRewriting} is set to true
      * and partition was modified since the last write or {@link #dirty} data. 
@@ -332,49 +619,367 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
                 return;
             }
 
+            if ( journal != null )
+            {
+                compact( partitionTxn );
+
+                return;
+            }
+
             try
             {
                 ldifFile.setLength( 0 ); // wipe the file clean
 
-                String suffixId = getEntryId( partitionTxn, suffixDn );
-
-                if ( suffixId == null )
+                if ( !writeEntries( partitionTxn, entry -> appendLdif( ldifFile, entry ) ) )
                 {
                     contextEntry = null;
                     return;
                 }
 
-                ParentIdAndRdn suffixEntry = rdnIdx.reverseLookup( partitionTxn, suffixId );
+                dirty = false;
+            }
+            catch ( LdapException e )
+            {
+                throw e;
+            }
+            catch ( Exception e )
+            {
+                throw new LdapException( e );
+            }
+        }
+    }
+
+
+    /**
+     * Writes all the entries, starting with the context entry
+     *
+     * @param partitionTxn The transaction to use
+     * @param writer The writer to use
+     * @return false if the partition has no context entry
+     */
+    private boolean writeEntries( PartitionTxn partitionTxn, EntryWriter writer ) throws Exception
+    {
+        String suffixId = getEntryId( partitionTxn, suffixDn );
+
+        if ( suffixId == null )
+        {
+            return false;
+        }
+
+        ParentIdAndRdn suffixEntry = rdnIdx.reverseLookup( partitionTxn, suffixId );
+
+        if ( suffixEntry != null )
+        {
+            Entry entry = master.get( partitionTxn, suffixId );
+
+            // Don't write the EntryDN attribute
+            entry.removeAttributes( entryDnAT );
+
+            entry.setDn( suffixDn );
+
+            writer.write( entry );
+
+            appendRecursive( partitionTxn, suffixId, suffixEntry.getNbChildren(), writer );
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Writes a fresh LDIF file from the partition content, replaces the current one
+     * with it, and empties the journal.
+     * 
+     * @param partitionTxn The transaction to use
+     * @throws LdapException If the new LDIF file can't be written
+     */
+    private void compact( PartitionTxn partitionTxn ) throws LdapException
+    {
+        synchronized ( lock )
+        {
+            long journalMark;
+
+            try
+            {
+                journalMark = journal.length();
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+
+            File tmpFile = getCompactionFile();
+            boolean hasContextEntry = writeSnapshot( partitionTxn, tmpFile );
+            swapSnapshot( tmpFile, journalMark, journalSize, hasContextEntry );
+        }
+    }
 
-                if ( suffixEntry != null )
+
+    /**
+     * Writes the partition content into a new LDIF file. The caller must keep the
+     * writers out while the partition is walked.
+     *
+     * @param partitionTxn The transaction to use
+     * @param tmpFile The file to write
+     * @return false if the partition has no context entry
+     * @throws LdapException If the file can't be written
+     */
+    private boolean writeSnapshot( PartitionTxn partitionTxn, File tmpFile ) throws LdapException
+    {
+        try ( RandomAccessFile tmpLdifFile = new RandomAccessFile( tmpFile, "rw" ) )
+        {
+            tmpLdifFile.setLength( 0 );
+            boolean hasContextEntry = writeEntries( partitionTxn, entry -> appendLdif( tmpLdifFile, entry ) );
+            tmpLdifFile.getFD().sync();
+
+            return hasContextEntry;
+        }
+        catch ( LdapException e )
+        {
+            throw e;
+        }
+        catch ( Exception e )
+        {
+            throw new LdapException( e );
+        }
+    }
+
+
+    /**
+     * Replaces the LDIF file with a compacted one, and removes from the journal the
+     * records written before the compaction started. The records appended since then
+     * are kept, they will be replayed on top of the new LDIF file.
+     *
+     * @param tmpFile The compacted LDIF file
+     * @param journalMark The journal length when the partition was walked
+     * @param journalSizeMark The number of journal records when the partition was walked
+     * @param hasContextEntry false if the partition had no context entry
+     * @throws LdapException If the files can't be replaced
+     */
+    private void swapSnapshot( File tmpFile, long journalMark, int journalSizeMark, boolean hasContextEntry )
+        throws LdapException
+    {
+        synchronized ( lock )
+        {
+            try
+            {
+                if ( journal == null )
                 {
-                    Entry entry = master.get( partitionTxn, suffixId );
+                    // The partition has been destroyed meanwhile, the journal is replayed at the next start
+                    Files.deleteIfExists( tmpFile.toPath() );
 
-                    // Don't write the EntryDN attribute
-                    entry.removeAttributes( entryDnAT );
+                    return;
+                }
+
+                ldifFile.close();
 
-                    entry.setDn( suffixDn );
+                try
+                {
+                    Files.move( tmpFile.toPath(), partitionFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE );
+                }
+                finally
+                {
+                    ldifFile = new RandomAccessFile( partitionFile, "rws" );
+                }
 
-                    appendLdif( entry );
+                // Now that the records are in the LDIF file, we can drop them
+                long journalLength = journal.length();
 
-                    appendRecursive( partitionTxn, suffixId, suffixEntry.getNbChildren() );
+                if ( journalLength == journalMark )
+                {
+                    journal.setLength( 0 );
+                }
+                else
+                {
+                    byte[] tail = new byte[( int ) ( journalLength - journalMark )];
+                    journal.seek( journalMark );
+                    journal.readFully( tail );
+
+                    // A crash before the move leaves the whole journal, which is replayed without harm
+                    File tmpJournal = new File( getJournalFile().getPath() + ".tmp" );
+
+                    try ( RandomAccessFile tmpJournalFile = new RandomAccessFile( tmpJournal, "rw" ) )
+                    {
+                        tmpJournalFile.setLength( 0 );
+                        tmpJournalFile.write( tail );
+                        tmpJournalFile.getFD().sync();
+                    }
+
+                    journal.close();
+
+                    try
+                    {
+                        Files.move( tmpJournal.toPath(), getJournalFile().toPath(),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+                    }
+                    finally
+                    {
+                        journal = new RandomAccessFile( getJournalFile(), "rws" );
+                    }
                 }
 
+                journalSize -= journalSizeMark;
                 dirty = false;
+
+                if ( !hasContextEntry && ( journalSize == 0 ) )
+                {
+                    contextEntry = null;
+                }
             }
-            catch ( LdapException e )
+            catch ( IOException ioe )
             {
-                throw e;
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+
+            LOG.debug( "Compacted the journal of partition {}", getId() );
+        }
+    }
+
+
+    /**
+     * Compacts the journal if it's still large enough. Called by the compactor thread.
+     * The partition read lock keeps the writers out while the partition is walked, but
+     * not the searches. The LDIF file lock is only held to swap the files.
+     */
+    private void compactInBackground()
+    {
+        synchronized ( lock )
+        {
+            compactionPending = false;
+
+            if ( ( journal == null ) || !enableRewriting || ( journalSize < compactionThreshold ) )
+            {
+                return;
+            }
+        }
+
+        ReadWriteLock rwLock = getReadWriteLock();
+
+        if ( rwLock == null )
+        {
+            // No operation has been done through the operation manager, our lock is the only one
+            try ( PartitionTxn partitionTxn = beginReadTransaction() )
+            {
+                compact( partitionTxn );
             }
             catch ( Exception e )
             {
-                throw new LdapException( e );
+                LOG.error( "Failed to compact the journal of partition {}", getId(), e );
             }
+
+            return;
         }
+
+        rwLock.readLock().lock();
+
+        try ( PartitionTxn partitionTxn = beginReadTransaction() )
+        {
+            long journalMark;
+            int journalSizeMark;
+
+            synchronized ( lock )
+            {
+                if ( journal == null )
+                {
+                    return;
+                }
+
+                journalMark = journal.length();
+                journalSizeMark = journalSize;
+            }
+
+            File tmpFile = getCompactionFile();
+            boolean hasContextEntry = writeSnapshot( partitionTxn, tmpFile );
+            swapSnapshot( tmpFile, journalMark, journalSizeMark, hasContextEntry );
+        }
+        catch ( Exception e )
+        {
+            LOG.error( "Failed to compact the journal of partition {}", getId(), e );
+        }
+        finally
+        {
+            rwLock.readLock().unlock();
+        }
+    }
+
+
+    private void startCompactor()
+    {
+        compactor = Executors.newSingleThreadExecutor( new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "ldif-partition-compactor-" + getId() );
+                thread.setDaemon( true );
+
+                return thread;
+            }
+        } );
+    }
+
+
+    /**
+     * Appends an entry to the journal. The entry replaces any previous version
+     * of itself when the journal is replayed.
+     */
+    private void journalEntry( Entry entry ) throws LdapException, IOException
+    {
+        LdifEntry record = new LdifEntry();
+        record.setChangeType( ChangeType.Add );
+        record.setDn( entry.getDn() );
+
+        for ( Attribute attribute : entry )
+        {
+            record.addAttribute( attribute );
+        }
+
+        appendJournal( record );
     }
 
 
-    private void appendRecursive( PartitionTxn partitionTxn, String id, int nbSibbling ) throws Exception
+    /**
+     * Appends a record to the journal, and schedules a compaction if the journal is large enough
+     */
+    private void appendJournal( LdifEntry record ) throws LdapException, IOException
+    {
+        synchronized ( lock )
+        {
+            String ldif = LdifUtils.convertToLdif( record );
+            journal.seek( journal.length() );
+            journal.write( Strings.getBytesUtf8( ldif + "\n" ) );
+            journalSize++;
+
+            if ( ( journalSize >= compactionThreshold ) && !compactionPending )
+            {
+                compactionPending = true;
+                compactor.execute( this::compactInBackground );
+            }
+        }
+    }
+
+
+    private boolean isJournaled()
+    {
+        return ( journal != null ) && enableRewriting;
+    }
+
+
+    private File getJournalFile()
+    {
+        return new File( partitionFile.getPath() + JOURNAL_EXTN );
+    }
+
+
+    private File getCompactionFile()
+    {
+        return new File( partitionFile.getPath() + ".tmp" );
+    }
+
+
+    private void appendRecursive( PartitionTxn partitionTxn, String id, int nbSibbling, EntryWriter writer )
+        throws Exception
     {
         // Start with the root
         Cursor<IndexEntry<ParentIdAndRdn, String>> cursor = rdnIdx.forwardCursor( partitionTxn );
@@ -393,7 +998,7 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
             // Remove the EntryDn
             entry.removeAttributes( SchemaConstants.ENTRY_DN_AT );
 
-            appendLdif( entry );
+            writer.write( entry );
 
             countChildren++;
 
@@ -402,7 +1007,7 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
 
             if ( nbChildren > 0 )
             {
-                appendRecursive( partitionTxn, childId, nbChildren );
+                appendRecursive( partitionTxn, childId, nbChildren, writer );
             }
         }
 
@@ -411,18 +1016,16 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
 
 
     /**
-     * append data to the LDIF file
+     * append data to a LDIF file
      *
+     * @param file the LDIF file to write into
      * @param entry the entry to be written
      * @throws LdapException
      */
-    private void appendLdif( Entry entry ) throws IOException
+    private void appendLdif( RandomAccessFile file, Entry entry ) throws IOException
     {
-        synchronized ( lock )
-        {
-            String ldif = LdifUtils.convertToLdif( entry );
-            ldifFile.write( Strings.getBytesUtf8( ldif + "\n" ) );
-        }
+        String ldif = LdifUtils.convertToLdif( entry );
+        file.write( Strings.getBytesUtf8( ldif + "\n" ) );
     }
 
     /**
@@ -505,6 +1108,32 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     @Override
     protected void doDestroy( PartitionTxn partitionTxn ) throws LdapException
     {
+        if ( compactor != null )
+        {
+            // A pending compaction will find no journal, the records are replayed at the next start
+            compactor.shutdown();
+            compactor = null;
+        }
+
+        synchronized ( lock )
+        {
+            if ( journal != null )
+            {
+                try
+                {
+                    journal.close();
+                }
+                catch ( IOException ioe )
+                {
+                    throw new LdapOtherException( ioe.getMessage(), ioe );
+                }
+                finally
+                {
+                    journal = null;
+                }
+            }
+        }
+
         super.doDestroy( partitionTxn );
         
         try
@@ -533,4 +1162,53 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
         // save data if found dirty 
         rewritePartitionData( partitionTxn );
     }
+
+
+    /**
+     * Enable/disable the journal. When enabled, the changes are appended to a journal file
+     * instead of re-writing the whole LDIF file. Must be called before the partition is
+     * initialized.
+     * 
+     * @param journalEnabled flag to enable/disable the journal
+     */
+    public void setJournalEnabled( boolean journalEnabled )
+    {
+        checkInitialized( "journalEnabled" );
+        this.journalEnabled = journalEnabled;
+    }
+
+
+    /**
+     * @return true if the changes are appended to a journal
+     */
+    public boolean isJournalEnabled()
+    {
+        return journalEnabled;
+    }
+
+
+    /**
+     * Set the number of journal records triggering a compaction of the journal
+     * into the LDIF file.
+     * 
+     * @param compactionThreshold The number of records
+     */
+    public void setCompactionThreshold( int compactionThreshold )
+    {
+        if ( compactionThreshold <= 0 )
+        {
+            throw new IllegalArgumentException( "The compaction threshold must be positive" );
+        }
+
+        this.compactionThreshold = compactionThreshold;
+    }
+
+
+    /**
+     * @return The number of journal records triggering a compaction
+     */
+    public int getCompactionThreshold()
+    {
+        return compactionThreshold;
+    }
 }
@@ -772,6 +772,49 @@ public class LdifPartitionTest
     }
 
 
+    /**
+     * Test that the entries stored on disk are all loaded back, parents before
+     * children, when the partition is started again.
+     */
+    @Test
+    public void testLdifReloadEntries() throws Exception
+    {
+        injectEntries();
+
+        LdifPartition reloaded = new LdifPartition( schemaManager, dnFactory );
+        reloaded.setId( "test-ldif" );
+        reloaded.setSuffixDn( new Dn( schemaManager, "ou=test,ou=system" ) );
+        reloaded.setSchemaManager( schemaManager );
+        reloaded.setPartitionPath( wkdir.toURI() );
+
+        reloaded.initialize();
+
+        String[] dns = new String[]
+            {
+            "ou=test,ou=system",
+            "dc=child1,ou=test,ou=system",
+            "dc=child2,ou=test,ou=system",
+            "dc=grandChild11,dc=child1,ou=test,ou=system",
+            "dc=grandChild12,dc=child1,ou=test,ou=system",
+            "dc=greatGrandChild111,dc=grandChild11,dc=child1,ou=test,ou=system"
+            };
+
+        try ( PartitionTxn partitionTxn = reloaded.beginReadTransaction() )
+        {
+            assertEquals( dns.length, reloaded.count( partitionTxn ) );
+
+            for ( String dn : dns )
+            {
+                Dn entryDn = new Dn( schemaManager, dn );
+                String id = reloaded.getEntryId( partitionTxn, entryDn );
+
+                assertNotNull( id );
+                assertEquals( entryDn, reloaded.fetch( partitionTxn, id ).getDn() );
+            }
+        }
+    }
+
+
     private CoreSession injectEntries() throws Exception
     {
         Dn adminDn = new Dn( schemaManager, "uid=admin,ou=system" );
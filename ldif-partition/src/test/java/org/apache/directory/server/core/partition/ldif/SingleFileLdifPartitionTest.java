@@ -33,6 +33,7 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -266,6 +267,24 @@ public class SingleFileLdifPartitionTest
     }
 
 
+    /**
+     * creates a partition appending its changes to a journal, using the current ldif file
+     */
+    private SingleFileLdifPartition createJournaledPartition( int compactionThreshold ) throws Exception
+    {
+        SingleFileLdifPartition partition = new SingleFileLdifPartition( schemaManager, dnFactory );
+        partition.setId( "test-ldif" );
+        partition.setPartitionPath( ldifFileInUse.toURI() );
+        partition.setSuffixDn( new Dn( schemaManager, "ou=test,ou=system" ) );
+        partition.setSchemaManager( schemaManager );
+        partition.setJournalEnabled( true );
+        partition.setCompactionThreshold( compactionThreshold );
+        partition.initialize();
+
+        return partition;
+    }
+
+
     private SingleFileLdifPartition reloadPartition() throws Exception
     {
         partition.destroy( partition.beginWriteTransaction() );
@@ -1152,6 +1171,162 @@ public class SingleFileLdifPartitionTest
     }
 
 
+    @Test
+    public void testJournalReplay() throws Exception
+    {
+        partition = createJournaledPartition( 1000 );
+
+        AddOperationContext addCtx = new AddOperationContext( mockSession );
+        addCtx.setEntry( contextEntry );
+        addCtx.setPartition( partition );
+        addCtx.setTransaction( partition.beginWriteTransaction() );
+
+        partition.add( addCtx );
+
+        Entry entry1 = createEntry( "cn=test1,ou=test,ou=system" );
+        entry1.put( "ObjectClass", "top", "person" );
+        entry1.put( "cn", "test1" );
+        entry1.put( "sn", "test1" );
+        addCtx.setEntry( entry1 );
+
+        partition.add( addCtx );
+
+        Entry entry2 = createEntry( "cn=test2,cn=test1,ou=test,ou=system" );
+        entry2.put( "ObjectClass", "top", "person" );
+        entry2.put( "cn", "test2" );
+        entry2.put( "sn", "test2" );
+        addCtx.setEntry( entry2 );
+
+        partition.add( addCtx );
+
+        Entry entry3 = createEntry( "cn=test3,ou=test,ou=system" );
+        entry3.put( "ObjectClass", "top", "person" );
+        entry3.put( "cn", "test3" );
+        entry3.put( "sn", "test3" );
+        addCtx.setEntry( entry3 );
+
+        partition.add( addCtx );
+
+        RenameOperationContext renameOpCtx = new RenameOperationContext( mockSession, entry1.getDn(),
+            new Rdn( "cn=renamed" ), true );
+        renameOpCtx.setPartition( partition );
+        renameOpCtx.setTransaction( partition.beginWriteTransaction() );
+
+        partition.rename( renameOpCtx );
+
+        DeleteOperationContext delCtx = new DeleteOperationContext( mockSession );
+        delCtx.setDn( entry3.getDn() );
+        delCtx.setPartition( partition );
+        delCtx.setTransaction( partition.beginWriteTransaction() );
+
+        partition.delete( delCtx );
+
+        // Nothing has been written in the LDIF file, the changes are in the journal
+        File journalFile = new File( ldifFileInUse.getPath() + SingleFileLdifPartition.JOURNAL_EXTN );
+        assertEquals( 0L, ldifFileInUse.length() );
+        assertTrue( journalFile.length() > 0L );
+
+        partition.destroy( partition.beginWriteTransaction() );
+        partition = createJournaledPartition( 1000 );
+
+        assertExists( partition, contextEntry );
+        assertExists( partition, "cn=renamed,ou=test,ou=system" );
+        assertExists( partition, "cn=test2,cn=renamed,ou=test,ou=system" );
+        assertNotExists( partition, entry1 );
+        assertNotExists( partition, entry3 );
+
+        // The journal has been compacted at startup
+        assertEquals( 0L, journalFile.length() );
+        assertTrue( ldifFileInUse.length() > 0L );
+
+        // A partition without journal reads the compacted file
+        partition.destroy( partition.beginWriteTransaction() );
+        partition = createPartition( null, false );
+
+        assertExists( partition, "cn=test2,cn=renamed,ou=test,ou=system" );
+    }
+
+
+    @Test
+    public void testJournalCompaction() throws Exception
+    {
+        partition = createJournaledPartition( 4 );
+
+        AddOperationContext addCtx = new AddOperationContext( mockSession );
+        addCtx.setEntry( contextEntry );
+        addCtx.setPartition( partition );
+        addCtx.setTransaction( partition.beginWriteTransaction() );
+
+        partition.add( addCtx );
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            Entry entry = createEntry( "cn=test" + i + ",ou=test,ou=system" );
+            entry.put( "ObjectClass", "top", "person" );
+            entry.put( "cn", "test" + i );
+            entry.put( "sn", "test" + i );
+            addCtx.setEntry( entry );
+
+            partition.add( addCtx );
+        }
+
+        // The fourth record has triggered a compaction, done in the background
+        File journalFile = new File( ldifFileInUse.getPath() + SingleFileLdifPartition.JOURNAL_EXTN );
+
+        for ( int i = 0; ( i < 100 ) && ( journalFile.length() > 0L ); i++ )
+        {
+            Thread.sleep( 50 );
+        }
+
+        assertEquals( 0L, journalFile.length() );
+
+        partition.destroy( partition.beginWriteTransaction() );
+        partition = createPartition( null, false );
+
+        assertExists( partition, contextEntry );
+        assertExists( partition, "cn=test0,ou=test,ou=system" );
+        assertExists( partition, "cn=test1,ou=test,ou=system" );
+        assertExists( partition, "cn=test2,ou=test,ou=system" );
+    }
+
+
+    @Test
+    public void testJournalIncompleteRecord() throws Exception
+    {
+        partition = createJournaledPartition( 1000 );
+
+        AddOperationContext addCtx = new AddOperationContext( mockSession );
+        addCtx.setEntry( contextEntry );
+        addCtx.setPartition( partition );
+        addCtx.setTransaction( partition.beginWriteTransaction() );
+
+        partition.add( addCtx );
+
+        Entry entry1 = createEntry( "cn=test1,ou=test,ou=system" );
+        entry1.put( "ObjectClass", "top", "person" );
+        entry1.put( "cn", "test1" );
+        entry1.put( "sn", "test1" );
+        addCtx.setEntry( entry1 );
+
+        partition.add( addCtx );
+        partition.destroy( partition.beginWriteTransaction() );
+
+        // A crash in the middle of an append leaves an incomplete record
+        File journalFile = new File( ldifFileInUse.getPath() + SingleFileLdifPartition.JOURNAL_EXTN );
+        Files.write( journalFile.toPath(), Strings.getBytesUtf8( "dn: cn=test2,ou=test,ou=system\nobjectClass: to" ),
+            StandardOpenOption.APPEND );
+
+        partition = createJournaledPartition( 1000 );
+
+        assertExists( partition, contextEntry );
+        assertExists( partition, "cn=test1,ou=test,ou=system" );
+        assertNotExists( partition, createEntry( "cn=test2,ou=test,ou=system" ) );
+
+        // The journal has been compacted at startup
+        assertEquals( 0L, journalFile.length() );
+    }
+
+
     /**
      * An important test to check the stability of the partition
      * under high concurrency
@@ -23,8 +23,7 @@ package org.apache.directory.server.dns;
 import java.io.IOException;
 
 import org.apache.directory.server.dns.protocol.DnsProtocolHandler;
-import org.apache.directory.server.dns.store.RecordStore;
-import org.apache.directory.server.dns.store.jndi.JndiRecordStoreImpl;
+import org.apache.directory.server.dns.store.zone.ZoneRecordStore;
 import org.apache.directory.server.protocol.shared.DirectoryBackedService;
 import org.apache.directory.server.protocol.shared.transport.Transport;
 import org.apache.directory.server.protocol.shared.transport.UdpTransport;
@@ -57,6 +56,9 @@ public class DnsServer extends DirectoryBackedService
     /** The default service name. */
     private static final String SERVICE_NAME_DEFAULT = "ApacheDS DNS Service";
 
+    /** The store answering the questions from the zones held in memory */
+    private transient ZoneRecordStore store;
+
 
     /**
      * Creates a new instance of DnsConfiguration.
@@ -73,7 +75,8 @@ public class DnsServer extends DirectoryBackedService
      */
     public void start() throws IOException
     {
-        RecordStore store = new JndiRecordStoreImpl( getSearchBaseDn(), getSearchBaseDn(), getDirectoryService() );
+        store = new ZoneRecordStore( getDirectoryService() );
+        store.start();
 
         if ( ( transports == null ) || transports.isEmpty() )
         {
@@ -141,6 +144,12 @@ public class DnsServer extends DirectoryBackedService
             }
         }
 
+        if ( store != null )
+        {
+            store.stop();
+            store = null;
+        }
+
         LOG.info( "DNS service stopped." );
     }
 
@@ -57,11 +57,11 @@ public class DnsMessageEncoder
     /**
      * A Hashed Adapter mapping record types to their encoders.
      */
-    private static final Map<RecordType, RecordEncoder> DEFAULT_ENCODERS;
+    private static final Map<RecordType, ResourceRecordEncoder> DEFAULT_ENCODERS;
 
     static
     {
-        EnumMap<RecordType, RecordEncoder> map = new EnumMap<>( RecordType.class );
+        EnumMap<RecordType, ResourceRecordEncoder> map = new EnumMap<>( RecordType.class );
 
         map.put( RecordType.SOA, new StartOfAuthorityRecordEncoder() );
         map.put( RecordType.A, new AddressRecordEncoder() );
@@ -77,13 +77,16 @@ public class DnsMessageEncoder
 
 
     /**
-     * Encodes the {@link DnsMessage} into the {@link IoBuffer}.
+     * Encodes the {@link DnsMessage} into the {@link IoBuffer}. The domain names
+     * are compressed, as described in RFC-1035, section 4.1.4.
      *
      * @param byteBuffer
      * @param message
      */
     public void encode( IoBuffer byteBuffer, DnsMessage message )
     {
+        DomainNameCompressor compressor = new DomainNameCompressor( byteBuffer.position() );
+
         byteBuffer.putShort( ( short ) message.getTransactionId() );
 
         byte header = ( byte ) 0x00;
@@ -107,14 +110,15 @@ public class DnsMessageEncoder
         byteBuffer.putShort( ( short ) ( message.getAdditionalRecords() != null ? message.getAdditionalRecords().size()
             : 0 ) );
 
-        putQuestionRecords( byteBuffer, message.getQuestionRecords() );
-        putResourceRecords( byteBuffer, message.getAnswerRecords() );
-        putResourceRecords( byteBuffer, message.getAuthorityRecords() );
-        putResourceRecords( byteBuffer, message.getAdditionalRecords() );
+        putQuestionRecords( byteBuffer, message.getQuestionRecords(), compressor );
+        putResourceRecords( byteBuffer, message.getAnswerRecords(), compressor );
+        putResourceRecords( byteBuffer, message.getAuthorityRecords(), compressor );
+        putResourceRecords( byteBuffer, message.getAdditionalRecords(), compressor );
     }
 
 
-    private void putQuestionRecords( IoBuffer byteBuffer, List<QuestionRecord> questions )
+    private void putQuestionRecords( IoBuffer byteBuffer, List<QuestionRecord> questions,
+        DomainNameCompressor compressor )
     {
         if ( questions == null )
         {
@@ -128,12 +132,13 @@ public class DnsMessageEncoder
         while ( it.hasNext() )
         {
             QuestionRecord question = it.next();
-            encoder.put( byteBuffer, question );
+            encoder.put( byteBuffer, question, compressor );
         }
     }
 
 
-    private void putResourceRecords( IoBuffer byteBuffer, List<ResourceRecord> records )
+    private void putResourceRecords( IoBuffer byteBuffer, List<ResourceRecord> records,
+        DomainNameCompressor compressor )
     {
         if ( records == null )
         {
@@ -148,7 +153,7 @@ public class DnsMessageEncoder
 
             try
             {
-                put( byteBuffer, record );
+                put( byteBuffer, record, compressor );
             }
             catch ( IOException ioe )
             {
@@ -158,18 +163,19 @@ public class DnsMessageEncoder
     }
 
 
-    private void put( IoBuffer byteBuffer, ResourceRecord record ) throws IOException
+    private void put( IoBuffer byteBuffer, ResourceRecord record, DomainNameCompressor compressor )
+        throws IOException
     {
         RecordType type = record.getRecordType();
 
-        RecordEncoder encoder = DEFAULT_ENCODERS.get( type );
+        ResourceRecordEncoder encoder = DEFAULT_ENCODERS.get( type );
 
         if ( encoder == null )
         {
             throw new IOException( I18n.err( I18n.ERR_597, type ) );
         }
 
-        encoder.put( byteBuffer, record );
+        encoder.put( byteBuffer, record, compressor );
     }
 
 
@@ -0,0 +1,124 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.directory.server.dns.io.encoder;
+
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.directory.api.util.Strings;
+import org.apache.mina.core.buffer.IoBuffer;
+
+
+/**
+ * Writes the domain names of a message using the compression scheme described in
+ * RFC-1035, section 4.1.4 : a name, or the end of a name, which has already been
+ * written in the message is replaced by a pointer to its first occurrence.
+ *
+ *     +--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+
+ *     | 1  1|                OFFSET                   |
+ *     +--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+
+ *
+ * The offset is counted from the start of the message, so an instance must be used
+ * for one message only. The names are compared as they are written, so a pointer
+ * never changes the case of the name it replaces.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DomainNameCompressor
+{
+    /** The highest offset a pointer can hold */
+    private static final int MAX_OFFSET = 0x3FFF;
+
+    /** The two high bits flagging a pointer */
+    private static final int POINTER_MASK = 0xC000;
+
+    /** The position of the message header in the buffer */
+    private final int messageStart;
+
+    /** The offsets of the names already written, and of their suffixes */
+    private final Map<String, Integer> offsets = new HashMap<>();
+
+
+    /**
+     * Creates a new instance of DomainNameCompressor.
+     *
+     * @param messageStart The position of the message header in the buffer
+     */
+    public DomainNameCompressor( int messageStart )
+    {
+        this.messageStart = messageStart;
+    }
+
+
+    /**
+     * Encodes a domain name, replacing its longest known suffix by a pointer.
+     *
+     * @param byteBuffer the ByteBuffer to encode the domain name into
+     * @param domainName the domain name to encode
+     */
+    public void putDomainName( IoBuffer byteBuffer, String domainName )
+    {
+        if ( !Strings.isEmpty( domainName ) )
+        {
+            String name = domainName.endsWith( "." ) ? domainName.substring( 0, domainName.length() - 1 ) : domainName;
+            int labelStart = 0;
+
+            while ( labelStart < name.length() )
+            {
+                String suffix = name.substring( labelStart );
+                Integer offset = offsets.get( suffix );
+
+                if ( offset != null )
+                {
+                    byteBuffer.putShort( ( short ) ( POINTER_MASK | offset ) );
+
+                    return;
+                }
+
+                int position = byteBuffer.position() - messageStart;
+
+                if ( position <= MAX_OFFSET )
+                {
+                    offsets.put( suffix, position );
+                }
+
+                int labelEnd = name.indexOf( '.', labelStart );
+
+                if ( labelEnd < 0 )
+                {
+                    labelEnd = name.length();
+                }
+
+                byteBuffer.put( ( byte ) ( labelEnd - labelStart ) );
+
+                for ( int i = labelStart; i < labelEnd; i++ )
+                {
+                    byteBuffer.put( ( byte ) name.charAt( i ) );
+                }
+
+                labelStart = labelEnd + 1;
+            }
+        }
+
+        byteBuffer.put( ( byte ) 0x00 );
+    }
+}
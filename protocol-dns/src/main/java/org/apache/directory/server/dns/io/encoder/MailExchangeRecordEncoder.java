@@ -54,8 +54,16 @@ import org.apache.mina.core.buffer.IoBuffer;
 public class MailExchangeRecordEncoder extends ResourceRecordEncoder
 {
     protected void putResourceRecordData( IoBuffer byteBuffer, ResourceRecord record )
+    {
+        putResourceRecordData( byteBuffer, record, null );
+    }
+
+
+    @Override
+    protected void putResourceRecordData( IoBuffer byteBuffer, ResourceRecord record,
+        DomainNameCompressor compressor )
     {
         byteBuffer.putShort( Short.parseShort( record.get( DnsAttribute.MX_PREFERENCE ) ) );
-        putDomainName( byteBuffer, record.get( DnsAttribute.DOMAIN_NAME ) );
+        putDomainName( byteBuffer, record.get( DnsAttribute.DOMAIN_NAME ), compressor );
     }
 }
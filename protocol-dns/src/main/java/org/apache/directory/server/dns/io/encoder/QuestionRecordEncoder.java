@@ -41,7 +41,29 @@ public class QuestionRecordEncoder
      */
     public void put( IoBuffer out, QuestionRecord question )
     {
-        encodeDomainName( out, question.getDomainName() );
+        put( out, question, null );
+    }
+
+
+    /**
+     * Encodes the {@link QuestionRecord} into the {@link IoBuffer}, recording its
+     * domain name in the message compressor.
+     *
+     * @param out
+     * @param question
+     * @param compressor the compressor of the message, or null to write the name uncompressed
+     */
+    public void put( IoBuffer out, QuestionRecord question, DomainNameCompressor compressor )
+    {
+        if ( compressor == null )
+        {
+            encodeDomainName( out, question.getDomainName() );
+        }
+        else
+        {
+            compressor.putDomainName( out, question.getDomainName() );
+        }
+
         encodeRecordType( out, question.getRecordType() );
         encodeRecordClass( out, question.getRecordClass() );
     }
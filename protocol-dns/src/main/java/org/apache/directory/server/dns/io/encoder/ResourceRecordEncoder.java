@@ -37,25 +37,62 @@ public abstract class ResourceRecordEncoder implements RecordEncoder
 {
     public void put( IoBuffer byteBuffer, ResourceRecord record ) throws IOException
     {
-        putDomainName( byteBuffer, record.getDomainName() );
+        put( byteBuffer, record, null );
+    }
+
+
+    /**
+     * Encodes the {@link ResourceRecord} into the {@link IoBuffer}, compressing the
+     * domain names already written in the message.
+     *
+     * @param byteBuffer the ByteBuffer to encode the record into
+     * @param record the record to encode
+     * @param compressor the compressor of the message, or null to write the names uncompressed
+     * @throws IOException if the record can't be encoded
+     */
+    public void put( IoBuffer byteBuffer, ResourceRecord record, DomainNameCompressor compressor )
+        throws IOException
+    {
+        putDomainName( byteBuffer, record.getDomainName(), compressor );
         putRecordType( byteBuffer, record.getRecordType() );
         putRecordClass( byteBuffer, record.getRecordClass() );
 
         byteBuffer.putInt( record.getTimeToLive() );
 
-        putResourceRecord( byteBuffer, record );
+        putResourceRecord( byteBuffer, record, compressor );
     }
 
 
     protected abstract void putResourceRecordData( IoBuffer byteBuffer, ResourceRecord record );
 
 
+    /**
+     * Encodes the RDATA of a record. The records holding domain names which may be
+     * compressed, as listed in RFC-3597, section 4, override this method.
+     *
+     * @param byteBuffer the ByteBuffer to encode the data into
+     * @param record the record to encode
+     * @param compressor the compressor of the message, or null
+     */
+    protected void putResourceRecordData( IoBuffer byteBuffer, ResourceRecord record,
+        DomainNameCompressor compressor )
+    {
+        putResourceRecordData( byteBuffer, record );
+    }
+
+
     protected void putResourceRecord( IoBuffer byteBuffer, ResourceRecord record )
+    {
+        putResourceRecord( byteBuffer, record, null );
+    }
+
+
+    protected void putResourceRecord( IoBuffer byteBuffer, ResourceRecord record, DomainNameCompressor compressor )
     {
         int startPosition = byteBuffer.position();
         byteBuffer.position( startPosition + 2 );
 
-        putResourceRecordData( byteBuffer, record );
+        putResourceRecordData( byteBuffer, record, compressor );
 
         putDataSize( byteBuffer, startPosition );
     }
@@ -103,6 +140,26 @@ public abstract class ResourceRecordEncoder implements RecordEncoder
     }
 
 
+    /**
+     * Encodes a domain name, using the message compressor if there is one.
+     *
+     * @param byteBuffer the ByteBuffer to encode the domain name into
+     * @param domainName the domain name to encode
+     * @param compressor the compressor of the message, or null
+     */
+    protected void putDomainName( IoBuffer byteBuffer, String domainName, DomainNameCompressor compressor )
+    {
+        if ( compressor == null )
+        {
+            putDomainName( byteBuffer, domainName );
+        }
+        else
+        {
+            compressor.putDomainName( byteBuffer, domainName );
+        }
+    }
+
+
     protected void putRecordType( IoBuffer byteBuffer, RecordType recordType )
     {
         byteBuffer.putShort( recordType.convert() );
@@ -114,6 +114,15 @@ public class GetRecords implements DnsOperation
     }
 
 
+    /**
+     * @return the mappings of the record objectClasses to the type of the records they hold
+     */
+    public static Map<String, RecordType> getObjectClassToType()
+    {
+        return OBJECTCLASS_TO_TYPE;
+    }
+
+
     /**
      * Note that the base is a relative path from the exiting context.
      * It is not a Dn.
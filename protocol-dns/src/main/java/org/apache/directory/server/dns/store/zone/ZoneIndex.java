@@ -0,0 +1,210 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.directory.server.dns.store.zone;
+
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.dns.messages.QuestionRecord;
+import org.apache.directory.server.dns.messages.RecordClass;
+import org.apache.directory.server.dns.messages.RecordType;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+
+/**
+ * An immutable index of the resource records of all the zones, by owner name and
+ * record type. The names are compared ignoring their case and their trailing dot.
+ * <br>
+ * The answers are cached by name, type and class, including the empty answers, so
+ * that a repeated question is answered with the very same set. The cache is bounded :
+ * once full, the least used answers are evicted. An index is never updated : a new
+ * index, with an empty cache, replaces it when the zones change.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ZoneIndex
+{
+    /** The default maximum number of cached answers */
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /** An index without any record */
+    public static final ZoneIndex EMPTY = new ZoneIndex( Collections.<ResourceRecord> emptySet() );
+
+    /** The records, by owner name and type */
+    private final Map<String, Map<RecordType, Set<ResourceRecord>>> records;
+
+    /** The number of records */
+    private final int size;
+
+    /** The cached answers */
+    final Cache<QuestionRecord, Set<ResourceRecord>> answers;
+
+
+    /**
+     * Creates a new instance of ZoneIndex.
+     *
+     * @param records The records to index
+     */
+    public ZoneIndex( Collection<ResourceRecord> records )
+    {
+        this( records, DEFAULT_CACHE_SIZE );
+    }
+
+
+    /**
+     * Creates a new instance of ZoneIndex.
+     *
+     * @param records The records to index
+     * @param cacheSize The maximum number of cached answers
+     */
+    public ZoneIndex( Collection<ResourceRecord> records, int cacheSize )
+    {
+        Map<String, Map<RecordType, Set<ResourceRecord>>> byName = new HashMap<>();
+
+        for ( ResourceRecord record : records )
+        {
+            byName.computeIfAbsent( normalize( record.getDomainName() ), k -> new EnumMap<>( RecordType.class ) )
+                .computeIfAbsent( record.getRecordType(), k -> new HashSet<>() ).add( record );
+        }
+
+        int count = 0;
+
+        for ( Map.Entry<String, Map<RecordType, Set<ResourceRecord>>> byType : byName.entrySet() )
+        {
+            for ( Map.Entry<RecordType, Set<ResourceRecord>> set : byType.getValue().entrySet() )
+            {
+                count += set.getValue().size();
+                set.setValue( Collections.unmodifiableSet( set.getValue() ) );
+            }
+
+            byType.setValue( Collections.unmodifiableMap( byType.getValue() ) );
+        }
+
+        this.records = Collections.unmodifiableMap( byName );
+        this.size = count;
+        this.answers = Caffeine.newBuilder().maximumSize( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE ).build();
+    }
+
+
+    /**
+     * Returns the records answering a question. The records of any type are returned
+     * for the ANY type, and the records of any class for the ANY class.
+     *
+     * @param question The question
+     * @return The records, an empty set if there is none. The set can't be modified.
+     */
+    public Set<ResourceRecord> getRecords( QuestionRecord question )
+    {
+        QuestionRecord key = new QuestionRecord( normalize( question.getDomainName() ), question.getRecordType(),
+            question.getRecordClass() );
+
+        return answers.get( key, this::lookup );
+    }
+
+
+    /**
+     * @return The number of records in the index
+     */
+    public int size()
+    {
+        return size;
+    }
+
+
+    private Set<ResourceRecord> lookup( QuestionRecord question )
+    {
+        Map<RecordType, Set<ResourceRecord>> byType = records.get( question.getDomainName() );
+
+        if ( byType == null )
+        {
+            return Collections.emptySet();
+        }
+
+        Set<ResourceRecord> answer = new HashSet<>();
+
+        if ( question.getRecordType() == RecordType.ANY )
+        {
+            for ( Set<ResourceRecord> set : byType.values() )
+            {
+                addMatching( set, question.getRecordClass(), answer );
+            }
+        }
+        else
+        {
+            Set<ResourceRecord> set = byType.get( question.getRecordType() );
+
+            if ( set != null )
+            {
+                addMatching( set, question.getRecordClass(), answer );
+            }
+        }
+
+        if ( answer.isEmpty() )
+        {
+            return Collections.emptySet();
+        }
+
+        return Collections.unmodifiableSet( answer );
+    }
+
+
+    private void addMatching( Set<ResourceRecord> set, RecordClass recordClass, Set<ResourceRecord> answer )
+    {
+        for ( ResourceRecord record : set )
+        {
+            if ( ( recordClass == RecordClass.ANY ) || ( record.getRecordClass() == recordClass ) )
+            {
+                answer.add( record );
+            }
+        }
+    }
+
+
+    /**
+     * Normalizes a domain name : lower case, without trailing dot
+     */
+    private static String normalize( String domainName )
+    {
+        if ( Strings.isEmpty( domainName ) )
+        {
+            return "";
+        }
+
+        String name = Strings.toLowerCaseAscii( domainName );
+
+        if ( name.endsWith( "." ) )
+        {
+            name = name.substring( 0, name.length() - 1 );
+        }
+
+        return name;
+    }
+}
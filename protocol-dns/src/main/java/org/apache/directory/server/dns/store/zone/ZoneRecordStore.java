@@ -0,0 +1,446 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.directory.server.dns.store.zone;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.constants.ApacheSchemaConstants;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.dns.DnsException;
+import org.apache.directory.server.dns.messages.QuestionRecord;
+import org.apache.directory.server.dns.messages.RecordClass;
+import org.apache.directory.server.dns.messages.RecordType;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+import org.apache.directory.server.dns.messages.ResourceRecordModifier;
+import org.apache.directory.server.dns.store.DnsAttribute;
+import org.apache.directory.server.dns.store.RecordStore;
+import org.apache.directory.server.dns.store.jndi.operations.GetRecords;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.protocol.shared.ServiceConfigurationException;
+import org.apache.directory.server.protocol.shared.catalog.GetCatalog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A RecordStore answering the questions from a {@link ZoneIndex} held in memory,
+ * without reading the directory. The zones are listed in the catalog, as for the
+ * {@link org.apache.directory.server.dns.store.jndi.JndiRecordStoreImpl}, and all
+ * their records are loaded when the store is started.
+ * <br>
+ * A listener on the directory reloads the zones in the background when a record or a
+ * catalog entry is added, deleted, modified or renamed. The questions are answered
+ * from the previous index until the new one replaces it. Many changes done while the
+ * zones are being loaded are handled by a single reload.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ZoneRecordStore implements RecordStore
+{
+    /** the log for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( ZoneRecordStore.class );
+
+    /** The objectClass of all the records */
+    private static final String RECORD_OC = "apacheDnsAbstractRecord";
+
+    /** The filter selecting the records */
+    private static final String RECORD_FILTER = "(objectClass=" + RECORD_OC + ")";
+
+    /** The filter selecting the entries which changes have to be reloaded */
+    private static final String CHANGE_FILTER = "(|" + RECORD_FILTER + "(objectClass="
+        + ApacheSchemaConstants.APACHE_CATALOG_ENTRY_OC + "))";
+
+    /** The class of the records which don't have one */
+    private static final String DEFAULT_CLASS = "IN";
+
+    /** The TTL of the records which don't have one */
+    private static final String DEFAULT_TTL = "86400";
+
+    /** The DirectoryService holding the zones */
+    private final DirectoryService directoryService;
+
+    /** The index currently used to answer the questions */
+    private volatile ZoneIndex index = ZoneIndex.EMPTY;
+
+    /** The maximum number of cached answers */
+    private int cacheSize = ZoneIndex.DEFAULT_CACHE_SIZE;
+
+    /** Tells if a reload is waiting for the executor */
+    private final AtomicBoolean reloadPending = new AtomicBoolean();
+
+    /** The executor reloading the zones */
+    private ExecutorService executor;
+
+    /** The listener on the zone changes */
+    private final ZoneChangeListener listener = new ZoneChangeListener();
+
+
+    /**
+     * Creates a new instance of ZoneRecordStore.
+     *
+     * @param directoryService DirectoryService holding the zones
+     */
+    public ZoneRecordStore( DirectoryService directoryService )
+    {
+        this.directoryService = directoryService;
+    }
+
+
+    /**
+     * @param cacheSize The maximum number of cached answers, used from the next load of the zones
+     */
+    public void setCacheSize( int cacheSize )
+    {
+        this.cacheSize = cacheSize;
+    }
+
+
+    /**
+     * Registers the listener on the zone changes, and loads the zones.
+     */
+    public void start()
+    {
+        executor = Executors.newSingleThreadExecutor( runnable ->
+        {
+            Thread thread = new Thread( runnable, "DnsZoneLoader" );
+            thread.setDaemon( true );
+
+            return thread;
+        } );
+
+        try
+        {
+            // Listen first, so that we don't miss a change done while loading
+            NotificationCriteria criteria = new NotificationCriteria( directoryService.getSchemaManager() );
+            criteria.setBase( Dn.ROOT_DSE );
+            criteria.setScope( SearchScope.SUBTREE );
+            criteria.setFilter( CHANGE_FILTER );
+            criteria.setEventMask( EventType.ALL_EVENT_TYPES_MASK );
+
+            directoryService.getEventService().addListener( listener, criteria );
+
+            index = load();
+        }
+        catch ( Exception e )
+        {
+            LOG.error( e.getLocalizedMessage(), e );
+            stop();
+
+            throw new ServiceConfigurationException( I18n.err( I18n.ERR_156 ), e );
+        }
+    }
+
+
+    /**
+     * Unregisters the listener on the zone changes.
+     */
+    public void stop()
+    {
+        if ( directoryService.getEventService() != null )
+        {
+            directoryService.getEventService().removeListener( listener );
+        }
+
+        if ( executor != null )
+        {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+
+    @Override
+    public Set<ResourceRecord> getRecords( QuestionRecord question ) throws DnsException
+    {
+        return index.getRecords( question );
+    }
+
+
+    /**
+     * @return The index currently used to answer the questions
+     */
+    public ZoneIndex getIndex()
+    {
+        return index;
+    }
+
+
+    /**
+     * Schedules a reload of the zones, unless one is already waiting.
+     */
+    void scheduleReload()
+    {
+        ExecutorService current = executor;
+
+        if ( ( current != null ) && reloadPending.compareAndSet( false, true ) )
+        {
+            // The search done by the reload waits for the end of the write operation
+            // notifying us, so it reads the committed change
+            current.execute( () ->
+            {
+                // The changes done from now on need another reload
+                reloadPending.set( false );
+
+                try
+                {
+                    index = load();
+                }
+                catch ( Exception e )
+                {
+                    LOG.error( "Failed to reload the DNS zones, keeping the previous ones", e );
+                }
+            } );
+        }
+    }
+
+
+    /**
+     * Loads the records of all the zones listed in the catalog.
+     */
+    @SuppressWarnings("unchecked")
+    private ZoneIndex load() throws Exception
+    {
+        CoreSession session = directoryService.getSession();
+        SchemaManager schemaManager = directoryService.getSchemaManager();
+        Map<String, String> catalog = ( Map<String, String> ) new GetCatalog().execute( session, null );
+        List<ResourceRecord> records = new ArrayList<>();
+
+        for ( String baseDn : catalog.values() )
+        {
+            if ( Strings.isEmpty( baseDn ) )
+            {
+                continue;
+            }
+
+            Dn zoneDn = new Dn( schemaManager, baseDn );
+
+            try ( Cursor<Entry> cursor = session.search( zoneDn, SearchScope.SUBTREE,
+                FilterParser.parse( schemaManager, RECORD_FILTER ), AliasDerefMode.NEVER_DEREF_ALIASES ) )
+            {
+                while ( cursor.next() )
+                {
+                    ResourceRecord record = getRecord( cursor.get(), zoneDn );
+
+                    if ( record != null )
+                    {
+                        records.add( record );
+                    }
+                }
+            }
+        }
+
+        ZoneIndex loaded = new ZoneIndex( records, cacheSize );
+        LOG.debug( "Loaded {} DNS records from {} zones", loaded.size(), catalog.size() );
+
+        return loaded;
+    }
+
+
+    /**
+     * Builds a record from its entry, as the JNDI store does.
+     *
+     * @return The record, or null if the entry isn't a valid record
+     */
+    private ResourceRecord getRecord( Entry entry, Dn zoneDn ) throws LdapException
+    {
+        ResourceRecordModifier modifier = new ResourceRecordModifier();
+
+        // if no name, transform the rdns
+        String name = getString( entry, DnsAttribute.NAME );
+
+        if ( name == null )
+        {
+            name = getDomainName( entry.getDn().getDescendantOf( zoneDn ) );
+        }
+
+        modifier.setDnsName( name );
+
+        // type is implicit in objectclass
+        String type = getString( entry, DnsAttribute.TYPE );
+        RecordType recordType = null;
+
+        if ( type != null )
+        {
+            recordType = RecordType.valueOf( type );
+        }
+        else
+        {
+            for ( Map.Entry<String, RecordType> objectClass : GetRecords.getObjectClassToType().entrySet() )
+            {
+                if ( entry.hasObjectClass( objectClass.getKey() ) )
+                {
+                    recordType = objectClass.getValue();
+                    break;
+                }
+            }
+        }
+
+        if ( recordType == null )
+        {
+            LOG.warn( "Ignoring the DNS record {}, its type is unknown", entry.getDn() );
+
+            return null;
+        }
+
+        modifier.setDnsType( recordType );
+
+        String dnsClass = getString( entry, DnsAttribute.CLASS );
+        modifier.setDnsClass( RecordClass.valueOf( dnsClass != null ? dnsClass : DEFAULT_CLASS ) );
+
+        String dnsTtl = getString( entry, DnsAttribute.TTL );
+        modifier.setDnsTtl( Integer.parseInt( dnsTtl != null ? dnsTtl : DEFAULT_TTL ) );
+
+        for ( Attribute attribute : entry )
+        {
+            if ( attribute.isHumanReadable() )
+            {
+                AttributeType attributeType = attribute.getAttributeType();
+                String id = attributeType != null ? attributeType.getName() : attribute.getUpId();
+                modifier.put( id, attribute.getString() );
+            }
+        }
+
+        return modifier.getEntry();
+    }
+
+
+    private String getString( Entry entry, String attributeType ) throws LdapException
+    {
+        Attribute attribute = entry.get( attributeType );
+
+        return attribute != null ? attribute.getString() : null;
+    }
+
+
+    /**
+     * Uses the algorithm in <a href="http://www.faqs.org/rfcs/rfc2247.html">RFC 2247</a>
+     * to transform the domain components of a name into an Internet domain name.
+     */
+    private String getDomainName( Dn relative )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        for ( Rdn rdn : relative.getRdns() )
+        {
+            AttributeType attributeType = rdn.getAva().getAttributeType();
+
+            if ( ( attributeType != null ) && SchemaConstants.DOMAIN_COMPONENT_AT_OID.equals( attributeType.getOid() ) )
+            {
+                if ( sb.length() > 0 )
+                {
+                    sb.append( '.' );
+                }
+
+                sb.append( rdn.getValue() );
+            }
+        }
+
+        return sb.toString();
+    }
+
+
+    /**
+     * Reloads the zones when a record or a catalog entry changes.
+     */
+    private class ZoneChangeListener extends DirectoryListenerAdapter
+    {
+        @Override
+        public void entryAdded( AddOperationContext addContext )
+        {
+            scheduleReload();
+        }
+
+
+        @Override
+        public void entryDeleted( DeleteOperationContext deleteContext )
+        {
+            scheduleReload();
+        }
+
+
+        @Override
+        public void entryModified( ModifyOperationContext modifyContext )
+        {
+            scheduleReload();
+        }
+
+
+        @Override
+        public void entryRenamed( RenameOperationContext renameContext )
+        {
+            scheduleReload();
+        }
+
+
+        @Override
+        public void entryMoved( MoveOperationContext moveContext )
+        {
+            scheduleReload();
+        }
+
+
+        @Override
+        public void entryMovedAndRenamed( MoveAndRenameOperationContext moveAndRenameContext )
+        {
+            scheduleReload();
+        }
+
+
+        /**
+         * Scheduling a reload is cheap, there is no need to use the event executor
+         */
+        @Override
+        public boolean isSynchronous()
+        {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.directory.server.dns.io.encoder;
+
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.dns.messages.DnsMessage;
+import org.apache.directory.server.dns.messages.DnsMessageModifier;
+import org.apache.directory.server.dns.messages.MessageType;
+import org.apache.directory.server.dns.messages.OpCode;
+import org.apache.directory.server.dns.messages.QuestionRecord;
+import org.apache.directory.server.dns.messages.RecordClass;
+import org.apache.directory.server.dns.messages.RecordType;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+import org.apache.directory.server.dns.messages.ResourceRecordImpl;
+import org.apache.directory.server.dns.messages.ResponseCode;
+import org.apache.directory.server.dns.store.DnsAttribute;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.Test;
+
+
+/**
+ * Tests the compression of the domain names by the DNS message encoder.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DnsMessageEncoderTest
+{
+    private DnsMessage getMessage()
+    {
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put( Strings.toLowerCaseAscii( DnsAttribute.DOMAIN_NAME ), "web.apache.org" );
+        ResourceRecord cname = new ResourceRecordImpl( "www.apache.org", RecordType.CNAME, RecordClass.IN, 3400,
+            attributes );
+
+        List<ResourceRecord> answers = new ArrayList<ResourceRecord>();
+        answers.add( cname );
+
+        DnsMessageModifier modifier = new DnsMessageModifier();
+        modifier.setTransactionId( 1 );
+        modifier.setMessageType( MessageType.RESPONSE );
+        modifier.setOpCode( OpCode.QUERY );
+        modifier.setResponseCode( ResponseCode.NO_ERROR );
+        modifier.setQuestionRecords( Collections.singletonList( new QuestionRecord( "www.apache.org",
+            RecordType.CNAME, RecordClass.IN ) ) );
+        modifier.setAnswerRecords( answers );
+        modifier.setAuthorityRecords( new ArrayList<ResourceRecord>() );
+        modifier.setAdditionalRecords( new ArrayList<ResourceRecord>() );
+
+        return modifier.getDnsMessage();
+    }
+
+
+    private byte[] getExpectedRecords()
+    {
+        IoBuffer expected = IoBuffer.allocate( 64 );
+
+        // The question, at offset 12
+        expected.put( ( byte ) 3 );
+        expected.put( Strings.getBytesUtf8( "www" ) );
+        expected.put( ( byte ) 6 );
+        expected.put( Strings.getBytesUtf8( "apache" ) );
+        expected.put( ( byte ) 3 );
+        expected.put( Strings.getBytesUtf8( "org" ) );
+        expected.put( ( byte ) 0 );
+        expected.putShort( RecordType.CNAME.convert() );
+        expected.putShort( RecordClass.IN.convert() );
+
+        // The answer, named by a pointer to the question
+        expected.putShort( ( short ) 0xC00C );
+        expected.putShort( RecordType.CNAME.convert() );
+        expected.putShort( RecordClass.IN.convert() );
+        expected.putInt( 3400 );
+        expected.putShort( ( short ) 6 );
+
+        // Its canonical name ends with a pointer to "apache.org", at offset 16
+        expected.put( ( byte ) 3 );
+        expected.put( Strings.getBytesUtf8( "web" ) );
+        expected.putShort( ( short ) 0xC010 );
+
+        expected.flip();
+        byte[] bytes = new byte[expected.remaining()];
+        expected.get( bytes );
+
+        return bytes;
+    }
+
+
+    private byte[] getRecords( IoBuffer buffer, int messageStart )
+    {
+        buffer.flip();
+        buffer.position( messageStart + 12 );
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get( bytes );
+
+        return bytes;
+    }
+
+
+    @Test
+    public void testCompression()
+    {
+        IoBuffer buffer = IoBuffer.allocate( 128 );
+        new DnsMessageEncoder().encode( buffer, getMessage() );
+
+        assertArrayEquals( getExpectedRecords(), getRecords( buffer, 0 ) );
+    }
+
+
+    @Test
+    public void testCompressionAfterLength()
+    {
+        // Over TCP, the message is preceded by its length, the offsets don't count it
+        IoBuffer buffer = IoBuffer.allocate( 128 );
+        buffer.putShort( ( short ) 0 );
+        new DnsMessageEncoder().encode( buffer, getMessage() );
+
+        assertArrayEquals( getExpectedRecords(), getRecords( buffer, 2 ) );
+    }
+
+
+    @Test
+    public void testNoPointerToLargeOffset()
+    {
+        DomainNameCompressor compressor = new DomainNameCompressor( 0 );
+        IoBuffer buffer = IoBuffer.allocate( 0x5000 );
+        buffer.position( 0x4000 );
+        compressor.putDomainName( buffer, "apache.org" );
+        int end = buffer.position();
+        compressor.putDomainName( buffer, "apache.org" );
+
+        // The name is beyond the reach of a pointer, it's written again
+        buffer.flip();
+        byte[] first = new byte[end - 0x4000];
+        byte[] second = new byte[buffer.limit() - end];
+        buffer.position( 0x4000 );
+        buffer.get( first );
+        buffer.get( second );
+
+        assertArrayEquals( first, second );
+    }
+}
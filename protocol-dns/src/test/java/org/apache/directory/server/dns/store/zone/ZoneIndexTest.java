@@ -0,0 +1,133 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.directory.server.dns.store.zone;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.server.dns.messages.QuestionRecord;
+import org.apache.directory.server.dns.messages.RecordClass;
+import org.apache.directory.server.dns.messages.RecordType;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+import org.apache.directory.server.dns.messages.ResourceRecordImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests for the in-memory index of the DNS zones.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ZoneIndexTest
+{
+    private ResourceRecord address;
+    private ResourceRecord mailExchange;
+    private ResourceRecord chaosText;
+    private ZoneIndex index;
+
+
+    private ResourceRecord newRecord( String name, RecordType type, RecordClass recordClass )
+    {
+        return new ResourceRecordImpl( name, type, recordClass, 3600, new HashMap<String, Object>() );
+    }
+
+
+    @Before
+    public void setUp()
+    {
+        address = newRecord( "www.apache.org", RecordType.A, RecordClass.IN );
+        mailExchange = newRecord( "apache.org.", RecordType.MX, RecordClass.IN );
+        chaosText = newRecord( "www.apache.org", RecordType.TXT, RecordClass.CH );
+
+        List<ResourceRecord> records = new ArrayList<ResourceRecord>();
+        records.add( address );
+        records.add( mailExchange );
+        records.add( chaosText );
+
+        index = new ZoneIndex( records, 2 );
+    }
+
+
+    @Test
+    public void testGetRecords()
+    {
+        assertEquals( 3, index.size() );
+
+        Set<ResourceRecord> records = index.getRecords( new QuestionRecord( "WWW.Apache.ORG.", RecordType.A,
+            RecordClass.IN ) );
+        assertEquals( 1, records.size() );
+        assertTrue( records.contains( address ) );
+
+        records = index.getRecords( new QuestionRecord( "apache.org", RecordType.MX, RecordClass.IN ) );
+        assertTrue( records.contains( mailExchange ) );
+
+        // The name exists, but not the type
+        assertTrue( index.getRecords( new QuestionRecord( "apache.org", RecordType.A, RecordClass.IN ) ).isEmpty() );
+
+        // Nor the class
+        assertTrue( index.getRecords( new QuestionRecord( "www.apache.org", RecordType.TXT, RecordClass.IN ) )
+            .isEmpty() );
+    }
+
+
+    @Test
+    public void testAnyTypeAndClass()
+    {
+        Set<ResourceRecord> records = index.getRecords( new QuestionRecord( "www.apache.org", RecordType.ANY,
+            RecordClass.IN ) );
+        assertEquals( 1, records.size() );
+        assertTrue( records.contains( address ) );
+
+        records = index.getRecords( new QuestionRecord( "www.apache.org", RecordType.ANY, RecordClass.ANY ) );
+        assertEquals( 2, records.size() );
+        assertTrue( records.contains( chaosText ) );
+    }
+
+
+    @Test
+    public void testCachedAnswers()
+    {
+        QuestionRecord question = new QuestionRecord( "www.apache.org", RecordType.A, RecordClass.IN );
+        Set<ResourceRecord> records = index.getRecords( question );
+
+        // The same answer is returned, whatever the case of the name
+        assertSame( records, index.getRecords( question ) );
+        assertSame( records, index.getRecords( new QuestionRecord( "WWW.apache.org", RecordType.A,
+            RecordClass.IN ) ) );
+
+        // The cache does not grow past its size, it evicts some answers instead of clearing
+        index.getRecords( new QuestionRecord( "unknown.apache.org", RecordType.A, RecordClass.IN ) );
+        index.getRecords( new QuestionRecord( "apache.org", RecordType.MX, RecordClass.IN ) );
+        index.answers.cleanUp();
+        assertEquals( 2L, index.answers.estimatedSize() );
+
+        // An evicted answer is looked up again
+        assertEquals( records, index.getRecords( question ) );
+    }
+}
@@ -23,6 +23,7 @@ package org.apache.directory.server.ldap;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -65,6 +66,8 @@ import org.apache.directory.server.core.security.CertificateUtil;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.handlers.LdapRequestHandler;
 import org.apache.directory.server.ldap.handlers.LdapResponseHandler;
+import org.apache.directory.server.ldap.handlers.SearchResultBufferPool;
+import org.apache.directory.server.ldap.handlers.controls.PagedSearchContextRegistry;
 import org.apache.directory.server.ldap.handlers.extended.StartTlsHandler;
 import org.apache.directory.server.ldap.handlers.request.AbandonRequestHandler;
 import org.apache.directory.server.ldap.handlers.request.AddRequestHandler;
@@ -93,6 +96,8 @@ import org.apache.directory.server.ldap.replication.consumer.PingerThread;
 import org.apache.directory.server.ldap.replication.consumer.ReplicationConsumer;
 import org.apache.directory.server.ldap.replication.consumer.ReplicationStatusEnum;
 import org.apache.directory.server.ldap.replication.provider.ReplicationRequestHandler;
+import org.apache.directory.server.ldap.scheduler.LdapRequestScheduler;
+import org.apache.directory.server.ldap.scheduler.OperationClass;
 import org.apache.directory.server.protocol.shared.DirectoryBackedService;
 import org.apache.directory.server.protocol.shared.transport.TcpTransport;
 import org.apache.directory.server.protocol.shared.transport.Transport;
@@ -101,12 +106,9 @@ import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
 import org.apache.mina.core.filterchain.IoFilterChainBuilder;
 import org.apache.mina.core.future.WriteFuture;
 import org.apache.mina.core.service.IoHandler;
-import org.apache.mina.core.session.IoEventType;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.ProtocolCodecFactory;
 import org.apache.mina.filter.codec.ProtocolCodecFilter;
-import org.apache.mina.filter.executor.ExecutorFilter;
-import org.apache.mina.filter.executor.UnorderedThreadPoolExecutor;
 import org.apache.mina.handler.demux.MessageHandler;
 import org.apache.mina.transport.socket.AbstractSocketSessionConfig;
 import org.apache.mina.transport.socket.SocketAcceptor;
@@ -171,6 +173,45 @@ public class LdapServer extends DirectoryBackedService
     /** The maximum size for an incoming PDU */
     private int maxPDUSize = Integer.MAX_VALUE;
 
+    /** The default number of requests waiting for a thread, per class of operation */
+    private static final int OPERATION_QUEUE_SIZE_DEFAULT = 1024;
+
+    /** The configured number of threads, per class of operation */
+    private Map<OperationClass, Integer> operationThreads = new EnumMap<>( OperationClass.class );
+
+    /** The configured queue sizes, per class of operation */
+    private Map<OperationClass, Integer> operationQueueSizes = new EnumMap<>( OperationClass.class );
+
+    /** The default maximum number of requests a session can have queued or running */
+    private static final int MAX_PENDING_REQUESTS_PER_SESSION_DEFAULT = 128;
+
+    /** The maximum number of requests a session can have queued or running. 0 means no limit */
+    private int maxPendingRequestsPerSession = MAX_PENDING_REQUESTS_PER_SESSION_DEFAULT;
+
+    /** The scheduler dispatching the incoming requests */
+    private LdapRequestScheduler requestScheduler;
+
+    /** The default size above which a batch of search results is written */
+    private static final int SEARCH_RESULT_BATCH_SIZE_DEFAULT = 32 * 1024;
+
+    /** The default delay (in ms) after which a batch of search results is written */
+    private static final long SEARCH_RESULT_BATCH_DELAY_DEFAULT = 10L;
+
+    /** The size above which a batch of search results is written. 0 disables the batching */
+    private int searchResultBatchSize = SEARCH_RESULT_BATCH_SIZE_DEFAULT;
+
+    /** The maximum delay (in ms) a search result is kept in a batch */
+    private long searchResultBatchDelay = SEARCH_RESULT_BATCH_DELAY_DEFAULT;
+
+    /** The maximum number of idle buffers kept to batch the search results */
+    private static final int SEARCH_RESULT_BUFFERS_POOLED = 64;
+
+    /** The pool of buffers used to batch the search results */
+    private SearchResultBufferPool searchResultBufferPool;
+
+    /** The registry closing the cursors of the idle paged searches */
+    private final PagedSearchContextRegistry pagedSearchContextRegistry = new PagedSearchContextRegistry();
+
     /** If LDAPS is activated : the external Keystore file, if defined */
     private String keystoreFile;
 
@@ -441,6 +482,9 @@ public class LdapServer extends DirectoryBackedService
         // Install the replication handler if we have one
         startReplicationProducer();
 
+        // Create the request scheduler, shared by all the TCP transports
+        requestScheduler = createRequestScheduler();
+
         for ( Transport transport : transports )
         {
             if ( !( transport instanceof TcpTransport ) )
@@ -464,11 +508,9 @@ public class LdapServer extends DirectoryBackedService
             ( ( DefaultIoFilterChainBuilder ) chain ).addLast( "codec", new ProtocolCodecFilter( this
                 .getProtocolCodecFactory() ) );
 
-            // Now inject an ExecutorFilter for the write operations
-            // We use the same number of thread than the number of IoProcessor
-            // (NOTE : this has to be double checked)
-            ( ( DefaultIoFilterChainBuilder ) chain ).addLast( "executor", new ExecutorFilter(
-                new UnorderedThreadPoolExecutor( transport.getNbThreads() ), IoEventType.MESSAGE_RECEIVED ) );
+            // Now inject the scheduler which dispatches the requests on the executors
+            // dedicated to each class of operation
+            ( ( DefaultIoFilterChainBuilder ) chain ).addLast( "executor", requestScheduler );
 
             /*
             // Trace all the incoming and outgoing message to the console
@@ -502,6 +544,54 @@ public class LdapServer extends DirectoryBackedService
     }
 
 
+    /**
+     * Creates the scheduler dispatching the incoming requests. The classes of
+     * operation which have not been configured get a number of threads derived
+     * from the transports' number of threads.
+     */
+    private LdapRequestScheduler createRequestScheduler()
+    {
+        int nbThreads = 0;
+
+        for ( Transport transport : transports )
+        {
+            if ( transport instanceof TcpTransport )
+            {
+                nbThreads = Math.max( nbThreads, transport.getNbThreads() );
+            }
+        }
+
+        nbThreads = Math.max( nbThreads, 1 );
+
+        Map<OperationClass, Integer> threads = new EnumMap<>( OperationClass.class );
+        threads.put( OperationClass.BIND, Math.max( 2, nbThreads / 2 ) );
+        threads.put( OperationClass.READ, nbThreads );
+        threads.put( OperationClass.WRITE, Math.max( 2, nbThreads / 2 ) );
+        threads.put( OperationClass.EXTENDED, Math.max( 2, nbThreads / 4 ) );
+        threads.put( OperationClass.REPLICATION, 2 );
+        threads.putAll( operationThreads );
+
+        Map<OperationClass, Integer> queueSizes = new EnumMap<>( OperationClass.class );
+
+        for ( OperationClass operationClass : threads.keySet() )
+        {
+            queueSizes.put( operationClass, OPERATION_QUEUE_SIZE_DEFAULT );
+        }
+
+        queueSizes.putAll( operationQueueSizes );
+
+        LdapRequestScheduler scheduler = new LdapRequestScheduler( threads, queueSizes,
+            maxPendingRequestsPerSession );
+
+        if ( LOG.isInfoEnabled() )
+        {
+            LOG.info( "Request scheduler created with {} threads and {} queue sizes", threads, queueSizes );
+        }
+
+        return scheduler;
+    }
+
+
     /**
      * Install the replication handler if we have one
      */
@@ -588,6 +678,22 @@ public class LdapServer extends DirectoryBackedService
         {
             LOG.warn( "Failed to sent NoD.", e );
         }
+        finally
+        {
+            if ( requestScheduler != null )
+            {
+                requestScheduler.shutdown();
+                requestScheduler = null;
+            }
+
+            synchronized ( this )
+            {
+                if ( searchResultBufferPool != null )
+                {
+                    searchResultBufferPool.shutdown();
+                }
+            }
+        }
 
         started = false;
         LOG.info( "Ldap service stopped." );
@@ -1675,6 +1781,198 @@ public class LdapServer extends DirectoryBackedService
     }
 
 
+    /**
+     * Sets the number of threads processing a class of operation.
+     *
+     * @param operationClass The class of operation
+     * @param nbThreads The number of threads
+     */
+    public void setOperationThreads( OperationClass operationClass, int nbThreads )
+    {
+        if ( nbThreads <= 0 )
+        {
+            operationThreads.remove( operationClass );
+        }
+        else
+        {
+            operationThreads.put( operationClass, nbThreads );
+        }
+    }
+
+
+    /**
+     * Sets the maximum number of requests of a class of operation waiting for a
+     * thread. Requests received when the queue is full are rejected with a BUSY
+     * result.
+     *
+     * @param operationClass The class of operation
+     * @param queueSize The queue size
+     */
+    public void setOperationQueueSize( OperationClass operationClass, int queueSize )
+    {
+        if ( queueSize <= 0 )
+        {
+            operationQueueSizes.remove( operationClass );
+        }
+        else
+        {
+            operationQueueSizes.put( operationClass, queueSize );
+        }
+    }
+
+
+    /**
+     * @return The maximum number of requests a session can have queued or running
+     */
+    public int getMaxPendingRequestsPerSession()
+    {
+        return maxPendingRequestsPerSession;
+    }
+
+
+    /**
+     * Sets the maximum number of requests a session can have queued or running.
+     * Requests above this limit are rejected with a BUSY result, so that a single
+     * connection can't fill the queues. A negative or null value means no limit.
+     * Defaults to 128.
+     *
+     * @param maxPendingRequestsPerSession The per session limit
+     */
+    public void setMaxPendingRequestsPerSession( int maxPendingRequestsPerSession )
+    {
+        this.maxPendingRequestsPerSession = Math.max( 0, maxPendingRequestsPerSession );
+    }
+
+
+    /**
+     * @return The scheduler dispatching the incoming requests, which exposes the
+     * executors metrics. Null if the server is not started
+     */
+    public LdapRequestScheduler getRequestScheduler()
+    {
+        return requestScheduler;
+    }
+
+
+    /**
+     * @return The size (in bytes) above which a batch of encoded search results
+     * is written on the wire. 0 means search results are not batched
+     */
+    public int getSearchResultBatchSize()
+    {
+        return searchResultBatchSize;
+    }
+
+
+    /**
+     * Sets the size (in bytes) above which a batch of encoded SearchResultEntry
+     * is written on the wire. A negative or null value disables the batching, each
+     * entry being encoded and written on its own.
+     *
+     * @param searchResultBatchSize The batch size threshold
+     */
+    public void setSearchResultBatchSize( int searchResultBatchSize )
+    {
+        if ( searchResultBatchSize < 0 )
+        {
+            searchResultBatchSize = 0;
+        }
+
+        this.searchResultBatchSize = searchResultBatchSize;
+
+        synchronized ( this )
+        {
+            if ( searchResultBufferPool != null )
+            {
+                searchResultBufferPool.shutdown();
+                searchResultBufferPool = null;
+            }
+        }
+    }
+
+
+    /**
+     * @return The maximum delay (in ms) an encoded search result is kept in a batch
+     */
+    public long getSearchResultBatchDelay()
+    {
+        return searchResultBatchDelay;
+    }
+
+
+    /**
+     * Sets the maximum delay (in ms) an encoded search result is kept in a batch
+     * before being written.
+     *
+     * @param searchResultBatchDelay The batch delay threshold
+     */
+    public void setSearchResultBatchDelay( long searchResultBatchDelay )
+    {
+        this.searchResultBatchDelay = searchResultBatchDelay;
+    }
+
+
+    /**
+     * @return The pool of buffers used to batch the search results, or null if
+     * the search results are not batched
+     */
+    public synchronized SearchResultBufferPool getSearchResultBufferPool()
+    {
+        if ( searchResultBatchSize == 0 )
+        {
+            return null;
+        }
+
+        if ( searchResultBufferPool == null )
+        {
+            // Leave some room for the entry which crosses the threshold
+            searchResultBufferPool = new SearchResultBufferPool( searchResultBatchSize * 2,
+                SEARCH_RESULT_BUFFERS_POOLED );
+        }
+
+        return searchResultBufferPool;
+    }
+
+
+    /**
+     * @return The registry tracking the paged search contexts between two pages
+     */
+    public PagedSearchContextRegistry getPagedSearchContextRegistry()
+    {
+        return pagedSearchContextRegistry;
+    }
+
+
+    /**
+     * @param maxPagedSearches The maximum number of paged searches which cursor is kept
+     * open between two pages, for the whole server
+     */
+    public void setMaxPagedSearches( int maxPagedSearches )
+    {
+        pagedSearchContextRegistry.setMaxOpenContexts( maxPagedSearches );
+    }
+
+
+    /**
+     * @param maxPagedSearchesPerSession The maximum number of paged searches which cursor
+     * is kept open between two pages, for a single session
+     */
+    public void setMaxPagedSearchesPerSession( int maxPagedSearchesPerSession )
+    {
+        pagedSearchContextRegistry.setMaxOpenContextsPerSession( maxPagedSearchesPerSession );
+    }
+
+
+    /**
+     * @param pagedSearchIdleTimeout The delay, in seconds, after which an unused paged
+     * search is discarded. 0 means no timeout
+     */
+    public void setPagedSearchIdleTimeout( int pagedSearchIdleTimeout )
+    {
+        pagedSearchContextRegistry.setIdleTimeout( pagedSearchIdleTimeout );
+    }
+
+
     /**
      * @return the number of seconds pinger thread sleeps between subsequent pings
      */
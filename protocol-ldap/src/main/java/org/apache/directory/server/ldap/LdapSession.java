@@ -39,6 +39,7 @@ import org.apache.directory.server.core.api.LdapPrincipal;
 import org.apache.directory.server.core.api.SearchRequestContainer;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.handlers.controls.PagedSearchContext;
+import org.apache.directory.server.ldap.handlers.controls.PagedSearchContextRegistry;
 import org.apache.mina.core.session.IoSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -520,9 +521,16 @@ public class LdapSession
     {
         PagedSearchContext oldContext = pagedSearchContexts.put( context.getCookieValue(), context );
 
-        if ( oldContext != null )
+        if ( ( oldContext != null ) && ( oldContext != context ) )
         {
             // ??? Very unlikely to happen ...
+            PagedSearchContextRegistry registry = getPagedSearchContextRegistry();
+
+            if ( registry != null )
+            {
+                registry.remove( oldContext );
+            }
+
             Cursor<Entry> cursor = oldContext.getCursor();
 
             if ( cursor != null )
@@ -553,23 +561,43 @@ public class LdapSession
 
 
     /**
-     * Close all the pending cursors for all the pending PagedSearches
+     * Close all the pending cursors for all the pending PagedSearches. The contexts
+     * are kept, so that the searches can be resumed from the last returned entry.
      *
      * @throws IOException If we've got an exception.
      */
     public void closeAllPagedSearches() throws IOException
     {
+        PagedSearchContextRegistry registry = getPagedSearchContextRegistry();
+
         for ( Map.Entry<Integer, PagedSearchContext> entry : pagedSearchContexts.entrySet() )
         {
-            Cursor<Entry> cursor = entry.getValue().getCursor();
+            PagedSearchContext context = entry.getValue();
 
-            if ( cursor != null )
+            if ( registry != null )
             {
-                cursor.close();
+                registry.remove( context );
             }
+
+            context.evict();
+        }
+    }
+
+
+    /**
+     * @return The registry tracking the paged search contexts, if this session is bound to a server
+     */
+    private PagedSearchContextRegistry getPagedSearchContextRegistry()
+    {
+        if ( ldapServer == null )
+        {
+            return null;
         }
+
+        return ldapServer.getPagedSearchContextRegistry();
     }
 
+
     /**
      * Get paged search context associated with an ID
      * @param contextId The id for teh context we want to get
@@ -0,0 +1,197 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers;
+
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledFuture;
+
+import org.apache.directory.api.asn1.util.Asn1Buffer;
+import org.apache.directory.api.ldap.codec.api.LdapApiService;
+import org.apache.directory.api.ldap.codec.api.LdapEncoder;
+import org.apache.directory.api.ldap.model.message.Response;
+import org.apache.directory.server.core.api.SearchRequestContainer;
+import org.apache.directory.server.ldap.LdapSession;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.future.WriteFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Coalesces the SearchResultEntry and SearchResultReference PDUs produced by a
+ * search into a single buffer, which is written on the session when it reaches
+ * a size threshold, or when the oldest buffered PDU is older than a given delay.
+ * Encoded buffers bypass the ProtocolCodecFilter, so a run of small entries costs
+ * one buffer and one write request instead of one per entry.
+ * <br>
+ * A batcher is used for a single search request. The search thread fills it, and
+ * a timer writes the batch if no result has filled it within the delay, so a slow
+ * search doesn't keep its first results. The {@link #flush()} method must be
+ * called before the SearchResultDone is written.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SearchResultBatcher
+{
+    /** The logger */
+    private static final Logger LOG = LoggerFactory.getLogger( SearchResultBatcher.class );
+
+    /** The session we write the responses on */
+    private final LdapSession session;
+
+    /** The codec used to encode the responses */
+    private final LdapApiService codec;
+
+    /** The pool the batch buffers are taken from */
+    private final SearchResultBufferPool pool;
+
+    /** The size above which the batch is written */
+    private final int maxBatchSize;
+
+    /** The maximum time (in ms) an encoded PDU can stay in the batch */
+    private final long maxBatchDelay;
+
+    /** The message ID of the batched search */
+    private final int messageId;
+
+    /** The scratch buffer used to encode each PDU */
+    private final Asn1Buffer asn1Buffer = new Asn1Buffer();
+
+    /** The batch being filled, if any */
+    private IoBuffer batch;
+
+    /** The number of PDUs stored in the current batch */
+    private int nbPdus;
+
+    /** The time the first PDU was added in the current batch */
+    private long batchStart;
+
+    /** The task writing the current batch when its delay has expired */
+    private ScheduledFuture<?> scheduledFlush;
+
+
+    /**
+     * Creates a new instance of SearchResultBatcher.
+     *
+     * @param session The session the responses are written on
+     * @param messageId The message ID of the batched SearchRequest
+     * @param codec The LDAP codec service
+     * @param pool The buffer pool
+     * @param maxBatchSize The size (in bytes) above which the batch is written
+     * @param maxBatchDelay The maximum time (in ms) a PDU is kept before being written
+     */
+    public SearchResultBatcher( LdapSession session, int messageId, LdapApiService codec,
+        SearchResultBufferPool pool, int maxBatchSize, long maxBatchDelay )
+    {
+        this.session = session;
+        this.messageId = messageId;
+        this.codec = codec;
+        this.pool = pool;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchDelay = maxBatchDelay;
+    }
+
+
+    /**
+     * Encode a response and add it to the current batch, writing the batch if
+     * one of the thresholds has been reached.
+     *
+     * @param response The SearchResultEntry or SearchResultReference to send
+     * @throws Exception If the response can't be encoded
+     */
+    public synchronized void write( Response response ) throws Exception
+    {
+        if ( batch == null )
+        {
+            batch = pool.acquire();
+            batchStart = System.currentTimeMillis();
+
+            if ( maxBatchDelay > 0L )
+            {
+                scheduledFlush = pool.schedule( this::flush, maxBatchDelay );
+            }
+        }
+
+        asn1Buffer.clear();
+        ByteBuffer encoded = LdapEncoder.encodeMessage( asn1Buffer, codec, response );
+        batch.put( encoded );
+        nbPdus++;
+
+        if ( ( batch.position() >= maxBatchSize )
+            || ( System.currentTimeMillis() - batchStart >= maxBatchDelay ) )
+        {
+            flush();
+        }
+    }
+
+
+    /**
+     * Write the current batch, if it's not empty.
+     */
+    public synchronized void flush()
+    {
+        if ( scheduledFlush != null )
+        {
+            scheduledFlush.cancel( false );
+            scheduledFlush = null;
+        }
+
+        if ( batch == null )
+        {
+            return;
+        }
+
+        IoBuffer filled = batch;
+        batch = null;
+
+        if ( nbPdus == 0 )
+        {
+            pool.release( filled );
+
+            return;
+        }
+
+        filled.flip();
+
+        if ( LOG.isDebugEnabled() )
+        {
+            LOG.debug( "Writing a batch of {} PDUs ({} bytes)", nbPdus, filled.remaining() );
+        }
+
+        // The pooled buffer is written as is, and given back once MINA is done with it,
+        // whether the write has succeeded or not
+        WriteFuture future = session.getIoSession().write( filled );
+        future.addListener( written -> pool.release( filled ) );
+
+        // The response handlers don't see the batched PDUs, update the sent count here
+        SearchRequestContainer searchRequestContainer = session.getSearchRequest( messageId );
+
+        if ( searchRequestContainer != null )
+        {
+            for ( int i = 0; i < nbPdus; i++ )
+            {
+                searchRequestContainer.increment();
+            }
+        }
+
+        nbPdus = 0;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers;
+
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+
+/**
+ * A bounded pool of direct {@link IoBuffer}s used to coalesce the encoded
+ * SearchResultEntry PDUs before they are written on the wire. A buffer is
+ * taken when a batch is started, written as is, and given back when the write
+ * future of the batch is completed.
+ * <br>
+ * The pool also holds the timer writing the batches which are not filled fast
+ * enough.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SearchResultBufferPool
+{
+    /** The buffers ready to be reused */
+    private final ConcurrentLinkedQueue<IoBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+    /** The number of buffers currently stored in the pool */
+    private final AtomicInteger pooled = new AtomicInteger( 0 );
+
+    /** The initial capacity of a newly allocated buffer */
+    private final int bufferSize;
+
+    /** The maximum number of buffers kept in the pool */
+    private final int maxPooled;
+
+    /** The timer writing the batches when their delay has expired, created on demand */
+    private ScheduledExecutorService flusher;
+
+
+    /**
+     * Creates a new instance of SearchResultBufferPool.
+     *
+     * @param bufferSize The initial capacity of the allocated buffers
+     * @param maxPooled The maximum number of idle buffers kept in the pool
+     */
+    public SearchResultBufferPool( int bufferSize, int maxPooled )
+    {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+
+    /**
+     * Get a cleared buffer from the pool, or allocate a new direct buffer if
+     * the pool is empty.
+     *
+     * @return A buffer ready to be filled
+     */
+    public IoBuffer acquire()
+    {
+        IoBuffer buffer = buffers.poll();
+
+        if ( buffer == null )
+        {
+            buffer = IoBuffer.allocate( bufferSize, true );
+            buffer.setAutoExpand( true );
+        }
+        else
+        {
+            pooled.decrementAndGet();
+            buffer.clear();
+        }
+
+        return buffer;
+    }
+
+
+    /**
+     * Give a buffer back to the pool. If the pool is full, or if the buffer has
+     * grown far above the configured size, it is simply released.
+     *
+     * @param buffer The buffer to release
+     */
+    public void release( IoBuffer buffer )
+    {
+        if ( buffer.capacity() <= bufferSize * 2 )
+        {
+            if ( pooled.incrementAndGet() <= maxPooled )
+            {
+                buffer.clear();
+                buffers.offer( buffer );
+
+                return;
+            }
+
+            pooled.decrementAndGet();
+        }
+
+        buffer.free();
+    }
+
+
+    /**
+     * Schedule the write of a batch.
+     *
+     * @param flush The task writing the batch
+     * @param delay The delay (in ms) before the task is run
+     * @return The future used to cancel the task
+     */
+    public synchronized ScheduledFuture<?> schedule( Runnable flush, long delay )
+    {
+        if ( flusher == null )
+        {
+            flusher = Executors.newSingleThreadScheduledExecutor( runnable ->
+            {
+                Thread thread = new Thread( runnable, "SearchResultBatchFlusher" );
+                thread.setDaemon( true );
+
+                return thread;
+            } );
+        }
+
+        return flusher.schedule( flush, delay, TimeUnit.MILLISECONDS );
+    }
+
+
+    /**
+     * Stop the timer writing the expired batches.
+     */
+    public synchronized void shutdown()
+    {
+        if ( flusher != null )
+        {
+            flusher.shutdownNow();
+            flusher = null;
+        }
+    }
+
+
+    /**
+     * @return The initial capacity of the pooled buffers
+     */
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+}
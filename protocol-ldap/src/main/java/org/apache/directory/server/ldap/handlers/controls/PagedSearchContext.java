@@ -20,6 +20,7 @@
 package org.apache.directory.server.ldap.handlers.controls;
 
 
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -61,6 +62,15 @@ public class PagedSearchContext
     /** The associated cursor for the current search request */
     private Cursor<Entry> cursor;
 
+    /** The DN of the last returned entry, used to resume the search once evicted */
+    private Dn lastDn;
+
+    /** Tells if the cursor has been closed to save resources */
+    private volatile boolean evicted;
+
+    /** The last time this context has been used */
+    private volatile long lastAccessTime;
+
 
     /**
      * Creates a new instance of this class, storing the SearchRequest into it.
@@ -78,6 +88,7 @@ public class PagedSearchContext
         cookieValue = new AtomicInteger( searchRequest.getMessageId() << 16 );
 
         cookie = BerValue.getBytes( cookieValue.get() );
+        lastAccessTime = System.currentTimeMillis();
     }
 
 
@@ -316,6 +327,74 @@ public class PagedSearchContext
     public void setCursor( Cursor<Entry> cursor )
     {
         this.cursor = cursor;
+        evicted = false;
+    }
+
+
+    /**
+     * @return The DN of the last returned entry, or null if none has been returned yet
+     */
+    public Dn getLastDn()
+    {
+        return lastDn;
+    }
+
+
+    /**
+     * Set the DN of the last returned entry
+     * 
+     * @param lastDn The DN of the last returned entry
+     */
+    public void setLastDn( Dn lastDn )
+    {
+        this.lastDn = lastDn;
+    }
+
+
+    /**
+     * @return true if the cursor has been closed, and the search has to be done again
+     * from the last returned entry
+     */
+    public boolean isEvicted()
+    {
+        return evicted;
+    }
+
+
+    /**
+     * Close the cursor, keeping the position of the last returned entry so that the
+     * search can be resumed.
+     * 
+     * @throws IOException If the cursor can't be closed
+     */
+    public void evict() throws IOException
+    {
+        evicted = true;
+        Cursor<Entry> evictedCursor = cursor;
+        cursor = null;
+
+        if ( evictedCursor != null )
+        {
+            evictedCursor.close();
+        }
+    }
+
+
+    /**
+     * @return The last time this context has been used, in milliseconds
+     */
+    public long getLastAccessTime()
+    {
+        return lastAccessTime;
+    }
+
+
+    /**
+     * Update the last time this context has been used
+     */
+    public void touch()
+    {
+        lastAccessTime = System.currentTimeMillis();
     }
 
 
@@ -330,6 +409,12 @@ public class PagedSearchContext
         sb.append( Strings.dumpBytes( cookie ) );
         sb.append( ", " );
         sb.append( currentPosition );
+
+        if ( evicted )
+        {
+            sb.append( ", evicted" );
+        }
+
         sb.append( ">" );
 
         return sb.toString();
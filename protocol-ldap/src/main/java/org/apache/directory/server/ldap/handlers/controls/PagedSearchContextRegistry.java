@@ -0,0 +1,325 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers.controls;
+
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.directory.server.ldap.LdapSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Keeps track of the paged search contexts of all the sessions between two requests,
+ * and closes the cursors the server can't afford to keep open. The cursor of a context
+ * is closed, the least recently used first, when there are too many open cursors for
+ * its session or for the server, or when the heap is almost full. Such an evicted
+ * context keeps the DN of the last returned entry, so that the search can be resumed
+ * when the next page is requested. A context which has not been used for longer than
+ * the idle timeout is removed from its session.
+ * <br>
+ * A context is not tracked while a request reads its cursor : it has to be removed from
+ * the registry before being used, and released once the page has been sent.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PagedSearchContextRegistry
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( PagedSearchContextRegistry.class );
+
+    /** The default maximum number of open cursors for the whole server */
+    public static final int DEFAULT_MAX_OPEN_CONTEXTS = 1000;
+
+    /** The default maximum number of open cursors per session */
+    public static final int DEFAULT_MAX_OPEN_CONTEXTS_PER_SESSION = 16;
+
+    /** The default idle timeout, in seconds */
+    public static final int DEFAULT_IDLE_TIMEOUT = 600;
+
+    /** The part of the maximum heap size above which the cursors are closed */
+    private static final double MEMORY_THRESHOLD = 0.9d;
+
+    /** The maximum number of open cursors for the whole server */
+    private int maxOpenContexts = DEFAULT_MAX_OPEN_CONTEXTS;
+
+    /** The maximum number of open cursors per session */
+    private int maxOpenContextsPerSession = DEFAULT_MAX_OPEN_CONTEXTS_PER_SESSION;
+
+    /** The idle timeout, in seconds */
+    private int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+    /** The tracked contexts and their session, the least recently used first */
+    private final Map<PagedSearchContext, LdapSession> contexts = new LinkedHashMap<>();
+
+    /** The number of tracked contexts which cursor is open */
+    private int nbOpenContexts;
+
+
+    /**
+     * Track a context once a page has been sent, and enforce the limits.
+     *
+     * @param session The session the context belongs to
+     * @param context The context to track
+     */
+    public synchronized void release( LdapSession session, PagedSearchContext context )
+    {
+        // Move the context at the end of the map, as the most recently used
+        remove( context );
+        context.touch();
+        contexts.put( context, session );
+
+        if ( !context.isEvicted() )
+        {
+            nbOpenContexts++;
+        }
+
+        evictIdleContexts( System.currentTimeMillis() );
+        evictOpenContexts( session );
+    }
+
+
+    /**
+     * Stop tracking a context, either because a request is about to read its cursor, or
+     * because the paged search is done.
+     *
+     * @param context The context to remove
+     */
+    public synchronized void remove( PagedSearchContext context )
+    {
+        if ( ( contexts.remove( context ) != null ) && !context.isEvicted() )
+        {
+            nbOpenContexts--;
+        }
+    }
+
+
+    /**
+     * Remove from their session the contexts which have not been used for longer than
+     * the idle timeout.
+     */
+    public synchronized void evictIdleContexts()
+    {
+        evictIdleContexts( System.currentTimeMillis() );
+    }
+
+
+    /**
+     * @return The number of tracked contexts which cursor is open
+     */
+    public synchronized int getNbOpenContexts()
+    {
+        return nbOpenContexts;
+    }
+
+
+    /**
+     * @return The number of tracked contexts
+     */
+    public synchronized int getNbContexts()
+    {
+        return contexts.size();
+    }
+
+
+    /**
+     * @return The maximum number of open cursors for the whole server
+     */
+    public int getMaxOpenContexts()
+    {
+        return maxOpenContexts;
+    }
+
+
+    /**
+     * @param maxOpenContexts The maximum number of open cursors for the whole server
+     */
+    public void setMaxOpenContexts( int maxOpenContexts )
+    {
+        this.maxOpenContexts = maxOpenContexts;
+    }
+
+
+    /**
+     * @return The maximum number of open cursors per session
+     */
+    public int getMaxOpenContextsPerSession()
+    {
+        return maxOpenContextsPerSession;
+    }
+
+
+    /**
+     * @param maxOpenContextsPerSession The maximum number of open cursors per session
+     */
+    public void setMaxOpenContextsPerSession( int maxOpenContextsPerSession )
+    {
+        this.maxOpenContextsPerSession = maxOpenContextsPerSession;
+    }
+
+
+    /**
+     * @return The idle timeout, in seconds
+     */
+    public int getIdleTimeout()
+    {
+        return idleTimeout;
+    }
+
+
+    /**
+     * @param idleTimeout The idle timeout, in seconds. 0 means no timeout
+     */
+    public void setIdleTimeout( int idleTimeout )
+    {
+        this.idleTimeout = idleTimeout;
+    }
+
+
+    /**
+     * Remove the timed out contexts. As the contexts are ordered by last use, we can stop
+     * at the first one which has been used recently.
+     */
+    private void evictIdleContexts( long now )
+    {
+        if ( idleTimeout <= 0 )
+        {
+            return;
+        }
+
+        long timeout = idleTimeout * 1000L;
+        Iterator<Map.Entry<PagedSearchContext, LdapSession>> iterator = contexts.entrySet().iterator();
+
+        while ( iterator.hasNext() )
+        {
+            Map.Entry<PagedSearchContext, LdapSession> tracked = iterator.next();
+            PagedSearchContext context = tracked.getKey();
+            LdapSession session = tracked.getValue();
+
+            if ( now - context.getLastAccessTime() <= timeout )
+            {
+                break;
+            }
+
+            iterator.remove();
+
+            if ( !context.isEvicted() )
+            {
+                nbOpenContexts--;
+                close( context );
+            }
+
+            // The session may already have replaced this context
+            if ( session.getPagedSearchContext( context.getCookieValue() ) == context )
+            {
+                session.removePagedSearchContext( context.getCookieValue() );
+            }
+
+            LOG.debug( "Removed the idle paged search context {}", context );
+        }
+    }
+
+
+    /**
+     * Close the cursors of the least recently used contexts until the number of open
+     * cursors is within the limits. When the heap is almost full, half the open cursors
+     * are closed.
+     */
+    private void evictOpenContexts( LdapSession session )
+    {
+        int sessionOpenContexts = 0;
+
+        for ( Map.Entry<PagedSearchContext, LdapSession> tracked : contexts.entrySet() )
+        {
+            if ( ( tracked.getValue() == session ) && !tracked.getKey().isEvicted() )
+            {
+                sessionOpenContexts++;
+            }
+        }
+
+        int maxOpen = maxOpenContexts;
+
+        if ( isMemoryLow() )
+        {
+            maxOpen = Math.min( maxOpen, nbOpenContexts / 2 );
+        }
+
+        Iterator<Map.Entry<PagedSearchContext, LdapSession>> iterator = contexts.entrySet().iterator();
+
+        while ( ( ( nbOpenContexts > maxOpen ) || ( sessionOpenContexts > maxOpenContextsPerSession ) )
+            && iterator.hasNext() )
+        {
+            Map.Entry<PagedSearchContext, LdapSession> tracked = iterator.next();
+            PagedSearchContext context = tracked.getKey();
+
+            if ( context.isEvicted() )
+            {
+                continue;
+            }
+
+            boolean sameSession = tracked.getValue() == session;
+
+            if ( ( nbOpenContexts > maxOpen ) || ( sameSession && ( sessionOpenContexts > maxOpenContextsPerSession ) ) )
+            {
+                close( context );
+                nbOpenContexts--;
+
+                if ( sameSession )
+                {
+                    sessionOpenContexts--;
+                }
+
+                LOG.debug( "Closed the cursor of the paged search context {}", context );
+            }
+        }
+    }
+
+
+    /**
+     * Close the cursor of a context, keeping its position
+     */
+    private void close( PagedSearchContext context )
+    {
+        try
+        {
+            context.evict();
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Failed to close the cursor of the paged search context {}", context, ioe );
+        }
+    }
+
+
+    /**
+     * Tells if the used heap is above the threshold
+     */
+    private boolean isMemoryLow()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+
+        return used > runtime.maxMemory() * MEMORY_THRESHOLD;
+    }
+}
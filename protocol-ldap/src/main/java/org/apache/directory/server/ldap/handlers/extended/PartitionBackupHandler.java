@@ -0,0 +1,232 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers.extended;
+
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOperationException;
+import org.apache.directory.api.ldap.model.message.ExtendedRequest;
+import org.apache.directory.api.ldap.model.message.ExtendedResponse;
+import org.apache.directory.api.ldap.model.message.LdapResult;
+import org.apache.directory.api.ldap.model.message.OpaqueExtendedRequest;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.ldap.ExtendedOperationHandler;
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.ldap.LdapSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An handler for the partition backup extended operation. It exports a running partition
+ * to a LDIF file, or restores such a file into an empty partition. The files are read and
+ * written on the server. Only the administrator can use it.
+ * <br>
+ * The request value is a UTF-8 string made of three lines :
+ * <ul>
+ *   <li>the operation, <tt>backup</tt> or <tt>restore</tt></li>
+ *   <li>the suffix Dn of the partition</li>
+ *   <li>the path of the LDIF file on the server</li>
+ * </ul>
+ * The diagnostic message of the response gives the number of saved or restored entries.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PartitionBackupHandler implements ExtendedOperationHandler<ExtendedRequest, ExtendedResponse>
+{
+    private static final Logger LOG = LoggerFactory.getLogger( PartitionBackupHandler.class );
+
+    /** The partition backup extended operation OID */
+    public static final String EXTENSION_OID = "1.3.6.1.4.1.18060.0.1.10";
+
+    /** The operation exporting a partition */
+    public static final String BACKUP = "backup";
+
+    /** The operation loading an export into an empty partition */
+    public static final String RESTORE = "restore";
+
+    public static final Set<String> EXTENSION_OIDS;
+
+    static
+    {
+        Set<String> set = new HashSet<>( 2 );
+        set.add( EXTENSION_OID );
+        EXTENSION_OIDS = Collections.unmodifiableSet( set );
+    }
+
+    /** The LDAP server */
+    private LdapServer ldapServer;
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getOid()
+    {
+        return EXTENSION_OID;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleExtendedOperation( LdapSession session, ExtendedRequest req ) throws Exception
+    {
+        ExtendedResponse response = ( ExtendedResponse ) req.getResultResponse();
+        LdapResult result = response.getLdapResult();
+
+        if ( !session.getCoreSession().isAdministrator() )
+        {
+            result.setResultCode( ResultCodeEnum.INSUFFICIENT_ACCESS_RIGHTS );
+            result.setDiagnosticMessage( "Only the administrator can backup or restore a partition" );
+            session.getIoSession().write( response );
+
+            return;
+        }
+
+        String[] arguments = null;
+
+        if ( req instanceof OpaqueExtendedRequest )
+        {
+            byte[] value = ( ( OpaqueExtendedRequest ) req ).getRequestValue();
+
+            if ( value != null )
+            {
+                arguments = Strings.utf8ToString( value ).split( "\n" );
+            }
+        }
+
+        if ( ( arguments == null ) || ( arguments.length != 3 ) )
+        {
+            result.setResultCode( ResultCodeEnum.PROTOCOL_ERROR );
+            result.setDiagnosticMessage( "Expected the operation, the partition suffix and the file path" );
+            session.getIoSession().write( response );
+
+            return;
+        }
+
+        String operation = arguments[0].trim();
+        Path file = Paths.get( arguments[2].trim() );
+
+        try
+        {
+            AbstractBTreePartition partition = getPartition( new Dn( arguments[1].trim() ) );
+            long nbEntries;
+
+            if ( BACKUP.equalsIgnoreCase( operation ) )
+            {
+                try ( OutputStream out = Files.newOutputStream( file ) )
+                {
+                    nbEntries = partition.backup( out );
+                }
+            }
+            else if ( RESTORE.equalsIgnoreCase( operation ) )
+            {
+                try ( InputStream in = Files.newInputStream( file ) )
+                {
+                    nbEntries = partition.restore( in );
+                }
+            }
+            else
+            {
+                result.setResultCode( ResultCodeEnum.PROTOCOL_ERROR );
+                result.setDiagnosticMessage( "Unknown operation " + operation );
+                session.getIoSession().write( response );
+
+                return;
+            }
+
+            result.setResultCode( ResultCodeEnum.SUCCESS );
+            result.setDiagnosticMessage( Long.toString( nbEntries ) );
+        }
+        catch ( LdapOperationException loe )
+        {
+            LOG.error( "The partition {} failed", operation, loe );
+            result.setResultCode( loe.getResultCode() );
+            result.setDiagnosticMessage( loe.getMessage() );
+        }
+        catch ( LdapException le )
+        {
+            LOG.error( "The partition {} failed", operation, le );
+            result.setResultCode( ResultCodeEnum.OTHER );
+            result.setDiagnosticMessage( le.getMessage() );
+        }
+
+        session.getIoSession().write( response );
+    }
+
+
+    /**
+     * Gets the partition with the given suffix
+     */
+    private AbstractBTreePartition getPartition( Dn suffixDn ) throws LdapException
+    {
+        Dn dn = new Dn( ldapServer.getDirectoryService().getSchemaManager(), suffixDn );
+        Partition partition = ldapServer.getDirectoryService().getPartitionNexus().getPartition( dn );
+
+        if ( ( partition == null ) || !dn.equals( partition.getSuffixDn() ) )
+        {
+            throw new LdapOperationException( ResultCodeEnum.NO_SUCH_OBJECT, "No partition with the suffix " + dn );
+        }
+
+        if ( !( partition instanceof AbstractBTreePartition ) )
+        {
+            throw new LdapOperationException( ResultCodeEnum.UNWILLING_TO_PERFORM,
+                "The partition " + partition.getId() + " can't be saved" );
+        }
+
+        return ( AbstractBTreePartition ) partition;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<String> getExtensionOids()
+    {
+        return EXTENSION_OIDS;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setLdapServer( LdapServer ldapServer )
+    {
+        this.ldapServer = ldapServer;
+    }
+}
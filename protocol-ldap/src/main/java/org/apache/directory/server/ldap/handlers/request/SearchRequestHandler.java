@@ -30,13 +30,16 @@ import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValue;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequest;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorClosedException;
 import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
 import org.apache.directory.api.ldap.model.exception.LdapOperationException;
 import org.apache.directory.api.ldap.model.exception.LdapURLEncodingException;
 import org.apache.directory.api.ldap.model.exception.OperationAbandonedException;
@@ -79,6 +82,8 @@ import org.apache.directory.server.ldap.LdapSession;
 import org.apache.directory.server.ldap.handlers.LdapRequestHandler;
 import org.apache.directory.server.ldap.handlers.PersistentSearchListener;
 import org.apache.directory.server.ldap.handlers.SearchAbandonListener;
+import org.apache.directory.server.ldap.handlers.SearchResultBatcher;
+import org.apache.directory.server.ldap.handlers.SearchResultBufferPool;
 import org.apache.directory.server.ldap.handlers.SearchTimeLimitingMonitor;
 import org.apache.directory.server.ldap.handlers.controls.PagedSearchContext;
 import org.apache.directory.server.ldap.replication.provider.ReplicationRequestHandler;
@@ -371,8 +376,63 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
     }
 
 
+    /**
+     * Creates a batcher for the results of a search, if the server is configured
+     * to coalesce them.
+     */
+    private SearchResultBatcher createBatcher( LdapSession session, SearchRequest req )
+    {
+        SearchResultBufferPool pool = ldapServer.getSearchResultBufferPool();
+
+        if ( pool == null )
+        {
+            return null;
+        }
+
+        return new SearchResultBatcher( session, req.getMessageId(),
+            ldapServer.getDirectoryService().getLdapCodecService(), pool,
+            ldapServer.getSearchResultBatchSize(), ldapServer.getSearchResultBatchDelay() );
+    }
+
+
+    /**
+     * Sends a search result, either directly or through the batcher.
+     */
+    private void writeResponse( LdapSession session, SearchResultBatcher batcher, Response response )
+        throws Exception
+    {
+        if ( batcher == null )
+        {
+            session.getIoSession().write( response );
+        }
+        else
+        {
+            batcher.write( response );
+        }
+    }
+
+
     private void writeResults( LdapSession session, SearchRequest req, LdapResult ldapResult,
         Cursor<Entry> cursor, long sizeLimit ) throws Exception
+    {
+        SearchResultBatcher batcher = createBatcher( session, req );
+
+        try
+        {
+            writeResults( session, req, ldapResult, cursor, sizeLimit, batcher );
+        }
+        finally
+        {
+            if ( batcher != null )
+            {
+                batcher.flush();
+            }
+        }
+    }
+
+
+    private void writeResults( LdapSession session, SearchRequest req, LdapResult ldapResult,
+        Cursor<Entry> cursor, long sizeLimit, SearchResultBatcher batcher ) throws Exception
     {
         long count = 0;
 
@@ -405,7 +465,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             }
 
             Entry entry = cursor.get();
-            session.getIoSession().write( generateResponse( session, req, entry ) );
+            writeResponse( session, batcher, generateResponse( session, req, entry ) );
 
             if ( IS_DEBUG )
             {
@@ -451,18 +511,30 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
 
         int count = pagedContext.getCurrentPosition();
         int pageCount = 0;
+        SearchResultBatcher batcher = createBatcher( session, req );
 
-        while ( ( count < sizeLimit ) && ( pageCount < pagedLimit ) && cursor.next() )
+        try
         {
-            if ( session.getIoSession().isClosing() )
+            while ( ( count < sizeLimit ) && ( pageCount < pagedLimit ) && cursor.next() )
             {
-                break;
-            }
+                if ( session.getIoSession().isClosing() )
+                {
+                    break;
+                }
 
-            Entry entry = cursor.get();
-            session.getIoSession().write( generateResponse( session, req, entry ) );
-            count++;
-            pageCount++;
+                Entry entry = cursor.get();
+                writeResponse( session, batcher, generateResponse( session, req, entry ) );
+                pagedContext.setLastDn( entry.getDn() );
+                count++;
+                pageCount++;
+            }
+        }
+        finally
+        {
+            if ( batcher != null )
+            {
+                batcher.flush();
+            }
         }
 
         // DO NOT WRITE THE RESPONSE - JUST RETURN IT
@@ -512,8 +584,10 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
                 ldapResult.setResultCode( ResultCodeEnum.SUCCESS );
                 req.getResultResponse().addControl( pagedResultsControl );
 
-                // Stores the cursor current position
+                // Stores the cursor current position, and let the registry close
+                // the cursor if it's not used for a while
                 pagedContext.incrementCurrentPosition( pageCount );
+                ldapServer.getPagedSearchContextRegistry().release( session, pagedContext );
             }
             else
             {
@@ -522,7 +596,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
 
                 cursor.close();
 
-                session.removePagedSearchContext( cookieValue );
+                removeContext( session, pagedContext );
             }
         }
     }
@@ -543,6 +617,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             // cursor stored into the session (if any)
             int cookieValue = pagedSearchControl.getCookieValue();
             PagedSearchContext psCookie = session.removePagedSearchContext( cookieValue );
+            ldapServer.getPagedSearchContextRegistry().remove( psCookie );
             pagedSearchControl.setCookie( psCookie.getCookie() );
             pagedSearchControl.setSize( 0 );
             pagedSearchControl.setCritical( true );
@@ -587,6 +662,47 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
     }
 
 
+    /**
+     * Run again the search of a paged search context which cursor has been closed, and
+     * move the new cursor right after the last returned entry : the partitions return
+     * their entries in the order of their UUID, and seek the UUID of this entry. If the
+     * entry can't be found anymore, or if the cursor can't be positioned, we skip as many
+     * entries as we have already returned.
+     */
+    private Cursor<Entry> resumePagedSearch( LdapSession session, SearchRequest req,
+        PagedSearchContext pagedContext ) throws Exception
+    {
+        Dn lastDn = pagedContext.getLastDn();
+        Cursor<Entry> cursor = session.getCoreSession().search( req );
+        pagedContext.setCursor( cursor );
+
+        if ( lastDn != null )
+        {
+            try
+            {
+                cursor.after( new DefaultEntry( lastDn ) );
+
+                return cursor;
+            }
+            catch ( LdapNoSuchObjectException | UnsupportedOperationException e )
+            {
+                // The last returned entry has been deleted or moved, or the search
+                // spans several partitions
+                LOG.debug( "Cannot resume the paged search after {} : {}", lastDn, e.getMessage() );
+            }
+        }
+
+        cursor.beforeFirst();
+
+        for ( int i = 0; ( i < pagedContext.getCurrentPosition() ) && cursor.next(); i++ )
+        {
+            // Skip the entries we have already returned
+        }
+
+        return cursor;
+    }
+
+
     /**
      * Handle a Paged Search request.
      */
@@ -703,8 +819,18 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
 
             if ( pagedContext.hasSameRequest( req, session ) )
             {
-                // Case 3 : continue the search
-                cursor = pagedContext.getCursor();
+                // Case 3 : continue the search. The registry must not close the
+                // cursor while we read it, and it may already have done so.
+                ldapServer.getPagedSearchContextRegistry().remove( pagedContext );
+
+                if ( pagedContext.isEvicted() )
+                {
+                    cursor = resumePagedSearch( session, req, pagedContext );
+                }
+                else
+                {
+                    cursor = pagedContext.getCursor();
+                }
 
                 // get the cookie
                 cookie = pagedContext.getCookie();
@@ -718,6 +844,8 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             {
                 // case 2 : create a new cursor
                 // We have to close the cursor
+                ldapServer.getPagedSearchContextRegistry().remove( pagedContext );
+                removeContext( session, pagedContext );
                 cursor = pagedContext.getCursor();
 
                 if ( cursor != null )
@@ -730,6 +858,10 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
 
                 session.addPagedSearchContext( pagedContext );
 
+                cursor = session.getCoreSession().search( req );
+                cursor.beforeFirst();
+                pagedContext.setCursor( cursor );
+
                 cookie = pagedContext.getCookie();
                 pagedResultsControl = new PagedResultsImpl();
                 pagedResultsControl.setCookie( cookie );
@@ -750,6 +882,8 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
         }
         catch ( Exception e )
         {
+            removeContext( session, pagedContext );
+
             if ( cursor != null )
             {
                 try
@@ -787,11 +921,21 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
 
         if ( control != null )
         {
+            // The Virtual List View already returns a part of the result, it can't be paged
+            if ( req.getControls().containsKey( VirtualListViewRequest.OID ) )
+            {
+                ldapResult.setDiagnosticMessage(
+                    "The Virtual List View and the Paged Results controls can't be used together" );
+                ldapResult.setResultCode( ResultCodeEnum.UNWILLING_TO_PERFORM );
+
+                return ( SearchResultDone ) req.getResultResponse();
+            }
+
             // Let's deal with the pagedControl
             return doPagedSearch( session, req, ( PagedResults ) control );
         }
 
-        // A normal search
+        // A normal search (the Virtual List View is handled by the core session)
         // Check that we have a cursor or not.
         // No cursor : do a search.
         Cursor<Entry> cursor = session.getCoreSession().search( req );
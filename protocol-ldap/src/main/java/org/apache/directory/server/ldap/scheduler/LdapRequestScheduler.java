@@ -0,0 +1,219 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.scheduler;
+
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.ResultResponse;
+import org.apache.directory.api.ldap.model.message.ResultResponseRequest;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A MINA filter which replaces the single ExecutorFilter used to process the
+ * incoming LDAP requests. Each request is dispatched on the executor associated
+ * with its {@link OperationClass}, so that a burst of expensive searches can't
+ * starve the binds, and the writes can't starve the reads. Abandon and Unbind
+ * requests are processed immediately, in the IoProcessor thread.
+ * <br>
+ * The executors have bounded queues : when a queue is full, or when a session
+ * already has too many pending requests, the request is rejected with a BUSY
+ * result instead of being queued.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LdapRequestScheduler extends IoFilterAdapter
+{
+    /** The logger */
+    private static final Logger LOG = LoggerFactory.getLogger( LdapRequestScheduler.class );
+
+    /** The session attribute storing the number of requests pending for this session */
+    private static final AttributeKey PENDING_REQUESTS = new AttributeKey( LdapRequestScheduler.class, "pending" );
+
+    /** The executors, per class of operation */
+    private final Map<OperationClass, OperationClassExecutor> executors = new EnumMap<>( OperationClass.class );
+
+    /** The maximum number of requests a single session can have queued or running. 0 means no limit */
+    private final int maxPendingRequestsPerSession;
+
+
+    /**
+     * Creates a new instance of LdapRequestScheduler.
+     *
+     * @param nbThreads The number of threads for each class of operation
+     * @param queueSizes The queue size for each class of operation
+     * @param maxPendingRequestsPerSession The maximum number of requests a session
+     * can have queued or running, 0 for no limit
+     */
+    public LdapRequestScheduler( Map<OperationClass, Integer> nbThreads, Map<OperationClass, Integer> queueSizes,
+        int maxPendingRequestsPerSession )
+    {
+        this.maxPendingRequestsPerSession = maxPendingRequestsPerSession;
+
+        for ( OperationClass operationClass : OperationClass.values() )
+        {
+            if ( operationClass == OperationClass.IMMEDIATE )
+            {
+                continue;
+            }
+
+            OperationClassExecutor executor = new OperationClassExecutor( operationClass,
+                nbThreads.get( operationClass ), queueSizes.get( operationClass ) );
+            executors.put( operationClass, executor );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void messageReceived( final NextFilter nextFilter, final IoSession session, final Object message )
+        throws Exception
+    {
+        OperationClass operationClass = OperationClass.of( message );
+
+        if ( operationClass == OperationClass.IMMEDIATE )
+        {
+            nextFilter.messageReceived( session, message );
+
+            return;
+        }
+
+        final AtomicInteger pending = getPendingRequests( session );
+
+        if ( ( maxPendingRequestsPerSession > 0 ) && ( pending.get() >= maxPendingRequestsPerSession ) )
+        {
+            LOG.debug( "Too many pending requests for session {}, rejecting {}", session, message );
+            rejectBusy( session, message, "Too many outstanding requests on this connection" );
+
+            return;
+        }
+
+        pending.incrementAndGet();
+
+        try
+        {
+            executors.get( operationClass ).execute( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        nextFilter.messageReceived( session, message );
+                    }
+                    catch ( Throwable t )
+                    {
+                        nextFilter.exceptionCaught( session, t );
+                    }
+                    finally
+                    {
+                        pending.decrementAndGet();
+                    }
+                }
+            } );
+        }
+        catch ( RejectedExecutionException ree )
+        {
+            pending.decrementAndGet();
+            LOG.debug( "The {} executor is saturated, rejecting {}", operationClass, message );
+            rejectBusy( session, message, "The server is too busy to process " + operationClass + " requests" );
+        }
+    }
+
+
+    /**
+     * Send back a BUSY result for a request which can't be processed.
+     */
+    private void rejectBusy( IoSession session, Object message, String diagnosticMessage )
+    {
+        if ( message instanceof ResultResponseRequest )
+        {
+            ResultResponse response = ( ( ResultResponseRequest ) message ).getResultResponse();
+            response.getLdapResult().setResultCode( ResultCodeEnum.BUSY );
+            response.getLdapResult().setDiagnosticMessage( diagnosticMessage );
+            session.write( response );
+        }
+    }
+
+
+    private AtomicInteger getPendingRequests( IoSession session )
+    {
+        AtomicInteger pending = ( AtomicInteger ) session.getAttribute( PENDING_REQUESTS );
+
+        if ( pending == null )
+        {
+            AtomicInteger newPending = new AtomicInteger( 0 );
+            pending = ( AtomicInteger ) session.setAttributeIfAbsent( PENDING_REQUESTS, newPending );
+
+            if ( pending == null )
+            {
+                pending = newPending;
+            }
+        }
+
+        return pending;
+    }
+
+
+    /**
+     * Get the executor associated with a class of operation, to read its metrics.
+     *
+     * @param operationClass The class of operation
+     * @return The associated executor
+     */
+    public OperationClassExecutor getExecutor( OperationClass operationClass )
+    {
+        return executors.get( operationClass );
+    }
+
+
+    /**
+     * @return All the executors
+     */
+    public Collection<OperationClassExecutor> getExecutors()
+    {
+        return Collections.unmodifiableCollection( executors.values() );
+    }
+
+
+    /**
+     * Stops all the executors.
+     */
+    public void shutdown()
+    {
+        for ( OperationClassExecutor executor : executors.values() )
+        {
+            executor.shutdown();
+        }
+    }
+}
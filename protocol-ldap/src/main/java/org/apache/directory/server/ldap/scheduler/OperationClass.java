@@ -0,0 +1,97 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.scheduler;
+
+
+import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValue;
+import org.apache.directory.api.ldap.model.message.Message;
+import org.apache.directory.api.ldap.model.message.Request;
+
+
+/**
+ * The classes of LDAP operations the {@link LdapRequestScheduler} dispatches on
+ * separate executors.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public enum OperationClass
+{
+    /** Bind requests */
+    BIND,
+
+    /** Search and Compare requests */
+    READ,
+
+    /** Add, Delete, Modify and ModifyDN requests */
+    WRITE,
+
+    /** Extended requests */
+    EXTENDED,
+
+    /** SyncRepl searches */
+    REPLICATION,
+
+    /** Abandon and Unbind requests, which are processed without being queued */
+    IMMEDIATE;
+
+
+    /**
+     * Get the class of operation a received message belongs to.
+     *
+     * @param message The received message
+     * @return The associated OperationClass
+     */
+    public static OperationClass of( Object message )
+    {
+        if ( !( message instanceof Message ) )
+        {
+            return IMMEDIATE;
+        }
+
+        switch ( ( ( Message ) message ).getType() )
+        {
+            case BIND_REQUEST:
+                return BIND;
+
+            case SEARCH_REQUEST:
+                if ( ( ( Request ) message ).getControls().containsKey( SyncRequestValue.OID ) )
+                {
+                    return REPLICATION;
+                }
+
+                return READ;
+
+            case COMPARE_REQUEST:
+                return READ;
+
+            case ADD_REQUEST:
+            case DEL_REQUEST:
+            case MODIFY_REQUEST:
+            case MODIFYDN_REQUEST:
+                return WRITE;
+
+            case EXTENDED_REQUEST:
+                return EXTENDED;
+
+            default:
+                return IMMEDIATE;
+        }
+    }
+}
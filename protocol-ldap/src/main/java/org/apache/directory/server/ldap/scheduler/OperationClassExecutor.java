@@ -0,0 +1,227 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.scheduler;
+
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A bounded executor dedicated to one {@link OperationClass}. It keeps track of
+ * the time the requests spend in its queue, and of the number of requests it
+ * had to reject because it was saturated.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OperationClassExecutor
+{
+    /** The class of operations this executor processes */
+    private final OperationClass operationClass;
+
+    /** The underlying thread pool */
+    private final ThreadPoolExecutor executor;
+
+    /** The number of executed requests */
+    private final LongAdder executed = new LongAdder();
+
+    /** The number of rejected requests */
+    private final LongAdder rejected = new LongAdder();
+
+    /** The cumulated time (in ns) requests have waited in the queue */
+    private final LongAdder totalWaitTime = new LongAdder();
+
+    /** The longest time (in ns) a request has waited in the queue */
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
+
+    /**
+     * Creates a new instance of OperationClassExecutor.
+     *
+     * @param operationClass The class of operations this executor processes
+     * @param nbThreads The number of threads
+     * @param queueSize The maximum number of requests waiting for a thread
+     */
+    public OperationClassExecutor( final OperationClass operationClass, int nbThreads, int queueSize )
+    {
+        this.operationClass = operationClass;
+
+        ThreadFactory threadFactory = new ThreadFactory()
+        {
+            private final AtomicInteger threadNumber = new AtomicInteger( 1 );
+
+
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable,
+                    "ldap-" + operationClass.name().toLowerCase() + "-" + threadNumber.getAndIncrement() );
+                thread.setDaemon( true );
+
+                return thread;
+            }
+        };
+
+        executor = new ThreadPoolExecutor( nbThreads, nbThreads, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>( queueSize ), threadFactory, new ThreadPoolExecutor.AbortPolicy() );
+    }
+
+
+    /**
+     * Queue a task.
+     *
+     * @param task The task to execute
+     * @throws RejectedExecutionException If the queue is full
+     */
+    public void execute( final Runnable task )
+    {
+        final long queuedAt = System.nanoTime();
+
+        try
+        {
+            executor.execute( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    recordWait( System.nanoTime() - queuedAt );
+                    task.run();
+                }
+            } );
+        }
+        catch ( RejectedExecutionException ree )
+        {
+            rejected.increment();
+
+            throw ree;
+        }
+    }
+
+
+    private void recordWait( long waitTime )
+    {
+        executed.increment();
+        totalWaitTime.add( waitTime );
+
+        long max = maxWaitTime.get();
+
+        while ( ( waitTime > max ) && !maxWaitTime.compareAndSet( max, waitTime ) )
+        {
+            max = maxWaitTime.get();
+        }
+    }
+
+
+    /**
+     * Stops the executor. The queued requests are discarded.
+     */
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+
+    /**
+     * @return The class of operations this executor processes
+     */
+    public OperationClass getOperationClass()
+    {
+        return operationClass;
+    }
+
+
+    /**
+     * @return The number of requests currently waiting for a thread
+     */
+    public int getQueueLength()
+    {
+        return executor.getQueue().size();
+    }
+
+
+    /**
+     * @return The number of requests currently being processed
+     */
+    public int getActiveCount()
+    {
+        return executor.getActiveCount();
+    }
+
+
+    /**
+     * @return The number of requests which have been executed
+     */
+    public long getExecutedCount()
+    {
+        return executed.sum();
+    }
+
+
+    /**
+     * @return The number of requests which have been rejected because the queue was full
+     */
+    public long getRejectedCount()
+    {
+        return rejected.sum();
+    }
+
+
+    /**
+     * @return The average time (in microseconds) a request waits in the queue
+     */
+    public long getAverageQueueWaitTime()
+    {
+        long count = executed.sum();
+
+        if ( count == 0 )
+        {
+            return 0L;
+        }
+
+        return TimeUnit.NANOSECONDS.toMicros( totalWaitTime.sum() / count );
+    }
+
+
+    /**
+     * @return The longest time (in microseconds) a request has waited in the queue
+     */
+    public long getMaxQueueWaitTime()
+    {
+        return TimeUnit.NANOSECONDS.toMicros( maxWaitTime.get() );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return operationClass + "[active : " + getActiveCount() + ", queued : " + getQueueLength()
+            + ", executed : " + getExecutedCount() + ", rejected : " + getRejectedCount()
+            + ", avg wait : " + getAverageQueueWaitTime() + "us, max wait : " + getMaxQueueWaitTime() + "us]";
+    }
+}
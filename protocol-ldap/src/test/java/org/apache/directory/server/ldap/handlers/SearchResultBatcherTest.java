@@ -0,0 +1,208 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.directory.api.ldap.codec.api.LdapApiService;
+import org.apache.directory.api.ldap.codec.api.LdapApiServiceFactory;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.SearchResultEntry;
+import org.apache.directory.api.ldap.model.message.SearchResultEntryImpl;
+import org.apache.directory.server.ldap.LdapSession;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.future.DefaultWriteFuture;
+import org.apache.mina.core.future.WriteFuture;
+import org.apache.mina.core.session.DummySession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Test the batching of the search results.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SearchResultBatcherTest
+{
+    private SearchResultBufferPool pool;
+
+    private BatchDummySession ioSession;
+
+    private LdapSession session;
+
+    private LdapApiService codec;
+
+
+    @Before
+    public void setUp()
+    {
+        pool = new SearchResultBufferPool( 1024, 4 );
+        ioSession = new BatchDummySession();
+        session = new LdapSession( ioSession );
+        codec = LdapApiServiceFactory.getSingleton();
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        pool.shutdown();
+    }
+
+
+    private SearchResultEntry createResponse( int messageId, String cn ) throws Exception
+    {
+        SearchResultEntry response = new SearchResultEntryImpl( messageId );
+        Entry entry = new DefaultEntry( "cn=" + cn + ",ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: " + cn,
+            "sn: " + cn );
+        response.setObjectName( entry.getDn() );
+        response.setEntry( entry );
+
+        return response;
+    }
+
+
+    @Test
+    public void testFlushOnSize() throws Exception
+    {
+        SearchResultBatcher batcher = new SearchResultBatcher( session, 1, codec, pool, 1, 60000L );
+
+        batcher.write( createResponse( 1, "first" ) );
+        batcher.write( createResponse( 1, "second" ) );
+
+        // Each PDU fills the batch
+        assertEquals( 2, ioSession.getWritten().size() );
+
+        batcher.flush();
+        assertEquals( 2, ioSession.getWritten().size() );
+    }
+
+
+    @Test
+    public void testFlushOnDelay() throws Exception
+    {
+        SearchResultBatcher batcher = new SearchResultBatcher( session, 1, codec, pool, 64 * 1024, 50L );
+
+        batcher.write( createResponse( 1, "first" ) );
+        batcher.write( createResponse( 1, "second" ) );
+        assertTrue( ioSession.getWritten().isEmpty() );
+
+        // No more result comes, the timer writes the batch
+        long deadline = System.currentTimeMillis() + 5000L;
+
+        while ( ioSession.getWritten().isEmpty() && ( System.currentTimeMillis() < deadline ) )
+        {
+            Thread.sleep( 10L );
+        }
+
+        assertEquals( 1, ioSession.getWritten().size() );
+
+        // The explicit flush has nothing left to write
+        batcher.flush();
+        assertEquals( 1, ioSession.getWritten().size() );
+    }
+
+
+    @Test
+    public void testWrittenBufferPooledWhenSent() throws Exception
+    {
+        ioSession.setCompleteWrites( false );
+        SearchResultBatcher batcher = new SearchResultBatcher( session, 1, codec, pool, 64 * 1024, 0L );
+
+        // With no delay, the batch is written as soon as the PDU is added
+        batcher.write( createResponse( 1, "first" ) );
+        assertEquals( 1, ioSession.getWritten().size() );
+
+        // The pooled buffer itself is written, not a copy
+        IoBuffer written = ( IoBuffer ) ioSession.getWritten().get( 0 );
+        int remaining = written.remaining();
+        assertEquals( 0x30, written.get( written.position() ) );
+
+        // It's not reused while the write is pending
+        IoBuffer other = pool.acquire();
+        assertNotSame( written, other );
+        assertEquals( remaining, written.remaining() );
+
+        // And it's given back once the write is done
+        ioSession.getFutures().get( 0 ).setWritten();
+        assertSame( written, pool.acquire() );
+    }
+
+
+    /**
+     * A session keeping the written messages
+     */
+    private static class BatchDummySession extends DummySession
+    {
+        private final List<Object> written = Collections.synchronizedList( new ArrayList<Object>() );
+
+        private final List<DefaultWriteFuture> futures = Collections.synchronizedList( new ArrayList<>() );
+
+        private boolean completeWrites = true;
+
+
+        private List<Object> getWritten()
+        {
+            return written;
+        }
+
+
+        private List<DefaultWriteFuture> getFutures()
+        {
+            return futures;
+        }
+
+
+        private void setCompleteWrites( boolean completeWrites )
+        {
+            this.completeWrites = completeWrites;
+        }
+
+
+        @Override
+        public WriteFuture write( Object message )
+        {
+            written.add( message );
+            DefaultWriteFuture future = new DefaultWriteFuture( this );
+            futures.add( future );
+
+            if ( completeWrites )
+            {
+                future.setWritten();
+            }
+
+            return future;
+        }
+    }
+}
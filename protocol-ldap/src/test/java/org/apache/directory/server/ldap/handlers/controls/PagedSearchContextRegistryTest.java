@@ -0,0 +1,154 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers.controls;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.server.ldap.LdapSession;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.mycila.junit.concurrent.Concurrency;
+import com.mycila.junit.concurrent.ConcurrentJunitRunner;
+
+
+/**
+ * Test the eviction of the paged search contexts.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(ConcurrentJunitRunner.class)
+@Concurrency()
+public class PagedSearchContextRegistryTest
+{
+    private PagedSearchContext createContext( LdapSession session, int messageId )
+    {
+        SearchRequestImpl req = new SearchRequestImpl();
+        req.setMessageId( messageId );
+
+        PagedSearchContext context = new PagedSearchContext( req );
+        context.setCursor( new ListCursor<Entry>() );
+        session.addPagedSearchContext( context );
+
+        return context;
+    }
+
+
+    @Test
+    public void testMaxOpenContextsPerSession() throws Exception
+    {
+        PagedSearchContextRegistry registry = new PagedSearchContextRegistry();
+        registry.setMaxOpenContextsPerSession( 2 );
+        LdapSession session = new LdapSession( null );
+        LdapSession otherSession = new LdapSession( null );
+
+        PagedSearchContext other = createContext( otherSession, 1 );
+        registry.release( otherSession, other );
+
+        PagedSearchContext first = createContext( session, 2 );
+        Cursor<Entry> firstCursor = first.getCursor();
+        registry.release( session, first );
+        PagedSearchContext second = createContext( session, 3 );
+        registry.release( session, second );
+        PagedSearchContext third = createContext( session, 4 );
+        registry.release( session, third );
+
+        // The least recently used context of the session has been evicted, but not removed
+        assertTrue( first.isEvicted() );
+        assertTrue( firstCursor.isClosed() );
+        assertNull( first.getCursor() );
+        assertSame( first, session.getPagedSearchContext( first.getCookieValue() ) );
+
+        assertFalse( other.isEvicted() );
+        assertFalse( second.isEvicted() );
+        assertFalse( third.isEvicted() );
+        assertEquals( 3, registry.getNbOpenContexts() );
+        assertEquals( 4, registry.getNbContexts() );
+
+        // A context being used is not tracked, and is open again once resumed
+        registry.remove( first );
+        first.setCursor( new ListCursor<Entry>() );
+        registry.release( session, first );
+
+        assertFalse( first.isEvicted() );
+        assertTrue( second.isEvicted() );
+        assertEquals( 3, registry.getNbOpenContexts() );
+    }
+
+
+    @Test
+    public void testMaxOpenContexts() throws Exception
+    {
+        PagedSearchContextRegistry registry = new PagedSearchContextRegistry();
+        registry.setMaxOpenContexts( 2 );
+        LdapSession session1 = new LdapSession( null );
+        LdapSession session2 = new LdapSession( null );
+
+        PagedSearchContext context1 = createContext( session1, 1 );
+        registry.release( session1, context1 );
+        PagedSearchContext context2 = createContext( session2, 1 );
+        registry.release( session2, context2 );
+
+        // Using the first context makes the second one the least recently used
+        registry.remove( context1 );
+        registry.release( session1, context1 );
+
+        PagedSearchContext context3 = createContext( session1, 2 );
+        registry.release( session1, context3 );
+
+        assertFalse( context1.isEvicted() );
+        assertTrue( context2.isEvicted() );
+        assertFalse( context3.isEvicted() );
+        assertEquals( 2, registry.getNbOpenContexts() );
+    }
+
+
+    @Test
+    public void testIdleTimeout() throws Exception
+    {
+        PagedSearchContextRegistry registry = new PagedSearchContextRegistry();
+        registry.setIdleTimeout( 1 );
+        LdapSession session = new LdapSession( null );
+
+        PagedSearchContext idle = createContext( session, 1 );
+        Cursor<Entry> idleCursor = idle.getCursor();
+        registry.release( session, idle );
+
+        Thread.sleep( 1100L );
+
+        PagedSearchContext active = createContext( session, 2 );
+        registry.release( session, active );
+
+        assertTrue( idleCursor.isClosed() );
+        assertNull( session.getPagedSearchContext( idle.getCookieValue() ) );
+        assertSame( active, session.getPagedSearchContext( active.getCookieValue() ) );
+        assertEquals( 1, registry.getNbContexts() );
+        assertEquals( 1, registry.getNbOpenContexts() );
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.scheduler;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.message.AbandonRequestImpl;
+import org.apache.directory.api.ldap.model.message.BindRequestImpl;
+import org.apache.directory.api.ldap.model.message.Message;
+import org.apache.directory.api.ldap.model.message.ModifyRequestImpl;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.ResultResponse;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.mina.core.filterchain.IoFilter.NextFilter;
+import org.apache.mina.core.future.DefaultWriteFuture;
+import org.apache.mina.core.future.WriteFuture;
+import org.apache.mina.core.session.DummySession;
+import org.junit.After;
+import org.junit.Test;
+
+
+/**
+ * Test the dispatching of the requests by the LdapRequestScheduler, and the
+ * rejection of the requests above the per session and per queue limits.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LdapRequestSchedulerTest
+{
+    private LdapRequestScheduler scheduler;
+
+    /** Released to let the blocked requests complete */
+    private final CountDownLatch release = new CountDownLatch( 1 );
+
+    /** The thread each request was processed by, per message ID */
+    private final Map<Integer, String> processedBy = new ConcurrentHashMap<>();
+
+
+    @After
+    public void tearDown()
+    {
+        release.countDown();
+
+        if ( scheduler != null )
+        {
+            scheduler.shutdown();
+        }
+    }
+
+
+    private LdapRequestScheduler createScheduler( int nbThreads, int queueSize, int maxPendingRequestsPerSession )
+    {
+        Map<OperationClass, Integer> threads = new EnumMap<>( OperationClass.class );
+        Map<OperationClass, Integer> queueSizes = new EnumMap<>( OperationClass.class );
+
+        for ( OperationClass operationClass : OperationClass.values() )
+        {
+            threads.put( operationClass, nbThreads );
+            queueSizes.put( operationClass, queueSize );
+        }
+
+        return new LdapRequestScheduler( threads, queueSizes, maxPendingRequestsPerSession );
+    }
+
+
+    /**
+     * A NextFilter recording the thread a request is processed by. When blocking,
+     * the requests wait for the release latch before completing.
+     */
+    private NextFilter createNextFilter( final boolean blocking, final CountDownLatch started )
+    {
+        InvocationHandler handler = new InvocationHandler()
+        {
+            @Override
+            public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable
+            {
+                if ( "messageReceived".equals( method.getName() ) )
+                {
+                    Message message = ( Message ) args[1];
+                    processedBy.put( message.getMessageId(), Thread.currentThread().getName() );
+
+                    if ( started != null )
+                    {
+                        started.countDown();
+                    }
+
+                    if ( blocking )
+                    {
+                        release.await( 10, TimeUnit.SECONDS );
+                    }
+                }
+
+                return null;
+            }
+        };
+
+        return ( NextFilter ) Proxy.newProxyInstance( NextFilter.class.getClassLoader(),
+            new Class<?>[]
+                { NextFilter.class }, handler );
+    }
+
+
+    private SearchRequestImpl createSearch( int messageId )
+    {
+        SearchRequestImpl searchRequest = new SearchRequestImpl();
+        searchRequest.setMessageId( messageId );
+
+        return searchRequest;
+    }
+
+
+    private void waitFor( CountDownLatch latch ) throws InterruptedException
+    {
+        assertTrue( latch.await( 10, TimeUnit.SECONDS ) );
+    }
+
+
+    @Test
+    public void testDispatch() throws Exception
+    {
+        scheduler = createScheduler( 1, 16, 0 );
+        CountDownLatch started = new CountDownLatch( 4 );
+        NextFilter nextFilter = createNextFilter( false, started );
+        SchedulerDummySession session = new SchedulerDummySession();
+
+        BindRequestImpl bindRequest = new BindRequestImpl();
+        bindRequest.setMessageId( 1 );
+        ModifyRequestImpl modifyRequest = new ModifyRequestImpl();
+        modifyRequest.setMessageId( 3 );
+
+        scheduler.messageReceived( nextFilter, session, bindRequest );
+        scheduler.messageReceived( nextFilter, session, createSearch( 2 ) );
+        scheduler.messageReceived( nextFilter, session, modifyRequest );
+
+        // The Abandon request is processed in the calling thread
+        scheduler.messageReceived( nextFilter, session, new AbandonRequestImpl( 4 ) );
+        assertEquals( Thread.currentThread().getName(), processedBy.get( 4 ) );
+
+        waitFor( started );
+
+        assertTrue( processedBy.get( 1 ).startsWith( "ldap-bind-" ) );
+        assertTrue( processedBy.get( 2 ).startsWith( "ldap-read-" ) );
+        assertTrue( processedBy.get( 3 ).startsWith( "ldap-write-" ) );
+        assertTrue( session.getWritten().isEmpty() );
+    }
+
+
+    @Test
+    public void testExpensiveSearchesDontBlockBinds() throws Exception
+    {
+        scheduler = createScheduler( 1, 16, 0 );
+        CountDownLatch searchStarted = new CountDownLatch( 1 );
+        SchedulerDummySession session = new SchedulerDummySession();
+
+        // A search holds the only READ thread
+        scheduler.messageReceived( createNextFilter( true, searchStarted ), session, createSearch( 1 ) );
+        waitFor( searchStarted );
+
+        // A bind is still processed
+        CountDownLatch bindStarted = new CountDownLatch( 1 );
+        BindRequestImpl bindRequest = new BindRequestImpl();
+        bindRequest.setMessageId( 2 );
+        scheduler.messageReceived( createNextFilter( false, bindStarted ), session, bindRequest );
+
+        waitFor( bindStarted );
+        assertTrue( processedBy.get( 2 ).startsWith( "ldap-bind-" ) );
+    }
+
+
+    @Test
+    public void testPerSessionLimit() throws Exception
+    {
+        scheduler = createScheduler( 4, 16, 2 );
+        CountDownLatch started = new CountDownLatch( 2 );
+        NextFilter blocking = createNextFilter( true, started );
+        SchedulerDummySession greedy = new SchedulerDummySession();
+
+        scheduler.messageReceived( blocking, greedy, createSearch( 1 ) );
+        scheduler.messageReceived( blocking, greedy, createSearch( 2 ) );
+        waitFor( started );
+
+        // The third request of the same session is rejected
+        scheduler.messageReceived( blocking, greedy, createSearch( 3 ) );
+        assertEquals( 1, greedy.getWritten().size() );
+        ResultResponse response = ( ResultResponse ) greedy.getWritten().get( 0 );
+        assertEquals( 3, response.getMessageId() );
+        assertEquals( ResultCodeEnum.BUSY, response.getLdapResult().getResultCode() );
+
+        // Another session is still served
+        CountDownLatch otherStarted = new CountDownLatch( 1 );
+        SchedulerDummySession other = new SchedulerDummySession();
+        scheduler.messageReceived( createNextFilter( false, otherStarted ), other, createSearch( 4 ) );
+        waitFor( otherStarted );
+        assertTrue( other.getWritten().isEmpty() );
+
+        // Once its requests are completed, the session can send new ones
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 10000L;
+
+        while ( ( scheduler.getExecutor( OperationClass.READ ).getActiveCount() > 0 )
+            && ( System.currentTimeMillis() < deadline ) )
+        {
+            Thread.sleep( 10L );
+        }
+
+        CountDownLatch againStarted = new CountDownLatch( 1 );
+        scheduler.messageReceived( createNextFilter( false, againStarted ), greedy, createSearch( 5 ) );
+        waitFor( againStarted );
+        assertEquals( 1, greedy.getWritten().size() );
+    }
+
+
+    @Test
+    public void testSaturatedQueue() throws Exception
+    {
+        scheduler = createScheduler( 1, 1, 0 );
+        CountDownLatch started = new CountDownLatch( 1 );
+        NextFilter blocking = createNextFilter( true, started );
+        SchedulerDummySession session = new SchedulerDummySession();
+
+        // One request running, one queued
+        scheduler.messageReceived( blocking, session, createSearch( 1 ) );
+        waitFor( started );
+        scheduler.messageReceived( blocking, session, createSearch( 2 ) );
+
+        // The queue is full
+        scheduler.messageReceived( blocking, session, createSearch( 3 ) );
+
+        assertEquals( 1, session.getWritten().size() );
+        ResultResponse response = ( ResultResponse ) session.getWritten().get( 0 );
+        assertEquals( 3, response.getMessageId() );
+        assertEquals( ResultCodeEnum.BUSY, response.getLdapResult().getResultCode() );
+        assertEquals( 1L, scheduler.getExecutor( OperationClass.READ ).getRejectedCount() );
+    }
+
+
+    /**
+     * A session keeping the written messages
+     */
+    private static class SchedulerDummySession extends DummySession
+    {
+        private final List<Object> written = Collections.synchronizedList( new ArrayList<Object>() );
+
+
+        private List<Object> getWritten()
+        {
+            return written;
+        }
+
+
+        @Override
+        public WriteFuture write( Object message )
+        {
+            written.add( message );
+            DefaultWriteFuture future = new DefaultWriteFuture( this );
+            future.setWritten();
+
+            return future;
+        }
+    }
+}
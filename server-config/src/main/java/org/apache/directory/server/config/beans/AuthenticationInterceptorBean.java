@@ -41,6 +41,10 @@ public class AuthenticationInterceptorBean extends InterceptorBean
     @ConfigurationElement(objectClass = "ads-passwordPolicy", container = "passwordPolicies")
     private List<PasswordPolicyBean> passwordPolicies = new ArrayList<>();
 
+    /** The delay (in ms) between two writes of the password policy bind states. 0 means they are written on each bind */
+    @ConfigurationElement(attributeType = "ads-pwdBindStateFlushInterval", isOptional = true, defaultValue = "0")
+    private long pwdBindStateFlushInterval = 0L;
+
 
     /**
      * Creates a new AuthenticationInterceptorBean instance
@@ -123,6 +127,25 @@ public class AuthenticationInterceptorBean extends InterceptorBean
     }
 
 
+    /**
+     * @return the delay (in ms) between two writes of the password policy bind states
+     */
+    public long getPwdBindStateFlushInterval()
+    {
+        return pwdBindStateFlushInterval;
+    }
+
+
+    /**
+     * @param pwdBindStateFlushInterval the delay (in ms) between two writes of the password
+     * policy bind states, 0 to write them on each bind
+     */
+    public void setPwdBindStateFlushInterval( long pwdBindStateFlushInterval )
+    {
+        this.pwdBindStateFlushInterval = pwdBindStateFlushInterval;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -133,6 +156,7 @@ public class AuthenticationInterceptorBean extends InterceptorBean
 
         sb.append( tabs ).append( "AuthenticationInterceptor :\n" );
         sb.append( super.toString( tabs + "  " ) );
+        sb.append( toString( tabs, "  password policy bind state flush interval", pwdBindStateFlushInterval ) );
 
         if ( ( authenticators != null ) && !authenticators.isEmpty() )
         {
@@ -94,6 +94,14 @@ public class LdapServerBean extends DSBasedServerBean
     @ConfigurationElement(attributeType = "ads-replPingerSleep")
     private int replPingerSleep;
 
+    /** The size (in bytes) above which a batch of search results is written. 0 disables the batching */
+    @ConfigurationElement(attributeType = "ads-searchResultBatchSize", isOptional = true, defaultValue = "32768")
+    private int searchResultBatchSize = 32768;
+
+    /** The maximum delay (in ms) a search result is kept in a batch before being written */
+    @ConfigurationElement(attributeType = "ads-searchResultBatchDelay", isOptional = true, defaultValue = "10")
+    private long searchResultBatchDelay = 10L;
+
 
     /**
      * Create a new LdapServerBean instance
@@ -389,6 +397,44 @@ public class LdapServerBean extends DSBasedServerBean
     }
 
 
+    /**
+     * @return the size (in bytes) above which a batch of search results is written, 0 if
+     * the search results are not batched
+     */
+    public int getSearchResultBatchSize()
+    {
+        return searchResultBatchSize;
+    }
+
+
+    /**
+     * @param searchResultBatchSize the size (in bytes) above which a batch of search results
+     * is written, 0 to disable the batching
+     */
+    public void setSearchResultBatchSize( int searchResultBatchSize )
+    {
+        this.searchResultBatchSize = searchResultBatchSize;
+    }
+
+
+    /**
+     * @return the maximum delay (in ms) a search result is kept in a batch
+     */
+    public long getSearchResultBatchDelay()
+    {
+        return searchResultBatchDelay;
+    }
+
+
+    /**
+     * @param searchResultBatchDelay the maximum delay (in ms) a search result is kept in a batch
+     */
+    public void setSearchResultBatchDelay( long searchResultBatchDelay )
+    {
+        this.searchResultBatchDelay = searchResultBatchDelay;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -409,6 +455,8 @@ public class LdapServerBean extends DSBasedServerBean
         sb.append( toString( tabs, "  confidentiality required", confidentialityRequired ) );
         sb.append( toString( tabs, "  enable replication provider", replReqHandler ) );
         sb.append( toString( tabs, "  Pinger thread sleep time(in sec.)", replPingerSleep ) );
+        sb.append( toString( tabs, "  search result batch size", searchResultBatchSize ) );
+        sb.append( toString( tabs, "  search result batch delay", searchResultBatchDelay ) );
 
         if ( ( extendedOpHandlers != null ) && !extendedOpHandlers.isEmpty() )
         {
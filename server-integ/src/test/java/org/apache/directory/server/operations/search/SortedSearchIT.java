@@ -419,4 +419,46 @@ public class SortedSearchIT extends AbstractLdapTestUnit
         }
     }
 
+
+    @Test
+    public void testSortWithSizeLimit() throws Exception
+    {
+        // Only the first entries are kept, but they must be the first of the whole list
+        sk.setAttributeTypeDesc( "sn" );
+        sk.setReverseOrder( true );
+        req.setSizeLimit( 3 );
+
+        SearchCursor cursor = con.search( req );
+        List<String> actualOrder = new ArrayList<String>();
+
+        while ( cursor.next() )
+        {
+            SearchResultEntry se = ( SearchResultEntry ) cursor.get();
+            actualOrder.add( se.getEntry().getDn().getName() );
+        }
+
+        cursor.close();
+
+        SearchResultDone sd = cursor.getSearchResultDone();
+
+        // the entries without "sn" come first in reverse order
+        assertEquals( 3, actualOrder.size() );
+        assertEquals( ResultCodeEnum.SIZE_LIMIT_EXCEEDED, sd.getLdapResult().getResultCode() );
+
+        req.setSizeLimit( 5 );
+        cursor = con.search( req );
+        actualOrder.clear();
+
+        while ( cursor.next() )
+        {
+            SearchResultEntry se = ( SearchResultEntry ) cursor.get();
+            actualOrder.add( se.getEntry().getDn().getName() );
+        }
+
+        cursor.close();
+
+        assertEquals( 5, actualOrder.size() );
+        assertEquals( "uid=user7,ou=parent,ou=system", actualOrder.get( 3 ) );
+        assertEquals( "uid=user6,ou=parent,ou=system", actualOrder.get( 4 ) );
+    }
 }
@@ -229,6 +229,8 @@ public final class ServiceBuilder
                     }
 
                     ( ( AuthenticationInterceptor ) interceptor ).setPwdPolicies( ppolicyContainer );
+                    ( ( AuthenticationInterceptor ) interceptor ).setBindStateFlushInterval(
+                        ( ( AuthenticationInterceptorBean ) interceptorBean ).getPwdBindStateFlushInterval() );
                 }
 
                 interceptors.add( interceptor );
@@ -1047,6 +1049,10 @@ public final class ServiceBuilder
         // MaxPDUSize
         ldapServer.setMaxPDUSize( ldapServerBean.getMaxPDUSize() );
 
+        // Search results batching
+        ldapServer.setSearchResultBatchSize( ldapServerBean.getSearchResultBatchSize() );
+        ldapServer.setSearchResultBatchDelay( ldapServerBean.getSearchResultBatchDelay() );
+
         // Sasl Host
         ldapServer.setSaslHost( ldapServerBean.getLdapServerSaslHost() );
 
@@ -74,6 +74,7 @@ import org.apache.directory.server.core.api.event.NotificationCriteria;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
+import org.apache.directory.server.core.api.schema.SchemaSnapshotLoader;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.core.partition.ldif.LdifPartition;
 import org.apache.directory.server.core.security.CertificateUtil;
@@ -98,6 +99,9 @@ public class ApacheDsService
     /** A logger for this class */
     private static final Logger LOG = LoggerFactory.getLogger( ApacheDsService.class );
 
+    /** The file containing the binary snapshot of the schema, in the partitions directory */
+    private static final String SCHEMA_SNAPSHOT_FILE = "schema.snapshot";
+
     /** The LDAP server instance */
     private LdapServer ldapServer;
 
@@ -315,7 +319,7 @@ public class ApacheDsService
             isSchemaPartitionFirstExtraction = true;
         }
 
-        SchemaLoader loader = new LdifSchemaLoader( schemaPartitionDirectory );
+        SchemaLoader loader = loadSchemaSnapshot( instanceLayout, schemaPartitionDirectory );
         schemaManager = new DefaultSchemaManager( loader.getAllSchemas() );
         
         // We have to load the schema now, otherwise we won't be able
@@ -332,6 +336,47 @@ public class ApacheDsService
     }
 
 
+    /**
+     * Gets a loader reading the schema from its binary snapshot. If the snapshot is
+     * missing or does not match the schema partition anymore, the schema LDIF
+     * files are read and a new snapshot is written.
+     *
+     * @param instanceLayout the instance layout
+     * @param schemaPartitionDirectory the schema partition directory
+     * @return the schema loader
+     * @throws Exception if the schema LDIF files cannot be read
+     */
+    private SchemaLoader loadSchemaSnapshot( InstanceLayout instanceLayout, File schemaPartitionDirectory )
+        throws Exception
+    {
+        File snapshotFile = new File( instanceLayout.getPartitionsDirectory(), SCHEMA_SNAPSHOT_FILE );
+        String checksum = SchemaSnapshotLoader.checksum( schemaPartitionDirectory );
+        SchemaSnapshotLoader snapshot = SchemaSnapshotLoader.read( snapshotFile, checksum );
+
+        if ( snapshot != null )
+        {
+            LOG.info( "Loading the schema from its snapshot {}", snapshotFile );
+
+            return snapshot;
+        }
+
+        snapshot = SchemaSnapshotLoader.copyOf( new LdifSchemaLoader( schemaPartitionDirectory ) );
+
+        try
+        {
+            snapshot.write( snapshotFile, checksum );
+            LOG.info( "Schema snapshot written in {}", snapshotFile );
+        }
+        catch ( IOException ioe )
+        {
+            // Not fatal, the LDIF files will be read again on the next start
+            LOG.warn( "Cannot write the schema snapshot {}", snapshotFile, ioe );
+        }
+
+        return snapshot;
+    }
+
+
     /**
      * Initialize the schema partition
      * 
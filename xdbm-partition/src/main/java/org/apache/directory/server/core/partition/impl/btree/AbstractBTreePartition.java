@@ -20,26 +20,52 @@
 package org.apache.directory.server.core.partition.impl.btree;
 
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequest;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResultCode;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
 import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.Value;
@@ -55,7 +81,13 @@ import org.apache.directory.api.ldap.model.exception.LdapOperationErrorException
 import org.apache.directory.api.ldap.model.exception.LdapOtherException;
 import org.apache.directory.api.ldap.model.exception.LdapSchemaViolationException;
 import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
+import org.apache.directory.api.ldap.model.ldif.LdifUtils;
 import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.apache.directory.api.ldap.model.message.controls.SortRequest;
 import org.apache.directory.api.ldap.model.name.Ava;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.Rdn;
@@ -87,16 +119,21 @@ import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.api.partition.Subordinates;
+import org.apache.directory.server.core.shared.VirtualListViewUtils;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
+import org.apache.directory.server.xdbm.IndexStatistics;
 import org.apache.directory.server.xdbm.MasterTable;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.SubtreeLabels;
 import org.apache.directory.server.xdbm.search.Optimizer;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.SearchEngine;
+import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
+import org.apache.directory.server.xdbm.search.impl.DefaultSearchEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -204,11 +241,38 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     protected static final boolean ADD_CHILD = true;
     protected static final boolean REMOVE_CHILD = false;
 
+    /** The number of entries exported or restored together */
+    private static final int BACKUP_BATCH_SIZE = 1024;
+
     /** A lock to protect the backend from concurrent reads/writes */
     private ReadWriteLock rwLock;
 
     /** a cache to hold <entryUUID, Dn> pairs, this is used for speeding up the buildEntryDn() method */
     private Cache<String, Dn> entryDnCache;
+
+    /** The nested intervals labelling of the entries, used to check the subtree scope */
+    private final SubtreeLabels subtreeLabels = new SubtreeLabels();
+
+    /** Discards the subtree labels, when a transaction which has updated them is aborted */
+    private final Runnable subtreeLabelsReset = this::resetSubtreeLabels;
+
+    /** The thread computing the subtree labels and the index statistics */
+    private ExecutorService backgroundExecutor;
+
+    /** Set while the computation of the subtree labels is pending */
+    private final AtomicBoolean subtreeLabelsScheduled = new AtomicBoolean();
+
+    /** The statistics of the indexes, per attribute OID */
+    private final Map<String, IndexStatistics> indexStatistics = new ConcurrentHashMap<>();
+
+    /** The OIDs of the indexes which statistics are being computed */
+    private final Set<String> indexStatisticsScheduled = ConcurrentHashMap.newKeySet();
+
+    /** The number of index updates after which the index statistics are saved */
+    private static final long INDEX_STATISTICS_SAVE_PERIOD = 10000L;
+
+    /** The number of index updates taken into account in the statistics */
+    private final AtomicLong indexStatisticsUpdates = new AtomicLong();
     
     /** a semaphore to serialize the writes on context entry while updating contextCSN attribute */
     private Semaphore ctxCsnSemaphore = new Semaphore( 1 );
@@ -546,6 +610,14 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         aliasCache.invalidateAll();
         piarCache.invalidateAll();
         entryDnCache.invalidateAll();
+        if ( backgroundExecutor != null )
+        {
+            backgroundExecutor.shutdownNow();
+            backgroundExecutor = null;
+        }
+
+        subtreeLabels.clear();
+        saveIndexStatistics();
 
         MultiException errors = new MultiException( I18n.err( I18n.ERR_577 ) );
 
@@ -605,6 +677,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     @Override
     public void repair() throws LdapException
     {
+        // The indexes are rebuilt : forget about their statistics, and the plans based on them
+        indexStatistics.clear();
+        clearPlanCache();
+
         // Do nothing by default
         doRepair();
     }
@@ -637,6 +713,88 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         entryDnCache = Caffeine.newBuilder().maximumSize( cacheSize ).expireAfterAccess( Duration.ofMinutes( 20 ) )
             .build();
+
+        backgroundExecutor = Executors.newSingleThreadExecutor( runnable ->
+        {
+            Thread thread = new Thread( runnable, "partition-background-" + id );
+            thread.setDaemon( true );
+
+            return thread;
+        } );
+
+        loadIndexStatistics();
+    }
+
+
+    /**
+     * Gets the file in which the index statistics are saved, when the partition is
+     * destroyed and every INDEX_STATISTICS_SAVE_PERIOD index updates. Partitions storing
+     * their data on disk override this method, the other ones compute the statistics
+     * again after a restart.
+     *
+     * @return The index statistics file, or null if they aren't saved
+     */
+    protected File getStatisticsFile()
+    {
+        return null;
+    }
+
+
+    private void loadIndexStatistics()
+    {
+        File statisticsFile = getStatisticsFile();
+
+        if ( ( statisticsFile == null ) || !statisticsFile.exists() )
+        {
+            return;
+        }
+
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream(
+            Files.newInputStream( statisticsFile.toPath() ) ) ) )
+        {
+            for ( IndexStatistics statistics : IndexStatistics.readAll( in, schemaManager ) )
+            {
+                indexStatistics.put( statistics.getAttributeOid(), statistics );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            // They will be computed again
+            LOG.warn( "Cannot read the index statistics from {} : {}", statisticsFile, ioe.getMessage() );
+        }
+    }
+
+
+    /**
+     * Writes the index statistics in a temporary file, then replaces the statistics file
+     * with it, so that a crash never leaves a truncated file.
+     */
+    private synchronized void saveIndexStatistics()
+    {
+        File statisticsFile = getStatisticsFile();
+
+        if ( ( statisticsFile == null ) || indexStatistics.isEmpty() )
+        {
+            return;
+        }
+
+        File tmpFile = new File( statisticsFile.getPath() + ".tmp" );
+
+        try
+        {
+            try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+                Files.newOutputStream( tmpFile.toPath() ) ) ) )
+            {
+                IndexStatistics.writeAll( out, indexStatistics.values() );
+            }
+
+            Files.move( tmpFile.toPath(), statisticsFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Cannot write the index statistics in {} : {}", statisticsFile, ioe.getMessage() );
+        }
     }
 
 
@@ -842,7 +1000,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 
                 String normalizedOc = objectClassNormalizer.normalize( value.getString() );
 
-                objectClassIdx.add( partitionTxn, normalizedOc, id );
+                addToIndex( partitionTxn, objectClassIdx, normalizedOc, id );
             }
 
             if ( objectClass.contains( SchemaConstants.ALIAS_OC ) )
@@ -861,7 +1019,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 throw new LdapSchemaViolationException( ResultCodeEnum.OBJECT_CLASS_VIOLATION, msg );
             }
 
-            entryCsnIdx.add( partitionTxn, entryCsn.getString(), id );
+            addToIndex( partitionTxn, entryCsnIdx, entryCsn.getString(), id );
 
             // Update the AdministrativeRole index, if needed
             if ( entry.containsAttribute( administrativeRoleAT ) )
@@ -871,11 +1029,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
                 for ( Value value : adminRoles )
                 {
-                    adminRoleIdx.add( partitionTxn, value.getString(), id );
+                    addToIndex( partitionTxn, adminRoleIdx, value.getString(), id );
                 }
 
                 // Adds only those attributes that are indexed
-                presenceIdx.add( partitionTxn, administrativeRoleAT.getOid(), id );
+                addToIndex( partitionTxn, presenceIdx, administrativeRoleAT.getOid(), id );
             }
 
             // Now work on the user defined userIndices
@@ -894,11 +1052,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     for ( Value value : attribute )
                     {
                         String normalized = value.getNormalized();
-                        userIndex.add( partitionTxn, normalized, id );
+                        addToIndex( partitionTxn, userIndex, normalized, id );
                     }
 
                     // Adds only those attributes that are indexed
-                    presenceIdx.add( partitionTxn, attributeOid, id );
+                    addToIndex( partitionTxn, presenceIdx, attributeOid, id );
                 }
             }
 
@@ -921,6 +1079,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     updateRdnIdx( partitionTxn, parentId, ADD_CHILD, 0 );
                 }
 
+                resetSubtreeLabelsOnAbort( partitionTxn );
+                subtreeLabels.add( partitionTxn, rdnIdx, parentId, id );
+
                 // Remove the EntryDN attribute
                 entry.removeAttributes( entryDnAT );
 
@@ -1096,15 +1257,17 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 
                 String normalizedOc = objectClassNormalizer.normalize( value.getString() );
 
-                objectClassIdx.drop( partitionTxn, normalizedOc, id );
+                dropFromIndex( partitionTxn, objectClassIdx, normalizedOc, id );
             }
 
             // Update the parent's nbChildren and nbDescendants values
             ParentIdAndRdn parent = rdnIdx.reverseLookup( partitionTxn, id );
             updateRdnIdx( partitionTxn, parent.getParentId(), REMOVE_CHILD, 0 );
+            resetSubtreeLabelsOnAbort( partitionTxn );
+            subtreeLabels.remove( id );
 
             // Update the rdn, oneLevel, subLevel, and entryCsn indexes
-            entryCsnIdx.drop( partitionTxn, entry.get( entryCsnAT ).getString(), id );
+            dropFromIndex( partitionTxn, entryCsnIdx, entry.get( entryCsnAT ).getString(), id );
 
             // Update the AdministrativeRole index, if needed
             if ( entry.containsAttribute( administrativeRoleAT ) )
@@ -1114,11 +1277,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
                 for ( Value value : adminRoles )
                 {
-                    adminRoleIdx.drop( partitionTxn, value.getString(), id );
+                    dropFromIndex( partitionTxn, adminRoleIdx, value.getString(), id );
                 }
 
                 // Deletes only those attributes that are indexed
-                presenceIdx.drop( partitionTxn, administrativeRoleAT.getOid(), id );
+                dropFromIndex( partitionTxn, presenceIdx, administrativeRoleAT.getOid(), id );
             }
 
             // Update the user indexes
@@ -1136,10 +1299,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     for ( Value value : attribute )
                     {
                         String normalized =  value.getNormalized();
-                        ( ( Index ) userIndex ).drop( partitionTxn, normalized, id );
+                        dropFromIndex( partitionTxn, userIndex, normalized, id );
                     }
 
-                    presenceIdx.drop( partitionTxn, attributeOid, id );
+                    dropFromIndex( partitionTxn, presenceIdx, attributeOid, id );
                 }
             }
 
@@ -1218,7 +1381,12 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             
             PartitionSearchResult searchResult = searchEngine.computeResult( partitionTxn, schemaManager, searchContext );
 
-            Cursor<Entry> result = new EntryCursorAdaptor( partitionTxn, this, searchResult );
+            Cursor<Entry> result = viewList( partitionTxn, searchContext, searchResult );
+
+            if ( result == null )
+            {
+                result = new EntryCursorAdaptor( partitionTxn, this, searchResult );
+            }
 
             return new EntryFilteringCursorImpl( result, searchContext, schemaManager );
         }
@@ -1234,6 +1402,101 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Builds the part of the sorted result requested by a Virtual List View control, using
+     * the index on the sort attribute. The response control is added to the search context,
+     * so that the entries are neither sorted nor filtered again by the session.
+     *
+     * @return The requested entries, or null if the request can't be served by an index
+     */
+    @SuppressWarnings("unchecked")
+    private Cursor<Entry> viewList( PartitionTxn partitionTxn, SearchOperationContext searchContext,
+        PartitionSearchResult searchResult ) throws LdapException, CursorException
+    {
+        VirtualListViewRequest vlvRequest = ( VirtualListViewRequest ) searchContext.getRequestControl(
+            VirtualListViewRequest.OID );
+        SortRequest sortRequest = ( SortRequest ) searchContext.getRequestControl( SortRequest.OID );
+
+        if ( ( vlvRequest == null ) || ( sortRequest == null ) || ( sortRequest.getSortKeys().size() != 1 )
+            || ( searchContext.getScope() == SearchScope.OBJECT ) )
+        {
+            return null;
+        }
+
+        SortKey sortKey = sortRequest.getSortKeys().get( 0 );
+        AttributeType attributeType = schemaManager.getAttributeType( sortKey.getAttributeTypeDesc() );
+
+        // The index is ordered by the equality matching rule, which is consistent with the
+        // ordering matching rule for the human readable syntaxes
+        if ( ( attributeType == null ) || ( attributeType.getEquality() == null )
+            || !attributeType.getSyntax().isHumanReadable() || !hasUserIndexOn( attributeType )
+            || !isIndexOrdering( attributeType, sortKey.getMatchingRuleId() ) )
+        {
+            return null;
+        }
+
+        // The candidates are checked while walking the index, they are not copied
+        Set<String> candidates = searchResult.getCandidateSet();
+        long contentCount;
+
+        if ( searchResult.isFullScan() )
+        {
+            // Every entry is a candidate, and is only checked against the filter
+            candidates = null;
+            contentCount = count( partitionTxn );
+        }
+        else if ( candidates == null )
+        {
+            // The context entry does not exist yet
+            candidates = Collections.emptySet();
+            contentCount = 0L;
+        }
+        else
+        {
+            contentCount = candidates.size();
+        }
+
+        VirtualListViewBuilder builder = new VirtualListViewBuilder( this, partitionTxn,
+            ( Index<String, String> ) getUserIndex( attributeType ), sortKey.isReverseOrder(), candidates,
+            ( int ) Math.min( Integer.MAX_VALUE, contentCount ), searchResult.getResultSet(),
+            searchResult.getEvaluator() );
+        List<Entry> entries = builder.build( vlvRequest );
+
+        searchContext.addResponseControl( VirtualListViewUtils.createResponse( vlvRequest,
+            VirtualListViewResultCode.SUCCESS, builder.getTargetPosition(), builder.getContentCount() ) );
+
+        return new ListCursor<>( entries );
+    }
+
+
+    /**
+     * Tells if the matching rule requested to sort the entries orders them as the index
+     */
+    private boolean isIndexOrdering( AttributeType attributeType, String matchingRuleId )
+    {
+        if ( matchingRuleId == null )
+        {
+            return true;
+        }
+
+        MatchingRule matchingRule;
+
+        try
+        {
+            matchingRule = schemaManager.lookupMatchingRuleRegistry( matchingRuleId );
+        }
+        catch ( LdapException le )
+        {
+            return false;
+        }
+
+        MatchingRule ordering = attributeType.getOrdering();
+
+        return matchingRule.getOid().equals( attributeType.getEquality().getOid() )
+            || ( ( ordering != null ) && matchingRule.getOid().equals( ordering.getOid() ) );
+    }
+
+
     //---------------------------------------------------------------------------------------------
     // The Lookup operation
     //---------------------------------------------------------------------------------------------
@@ -1519,7 +1782,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 
                 String normalizedOc = objectClassNormalizer.normalize( value.getString() );
 
-                objectClassIdx.add( partitionTxn, normalizedOc, id );
+                addToIndex( partitionTxn, objectClassIdx, normalizedOc, id );
             }
         }
         else if ( hasUserIndexOn( attributeType ) )
@@ -1531,19 +1794,19 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 for ( Value value : mods )
                 {
                     String normalized = value.getNormalized();
-                    ( ( Index ) userIndex ).add( partitionTxn, normalized, id );
+                    addToIndex( partitionTxn, userIndex, normalized, id );
                 }
             }
             else
             {
                 // Special case when we have null values
-                ( ( Index ) userIndex ).add( partitionTxn, null, id );
+                addToIndex( partitionTxn, userIndex, null, id );
             }
 
             // If the attr didn't exist for this id add it to presence index
             if ( !presenceIdx.forward( partitionTxn, normalizedModsOid, id ) )
             {
-                presenceIdx.add( partitionTxn, normalizedModsOid, id );
+                addToIndex( partitionTxn, presenceIdx, normalizedModsOid, id );
             }
         }
         // Special case for the AdministrativeRole index
@@ -1552,13 +1815,13 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             // We may have more than one role 
             for ( Value value : mods )
             {
-                adminRoleIdx.add( partitionTxn, value.getString(), id );
+                addToIndex( partitionTxn, adminRoleIdx, value.getString(), id );
             }
 
             // If the attr didn't exist for this id add it to presence index
             if ( !presenceIdx.forward( partitionTxn, normalizedModsOid, id ) )
             {
-                presenceIdx.add( partitionTxn, normalizedModsOid, id );
+                addToIndex( partitionTxn, presenceIdx, normalizedModsOid, id );
             }
         }
 
@@ -1630,7 +1893,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 
                 String normalizedOc = objectClassNormalizer.normalize( value.getString() );
 
-                objectClassIdx.drop( partitionTxn, normalizedOc, id );
+                dropFromIndex( partitionTxn, objectClassIdx, normalizedOc, id );
             }
 
             for ( Value value : mods )
@@ -1642,7 +1905,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 
                 String normalizedOc = objectClassNormalizer.normalize( value.getString() );
 
-                objectClassIdx.add( partitionTxn, normalizedOc, id );
+                addToIndex( partitionTxn, objectClassIdx, normalizedOc, id );
             }
         }
         else if ( hasUserIndexOn( attributeType ) )
@@ -1657,7 +1920,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 for ( Value value : oldAttribute )
                 {
                     String normalized = value.getNormalized();
-                    ( ( Index<Object, String> ) userIndex ).drop( partitionTxn, normalized, id );
+                    dropFromIndex( partitionTxn, userIndex, normalized, id );
                 }
             }
 
@@ -1665,7 +1928,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             for ( Value value : mods )
             {
                 String normalized = value.getNormalized();
-                ( ( Index ) userIndex ).add( partitionTxn, normalized, id );
+                addToIndex( partitionTxn, userIndex, normalized, id );
             }
 
             /*
@@ -1673,7 +1936,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
              */
             if ( mods.size() == 0 )
             {
-                presenceIdx.drop( partitionTxn, modsOid, id );
+                dropFromIndex( partitionTxn, presenceIdx, modsOid, id );
             }
         }
         // Special case for the AdministrativeRole index
@@ -1689,7 +1952,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 
                 String normalizedOc = objectClassNormalizer.normalize( value.getString() );
 
-                objectClassIdx.drop( partitionTxn, normalizedOc, id );
+                dropFromIndex( partitionTxn, objectClassIdx, normalizedOc, id );
             }
 
             // And add the new ones 
@@ -1702,7 +1965,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     continue;
                 }
                 
-                adminRoleIdx.add( partitionTxn, valueStr, id );
+                addToIndex( partitionTxn, adminRoleIdx, valueStr, id );
             }
         }
 
@@ -1772,7 +2035,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 
                 String normalizedOc = objectClassNormalizer.normalize( value.getString() );
 
-                objectClassIdx.drop( partitionTxn, normalizedOc, id );
+                dropFromIndex( partitionTxn, objectClassIdx, normalizedOc, id );
             }
 
             for ( Value value : mods )
@@ -1784,7 +2047,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 
                 String normalizedOc = objectClassNormalizer.normalize( value.getString() );
 
-                objectClassIdx.add( partitionTxn, normalizedOc, id );
+                addToIndex( partitionTxn, objectClassIdx, normalizedOc, id );
             }
         }
         else if ( hasUserIndexOn( attributeType ) )
@@ -1799,7 +2062,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 for ( Value value : oldAttribute )
                 {
                     String normalized = value.getNormalized();
-                    ( ( Index<Object, String> ) userIndex ).drop( partitionTxn, normalized, id );
+                    dropFromIndex( partitionTxn, userIndex, normalized, id );
                 }
             }
 
@@ -1807,7 +2070,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             for ( Value value : mods )
             {
                 String normalized = value.getNormalized();
-                ( ( Index ) userIndex ).add( partitionTxn, normalized, id );
+                addToIndex( partitionTxn, userIndex, normalized, id );
             }
 
             /*
@@ -1815,7 +2078,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
              */
             if ( mods.size() == 0 )
             {
-                presenceIdx.drop( partitionTxn, modsOid, id );
+                dropFromIndex( partitionTxn, presenceIdx, modsOid, id );
             }
         }
         // Special case for the AdministrativeRole index
@@ -1831,7 +2094,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 
                 String normalizedOc = objectClassNormalizer.normalize( value.getString() );
 
-                objectClassIdx.drop( partitionTxn, normalizedOc, id );
+                dropFromIndex( partitionTxn, objectClassIdx, normalizedOc, id );
             }
 
             // And add the new ones 
@@ -1844,7 +2107,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     continue;
                 }
                 
-                adminRoleIdx.add( partitionTxn, valueStr, id );
+                addToIndex( partitionTxn, adminRoleIdx, valueStr, id );
             }
         }
 
@@ -1936,7 +2199,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     
                     String normalizedOc = objectClassNormalizer.normalize( value.getString() );
 
-                    objectClassIdx.drop( partitionTxn, normalizedOc, id );
+                    dropFromIndex( partitionTxn, objectClassIdx, normalizedOc, id );
                 }
             }
             else
@@ -1950,7 +2213,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     
                     String normalizedOc = objectClassNormalizer.normalize( value.getString() );
 
-                    objectClassIdx.drop( partitionTxn, normalizedOc, id );
+                    dropFromIndex( partitionTxn, objectClassIdx, normalizedOc, id );
                 }
             }
         }
@@ -1973,7 +2236,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
              */
             if ( mods.size() == 0 )
             {
-                ( ( Index ) userIndex ).drop( partitionTxn, id );
+                dropAllFromIndex( partitionTxn, userIndex, id, nbValues );
                 nbValues = 0;
             }
             else if ( nbValues > 0 )
@@ -1987,7 +2250,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     }
 
                     String normalized = value.getNormalized();
-                    ( ( Index ) userIndex ).drop( partitionTxn, normalized, id );
+                    dropFromIndex( partitionTxn, userIndex, normalized, id );
                 }
             }
 
@@ -1997,7 +2260,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
              */
             if ( nbValues == 0 )
             {
-                presenceIdx.drop( partitionTxn, modsOid, id );
+                dropFromIndex( partitionTxn, presenceIdx, modsOid, id );
             }
         }
         // Special case for the AdministrativeRole index
@@ -2006,7 +2269,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             // We may have more than one role 
             for ( Value value : mods )
             {
-                adminRoleIdx.drop( partitionTxn, value.getString(), id );
+                dropFromIndex( partitionTxn, adminRoleIdx, value.getString(), id );
             }
 
             /*
@@ -2015,7 +2278,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
              */
             if ( null == adminRoleIdx.reverseLookup( partitionTxn, id ) )
             {
-                presenceIdx.drop( partitionTxn, modsOid, id );
+                dropFromIndex( partitionTxn, presenceIdx, modsOid, id );
             }
         }
 
@@ -2152,6 +2415,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         updatePiarCache( movedEntry, entryId, ADD_CACHE );
 
         updateRdnIdx( partitionTxn, newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
+        resetSubtreeLabelsOnAbort( partitionTxn );
+        subtreeLabels.move( partitionTxn, rdnIdx, newParentId, entryId, movedEntry.getNbDescendants() );
 
         /*
          * Read Alias Index Tuples
@@ -2329,6 +2594,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         updatePiarCache( movedEntry, entryId, ADD_CACHE );
 
         updateRdnIdx( partitionTxn, newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
+        resetSubtreeLabelsOnAbort( partitionTxn );
+        subtreeLabels.move( partitionTxn, rdnIdx, newParentId, entryId, movedEntry.getNbDescendants() );
 
         // Process the modified indexes now
         try
@@ -2409,7 +2676,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     case ADD :
                     case UPDATE_ADD :
                         // Add Value in the index
-                        ( ( Index ) index ).add( partitionTxn, modDnAva.getAva().getValue().getNormalized(), entryId );
+                        addToIndex( partitionTxn, index, modDnAva.getAva().getValue().getNormalized(), entryId );
 
                         /*
                          * If there is no value for id in this index due to our
@@ -2417,14 +2684,14 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                          */
                         if ( null == index.reverseLookup( partitionTxn, entryId ) )
                         {
-                            presenceIdx.add( partitionTxn, attributeType.getOid(), entryId );
+                            addToIndex( partitionTxn, presenceIdx, attributeType.getOid(), entryId );
                         }
                         
                         break;
 
                     case DELETE :
                     case UPDATE_DELETE :
-                        ( ( Index ) index ).drop( partitionTxn, modDnAva.getAva().getValue().getNormalized(), entryId );
+                        dropFromIndex( partitionTxn, index, modDnAva.getAva().getValue().getNormalized(), entryId );
 
                         /*
                          * If there is no value for id in this index due to our
@@ -2432,7 +2699,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                          */
                         if ( null == index.reverseLookup( partitionTxn, entryId ) )
                         {
-                            presenceIdx.drop( partitionTxn, attributeType.getOid(), entryId );
+                            dropFromIndex( partitionTxn, presenceIdx, attributeType.getOid(), entryId );
                         }
                         
                         break;
@@ -2537,7 +2804,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     Index<?, String> userIndex = getUserIndex( newRdnAttrType );
 
                     String normalized = oldAttributeType.getEquality().getNormalizer().normalize( oldAttribute.get().getString() );
-                    ( ( Index ) userIndex ).drop( partitionTxn, normalized, id );
+                    dropFromIndex( partitionTxn, userIndex, normalized, id );
 
                     /*
                      * If there is no value for id in this index due to our
@@ -2545,7 +2812,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                      */
                     if ( null == userIndex.reverseLookup( partitionTxn, oldId ) )
                     {
-                        presenceIdx.drop( partitionTxn, newRdnAttrType.getOid(), oldId );
+                        dropFromIndex( partitionTxn, presenceIdx, newRdnAttrType.getOid(), oldId );
                     }
                 }
             }
@@ -2564,14 +2831,14 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 Index<?, String> userIndex = getUserIndex( newRdnAttrType );
                 
                 String normalized = newRdnAttrType.getEquality().getNormalizer().normalize( ( String ) newNormValue );
-                ( ( Index ) userIndex ).add( partitionTxn, normalized, oldId );
+                addToIndex( partitionTxn, userIndex, normalized, oldId );
 
                 // Make sure the altered entry shows the existence of the new attrib
                 String normTypeOid = presenceNormalizer.normalize( newNormType );
                 
                 if ( !presenceIdx.forward( partitionTxn, normTypeOid, oldId ) )
                 {
-                    presenceIdx.add( partitionTxn, normTypeOid, oldId );
+                    addToIndex( partitionTxn, presenceIdx, normTypeOid, oldId );
                 }
             }
         }
@@ -2624,7 +2891,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                         Index<?, String> userIndex = getUserIndex( oldRdnAttrType );
                         
                         String normalized = oldRdnAttrType.getEquality().getNormalizer().normalize( oldNormValue );
-                        ( ( Index ) userIndex ).drop( partitionTxn, normalized, id );
+                        dropFromIndex( partitionTxn, userIndex, normalized, id );
 
                         /*
                          * If there is no value for id in this index due to our
@@ -2633,7 +2900,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                         if ( null == userIndex.reverseLookup( partitionTxn, oldId ) )
                         {
                             String oldNormTypeOid = presenceNormalizer.normalize( oldNormType );
-                            presenceIdx.drop( partitionTxn, oldNormTypeOid, oldId );
+                            dropFromIndex( partitionTxn, presenceIdx, oldNormTypeOid, oldId );
                         }
                     }
                 }
@@ -2758,8 +3025,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     private void updateCsnIndex( PartitionTxn partitionTxn, Entry entry, String id ) throws LdapException
     {
         String entryCsn = entry.get( SchemaConstants.ENTRY_CSN_AT ).getString();
-        entryCsnIdx.drop( partitionTxn, id );
-        entryCsnIdx.add( partitionTxn, entryCsn, id );
+        dropAllFromIndex( partitionTxn, entryCsnIdx, id, 1L );
+        addToIndex( partitionTxn, entryCsnIdx, entryCsn, id );
     }
     
     
@@ -3016,6 +3283,374 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    //------------------------------------------------------------------------
+    // Backup and restore
+    //------------------------------------------------------------------------
+    /**
+     * Exports the partition's entries as LDIF while the partition is running. The Rdn index
+     * is walked down from the context entry, so a parent is always written before its
+     * children, and the entries are converted to LDIF in parallel, by batches. The whole
+     * walk is done in a single read transaction, holding the read lock : the writers wait
+     * for the export to be done, and the saved entries are a consistent snapshot.
+     *
+     * @param out The stream to write the LDIF into. It is flushed, but not closed
+     * @return The number of exported entries
+     * @throws LdapException If the partition can't be read or the stream can't be written
+     */
+    public long backup( OutputStream out ) throws LdapException
+    {
+        Writer writer = new OutputStreamWriter( out, StandardCharsets.UTF_8 );
+        long nbEntries;
+
+        if ( rwLock == null )
+        {
+            // Create a ReadWrite lock from scratch
+            rwLock = new ReentrantReadWriteLock();
+        }
+
+        lockRead();
+
+        try ( PartitionTxn partitionTxn = beginReadTransaction() )
+        {
+            BackupWriter backupWriter = new BackupWriter( partitionTxn, writer );
+            String suffixId = getEntryId( partitionTxn, suffixDn );
+
+            if ( suffixId != null )
+            {
+                backupWriter.add( suffixId, suffixDn );
+                backupChildren( partitionTxn, suffixId, suffixDn, backupWriter );
+            }
+
+            backupWriter.flush();
+            writer.flush();
+            nbEntries = backupWriter.nbEntries;
+        }
+        catch ( LdapException le )
+        {
+            throw le;
+        }
+        catch ( Exception e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+        finally
+        {
+            unlockRead();
+        }
+
+        LOG.info( "Saved {} entries from the partition {}", nbEntries, id );
+
+        return nbEntries;
+    }
+
+
+    /**
+     * Walks down the children of an entry, depth first.
+     */
+    private void backupChildren( PartitionTxn partitionTxn, String parentId, Dn parentDn, BackupWriter backupWriter )
+        throws Exception
+    {
+        IndexEntry<ParentIdAndRdn, String> startingPos = new IndexEntry<>();
+        startingPos.setKey( new ParentIdAndRdn( parentId, ( Rdn[] ) null ) );
+
+        try ( Cursor<IndexEntry<ParentIdAndRdn, String>> cursor = rdnIdx.forwardCursor( partitionTxn ) )
+        {
+            cursor.before( startingPos );
+
+            while ( cursor.next() )
+            {
+                IndexEntry<ParentIdAndRdn, String> element = cursor.get();
+                ParentIdAndRdn key = element.getKey();
+
+                if ( !parentId.equals( key.getParentId() ) )
+                {
+                    // We are done with the children of this parent
+                    break;
+                }
+
+                String childId = element.getId();
+                Dn childDn = parentDn.add( key.getRdns()[0] );
+
+                backupWriter.add( childId, childDn );
+
+                if ( key.getNbChildren() > 0 )
+                {
+                    backupChildren( partitionTxn, childId, childDn, backupWriter );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Writes the entries met while walking the partition, a batch at a time.
+     */
+    private class BackupWriter
+    {
+        /** The transaction to use */
+        private final PartitionTxn partitionTxn;
+
+        /** Where to write the LDIF */
+        private final Writer writer;
+
+        /** The IDs of the entries to write */
+        private final List<String> ids = new ArrayList<>( BACKUP_BATCH_SIZE );
+
+        /** The DNs of the entries to write */
+        private final List<Dn> dns = new ArrayList<>( BACKUP_BATCH_SIZE );
+
+        /** The number of written entries */
+        private long nbEntries;
+
+
+        BackupWriter( PartitionTxn partitionTxn, Writer writer )
+        {
+            this.partitionTxn = partitionTxn;
+            this.writer = writer;
+        }
+
+
+        void add( String entryId, Dn dn ) throws LdapException, IOException
+        {
+            ids.add( entryId );
+            dns.add( dn );
+
+            if ( ids.size() >= BACKUP_BATCH_SIZE )
+            {
+                flush();
+            }
+        }
+
+
+        void flush() throws LdapException, IOException
+        {
+            AtomicReference<LdapException> failure = new AtomicReference<>();
+
+            List<String> ldifs = IntStream.range( 0, ids.size() ).parallel()
+                .mapToObj( i -> toLdif( ids.get( i ), dns.get( i ), failure ) )
+                .collect( Collectors.toList() );
+
+            if ( failure.get() != null )
+            {
+                throw failure.get();
+            }
+
+            for ( String ldif : ldifs )
+            {
+                // A null LDIF is an entry deleted since the index has been read
+                if ( ldif != null )
+                {
+                    writer.write( ldif );
+                    writer.write( '\n' );
+                    nbEntries++;
+                }
+            }
+
+            ids.clear();
+            dns.clear();
+        }
+
+
+        private String toLdif( String entryId, Dn dn, AtomicReference<LdapException> failure )
+        {
+            try
+            {
+                // The read lock is held by the thread walking the partition
+                Entry entry = master.get( partitionTxn, entryId );
+
+                if ( entry == null )
+                {
+                    return null;
+                }
+
+                entry.setDn( dn );
+
+                if ( entry.containsAttribute( entryDnAT ) )
+                {
+                    entry = entry.clone();
+                    entry.removeAttributes( entryDnAT );
+                }
+
+                return LdifUtils.convertToLdif( entry );
+            }
+            catch ( LdapException le )
+            {
+                failure.compareAndSet( null, le );
+            }
+
+            return null;
+        }
+    }
+
+
+    /**
+     * Loads the entries saved by {@link #backup(OutputStream)} into an empty partition. The
+     * entries keep their entryUUID and entryCSN, and are added in batches, one write
+     * transaction per batch. The aliases are added last, once their targets exist. If an
+     * entry can't be added, the entries already restored are deleted : the partition is
+     * left empty, and the restore can be run again.
+     *
+     * @param in The stream to read the LDIF from. It is closed when done
+     * @return The number of restored entries
+     * @throws LdapException If the partition is not empty, or if an entry can't be added
+     */
+    public long restore( InputStream in ) throws LdapException
+    {
+        try ( PartitionTxn readTxn = beginReadTransaction() )
+        {
+            long count = count( readTxn );
+
+            if ( count > 0L )
+            {
+                // Mixing the restored entries with the existing ones would corrupt both
+                throw new LdapUnwillingToPerformException( ResultCodeEnum.UNWILLING_TO_PERFORM,
+                    "Cannot restore the partition " + id + ", it already contains " + count + " entries" );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        long nbEntries = 0L;
+        List<Entry> aliases = new ArrayList<>();
+        List<String> restoredIds = new ArrayList<>();
+        PartitionTxn partitionTxn = beginWriteTransaction();
+
+        try ( LdifReader reader = new LdifReader( new InputStreamReader( in, StandardCharsets.UTF_8 ) ) )
+        {
+            for ( LdifEntry ldifEntry : reader )
+            {
+                Entry entry = new DefaultEntry( schemaManager, ldifEntry.getEntry() );
+
+                if ( entry.hasObjectClass( SchemaConstants.ALIAS_OC ) )
+                {
+                    aliases.add( entry );
+                    continue;
+                }
+
+                partitionTxn = restoreEntry( partitionTxn, entry, ++nbEntries, restoredIds );
+            }
+
+            for ( Entry alias : aliases )
+            {
+                partitionTxn = restoreEntry( partitionTxn, alias, ++nbEntries, restoredIds );
+            }
+
+            partitionTxn.commit();
+        }
+        catch ( LdapException le )
+        {
+            abort( partitionTxn );
+            removeRestored( restoredIds, le );
+
+            throw le;
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            LdapException le = new LdapOtherException( e.getMessage(), e );
+            abort( partitionTxn );
+            removeRestored( restoredIds, le );
+
+            throw le;
+        }
+
+        LOG.info( "Restored {} entries in the partition {}", nbEntries, id );
+
+        return nbEntries;
+    }
+
+
+    /**
+     * Adds a restored entry, and starts a new transaction at the end of a batch
+     *
+     * @return The transaction to use for the next entry
+     */
+    private PartitionTxn restoreEntry( PartitionTxn partitionTxn, Entry entry, long nbEntries,
+        List<String> restoredIds ) throws LdapException, IOException
+    {
+        AddOperationContext addContext = new AddOperationContext( null, entry );
+        addContext.setPartition( this );
+        addContext.setTransaction( partitionTxn );
+
+        add( addContext );
+        restoredIds.add( entry.get( SchemaConstants.ENTRY_UUID_AT ).getString() );
+
+        if ( nbEntries % BACKUP_BATCH_SIZE == 0 )
+        {
+            partitionTxn.commit();
+
+            return beginWriteTransaction();
+        }
+
+        return partitionTxn;
+    }
+
+
+    private void abort( PartitionTxn partitionTxn ) throws LdapException
+    {
+        try
+        {
+            partitionTxn.abort();
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Deletes the entries added by a failed restore, the children before their parents,
+     * one write transaction per batch. The entries of the aborted batch may already be
+     * gone.
+     *
+     * @param restoredIds The IDs of the added entries, in the order they have been added
+     * @param failure The restore failure, to which the cleanup errors are attached
+     */
+    private void removeRestored( List<String> restoredIds, LdapException failure )
+    {
+        PartitionTxn partitionTxn = beginWriteTransaction();
+
+        try
+        {
+            for ( int i = restoredIds.size() - 1; i >= 0; i-- )
+            {
+                String restoredId = restoredIds.get( i );
+
+                // The entry may have been rolled back with the aborted batch
+                if ( master.get( partitionTxn, restoredId ) != null )
+                {
+                    delete( partitionTxn, restoredId );
+                }
+
+                if ( ( restoredIds.size() - i ) % BACKUP_BATCH_SIZE == 0 )
+                {
+                    partitionTxn.commit();
+                    partitionTxn = beginWriteTransaction();
+                }
+            }
+
+            partitionTxn.commit();
+            LOG.info( "Removed the entries restored in the partition {} before the failure", id );
+        }
+        catch ( LdapException | IOException e )
+        {
+            LOG.error( "Cannot remove the entries restored in the partition {}", id, e );
+            failure.addSuppressed( e );
+
+            try
+            {
+                partitionTxn.abort();
+            }
+            catch ( IOException ioe )
+            {
+                failure.addSuppressed( ioe );
+            }
+        }
+    }
+
+
     //------------------------------------------------------------------------
     // Index handling
     //------------------------------------------------------------------------
@@ -3058,6 +3693,26 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 userIndices.put( oid, index );
             }
         }
+
+        // The plans and the evaluators built without this index may not be the best ones anymore
+        clearPlanCache();
+    }
+
+
+    /**
+     * Forgets the search plans chosen by the optimizer, and the evaluators built for the
+     * previous searches.
+     */
+    private void clearPlanCache()
+    {
+        if ( searchEngine instanceof DefaultSearchEngine )
+        {
+            ( ( DefaultSearchEngine ) searchEngine ).clearCache();
+        }
+        else if ( optimizer instanceof DefaultOptimizer )
+        {
+            ( ( DefaultOptimizer ) optimizer ).clearPlanCache();
+        }
     }
 
 
@@ -3765,6 +4420,304 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         return aliasCache;
     }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SubtreeLabels getSubtreeLabels( PartitionTxn partitionTxn ) throws LdapException
+    {
+        if ( !subtreeLabels.isBuilt() )
+        {
+            scheduleSubtreeLabels();
+        }
+
+        return subtreeLabels;
+    }
+
+
+    /**
+     * Computes the subtree labels if they are not already computed, and waits for
+     * them. The Rdn index is read under the read lock.
+     *
+     * @return The subtree labels
+     * @throws LdapException If the labels can't be computed
+     */
+    public SubtreeLabels buildSubtreeLabels() throws LdapException
+    {
+        ReadWriteLock lock = rwLock;
+
+        if ( lock != null )
+        {
+            lock.readLock().lock();
+        }
+
+        try ( PartitionTxn partitionTxn = beginReadTransaction() )
+        {
+            subtreeLabels.build( partitionTxn, rdnIdx );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+        finally
+        {
+            if ( lock != null )
+            {
+                lock.readLock().unlock();
+            }
+        }
+
+        return subtreeLabels;
+    }
+
+
+    /**
+     * Asks the background thread to compute the subtree labels, unless it's
+     * already pending. The searches use the Rdn index meanwhile.
+     */
+    private void scheduleSubtreeLabels()
+    {
+        ExecutorService executor = backgroundExecutor;
+
+        if ( ( executor == null ) || !subtreeLabelsScheduled.compareAndSet( false, true ) )
+        {
+            return;
+        }
+
+        try
+        {
+            executor.execute( () ->
+            {
+                try
+                {
+                    buildSubtreeLabels();
+                }
+                catch ( Exception e )
+                {
+                    LOG.warn( "Cannot compute the subtree labels of the partition {}", id, e );
+                }
+                finally
+                {
+                    subtreeLabelsScheduled.set( false );
+                }
+            } );
+        }
+        catch ( RejectedExecutionException ree )
+        {
+            // The partition is being destroyed
+            subtreeLabelsScheduled.set( false );
+        }
+    }
+
+
+    /**
+     * Discards the subtree labels, and computes them again in the background.
+     */
+    private void resetSubtreeLabels()
+    {
+        subtreeLabels.clear();
+        scheduleSubtreeLabels();
+    }
+
+
+    /**
+     * The subtree labels are updated along with the Rdn index, before the
+     * transaction is committed : they must be discarded if it's aborted. A
+     * transaction which can't tell us it has been aborted is not trusted.
+     */
+    private void resetSubtreeLabelsOnAbort( PartitionTxn partitionTxn )
+    {
+        if ( partitionTxn instanceof PartitionWriteTxn )
+        {
+            ( ( PartitionWriteTxn ) partitionTxn ).addAbortAction( subtreeLabelsReset );
+        }
+        else
+        {
+            subtreeLabels.clear();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <br>
+     * The statistics are never computed here : they are computed in the background the
+     * first time they are requested, and then when they are stale. Meanwhile, the
+     * searches use the current statistics, which are updated along with the index. If
+     * they have never been computed, statistics only giving the size of the index are
+     * returned.
+     */
+    @Override
+    public IndexStatistics getIndexStatistics( PartitionTxn partitionTxn, Index<?, String> index ) throws LdapException
+    {
+        IndexStatistics statistics = indexStatistics.get( index.getAttribute().getOid() );
+
+        if ( statistics == null )
+        {
+            scheduleIndexStatistics( index );
+
+            return IndexStatistics.unknown( index.getAttribute(), index.count( partitionTxn ) );
+        }
+
+        if ( statistics.isStale() )
+        {
+            scheduleIndexStatistics( index );
+        }
+
+        return statistics;
+    }
+
+
+    /**
+     * Computes the statistics of an index and waits for them. The index is read under
+     * the read lock.
+     *
+     * @param index The index
+     * @return The index statistics
+     * @throws LdapException If the index can't be read
+     */
+    public IndexStatistics buildIndexStatistics( Index<?, String> index ) throws LdapException
+    {
+        ReadWriteLock lock = rwLock;
+
+        if ( lock != null )
+        {
+            lock.readLock().lock();
+        }
+
+        try ( PartitionTxn partitionTxn = beginReadTransaction() )
+        {
+            IndexStatistics statistics = IndexStatistics.build( partitionTxn, index );
+            indexStatistics.put( index.getAttribute().getOid(), statistics );
+            LOG.debug( "Computed the statistics of the {} index : {}", index.getAttributeId(), statistics );
+
+            return statistics;
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+        finally
+        {
+            if ( lock != null )
+            {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+
+    /**
+     * Asks the background thread to compute the statistics of an index, unless it's
+     * already pending. They are saved once computed.
+     */
+    private void scheduleIndexStatistics( Index<?, String> index )
+    {
+        ExecutorService executor = backgroundExecutor;
+        String oid = index.getAttribute().getOid();
+
+        if ( ( executor == null ) || !indexStatisticsScheduled.add( oid ) )
+        {
+            return;
+        }
+
+        try
+        {
+            executor.execute( () ->
+            {
+                try
+                {
+                    buildIndexStatistics( index );
+                    saveIndexStatistics();
+                }
+                catch ( Exception e )
+                {
+                    LOG.warn( "Cannot compute the statistics of the {} index of the partition {}",
+                        index.getAttributeId(), id, e );
+                }
+                finally
+                {
+                    indexStatisticsScheduled.remove( oid );
+                }
+            } );
+        }
+        catch ( RejectedExecutionException ree )
+        {
+            // The partition is being destroyed
+            indexStatisticsScheduled.remove( oid );
+        }
+    }
+
+
+    /**
+     * Takes into account some tuples added to or removed from an index in its statistics,
+     * if they have been computed. The statistics are saved in the background every
+     * INDEX_STATISTICS_SAVE_PERIOD updates.
+     */
+    private void updateIndexStatistics( Index<?, String> index, Object key, long delta )
+    {
+        IndexStatistics statistics = indexStatistics.get( index.getAttribute().getOid() );
+
+        if ( statistics == null )
+        {
+            return;
+        }
+
+        statistics.update( key, delta );
+
+        if ( ( indexStatisticsUpdates.incrementAndGet() % INDEX_STATISTICS_SAVE_PERIOD ) == 0L )
+        {
+            ExecutorService executor = backgroundExecutor;
+
+            if ( executor != null )
+            {
+                try
+                {
+                    executor.execute( this::saveIndexStatistics );
+                }
+                catch ( RejectedExecutionException ree )
+                {
+                    // The partition is being destroyed, it saves the statistics
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Adds a tuple to an index, and to its statistics.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void addToIndex( PartitionTxn partitionTxn, Index index, Object key, String id ) throws LdapException
+    {
+        index.add( partitionTxn, key, id );
+        updateIndexStatistics( index, key, 1L );
+    }
+
+
+    /**
+     * Removes a tuple from an index, and from its statistics.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void dropFromIndex( PartitionTxn partitionTxn, Index index, Object key, String id ) throws LdapException
+    {
+        index.drop( partitionTxn, key, id );
+        updateIndexStatistics( index, key, -1L );
+    }
+
+
+    /**
+     * Removes all the tuples of an entry from an index, and from its statistics.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void dropAllFromIndex( PartitionTxn partitionTxn, Index index, String id, long nbDropped )
+        throws LdapException
+    {
+        index.drop( partitionTxn, id );
+        updateIndexStatistics( index, null, -nbDropped );
+    }
     
     
     /**
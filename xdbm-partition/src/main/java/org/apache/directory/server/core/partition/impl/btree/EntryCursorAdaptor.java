@@ -29,6 +29,7 @@ import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.xdbm.IndexEntry;
@@ -39,7 +40,9 @@ import org.slf4j.LoggerFactory;
 
 
 /**
- * Adapts index cursors to return just Entry objects.
+ * Adapts index cursors to return just Entry objects. The candidates are ordered by
+ * UUID, so the cursor can be positioned before or after a given entry : a paged
+ * search which cursor has been closed is resumed this way.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -54,7 +57,18 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
     /** The transaction in use */
     private PartitionTxn partitionTxn;
 
-    private final Cursor<IndexEntry<String, String>> indexCursor;
+    /** The partition */
+    private final AbstractBTreePartition db;
+
+    /** The search result, giving the candidates */
+    private final PartitionSearchResult searchResult;
+
+    /** The cursor on the candidates */
+    private Cursor<IndexEntry<String, String>> indexCursor;
+
+    /** The closure monitor, set again on the candidates cursor when it's positioned */
+    private ClosureMonitor monitor;
+
     private final Evaluator<? extends ExprNode> evaluator;
 
 
@@ -68,15 +82,20 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
         indexCursor = searchResult.getResultSet();
         evaluator = searchResult.getEvaluator();
         this.partitionTxn = partitionTxn;
+        this.db = db;
+        this.searchResult = searchResult;
     }
 
 
     /**
-     * {@inheritDoc}
+     * Positions the cursor right after an entry, which doesn't have to be a candidate.
+     *
+     * @param element The entry, only its Dn is used
+     * @throws LdapNoSuchObjectException If the entry does not exist anymore
      */
     public void after( Entry element ) throws LdapException, CursorException
     {
-        throw new UnsupportedOperationException();
+        seek( element, true );
     }
 
 
@@ -99,11 +118,40 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
 
 
     /**
-     * {@inheritDoc}
+     * Positions the cursor right before an entry, which doesn't have to be a candidate.
+     *
+     * @param element The entry, only its Dn is used
+     * @throws LdapNoSuchObjectException If the entry does not exist anymore
      */
     public void before( Entry element ) throws LdapException, CursorException
     {
-        throw new UnsupportedOperationException();
+        seek( element, false );
+    }
+
+
+    /**
+     * Replaces the candidates cursor with a cursor starting at the entry position,
+     * found from the UUID of the entry.
+     */
+    private void seek( Entry element, boolean after ) throws LdapException
+    {
+        String id = db.getEntryId( partitionTxn, element.getDn() );
+
+        if ( id == null )
+        {
+            throw new LdapNoSuchObjectException( "The entry " + element.getDn() + " does not exist" );
+        }
+
+        Cursor<IndexEntry<String, String>> cursor = searchResult.getResultSet( id, after );
+
+        // The candidates are held in memory : the previous cursor is not closed, as it
+        // would close the monitor we share with the new one
+        if ( monitor != null )
+        {
+            cursor.setClosureMonitor( monitor );
+        }
+
+        indexCursor = cursor;
     }
 
 
@@ -122,6 +170,7 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
     @Override
     public final void setClosureMonitor( ClosureMonitor monitor )
     {
+        this.monitor = monitor;
         indexCursor.setClosureMonitor( monitor );
     }
 
@@ -0,0 +1,480 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequest;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.LdapComparator;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.shared.VirtualListViewUtils;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.IndexStatistics;
+import org.apache.directory.server.xdbm.search.Evaluator;
+
+
+/**
+ * Builds the part of a sorted search result requested by a Virtual List View control,
+ * walking the user index of the sort attribute instead of sorting all the candidates.
+ * The index is sought directly to the assertion value, or to the histogram bucket of
+ * the index statistics holding the requested offset, and only the entries around this
+ * position are read, fetched and evaluated. The candidates selected by the search are
+ * not copied : the index entries are checked against the candidate set computed by the
+ * search engine.
+ * <br>
+ * The index holds one entry per value, and the entries which don't have the sort
+ * attribute are not indexed. A candidate is listed at its least value only, and the
+ * candidates without value are listed after the others (or before them, in reverse
+ * order). The positions are computed from the number of index entries and from the
+ * index statistics, so the target position and the content count returned to the
+ * client are estimates, as allowed by the Virtual List View specification.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class VirtualListViewBuilder
+{
+    /** The partition */
+    private final AbstractBTreePartition partition;
+
+    /** The transaction to use */
+    private final PartitionTxn partitionTxn;
+
+    /** The index on the sort attribute */
+    private final Index<String, String> index;
+
+    /** The sort attribute */
+    private final AttributeType attributeType;
+
+    /** The comparator used to order the index */
+    private final LdapComparator<Object> comparator;
+
+    /** Tells if the entries are sorted in reverse order */
+    private final boolean reverse;
+
+    /** The candidates selected by the search, or null if all the entries are candidates */
+    private final Set<String> candidates;
+
+    /** The number of candidates */
+    private final int contentCount;
+
+    /** The cursor on the candidates, read to find those without sort value */
+    private final Cursor<IndexEntry<String, String>> resultSet;
+
+    /** The evaluator checking the candidates against the filter and the scope */
+    private final Evaluator<? extends ExprNode> evaluator;
+
+    /** The statistics of the index, giving the position of the keys */
+    private IndexStatistics statistics;
+
+    /** The target position of the request, once computed */
+    private int targetPosition;
+
+
+    /**
+     * Creates a new instance of VirtualListViewBuilder.
+     *
+     * @param partition The partition
+     * @param partitionTxn The transaction to use
+     * @param index The index on the sort attribute
+     * @param reverse Tells if the entries are sorted in reverse order
+     * @param candidates The candidates selected by the search, or null if all the entries are candidates
+     * @param contentCount The number of candidates
+     * @param resultSet The cursor on the candidates
+     * @param evaluator The evaluator checking the candidates
+     */
+    @SuppressWarnings("unchecked")
+    VirtualListViewBuilder( AbstractBTreePartition partition, PartitionTxn partitionTxn, Index<String, String> index,
+        boolean reverse, Set<String> candidates, int contentCount, Cursor<IndexEntry<String, String>> resultSet,
+        Evaluator<? extends ExprNode> evaluator )
+    {
+        this.partition = partition;
+        this.partitionTxn = partitionTxn;
+        this.index = index;
+        this.attributeType = index.getAttribute();
+        this.comparator = ( LdapComparator<Object> ) attributeType.getEquality().getLdapComparator();
+        this.reverse = reverse;
+        this.candidates = candidates;
+        this.contentCount = contentCount;
+        this.resultSet = resultSet;
+        this.evaluator = evaluator;
+    }
+
+
+    /**
+     * @return The number of entries in the list. This is the number of candidates,
+     * some of them may not match the filter.
+     */
+    int getContentCount()
+    {
+        return contentCount;
+    }
+
+
+    /**
+     * @return The position of the target entry
+     */
+    int getTargetPosition()
+    {
+        return targetPosition;
+    }
+
+
+    /**
+     * Builds the requested entries.
+     *
+     * @param request The Virtual List View request
+     * @return The requested entries, in sort order
+     * @throws LdapException If the index can't be read
+     */
+    List<Entry> build( VirtualListViewRequest request ) throws LdapException
+    {
+        int contentCount = getContentCount();
+        List<Entry> entries = new ArrayList<>();
+
+        if ( contentCount == 0 )
+        {
+            return entries;
+        }
+
+        long indexCount = index.count( partitionTxn );
+        statistics = partition.getIndexStatistics( partitionTxn, index );
+        String assertion = null;
+        long skip = 0L;
+
+        if ( request.hasAssertionValue() )
+        {
+            Value value = new Value( attributeType, Strings.utf8ToString( request.getAssertionValue() ) );
+            assertion = value.getNormalized();
+        }
+        else
+        {
+            targetPosition = VirtualListViewUtils.getTargetPosition( request, contentCount );
+            // Rounded to the nearest index entry
+            skip = ( 2L * ( targetPosition - 1L ) * indexCount + contentCount ) / ( 2L * contentCount );
+        }
+
+        try ( Cursor<IndexEntry<String, String>> cursor = index.forwardCursor( partitionTxn ) )
+        {
+            // The entries before the target, read backward. When we have skipped some
+            // index entries, the cursor is on the entry just before the target
+            boolean onEntry = position( cursor, assertion, skip );
+            long moved = collect( cursor, false, onEntry, request.getBeforeCount(), entries );
+            Collections.reverse( entries );
+
+            if ( assertion != null )
+            {
+                // Estimate the number of index entries before the target from the statistics,
+                // and seek the assertion value again
+                long before = statistics.estimatePosition( assertion );
+
+                if ( reverse )
+                {
+                    before = statistics.getCount() - before - index.count( partitionTxn, assertion );
+                }
+
+                targetPosition = ( int ) Math.min( contentCount,
+                    Math.max( 0L, before ) * contentCount / Math.max( 1L, statistics.getCount() ) + 1L );
+                position( cursor, assertion, 0L );
+            }
+            else
+            {
+                // Come back to the entry preceding the target
+                for ( long i = 0L; i < moved; i++ )
+                {
+                    move( cursor, true );
+                }
+            }
+
+            // Then the target and the entries after it
+            collect( cursor, true, false, request.getAfterCount() + 1, entries );
+        }
+        catch ( IOException | CursorException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        return entries;
+    }
+
+
+    /**
+     * Position the cursor just before the target, in sort order. When some index entries
+     * have to be skipped, the index is sought to the end of the closest histogram bucket,
+     * and only the remaining entries are read.
+     *
+     * @return true if the cursor is on the index entry preceding the target
+     */
+    private boolean position( Cursor<IndexEntry<String, String>> cursor, String assertion, long skip )
+        throws LdapException, CursorException
+    {
+        if ( assertion != null )
+        {
+            IndexEntry<String, String> seek = new IndexEntry<>();
+            seek.setKey( assertion );
+
+            if ( reverse )
+            {
+                cursor.after( seek );
+            }
+            else
+            {
+                cursor.before( seek );
+            }
+
+            return false;
+        }
+
+        // The boundary between the entries before the target and the others, in key order
+        long boundary = reverse ? Math.max( 0L, statistics.getCount() - skip ) : skip;
+        int bucket = statistics.findBucketEnd( boundary, reverse );
+        long distance;
+
+        if ( ( skip == 0L ) || ( bucket < 0 ) || ( bucket >= statistics.getBucketCount() ) )
+        {
+            if ( reverse )
+            {
+                cursor.afterLast();
+            }
+            else
+            {
+                cursor.beforeFirst();
+            }
+
+            distance = skip;
+        }
+        else
+        {
+            IndexEntry<String, String> seek = new IndexEntry<>();
+            seek.setKey( statistics.getBound( bucket ) );
+            cursor.after( seek );
+            distance = Math.abs( boundary - statistics.getEndPosition( bucket ) );
+
+            if ( distance == 0L )
+            {
+                // The cursor is between two entries, put it on the one preceding the target
+                return move( cursor, false );
+            }
+        }
+
+        for ( long i = 0L; i < distance; i++ )
+        {
+            // Skip the index entries before the target
+            if ( !move( cursor, true ) )
+            {
+                return false;
+            }
+        }
+
+        return distance > 0L;
+    }
+
+
+    /**
+     * Move the cursor in sort order, or backward
+     */
+    private boolean move( Cursor<IndexEntry<String, String>> cursor, boolean forward )
+        throws LdapException, CursorException
+    {
+        if ( forward != reverse )
+        {
+            return cursor.next();
+        }
+        else
+        {
+            return cursor.previous();
+        }
+    }
+
+
+    /**
+     * Read the matching entries from the current position, in the given direction, until
+     * we have the expected number of entries. The candidates which don't have the sort
+     * attribute are read once the index is exhausted on their side of the list.
+     *
+     * @param includeCurrent Tells if the entry the cursor is on has to be read first
+     * @return The number of moves, needed to come back to the starting position
+     */
+    private long collect( Cursor<IndexEntry<String, String>> cursor, boolean forward, boolean includeCurrent,
+        int expected, List<Entry> entries ) throws LdapException, CursorException
+    {
+        int found = 0;
+        long moved = 0L;
+        boolean current = includeCurrent;
+        boolean onEntry = includeCurrent;
+
+        while ( found < expected )
+        {
+            if ( current )
+            {
+                current = false;
+            }
+            else if ( move( cursor, forward ) )
+            {
+                moved++;
+                onEntry = true;
+            }
+            else
+            {
+                // Leaving the last entry puts the cursor out of the index, which is a move too
+                if ( onEntry )
+                {
+                    moved++;
+                }
+
+                break;
+            }
+
+            IndexEntry<String, String> indexEntry = cursor.get();
+            Entry entry = match( indexEntry.getId(), indexEntry.getKey() );
+
+            if ( entry != null )
+            {
+                entries.add( entry );
+                found++;
+            }
+        }
+
+        // The entries without value are at the end of the list, or at its beginning
+        // in reverse order
+        if ( ( found < expected ) && ( forward != reverse ) )
+        {
+            List<Entry> unindexed = new ArrayList<>();
+
+            // Only the candidates without value are kept, ordered by ID
+            for ( String id : getUnindexed() )
+            {
+                Entry entry = match( id, null );
+
+                if ( entry != null )
+                {
+                    unindexed.add( entry );
+                }
+            }
+
+            if ( !forward )
+            {
+                Collections.reverse( unindexed );
+            }
+
+            for ( int i = 0; ( found < expected ) && ( i < unindexed.size() ); i++ )
+            {
+                entries.add( unindexed.get( i ) );
+                found++;
+            }
+        }
+
+        return moved;
+    }
+
+
+    /**
+     * Read the candidates and gather those which don't have the sort attribute
+     */
+    private Set<String> getUnindexed() throws LdapException, CursorException
+    {
+        Set<String> unindexed = new TreeSet<>();
+
+        resultSet.beforeFirst();
+
+        while ( resultSet.next() )
+        {
+            String id = resultSet.get().getId();
+
+            if ( !index.reverse( partitionTxn, id ) )
+            {
+                unindexed.add( id );
+            }
+        }
+
+        return unindexed;
+    }
+
+
+    /**
+     * Fetch a candidate and check it against the filter and the scope. A candidate with
+     * many values is only listed at its least value.
+     *
+     * @return The entry if it matches, null otherwise
+     */
+    private Entry match( String id, String key ) throws LdapException
+    {
+        if ( ( candidates != null ) && !candidates.contains( id ) )
+        {
+            return null;
+        }
+
+        IndexEntry<String, String> indexEntry = new IndexEntry<>();
+        indexEntry.setId( id );
+        indexEntry.setEntry( partition.fetch( partitionTxn, id ) );
+
+        if ( ( key != null ) && !attributeType.isSingleValued() && !isLeastValue( indexEntry.getEntry(), key ) )
+        {
+            return null;
+        }
+
+        if ( evaluator.evaluate( partitionTxn, indexEntry ) )
+        {
+            return indexEntry.getEntry();
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Tells if the given key is the least value of the entry's sort attribute
+     */
+    private boolean isLeastValue( Entry entry, String key )
+    {
+        Attribute attribute = entry.get( attributeType );
+
+        if ( attribute == null )
+        {
+            return false;
+        }
+
+        for ( Value value : attribute )
+        {
+            if ( comparator.compare( value.getNormalized(), key ) < 0 )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
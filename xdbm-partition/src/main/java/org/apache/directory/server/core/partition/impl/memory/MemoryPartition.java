@@ -0,0 +1,518 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.memory;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
+import org.apache.directory.api.ldap.model.ldif.LdifUtils;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
+import org.apache.directory.server.constants.ApacheSchemaConstants;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionReadTxn;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.ParentIdAndRdn;
+import org.apache.directory.server.xdbm.SingletonIndexCursor;
+import org.apache.directory.server.xdbm.impl.memory.MemoryIndex;
+import org.apache.directory.server.xdbm.impl.memory.MemoryMasterTable;
+import org.apache.directory.server.xdbm.impl.memory.MemoryRdnIndex;
+import org.apache.directory.server.xdbm.search.cursor.DescendantCursor;
+import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
+import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
+import org.apache.directory.server.xdbm.search.impl.DefaultSearchEngine;
+import org.apache.directory.server.xdbm.search.impl.EvaluatorBuilder;
+import org.apache.directory.server.xdbm.search.impl.NoOpOptimizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An XDBM Partition backed by in memory concurrent skip lists. Unlike the
+ * {@link org.apache.directory.server.core.partition.impl.avl.AvlPartition},
+ * its tables can be read while they are modified, so the search cursors
+ * remain valid when the entries they browse are updated : it's suited for hot
+ * and ephemeral data.
+ * <br>
+ * The partition content can optionally be saved in a LDIF snapshot file,
+ * periodically and when the partition is destroyed. The snapshot is loaded
+ * back when the partition is initialized.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MemoryPartition extends AbstractBTreePartition
+{
+    /** static logger */
+    private static final Logger LOG = LoggerFactory.getLogger( MemoryPartition.class );
+
+    /** The file the partition content is saved in. No snapshot is done if null */
+    private File snapshotFile;
+
+    /** The delay between two snapshots, in seconds. If 0, the snapshot is only done when the partition is destroyed */
+    private long snapshotInterval;
+
+    /** The executor running the periodic snapshots */
+    private ScheduledExecutorService snapshotExecutor;
+
+
+    /**
+     * Creates a store based on concurrent skip lists.
+     * 
+     * @param schemaManager the schema manager
+     */
+    public MemoryPartition( SchemaManager schemaManager )
+    {
+        super( schemaManager );
+    }
+
+
+    /**
+     * Creates a store based on concurrent skip lists.
+     *
+     * @param schemaManager the schema manager
+     * @param dnFactory the DN factory
+     */
+    public MemoryPartition( SchemaManager schemaManager, DnFactory dnFactory )
+    {
+        super( schemaManager, dnFactory );
+    }
+    
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doRepair() throws LdapException
+    {
+        // Nothing to do
+    }
+
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doInit() throws LdapException
+    {
+        if ( !initialized )
+        {
+            EvaluatorBuilder evaluatorBuilder = new EvaluatorBuilder( this, schemaManager );
+            CursorBuilder cursorBuilder = new CursorBuilder( this, evaluatorBuilder );
+
+            // setup optimizer and registries for parent
+            if ( !optimizerEnabled )
+            {
+                setOptimizer( new NoOpOptimizer() );
+            }
+            else
+            {
+                setOptimizer( new DefaultOptimizer( this ) );
+            }
+
+            setSearchEngine( new DefaultSearchEngine( this, cursorBuilder, evaluatorBuilder, getOptimizer() ) );
+
+            if ( isInitialized() )
+            {
+                return;
+            }
+
+            // Create the master table (the table containing all the entries)
+            master = new MemoryMasterTable( id, UuidComparator.INSTANCE, null, false );
+
+            super.doInit();
+
+            if ( ( snapshotFile != null ) && snapshotFile.exists() )
+            {
+                loadSnapshot();
+            }
+
+            startSnapshots();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getDefaultId()
+    {
+        return Partition.DEFAULT_ID;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getRootId()
+    {
+        return Partition.ROOT_ID;
+    }
+
+
+    /**
+     * always returns false, cause this is a in-memory store
+     */
+    @Override
+    public boolean isSyncOnWrite()
+    {
+        return false;
+    }
+
+
+    /**
+     * Always returns 0 (zero), cause this is a in-memory store
+     */
+    @Override
+    public int getCacheSize()
+    {
+        return 0;
+    }
+
+
+    @Override
+    protected Index<?, String> convertAndInit( Index<?, String> index ) throws LdapException
+    {
+        MemoryIndex<?> memoryIndex;
+
+        if ( index.getAttributeId().equals( ApacheSchemaConstants.APACHE_RDN_AT_OID ) )
+        {
+            memoryIndex = new MemoryRdnIndex( index.getAttributeId() );
+        }
+        else if ( index instanceof MemoryIndex<?> )
+        {
+            memoryIndex = ( MemoryIndex<?> ) index;
+        }
+        else
+        {
+            LOG.debug( "Supplied index {} is not a MemoryIndex. "
+                + "Will create new MemoryIndex using copied configuration parameters.", index );
+            memoryIndex = new MemoryIndex( index.getAttributeId(), true );
+        }
+
+        memoryIndex.init( schemaManager, schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() ) );
+
+        return memoryIndex;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected final Index createSystemIndex( String oid, URI path, boolean withReverse ) throws LdapException
+    {
+        MemoryIndex<?> memoryIndex;
+
+        if ( oid.equals( ApacheSchemaConstants.APACHE_RDN_AT_OID ) )
+        {
+            memoryIndex = new MemoryRdnIndex( oid );
+        }
+        else
+        {
+            LOG.debug( "Supplied index {} is not a MemoryIndex. "
+                + "Will create new MemoryIndex using copied configuration parameters." );
+            memoryIndex = new MemoryIndex( oid, withReverse );
+        }
+
+        return memoryIndex;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public URI getPartitionPath()
+    {
+        // It's a in-memory partition, return null
+        return null;
+    }
+
+
+    @Override
+    public PartitionReadTxn beginReadTransaction()
+    {
+        return new PartitionReadTxn();
+    }
+
+
+    @Override
+    public PartitionWriteTxn beginWriteTransaction()
+    {
+        return new PartitionWriteTxn();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doDestroy( PartitionTxn partitionTxn ) throws LdapException
+    {
+        if ( snapshotExecutor != null )
+        {
+            snapshotExecutor.shutdownNow();
+            snapshotExecutor = null;
+        }
+
+        if ( initialized && ( snapshotFile != null ) )
+        {
+            snapshot();
+        }
+
+        super.doDestroy( partitionTxn );
+    }
+
+
+    private void startSnapshots()
+    {
+        if ( ( snapshotFile == null ) || ( snapshotInterval <= 0L ) )
+        {
+            return;
+        }
+
+        snapshotExecutor = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "memory-partition-snapshot-" + id );
+                thread.setDaemon( true );
+
+                return thread;
+            }
+        } );
+
+        snapshotExecutor.scheduleWithFixedDelay( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    snapshot();
+                }
+                catch ( Exception e )
+                {
+                    LOG.error( "Cannot write the snapshot of the partition {}", id, e );
+                }
+            }
+        }, snapshotInterval, snapshotInterval, TimeUnit.SECONDS );
+    }
+
+
+    /**
+     * Save the partition content in the snapshot file. The entries are written
+     * in a temporary file, which then replaces the previous snapshot. They are
+     * read from the live tables, walking the Rdn index from the suffix down so
+     * that the parents are written before their children : nothing is copied.
+     * The entries modified while the snapshot is written may be saved in their
+     * previous or their new state.
+     *
+     * @throws LdapException If the snapshot cannot be written
+     */
+    public void snapshot() throws LdapException
+    {
+        if ( snapshotFile == null )
+        {
+            return;
+        }
+
+        PartitionTxn partitionTxn = beginReadTransaction();
+        File tmpFile = new File( snapshotFile.getPath() + ".tmp" );
+        int nbEntries = 0;
+
+        try
+        {
+            try ( Writer writer = Files.newBufferedWriter( tmpFile.toPath(), StandardCharsets.UTF_8 ) )
+            {
+                String suffixId = getEntryId( partitionTxn, suffixDn );
+
+                if ( suffixId != null )
+                {
+                    try ( Cursor<IndexEntry<String, String>> cursor = getDescendants( partitionTxn, suffixId ) )
+                    {
+                        while ( cursor.next() )
+                        {
+                            if ( writeSnapshotEntry( partitionTxn, writer, cursor.get().getId() ) )
+                            {
+                                nbEntries++;
+                            }
+                        }
+                    }
+                }
+            }
+
+            Files.move( tmpFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        LOG.debug( "Saved {} entries in the snapshot {}", nbEntries, snapshotFile );
+    }
+
+
+    /**
+     * @return A depth first cursor on the given entry and all its descendants
+     */
+    private Cursor<IndexEntry<String, String>> getDescendants( PartitionTxn partitionTxn, String baseId )
+        throws LdapException
+    {
+        ParentIdAndRdn parentIdAndRdn = rdnIdx.reverseLookup( partitionTxn, baseId );
+        IndexEntry<ParentIdAndRdn, String> startingPos = new IndexEntry<>();
+        startingPos.setKey( parentIdAndRdn );
+        startingPos.setId( baseId );
+
+        Cursor<IndexEntry<ParentIdAndRdn, String>> rdnCursor = new SingletonIndexCursor<>( partitionTxn,
+            startingPos );
+
+        return new DescendantCursor( partitionTxn, this, baseId, parentIdAndRdn.getParentId(), rdnCursor );
+    }
+
+
+    /**
+     * Write an entry in the snapshot
+     *
+     * @return <tt>false</tt> if the entry has been deleted in the meantime
+     */
+    private boolean writeSnapshotEntry( PartitionTxn partitionTxn, Writer writer, String entryId )
+        throws LdapException, IOException
+    {
+        Entry entry;
+
+        try
+        {
+            entry = fetch( partitionTxn, entryId );
+        }
+        catch ( LdapException le )
+        {
+            // The entry, or one of its parents, has been deleted in the meantime
+            LOG.debug( "Entry {} not saved in the snapshot", entryId, le );
+
+            return false;
+        }
+
+        if ( entry == null )
+        {
+            return false;
+        }
+
+        // The entryDN is computed when the entry is fetched
+        entry.removeAttributes( SchemaConstants.ENTRY_DN_AT );
+        writer.write( LdifUtils.convertToLdif( entry ) );
+        writer.write( '\n' );
+
+        return true;
+    }
+
+
+    /**
+     * Load the entries saved in the snapshot file
+     */
+    private void loadSnapshot() throws LdapException
+    {
+        int nbEntries = 0;
+
+        try ( LdifReader reader = new LdifReader( snapshotFile ) )
+        {
+            for ( LdifEntry ldifEntry : reader )
+            {
+                Entry entry = new DefaultEntry( schemaManager, ldifEntry.getEntry() );
+
+                AddOperationContext addContext = new AddOperationContext( null, entry );
+                addContext.setPartition( this );
+                addContext.setTransaction( beginWriteTransaction() );
+
+                add( addContext );
+                nbEntries++;
+            }
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        LOG.debug( "Loaded {} entries from the snapshot {}", nbEntries, snapshotFile );
+    }
+
+
+    /**
+     * @return The file the partition content is saved in, or null if there is no snapshot
+     */
+    public File getSnapshotFile()
+    {
+        return snapshotFile;
+    }
+
+
+    /**
+     * @param snapshotFile The file the partition content is saved in. No snapshot is done if null
+     */
+    public void setSnapshotFile( File snapshotFile )
+    {
+        this.snapshotFile = snapshotFile;
+    }
+
+
+    /**
+     * @return The delay between two snapshots, in seconds
+     */
+    public long getSnapshotInterval()
+    {
+        return snapshotInterval;
+    }
+
+
+    /**
+     * @param snapshotInterval The delay between two snapshots, in seconds. If 0,
+     * the snapshot is only done when the partition is destroyed
+     */
+    public void setSnapshotInterval( long snapshotInterval )
+    {
+        this.snapshotInterval = snapshotInterval;
+    }
+}
@@ -0,0 +1,790 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+
+
+/**
+ * The statistics of an index, used by the optimizer to estimate the number of
+ * candidates a filter will select without reading the index : the number of
+ * &lt;key, ID&gt; tuples, the number of distinct keys, the most common keys with
+ * their exact count, and an equi-depth histogram of the keys, each bucket being
+ * bounded by the greatest key it contains. The histogram also gives the approximate
+ * position of a key in the index, and the key found around a given position.
+ * <br>
+ * An instance is computed by scanning the index once. The store then reports each
+ * tuple it adds to or removes from the index, which updates the number of tuples,
+ * the count of the most common keys and the depth of the histogram buckets. The
+ * bounds of the buckets and the number of distinct keys are not updated, so the
+ * store computes new statistics once too many tuples have been added or removed.
+ * The statistics can be written to and read from a file, so that they survive a
+ * restart.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class IndexStatistics
+{
+    /** The name of the file storing the statistics in the partition directory */
+    public static final String FILE_NAME = "index-statistics.dat";
+
+    /** The magic number and version at the beginning of the statistics file */
+    private static final int MAGIC = 0x49445831;
+
+    /** The maximum number of most common keys we keep */
+    private static final int MAX_COMMON_KEYS = 16;
+
+    /** The minimum number of buckets in the histogram */
+    private static final int NB_BUCKETS = 32;
+
+    /** The number of tuples in a bucket, above which the histogram gets more buckets */
+    private static final long MAX_BUCKET_DEPTH = 256L;
+
+    /** The maximum number of buckets in the histogram */
+    private static final long MAX_BUCKETS = 16384L;
+
+    /** The ratio of added or removed tuples after which the statistics are stale */
+    private static final double STALE_RATIO = 0.1d;
+
+    /** The number of added or removed tuples which never makes the statistics stale */
+    private static final long STALE_THRESHOLD = 100L;
+
+    /** The fraction of the tuples selected by a range when we have no histogram */
+    private static final long DEFAULT_RANGE_FRACTION = 3L;
+
+    /** The OID of the indexed attribute */
+    private final String attributeOid;
+
+    /** The comparator ordering the keys, as the index does */
+    private final Comparator<String> comparator;
+
+    /** The number of tuples */
+    private final AtomicLong count;
+
+    /** The number of tuples when the statistics were computed */
+    private final long computedCount;
+
+    /** The number of tuples added or removed since the statistics were computed */
+    private final AtomicLong nbUpdates = new AtomicLong();
+
+    /** The number of distinct keys */
+    private final long distinctCount;
+
+    /** The most common keys, with their number of tuples */
+    private final Map<String, Long> commonKeys;
+
+    /** The total number of tuples of the most common keys */
+    private final AtomicLong commonCount;
+
+    /** The greatest key of each histogram bucket */
+    private final String[] bounds;
+
+    /** The number of tuples in each histogram bucket */
+    private final AtomicLongArray bucketCounts;
+
+    /** The number of tuples before each histogram bucket, and the total number of tuples at the end */
+    private volatile long[] positions;
+
+
+    private IndexStatistics( AttributeType attributeType, long count, long distinctCount, Map<String, Long> commonKeys,
+        String[] bounds, long[] bucketCounts )
+    {
+        this.attributeOid = attributeType.getOid();
+        this.comparator = getComparator( attributeType );
+        this.count = new AtomicLong( count );
+        this.computedCount = count;
+        this.distinctCount = distinctCount;
+        this.commonKeys = new ConcurrentHashMap<>( commonKeys );
+        this.bounds = bounds;
+        this.bucketCounts = new AtomicLongArray( bucketCounts );
+
+        long total = 0L;
+
+        for ( long keyCount : commonKeys.values() )
+        {
+            total += keyCount;
+        }
+
+        this.commonCount = new AtomicLong( total );
+        positions = computePositions();
+    }
+
+
+    /**
+     * Creates the statistics of an index which has not been read yet : we only know
+     * its number of tuples, and assume any key may select all of them.
+     *
+     * @param attributeType The indexed attribute
+     * @param count The number of tuples in the index
+     * @return The index statistics
+     */
+    public static IndexStatistics unknown( AttributeType attributeType, long count )
+    {
+        return new IndexStatistics( attributeType, count, 1L, new HashMap<String, Long>(), new String[0],
+            new long[0] );
+    }
+
+
+    private long[] computePositions()
+    {
+        long[] newPositions = new long[bucketCounts.length() + 1];
+
+        for ( int i = 0; i < bucketCounts.length(); i++ )
+        {
+            newPositions[i + 1] = newPositions[i] + bucketCounts.get( i );
+        }
+
+        return newPositions;
+    }
+
+
+    /**
+     * Computes the statistics of an index, scanning all its tuples.
+     *
+     * @param partitionTxn The transaction to use
+     * @param index The index
+     * @return The index statistics
+     * @throws LdapException If the index can't be read
+     */
+    public static IndexStatistics build( PartitionTxn partitionTxn, Index<?, String> index ) throws LdapException
+    {
+        long total = index.count( partitionTxn );
+        long nbBuckets = Math.min( MAX_BUCKETS,
+            Math.max( NB_BUCKETS, ( total + MAX_BUCKET_DEPTH - 1 ) / MAX_BUCKET_DEPTH ) );
+        long depth = Math.max( 1L, ( total + nbBuckets - 1 ) / nbBuckets );
+        long distinct = 0L;
+        boolean stringKeys = true;
+        PriorityQueue<Map.Entry<String, Long>> mostCommon = new PriorityQueue<>( MAX_COMMON_KEYS + 1,
+            Map.Entry.<String, Long>comparingByValue() );
+        List<String> bounds = new ArrayList<>();
+        List<Long> bucketCounts = new ArrayList<>();
+        long bucketCount = 0L;
+        long nbTuples = 0L;
+        Object previousKey = null;
+        long keyCount = 0L;
+
+        try ( Cursor<? extends IndexEntry<?, String>> cursor = index.forwardCursor( partitionTxn ) )
+        {
+            cursor.beforeFirst();
+
+            while ( true )
+            {
+                boolean hasNext = cursor.next();
+                Object key = hasNext ? cursor.get().getKey() : null;
+
+                if ( ( previousKey != null ) && ( !hasNext || !previousKey.equals( key ) ) )
+                {
+                    // We are done with the previous key
+                    distinct++;
+
+                    if ( stringKeys )
+                    {
+                        String previous = ( String ) previousKey;
+
+                        if ( keyCount > 1L )
+                        {
+                            mostCommon.add( new AbstractMap.SimpleImmutableEntry<>( previous, keyCount ) );
+
+                            if ( mostCommon.size() > MAX_COMMON_KEYS )
+                            {
+                                mostCommon.poll();
+                            }
+                        }
+
+                        bucketCount += keyCount;
+
+                        if ( ( bucketCount >= depth ) || !hasNext )
+                        {
+                            bounds.add( previous );
+                            bucketCounts.add( bucketCount );
+                            bucketCount = 0L;
+                        }
+                    }
+
+                    keyCount = 0L;
+                    previousKey = null;
+                }
+
+                if ( !hasNext )
+                {
+                    break;
+                }
+
+                nbTuples++;
+
+                if ( key == null )
+                {
+                    continue;
+                }
+
+                if ( !( key instanceof String ) )
+                {
+                    // No histogram for binary keys
+                    stringKeys = false;
+                }
+
+                previousKey = key;
+                keyCount++;
+            }
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        Map<String, Long> commonKeys = new HashMap<>();
+
+        if ( stringKeys )
+        {
+            for ( Map.Entry<String, Long> common : mostCommon )
+            {
+                commonKeys.put( common.getKey(), common.getValue() );
+            }
+        }
+        else
+        {
+            bounds.clear();
+            bucketCounts.clear();
+        }
+
+        long[] counts = new long[bucketCounts.size()];
+
+        for ( int i = 0; i < counts.length; i++ )
+        {
+            counts[i] = bucketCounts.get( i );
+        }
+
+        return new IndexStatistics( index.getAttribute(), nbTuples, distinct, commonKeys,
+            bounds.toArray( new String[0] ), counts );
+    }
+
+
+    /**
+     * @return The OID of the indexed attribute
+     */
+    public String getAttributeOid()
+    {
+        return attributeOid;
+    }
+
+
+    /**
+     * @return The number of tuples in the index
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+
+    /**
+     * @return The number of distinct keys in the index when the statistics were computed
+     */
+    public long getDistinctCount()
+    {
+        return distinctCount;
+    }
+
+
+    /**
+     * Tells if too many tuples have been added or removed since the statistics were
+     * computed.
+     *
+     * @return <tt>true</tt> if the statistics must be computed again
+     */
+    public boolean isStale()
+    {
+        return nbUpdates.get() > Math.max( STALE_THRESHOLD, ( long ) ( computedCount * STALE_RATIO ) );
+    }
+
+
+    /**
+     * Takes into account some tuples added to or removed from the index.
+     *
+     * @param key The key of the tuples, null if unknown
+     * @param delta The number of added tuples, negative for removed tuples
+     */
+    public void update( Object key, long delta )
+    {
+        count.addAndGet( delta );
+        nbUpdates.addAndGet( Math.abs( delta ) );
+
+        if ( !( key instanceof String ) )
+        {
+            return;
+        }
+
+        String stringKey = ( String ) key;
+
+        if ( commonKeys.computeIfPresent( stringKey, ( common, keyCount ) -> keyCount + delta ) != null )
+        {
+            commonCount.addAndGet( delta );
+        }
+
+        if ( bounds.length > 0 )
+        {
+            // A key greater than the last bound extends the last bucket
+            int bucket = Math.min( findBucket( stringKey ), bounds.length - 1 );
+            bucketCounts.addAndGet( bucket, delta );
+            positions = null;
+        }
+    }
+
+
+    /**
+     * @return The number of tuples before each bucket, computed again after an update
+     */
+    private long[] getPositions()
+    {
+        long[] current = positions;
+
+        if ( current == null )
+        {
+            current = computePositions();
+            positions = current;
+        }
+
+        return current;
+    }
+
+
+    /**
+     * Estimates the number of tuples having a given key.
+     *
+     * @param key The normalized key
+     * @return The estimated number of tuples, never 0 as the statistics may be late
+     */
+    public long estimateEqual( String key )
+    {
+        Long keyCount = commonKeys.get( key );
+
+        if ( keyCount != null )
+        {
+            return keyCount;
+        }
+
+        // The other keys share the remaining tuples
+        long otherKeys = distinctCount - commonKeys.size();
+
+        if ( otherKeys <= 0L )
+        {
+            return 1L;
+        }
+
+        return Math.max( 1L, ( count.get() - commonCount.get() ) / otherKeys );
+    }
+
+
+    /**
+     * Estimates the number of tuples having a key greater than or equal to a given key.
+     *
+     * @param key The normalized key
+     * @return The estimated number of tuples, never 0 as the statistics may be late
+     */
+    public long estimateGreaterOrEqual( String key )
+    {
+        if ( bounds.length == 0 )
+        {
+            return Math.max( 1L, count.get() / DEFAULT_RANGE_FRACTION );
+        }
+
+        int bucket = findBucket( key );
+        long result = 0L;
+
+        if ( bucket < bounds.length )
+        {
+            // We don't know where the key is in its bucket : assume it's in the middle
+            result = bucketCounts.get( bucket ) / 2;
+        }
+
+        for ( int i = bucket + 1; i < bounds.length; i++ )
+        {
+            result += bucketCounts.get( i );
+        }
+
+        return Math.max( 1L, result );
+    }
+
+
+    /**
+     * Estimates the number of tuples having a key lower than or equal to a given key.
+     *
+     * @param key The normalized key
+     * @return The estimated number of tuples, never 0 as the statistics may be late
+     */
+    public long estimateLessOrEqual( String key )
+    {
+        if ( bounds.length == 0 )
+        {
+            return Math.max( 1L, count.get() / DEFAULT_RANGE_FRACTION );
+        }
+
+        int bucket = findBucket( key );
+        long result = 0L;
+
+        for ( int i = 0; i < bucket; i++ )
+        {
+            result += bucketCounts.get( i );
+        }
+
+        if ( bucket < bounds.length )
+        {
+            result += ( comparator.compare( key, bounds[bucket] ) == 0 ) ? bucketCounts.get( bucket )
+                : bucketCounts.get( bucket ) / 2;
+        }
+
+        return Math.max( 1L, result );
+    }
+
+
+    /**
+     * Estimates the number of tuples having a key starting with a given prefix.
+     *
+     * @param prefix The normalized prefix
+     * @return The estimated number of tuples, never 0 as the statistics may be late
+     */
+    public long estimatePrefix( String prefix )
+    {
+        if ( bounds.length == 0 )
+        {
+            return Math.max( 1L, count.get() / DEFAULT_RANGE_FRACTION );
+        }
+
+        int first = findBucket( prefix );
+        int last = findBucket( prefix + Character.MAX_VALUE );
+
+        if ( first >= bounds.length )
+        {
+            return 1L;
+        }
+
+        if ( first == last )
+        {
+            // The prefix is within a single bucket : assume it selects half of it
+            return Math.max( 1L, bucketCounts.get( first ) / 2 );
+        }
+
+        long result = bucketCounts.get( first ) / 2;
+
+        for ( int i = first + 1; ( i < last ) && ( i < bounds.length ); i++ )
+        {
+            result += bucketCounts.get( i );
+        }
+
+        if ( last < bounds.length )
+        {
+            result += bucketCounts.get( last ) / 2;
+        }
+
+        return Math.max( 1L, result );
+    }
+
+
+    /**
+     * Estimates the position of a key in the index, which is the number of tuples
+     * having a lower key.
+     *
+     * @param key The normalized key
+     * @return The estimated number of tuples before the key
+     */
+    public long estimatePosition( String key )
+    {
+        if ( bounds.length == 0 )
+        {
+            return count.get() / 2;
+        }
+
+        int bucket = findBucket( key );
+
+        if ( bucket == bounds.length )
+        {
+            return count.get();
+        }
+
+        long[] bucketPositions = getPositions();
+        long bucketCount = bucketCounts.get( bucket );
+
+        if ( comparator.compare( key, bounds[bucket] ) == 0 )
+        {
+            // The key is the last one of its bucket
+            return bucketPositions[bucket] + Math.max( 0L, bucketCount - estimateEqual( key ) );
+        }
+
+        // We don't know where the key is in its bucket : assume it's in the middle
+        return bucketPositions[bucket] + bucketCount / 2;
+    }
+
+
+    /**
+     * Finds the histogram bucket which end is the closest to a position, before it or
+     * after it. The index can be sought to the end of a bucket, right after its bound.
+     *
+     * @param position The number of tuples before the position
+     * @param after Tells if the bucket must end at or after the position, instead of at or before it
+     * @return The bucket, -1 if no bucket ends before the position, or the number of
+     * buckets if none ends after it
+     */
+    public int findBucketEnd( long position, boolean after )
+    {
+        long[] bucketPositions = getPositions();
+        int low = 0;
+        int high = bounds.length;
+
+        while ( low < high )
+        {
+            int middle = ( low + high ) >>> 1;
+            long end = bucketPositions[middle + 1];
+
+            if ( after ? ( end >= position ) : ( end > position ) )
+            {
+                high = middle;
+            }
+            else
+            {
+                low = middle + 1;
+            }
+        }
+
+        return after ? low : low - 1;
+    }
+
+
+    /**
+     * @return The number of buckets in the histogram, 0 if there is no histogram
+     */
+    public int getBucketCount()
+    {
+        return bounds.length;
+    }
+
+
+    /**
+     * @param bucket The bucket
+     * @return The greatest key of the bucket
+     */
+    public String getBound( int bucket )
+    {
+        return bounds[bucket];
+    }
+
+
+    /**
+     * @param bucket The bucket
+     * @return The number of tuples up to the end of the bucket
+     */
+    public long getEndPosition( int bucket )
+    {
+        return getPositions()[bucket + 1];
+    }
+
+
+    /**
+     * Find the first bucket which bound is greater than or equal to the key.
+     */
+    private int findBucket( String key )
+    {
+        int low = 0;
+        int high = bounds.length;
+
+        while ( low < high )
+        {
+            int middle = ( low + high ) >>> 1;
+
+            if ( comparator.compare( key, bounds[middle] ) <= 0 )
+            {
+                high = middle;
+            }
+            else
+            {
+                low = middle + 1;
+            }
+        }
+
+        return low;
+    }
+
+
+    /**
+     * Get the comparator the indexes use to order the keys of an attribute.
+     */
+    @SuppressWarnings("unchecked")
+    private static Comparator<String> getComparator( AttributeType attributeType )
+    {
+        MatchingRule equality = attributeType.getEquality();
+
+        if ( ( equality != null ) && ( equality.getLdapComparator() != null ) )
+        {
+            return ( Comparator<String> ) ( Comparator<?> ) equality.getLdapComparator();
+        }
+
+        return Comparator.naturalOrder();
+    }
+
+
+    /**
+     * Writes some index statistics.
+     *
+     * @param out The output to write to
+     * @param statistics The statistics to write
+     * @throws IOException If the statistics can't be written
+     */
+    public static void writeAll( DataOutput out, Collection<IndexStatistics> statistics ) throws IOException
+    {
+        out.writeInt( MAGIC );
+        out.writeInt( statistics.size() );
+
+        for ( IndexStatistics indexStatistics : statistics )
+        {
+            writeString( out, indexStatistics.attributeOid );
+            out.writeLong( indexStatistics.count.get() );
+            out.writeLong( indexStatistics.distinctCount );
+            out.writeInt( indexStatistics.commonKeys.size() );
+
+            for ( Map.Entry<String, Long> common : indexStatistics.commonKeys.entrySet() )
+            {
+                writeString( out, common.getKey() );
+                out.writeLong( common.getValue() );
+            }
+
+            out.writeInt( indexStatistics.bounds.length );
+
+            for ( int i = 0; i < indexStatistics.bounds.length; i++ )
+            {
+                writeString( out, indexStatistics.bounds[i] );
+                out.writeLong( indexStatistics.bucketCounts.get( i ) );
+            }
+        }
+    }
+
+
+    /**
+     * Reads the index statistics written by {@link #writeAll(DataOutput, Collection)}. The
+     * statistics of the attributes which are not in the schema anymore are ignored.
+     *
+     * @param in The input to read from
+     * @param schemaManager The schema manager
+     * @return The index statistics
+     * @throws IOException If the statistics can't be read
+     */
+    public static List<IndexStatistics> readAll( DataInput in, SchemaManager schemaManager ) throws IOException
+    {
+        if ( in.readInt() != MAGIC )
+        {
+            throw new IOException( "Not an index statistics file" );
+        }
+
+        int nbStatistics = in.readInt();
+        List<IndexStatistics> statistics = new ArrayList<>( nbStatistics );
+
+        for ( int i = 0; i < nbStatistics; i++ )
+        {
+            String oid = readString( in );
+            long count = in.readLong();
+            long distinctCount = in.readLong();
+            int nbCommonKeys = in.readInt();
+            Map<String, Long> commonKeys = new HashMap<>();
+
+            for ( int j = 0; j < nbCommonKeys; j++ )
+            {
+                String key = readString( in );
+                commonKeys.put( key, in.readLong() );
+            }
+
+            int nbBuckets = in.readInt();
+            String[] bounds = new String[nbBuckets];
+            long[] bucketCounts = new long[nbBuckets];
+
+            for ( int j = 0; j < nbBuckets; j++ )
+            {
+                bounds[j] = readString( in );
+                bucketCounts[j] = in.readLong();
+            }
+
+            AttributeType attributeType = schemaManager.getAttributeType( oid );
+
+            if ( attributeType != null )
+            {
+                statistics.add( new IndexStatistics( attributeType, count, distinctCount, commonKeys, bounds,
+                    bucketCounts ) );
+            }
+        }
+
+        return statistics;
+    }
+
+
+    private static void writeString( DataOutput out, String value ) throws IOException
+    {
+        byte[] bytes = Strings.getBytesUtf8( value );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+
+    private static String readString( DataInput in ) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully( bytes );
+
+        return Strings.utf8ToString( bytes );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( "IndexStatistics[" ).append( attributeOid );
+        sb.append( ", count=" ).append( count.get() );
+        sb.append( ", distinct=" ).append( distinctCount );
+        sb.append( ", common keys=" ).append( commonKeys );
+        sb.append( ", buckets=" ).append( bounds.length ).append( ']' );
+
+        return sb.toString();
+    }
+}
@@ -486,4 +486,28 @@ public interface Store
      * @return The cache
      */
     Cache< String, Dn > getAliasCache();
+
+
+    /**
+     * Gets the nested intervals labelling of the entries. If it's not computed yet, it
+     * gets computed in the background : the caller must use the Rdn index meanwhile.
+     *
+     * @param partitionTxn The transaction to use
+     * @return The subtree labels, which may not be computed yet
+     * @throws LdapException If the labels can't be read
+     */
+    SubtreeLabels getSubtreeLabels( PartitionTxn partitionTxn ) throws LdapException;
+
+
+    /**
+     * Gets the statistics of an index. They are updated along with the index, and
+     * computed again in the background when the index has changed too much since
+     * they were last computed. This method never scans the index.
+     *
+     * @param partitionTxn The transaction to use
+     * @param index The index
+     * @return The index statistics
+     * @throws LdapException If the statistics can't be computed
+     */
+    IndexStatistics getIndexStatistics( PartitionTxn partitionTxn, Index<?, String> index ) throws LdapException;
 }
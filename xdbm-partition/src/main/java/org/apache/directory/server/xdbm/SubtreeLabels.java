@@ -0,0 +1,567 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+
+
+/**
+ * A nested intervals labelling of the tree stored in the Rdn index. Each entry
+ * is given an interval [low, high], and the intervals of its descendants are
+ * nested into ]low, high]. Checking if an entry is in the subtree of another one
+ * is then a matter of comparing two integers, and the entries of a subtree are
+ * the contiguous range of entries whose low label is in ]low, high].
+ * <br>
+ * When an interval is assigned, its children share half of the room, proportionally
+ * to their number of descendants, the other half being kept to label the new
+ * children without touching the existing ones. When there is no more room under
+ * a parent, the subtree of the closest ancestor with enough room is relabelled.
+ * <br>
+ * The labels are kept in memory : the partition computes them from the Rdn index
+ * in the background, and they are maintained by the add, delete and move operations.
+ * The searches use the Rdn index until they are computed. The partition must
+ * {@link #clear()} them when a transaction which has updated them is aborted. The
+ * labels are not computed for a partition holding more than a maximum number of
+ * entries.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SubtreeLabels
+{
+    /** The default maximum number of labelled entries */
+    public static final int DEFAULT_MAX_SIZE = 1000000;
+
+    /** The higher label, given to the virtual root of the tree */
+    private static final long ROOT_HIGH = Long.MAX_VALUE >> 1;
+
+    /** The labels, per entry ID */
+    private Map<String, Label> labels = new HashMap<>();
+
+    /** The entry IDs, ordered by their low label */
+    private NavigableMap<Long, String> byLow = new TreeMap<>();
+
+    /** The lock protecting the labels */
+    private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
+
+    /** Tells if the labels have been computed */
+    private volatile boolean built;
+
+    /** Held while a thread computes the labels */
+    private final Lock buildLock = new ReentrantLock();
+
+    /** Incremented on each change of the tree, to discard a computation made meanwhile */
+    private long version;
+
+    /** The maximum number of labelled entries */
+    private final int maxSize;
+
+    /**
+     * The interval given to an entry.
+     */
+    private static class Label
+    {
+        /** The entry label */
+        private long low;
+
+        /** The last label of the entry's subtree */
+        private long high;
+
+        /** The first label available for a new child */
+        private long next;
+
+        /** The room given to each new child */
+        private long childSpan;
+    }
+
+
+    /**
+     * Creates a new instance of SubtreeLabels. The labels will be computed on demand.
+     */
+    public SubtreeLabels()
+    {
+        this( DEFAULT_MAX_SIZE );
+    }
+
+
+    /**
+     * Creates a new instance of SubtreeLabels. The labels will be computed on demand.
+     *
+     * @param maxSize The maximum number of entries to label
+     */
+    public SubtreeLabels( int maxSize )
+    {
+        this.maxSize = maxSize;
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the labels have been computed
+     */
+    public boolean isBuilt()
+    {
+        return built;
+    }
+
+
+    /**
+     * Computes the labels of all the entries, if not already done. If another thread
+     * is computing them, we wait for it to be done. Nothing is done if the partition
+     * has too many entries. The labels are computed without holding the lock, and
+     * discarded if the tree has been modified meanwhile.
+     *
+     * @param partitionTxn The transaction to use
+     * @param rdnIdx The Rdn index
+     * @throws LdapException If the Rdn index can't be read
+     */
+    public void build( PartitionTxn partitionTxn, Index<ParentIdAndRdn, String> rdnIdx ) throws LdapException
+    {
+        if ( built )
+        {
+            return;
+        }
+
+        buildLock.lock();
+
+        try
+        {
+            if ( built )
+            {
+                return;
+            }
+
+            long startVersion;
+
+            rwLock.readLock().lock();
+
+            try
+            {
+                startVersion = version;
+            }
+            finally
+            {
+                rwLock.readLock().unlock();
+            }
+
+            if ( rdnIdx.count( partitionTxn ) > maxSize )
+            {
+                return;
+            }
+
+            Map<String, Label> newLabels = new HashMap<>();
+            NavigableMap<Long, String> newByLow = new TreeMap<>();
+            assign( partitionTxn, rdnIdx, newLabels, newByLow, Partition.ROOT_ID, 0L, ROOT_HIGH );
+
+            rwLock.writeLock().lock();
+
+            try
+            {
+                if ( !built && ( version == startVersion ) )
+                {
+                    labels = newLabels;
+                    byLow = newByLow;
+                    built = true;
+                }
+            }
+            finally
+            {
+                rwLock.writeLock().unlock();
+            }
+        }
+        finally
+        {
+            buildLock.unlock();
+        }
+    }
+
+
+    /**
+     * Forgets all the labels. They will be computed again when needed.
+     */
+    public void clear()
+    {
+        rwLock.writeLock().lock();
+
+        try
+        {
+            version++;
+            built = false;
+            labels = new HashMap<>();
+            byLow = new TreeMap<>();
+        }
+        finally
+        {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Tells if an entry is a strict descendant of another one.
+     *
+     * @param baseId The ancestor ID
+     * @param id The candidate ID
+     * @return <tt>true</tt> if the candidate is a descendant of the ancestor, or null
+     * if we don't know one of the two entries
+     */
+    public Boolean isDescendant( String baseId, String id )
+    {
+        rwLock.readLock().lock();
+
+        try
+        {
+            if ( !built )
+            {
+                return null;
+            }
+
+            Label base = labels.get( baseId );
+            Label candidate = labels.get( id );
+
+            if ( ( base == null ) || ( candidate == null ) )
+            {
+                return null;
+            }
+
+            return ( candidate.low > base.low ) && ( candidate.low <= base.high );
+        }
+        finally
+        {
+            rwLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Gets the IDs of an entry and all its descendants.
+     *
+     * @param baseId The subtree base ID
+     * @return The entry IDs in the subtree, in preorder, or null if we don't know the base
+     */
+    public List<String> getSubtree( String baseId )
+    {
+        rwLock.readLock().lock();
+
+        try
+        {
+            if ( !built )
+            {
+                return null;
+            }
+
+            Label base = labels.get( baseId );
+
+            if ( base == null )
+            {
+                return null;
+            }
+
+            return new ArrayList<>( byLow.subMap( base.low, true, base.high, true ).values() );
+        }
+        finally
+        {
+            rwLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Labels an added entry. The Rdn index must already contain it.
+     *
+     * @param partitionTxn The transaction to use
+     * @param rdnIdx The Rdn index
+     * @param parentId The parent ID
+     * @param id The added entry ID
+     * @throws LdapException If the Rdn index can't be read
+     */
+    public void add( PartitionTxn partitionTxn, Index<ParentIdAndRdn, String> rdnIdx, String parentId, String id )
+        throws LdapException
+    {
+        rwLock.writeLock().lock();
+
+        try
+        {
+            version++;
+
+            if ( !built || labels.containsKey( id ) )
+            {
+                return;
+            }
+
+            if ( labels.size() >= maxSize )
+            {
+                // The tree has grown too much to be labelled
+                clear();
+
+                return;
+            }
+
+            Label parent = labels.get( parentId );
+
+            if ( ( parent != null ) && ( parent.childSpan > 0 ) && ( parent.high - parent.next + 1 >= parent.childSpan ) )
+            {
+                Label label = new Label();
+                label.low = parent.next;
+                label.high = parent.next + parent.childSpan - 1;
+                label.next = label.low + 1;
+                label.childSpan = ( label.high - label.low ) / 2;
+                parent.next = label.high + 1;
+
+                labels.put( id, label );
+                byLow.put( label.low, id );
+            }
+            else
+            {
+                relabel( partitionTxn, rdnIdx, parentId );
+            }
+        }
+        finally
+        {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Labels a moved subtree again. The Rdn index must already contain the
+     * moved entry under its new parent.
+     *
+     * @param partitionTxn The transaction to use
+     * @param rdnIdx The Rdn index
+     * @param newParentId The new parent ID
+     * @param id The moved entry ID
+     * @param nbDescendants The number of descendants of the moved entry
+     * @throws LdapException If the Rdn index can't be read
+     */
+    public void move( PartitionTxn partitionTxn, Index<ParentIdAndRdn, String> rdnIdx, String newParentId, String id,
+        int nbDescendants ) throws LdapException
+    {
+        rwLock.writeLock().lock();
+
+        try
+        {
+            version++;
+
+            if ( !built )
+            {
+                return;
+            }
+
+            Label parent = labels.get( newParentId );
+
+            if ( parent == null )
+            {
+                // We have lost track of the new parent
+                relabel( partitionTxn, rdnIdx, newParentId );
+
+                return;
+            }
+
+            long span = Math.max( parent.childSpan, 2L * ( nbDescendants + 1 ) );
+
+            if ( parent.high - parent.next + 1 >= span )
+            {
+                long low = parent.next;
+                parent.next += span;
+                assign( partitionTxn, rdnIdx, labels, byLow, id, low, low + span - 1 );
+            }
+            else
+            {
+                relabel( partitionTxn, rdnIdx, newParentId );
+            }
+        }
+        finally
+        {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Removes the label of a deleted entry.
+     *
+     * @param id The deleted entry ID
+     */
+    public void remove( String id )
+    {
+        rwLock.writeLock().lock();
+
+        try
+        {
+            version++;
+            Label label = labels.remove( id );
+
+            if ( ( label != null ) && id.equals( byLow.get( label.low ) ) )
+            {
+                byLow.remove( label.low );
+            }
+        }
+        finally
+        {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * @return The number of labelled entries
+     */
+    public int size()
+    {
+        rwLock.readLock().lock();
+
+        try
+        {
+            return labels.size();
+        }
+        finally
+        {
+            rwLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Relabels the subtree of the closest labelled ancestor of an entry (or the entry
+     * itself) which has enough room for all its descendants, plus some slack. If there
+     * is none, the whole tree is relabelled from the root, which always has room.
+     */
+    private void relabel( PartitionTxn partitionTxn, Index<ParentIdAndRdn, String> rdnIdx, String id )
+        throws LdapException
+    {
+        String current = id;
+
+        while ( !Partition.ROOT_ID.equals( current ) )
+        {
+            ParentIdAndRdn parentIdAndRdn = rdnIdx.reverseLookup( partitionTxn, current );
+
+            if ( parentIdAndRdn == null )
+            {
+                break;
+            }
+
+            Label label = labels.get( current );
+
+            if ( ( label != null ) && ( label.high - label.low >= 4L * ( parentIdAndRdn.getNbDescendants() + 1 ) ) )
+            {
+                assign( partitionTxn, rdnIdx, labels, byLow, current, label.low, label.high );
+
+                return;
+            }
+
+            current = parentIdAndRdn.getParentId();
+        }
+
+        assign( partitionTxn, rdnIdx, labels, byLow, Partition.ROOT_ID, 0L, ROOT_HIGH );
+    }
+
+
+    /**
+     * Gives an interval to an entry, and recursively to all its descendants. The
+     * interval must have room for all the descendants.
+     */
+    private static void assign( PartitionTxn partitionTxn, Index<ParentIdAndRdn, String> rdnIdx,
+        Map<String, Label> labels, NavigableMap<Long, String> byLow, String id, long low, long high )
+        throws LdapException
+    {
+        Label label = labels.get( id );
+
+        if ( label == null )
+        {
+            label = new Label();
+            labels.put( id, label );
+        }
+        else if ( id.equals( byLow.get( label.low ) ) )
+        {
+            byLow.remove( label.low );
+        }
+
+        label.low = low;
+        label.high = high;
+        byLow.put( low, id );
+
+        // Get the children, and their weight
+        List<String> childIds = new ArrayList<>();
+        List<Long> weights = new ArrayList<>();
+        long total = 0L;
+
+        try ( Cursor<IndexEntry<ParentIdAndRdn, String>> cursor = rdnIdx.forwardCursor( partitionTxn ) )
+        {
+            IndexEntry<ParentIdAndRdn, String> startingPos = new IndexEntry<>();
+            startingPos.setKey( new ParentIdAndRdn( id, ( Rdn[] ) null ) );
+            cursor.before( startingPos );
+
+            while ( cursor.next() )
+            {
+                IndexEntry<ParentIdAndRdn, String> child = cursor.get();
+
+                if ( !child.getKey().getParentId().equals( id ) )
+                {
+                    break;
+                }
+
+                long weight = child.getKey().getNbDescendants() + 1L;
+                childIds.add( child.getId() );
+                weights.add( weight );
+                total += weight;
+            }
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        long position = low + 1;
+
+        if ( total > 0 )
+        {
+            // Each child gets the room it needs, plus its share of half of the extra room
+            long unit = 1L + ( ( high - low ) - total ) / 2 / total;
+
+            for ( int i = 0; i < childIds.size(); i++ )
+            {
+                long span = unit * weights.get( i );
+                assign( partitionTxn, rdnIdx, labels, byLow, childIds.get( i ), position, position + span - 1 );
+                position += span;
+            }
+        }
+
+        label.next = position;
+        label.childSpan = ( high - position + 1 ) / ( 2L * ( childIds.size() + 1 ) );
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.impl.memory;
+
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.LdapComparator;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
+import org.apache.directory.api.ldap.model.schema.Normalizer;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractIndex;
+import org.apache.directory.server.xdbm.IndexEntry;
+
+
+/**
+ * An Index backed by {@link MemoryTable}s. The forward cursors directly
+ * return the key and the entry ID in a reused IndexEntry, instead of wrapping
+ * a cursor creating a Tuple for each element.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MemoryIndex<K> extends AbstractIndex<K, String>
+{
+    /** The attribute type normalizer */
+    protected Normalizer normalizer;
+
+    /** The attribute values to entry IDs table */
+    protected MemoryTable<K, String> forward;
+
+    /** The entry IDs to attribute values table */
+    protected MemoryTable<String, K> reverse;
+
+
+    public MemoryIndex()
+    {
+        super( true );
+    }
+
+
+    public MemoryIndex( String attributeId )
+    {
+        super( attributeId, true );
+    }
+
+
+    public MemoryIndex( String attributeId, boolean withReverse )
+    {
+        super( attributeId, withReverse );
+    }
+
+
+    public void init( SchemaManager schemaManager, AttributeType attributeType ) throws LdapException
+    {
+        this.attributeType = attributeType;
+
+        MatchingRule mr = attributeType.getEquality();
+
+        if ( mr == null )
+        {
+            mr = attributeType.getOrdering();
+        }
+
+        if ( mr == null )
+        {
+            mr = attributeType.getSubstring();
+        }
+
+        normalizer = mr.getNormalizer();
+
+        if ( normalizer == null )
+        {
+            throw new LdapOtherException( I18n.err( I18n.ERR_212, attributeType ) );
+        }
+
+        LdapComparator<K> comp = ( LdapComparator<K> ) mr.getLdapComparator();
+
+        /*
+         * The forward key/value map stores attribute values to master table
+         * primary keys.  A value for an attribute can occur several times in
+         * different entries so the forward map can have more than one value.
+         */
+        forward = new MemoryTable<>( attributeType.getName(), comp, UuidComparator.INSTANCE, true );
+
+        /*
+         * Now the reverse map stores the primary key into the master table as
+         * the key and the values of attributes as the value.  If an attribute
+         * is single valued according to its specification based on a schema
+         * then duplicate keys should not be allowed within the reverse table.
+         */
+        if ( withReverse )
+        {
+            if ( attributeType.isSingleValued() )
+            {
+                reverse = new MemoryTable<>( attributeType.getName(), UuidComparator.INSTANCE, comp, false );
+            }
+            else
+            {
+                reverse = new MemoryTable<>( attributeType.getName(), UuidComparator.INSTANCE, comp, true );
+            }
+        }
+    }
+
+
+    public void add( PartitionTxn partitionTxn, K attrVal, String id ) throws LdapException
+    {
+        forward.put( partitionTxn, attrVal, id );
+
+        if ( withReverse )
+        {
+            reverse.put( partitionTxn, id, attrVal );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( PartitionTxn partitionTxn ) throws LdapException, IOException
+    {
+        if ( forward != null )
+        {
+            forward.close( partitionTxn );
+        }
+
+        if ( reverse != null )
+        {
+            reverse.close( partitionTxn );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long count( PartitionTxn partitionTxn ) throws LdapException
+    {
+        return forward.count( partitionTxn );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long count( PartitionTxn partitionTxn, K attrVal ) throws LdapException
+    {
+        return forward.count( partitionTxn, attrVal );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void drop( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        if ( withReverse )
+        {
+            if ( isDupsEnabled() )
+            {
+                Cursor<Tuple<String, K>> cursor = reverse.cursor( partitionTxn, id );
+
+                try
+                {
+                    while ( cursor.next() )
+                    {
+                        Tuple<String, K> tuple = cursor.get();
+                        forward.remove( partitionTxn, tuple.getValue(), id );
+                    }
+    
+                    cursor.close();
+                }
+                catch ( CursorException | IOException e )
+                {
+                    throw new LdapOtherException( e.getMessage(), e );
+                }
+            }
+            else
+            {
+                K key = reverse.get( partitionTxn, id );
+
+                if ( key != null )
+                {
+                    forward.remove( partitionTxn, key, id );
+                }
+            }
+
+            reverse.remove( partitionTxn, id );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void drop( PartitionTxn partitionTxn, K attrVal, String id ) throws LdapException
+    {
+        forward.remove( partitionTxn, attrVal, id );
+
+        if ( withReverse )
+        {
+            reverse.remove( partitionTxn, id, attrVal );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean forward( PartitionTxn partitionTxn, K attrVal ) throws LdapException
+    {
+        return forward.has( partitionTxn, attrVal );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean forward( PartitionTxn partitionTxn, K attrVal, String id ) throws LdapException
+    {
+        return forward.has( partitionTxn, attrVal, id );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<IndexEntry<K, String>> forwardCursor( PartitionTxn partitionTxn ) throws LdapException
+    {
+        return new IndexEntryCursor<>( forward, null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<IndexEntry<K, String>> forwardCursor( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return new EmptyCursor<>();
+        }
+
+        return new IndexEntryCursor<>( forward, key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String forwardLookup( PartitionTxn partitionTxn, K attrVal ) throws LdapException
+    {
+        return forward.get( partitionTxn, attrVal );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<String> forwardValueCursor( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        return forward.valueCursor( partitionTxn, key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long greaterThanCount( PartitionTxn partitionTxn, K attrVal ) throws LdapException
+    {
+        return forward.greaterThanCount( partitionTxn, attrVal );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long lessThanCount( PartitionTxn partitionTxn, K attrVal ) throws LdapException
+    {
+        return forward.lessThanCount( partitionTxn,  attrVal );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean reverse( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        if ( withReverse )
+        {
+            return reverse.has( partitionTxn, id );
+        }
+        else
+        {
+            return false;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean reverse( PartitionTxn partitionTxn, String id, K attrVal ) throws LdapException
+    {
+        if ( withReverse )
+        {
+            return reverse.has( partitionTxn, id, attrVal );
+        }
+        else
+        {
+            return false;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public K reverseLookup( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        if ( withReverse )
+        {
+            return reverse.get( partitionTxn, id );
+        }
+        else
+        {
+            return null;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<K> reverseValueCursor( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        if ( withReverse )
+        {
+            return reverse.valueCursor( partitionTxn, id );
+        }
+        else
+        {
+            return new EmptyCursor<>();
+        }
+    }
+
+
+    /**
+     * throws UnsupportedOperationException cause it is a in-memory index
+     */
+    public void setWkDirPath( URI wkDirPath )
+    {
+        throw new UnsupportedOperationException( I18n.err( I18n.ERR_213 ) );
+    }
+
+
+    /**
+     * this method always returns null for MemoryIndex cause this is a in-memory index.
+     */
+    public URI getWkDirPath()
+    {
+        return null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isDupsEnabled()
+    {
+        if ( withReverse )
+        {
+            return reverse.isDupsEnabled();
+        }
+        else
+        {
+            return false;
+        }
+    }
+
+
+    /**
+     * A cursor over a forward table, returning the key and the entry ID in a
+     * single IndexEntry, updated each time it's read.
+     */
+    private static class IndexEntryCursor<K> extends MemoryTableCursor<K, String, IndexEntry<K, String>>
+    {
+        /** The returned IndexEntry */
+        private final IndexEntry<K, String> indexEntry = new IndexEntry<>();
+
+
+        IndexEntryCursor( MemoryTable<K, String> table, K onlyKey )
+        {
+            super( table, onlyKey );
+        }
+
+
+        @Override
+        protected IndexEntry<K, String> create( K key, String id )
+        {
+            indexEntry.setEntry( null );
+            indexEntry.setKey( key );
+            indexEntry.setId( id );
+
+            return indexEntry;
+        }
+
+
+        @Override
+        protected K getKey( IndexEntry<K, String> element )
+        {
+            return element.getKey();
+        }
+
+
+        @Override
+        protected String getValue( IndexEntry<K, String> element )
+        {
+            return element.getId();
+        }
+    }
+}
@@ -0,0 +1,757 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.impl.memory;
+
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.xdbm.AbstractTable;
+
+
+/**
+ * A Table implementation backed by in memory concurrent skip lists. Readers
+ * never lock : they see the tuples through the weakly consistent views the
+ * skip lists provide, so a cursor can be browsed while the table is being
+ * modified. Writers only synchronize on the values of the key they modify.
+ *
+ * @param <K> The key
+ * @param <V> The stored value
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MemoryTable<K, V> extends AbstractTable<K, V>
+{
+    /** The tuples, when duplicate keys are not allowed */
+    private final ConcurrentSkipListMap<K, V> singles;
+
+    /** The tuples, when duplicate keys are allowed */
+    private final ConcurrentSkipListMap<K, Values<V>> dups;
+
+    /** The number of tuples in this table */
+    private final AtomicLong size = new AtomicLong( 0L );
+
+
+    /**
+     * The values of a key when duplicates are allowed. It's also the monitor
+     * writers synchronize on : a Values is removed from the table only when
+     * it's empty, while holding its monitor, so a writer adding a value must
+     * check that the Values it has found is still in the table.
+     */
+    private static final class Values<V>
+    {
+        /** The sorted values */
+        private final ConcurrentSkipListSet<V> set;
+
+        /** The number of values, only modified while holding the monitor */
+        private volatile int size;
+
+
+        private Values( Comparator<V> valueComparator )
+        {
+            set = new ConcurrentSkipListSet<>( valueComparator );
+        }
+    }
+
+
+    /**
+     * Creates a new instance of MemoryTable.
+     *
+     * @param name The table name
+     * @param keyComparator The key comparator
+     * @param valueComparator The value comparator. May be null if duplicates are not allowed
+     * @param dupsEnabled Tells if a key can have many values
+     */
+    public MemoryTable( String name, Comparator<K> keyComparator, Comparator<V> valueComparator,
+        boolean dupsEnabled )
+    {
+        super( null, name, keyComparator, valueComparator );
+
+        allowsDuplicates = dupsEnabled && ( valueComparator != null );
+
+        if ( allowsDuplicates )
+        {
+            singles = null;
+            dups = new ConcurrentSkipListMap<>( keyComparator );
+        }
+        else
+        {
+            singles = new ConcurrentSkipListMap<>( keyComparator );
+            dups = null;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( PartitionTxn transaction ) throws LdapException
+    {
+        if ( allowsDuplicates )
+        {
+            dups.clear();
+        }
+        else
+        {
+            singles.clear();
+        }
+
+        size.set( 0L );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count( PartitionTxn transaction ) throws LdapException
+    {
+        return size.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return 0L;
+        }
+
+        if ( allowsDuplicates )
+        {
+            Values<V> values = dups.get( key );
+
+            return values == null ? 0L : values.size;
+        }
+
+        return singles.containsKey( key ) ? 1L : 0L;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V get( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return null;
+        }
+
+        return firstValue( key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long greaterThanCount( PartitionTxn transaction, K key ) throws LdapException
+    {
+        return size.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long lessThanCount( PartitionTxn transaction, K key ) throws LdapException
+    {
+        return size.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean has( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        return firstValue( key ) != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean has( PartitionTxn transaction, K key, V value ) throws LdapException
+    {
+        if ( ( key == null ) || ( value == null ) )
+        {
+            return false;
+        }
+
+        if ( allowsDuplicates )
+        {
+            Values<V> values = dups.get( key );
+
+            return ( values != null ) && values.set.contains( value );
+        }
+
+        V stored = singles.get( key );
+
+        return ( stored != null ) && ( compareValues( stored, value ) == 0 );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasGreaterOrEqual( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        return ceilingKey( key ) != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasGreaterOrEqual( PartitionTxn transaction, K key, V val ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        K found = ceilingKey( key );
+
+        return ( found != null ) && ( higherValue( found, val, true ) != null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasLessOrEqual( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        return floorKey( key ) != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasLessOrEqual( PartitionTxn transaction, K key, V val ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        K found = floorKey( key );
+
+        return ( found != null ) && ( lowerValue( found, val, true ) != null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void put( PartitionTxn partitionTxn, K key, V value ) throws LdapException
+    {
+        if ( ( key == null ) || ( value == null ) )
+        {
+            return;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            if ( singles.put( key, value ) == null )
+            {
+                size.incrementAndGet();
+            }
+
+            return;
+        }
+
+        while ( true )
+        {
+            Values<V> values = dups.get( key );
+
+            if ( values == null )
+            {
+                Values<V> created = new Values<>( valueComparator );
+                values = dups.putIfAbsent( key, created );
+
+                if ( values == null )
+                {
+                    values = created;
+                }
+            }
+
+            synchronized ( values )
+            {
+                // The values may have been emptied and removed in the meantime
+                if ( dups.get( key ) != values )
+                {
+                    continue;
+                }
+
+                if ( values.set.add( value ) )
+                {
+                    values.size++;
+                    size.incrementAndGet();
+                }
+
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            if ( singles.remove( key ) != null )
+            {
+                size.decrementAndGet();
+            }
+
+            return;
+        }
+
+        Values<V> values = dups.get( key );
+
+        while ( values != null )
+        {
+            synchronized ( values )
+            {
+                if ( dups.remove( key, values ) )
+                {
+                    size.addAndGet( -values.size );
+                    values.size = 0;
+
+                    return;
+                }
+            }
+
+            values = dups.get( key );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove( PartitionTxn partitionTxn, K key, V value ) throws LdapException
+    {
+        if ( ( key == null ) || ( value == null ) )
+        {
+            return;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            V stored = singles.get( key );
+
+            if ( ( stored != null ) && ( compareValues( stored, value ) == 0 ) && singles.remove( key, stored ) )
+            {
+                size.decrementAndGet();
+            }
+
+            return;
+        }
+
+        Values<V> values = dups.get( key );
+
+        if ( values == null )
+        {
+            return;
+        }
+
+        synchronized ( values )
+        {
+            if ( ( dups.get( key ) == values ) && values.set.remove( value ) )
+            {
+                values.size--;
+                size.decrementAndGet();
+
+                if ( values.size == 0 )
+                {
+                    dups.remove( key, values );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<Tuple<K, V>> cursor()
+    {
+        return new MemoryTableCursor<K, V, Tuple<K, V>>( this, null )
+        {
+            @Override
+            protected Tuple<K, V> create( K key, V value )
+            {
+                return new Tuple<>( key, value );
+            }
+
+
+            @Override
+            protected K getKey( Tuple<K, V> element )
+            {
+                return element.getKey();
+            }
+
+
+            @Override
+            protected V getValue( Tuple<K, V> element )
+            {
+                return element.getValue();
+            }
+        };
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<Tuple<K, V>> cursor( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return new EmptyCursor<>();
+        }
+
+        return new MemoryTableCursor<K, V, Tuple<K, V>>( this, key )
+        {
+            @Override
+            protected Tuple<K, V> create( K key, V value )
+            {
+                return new Tuple<>( key, value );
+            }
+
+
+            @Override
+            protected K getKey( Tuple<K, V> element )
+            {
+                return element.getKey();
+            }
+
+
+            @Override
+            protected V getValue( Tuple<K, V> element )
+            {
+                return element.getValue();
+            }
+        };
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<V> valueCursor( PartitionTxn transaction, final K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return new EmptyCursor<>();
+        }
+
+        return new MemoryTableCursor<K, V, V>( this, key )
+        {
+            @Override
+            protected V create( K key, V value )
+            {
+                return value;
+            }
+
+
+            @Override
+            protected K getKey( V element )
+            {
+                return key;
+            }
+
+
+            @Override
+            protected V getValue( V element )
+            {
+                return element;
+            }
+        };
+    }
+
+
+    //-------------------------------------------------------------------------
+    // Navigation methods, used by the cursors
+    //-------------------------------------------------------------------------
+    /**
+     * @return The smallest key, or null if the table is empty
+     */
+    K firstKey()
+    {
+        Map.Entry<K, ?> entry = allowsDuplicates ? dups.firstEntry() : singles.firstEntry();
+
+        return entry == null ? null : entry.getKey();
+    }
+
+
+    /**
+     * @return The greatest key, or null if the table is empty
+     */
+    K lastKey()
+    {
+        Map.Entry<K, ?> entry = allowsDuplicates ? dups.lastEntry() : singles.lastEntry();
+
+        return entry == null ? null : entry.getKey();
+    }
+
+
+    /**
+     * @return The smallest key strictly greater than the given key, or null
+     */
+    K higherKey( K key )
+    {
+        return allowsDuplicates ? dups.higherKey( key ) : singles.higherKey( key );
+    }
+
+
+    /**
+     * @return The greatest key strictly lower than the given key, or null
+     */
+    K lowerKey( K key )
+    {
+        return allowsDuplicates ? dups.lowerKey( key ) : singles.lowerKey( key );
+    }
+
+
+    private K ceilingKey( K key )
+    {
+        return allowsDuplicates ? dups.ceilingKey( key ) : singles.ceilingKey( key );
+    }
+
+
+    private K floorKey( K key )
+    {
+        return allowsDuplicates ? dups.floorKey( key ) : singles.floorKey( key );
+    }
+
+
+    /**
+     * @return The smallest value of the given key, or null if the key does not exist
+     */
+    V firstValue( K key )
+    {
+        if ( !allowsDuplicates )
+        {
+            return singles.get( key );
+        }
+
+        Values<V> values = dups.get( key );
+
+        if ( values == null )
+        {
+            return null;
+        }
+
+        try
+        {
+            return values.set.first();
+        }
+        catch ( NoSuchElementException nsee )
+        {
+            // The values are being removed
+            return null;
+        }
+    }
+
+
+    /**
+     * @return The greatest value of the given key, or null if the key does not exist
+     */
+    V lastValue( K key )
+    {
+        if ( !allowsDuplicates )
+        {
+            return singles.get( key );
+        }
+
+        Values<V> values = dups.get( key );
+
+        if ( values == null )
+        {
+            return null;
+        }
+
+        try
+        {
+            return values.set.last();
+        }
+        catch ( NoSuchElementException nsee )
+        {
+            // The values are being removed
+            return null;
+        }
+    }
+
+
+    /**
+     * Finds the smallest value of a key greater than (or equal to) a given value
+     *
+     * @param key The key
+     * @param value The value to compare the key values with
+     * @param inclusive Tells if a value equal to the given value can be returned
+     * @return The found value, or null
+     */
+    V higherValue( K key, V value, boolean inclusive )
+    {
+        if ( allowsDuplicates )
+        {
+            Values<V> values = dups.get( key );
+
+            if ( values == null )
+            {
+                return null;
+            }
+
+            return inclusive ? values.set.ceiling( value ) : values.set.higher( value );
+        }
+
+        V stored = singles.get( key );
+
+        if ( stored == null )
+        {
+            return null;
+        }
+
+        int comparison = compareValues( stored, value );
+
+        return ( comparison > 0 ) || ( inclusive && ( comparison == 0 ) ) ? stored : null;
+    }
+
+
+    /**
+     * Finds the greatest value of a key lower than (or equal to) a given value
+     *
+     * @param key The key
+     * @param value The value to compare the key values with
+     * @param inclusive Tells if a value equal to the given value can be returned
+     * @return The found value, or null
+     */
+    V lowerValue( K key, V value, boolean inclusive )
+    {
+        if ( allowsDuplicates )
+        {
+            Values<V> values = dups.get( key );
+
+            if ( values == null )
+            {
+                return null;
+            }
+
+            return inclusive ? values.set.floor( value ) : values.set.lower( value );
+        }
+
+        V stored = singles.get( key );
+
+        if ( stored == null )
+        {
+            return null;
+        }
+
+        int comparison = compareValues( stored, value );
+
+        return ( comparison < 0 ) || ( inclusive && ( comparison == 0 ) ) ? stored : null;
+    }
+
+
+    /**
+     * Compare two values. When there is no value comparator, as for the
+     * master table, the single value of a key is considered equal to any value.
+     */
+    private int compareValues( V value1, V value2 )
+    {
+        if ( valueComparator == null )
+        {
+            return 0;
+        }
+
+        return valueComparator.compare( value1, value2 );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( "Name    : " ).append( name ).append( '\n' );
+        sb.append( "NbElems : " ).append( size.get() ).append( '\n' );
+        sb.append( "Dups    : " ).append( allowsDuplicates ).append( '\n' );
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,482 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.impl.memory;
+
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor over the tuples of a {@link MemoryTable}, or over the tuples of a
+ * single key. The cursor only remembers the key and the value it's positioned
+ * on, and looks for the next or previous tuple in the table each time it
+ * moves : it never fails when the table is modified while being browsed, and
+ * sees the tuples added after its current position.
+ * <br>
+ * The elements returned by the cursor are built from the key and the value by
+ * the concrete implementations, so the tuples are not boxed when it's not
+ * needed.
+ *
+ * @param <K> The key
+ * @param <V> The stored value
+ * @param <E> The element returned by the cursor
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+abstract class MemoryTableCursor<K, V, E> extends AbstractCursor<E>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The possible positions of the cursor */
+    private enum Position
+    {
+        /** Before the first tuple */
+        BEFORE_FIRST,
+
+        /** After the last tuple */
+        AFTER_LAST,
+
+        /** Before the tuple with the current key and value, which may not exist */
+        BEFORE,
+
+        /** On the tuple with the current key and value */
+        ON,
+
+        /** After the tuple with the current key and value, which may not exist */
+        AFTER
+    }
+
+    /** The browsed table */
+    private final MemoryTable<K, V> table;
+
+    /** The only key to browse, or null to browse the whole table */
+    private final K onlyKey;
+
+    /** The cursor position */
+    private Position position = Position.BEFORE_FIRST;
+
+    /** The current key */
+    private K key;
+
+    /** The current value. If null when positioned before or after a key, it stands for all its values */
+    private V value;
+
+
+    /**
+     * Creates a new instance of MemoryTableCursor, positioned before the first tuple.
+     *
+     * @param table The table to browse
+     * @param onlyKey The only key to browse, or null to browse the whole table
+     */
+    MemoryTableCursor( MemoryTable<K, V> table, K onlyKey )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating MemoryTableCursor {}", this );
+        }
+
+        this.table = table;
+        this.onlyKey = onlyKey;
+    }
+
+
+    /**
+     * Build the element returned by the cursor
+     *
+     * @param key The current key
+     * @param value The current value
+     * @return The element
+     */
+    protected abstract E create( K key, V value );
+
+
+    /**
+     * @param element An element
+     * @return The element key
+     */
+    protected abstract K getKey( E element );
+
+
+    /**
+     * @param element An element
+     * @return The element value, or null to stand for all the key values
+     */
+    protected abstract V getValue( E element );
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean available()
+    {
+        return position == Position.ON;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void before( E element ) throws LdapException, CursorException
+    {
+        checkNotClosed();
+        setPosition( getKey( element ), getValue( element ), Position.BEFORE );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void after( E element ) throws LdapException, CursorException
+    {
+        checkNotClosed();
+        setPosition( getKey( element ), getValue( element ), Position.AFTER );
+    }
+
+
+    private void setPosition( K newKey, V newValue, Position newPosition )
+    {
+        if ( onlyKey != null )
+        {
+            int comparison = table.getKeyComparator().compare( newKey, onlyKey );
+
+            if ( comparison < 0 )
+            {
+                position = Position.BEFORE_FIRST;
+
+                return;
+            }
+            else if ( comparison > 0 )
+            {
+                position = Position.AFTER_LAST;
+
+                return;
+            }
+        }
+
+        key = newKey;
+        value = newValue;
+        position = newPosition;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        position = Position.BEFORE_FIRST;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        position = Position.AFTER_LAST;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        boolean found;
+
+        switch ( position )
+        {
+            case AFTER_LAST:
+                return false;
+
+            case BEFORE_FIRST:
+                found = onlyKey == null ? firstTuple() : higherTuple( onlyKey, null, true );
+                break;
+
+            case BEFORE:
+                found = higherTuple( key, value, true );
+                break;
+
+            default:
+                found = higherTuple( key, value, false );
+                break;
+        }
+
+        position = found ? Position.ON : Position.AFTER_LAST;
+
+        return found;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        boolean found;
+
+        switch ( position )
+        {
+            case BEFORE_FIRST:
+                return false;
+
+            case AFTER_LAST:
+                found = onlyKey == null ? lastTuple() : lowerTuple( onlyKey, null, true );
+                break;
+
+            case AFTER:
+                found = lowerTuple( key, value, true );
+                break;
+
+            default:
+                found = lowerTuple( key, value, false );
+                break;
+        }
+
+        position = found ? Position.ON : Position.BEFORE_FIRST;
+
+        return found;
+    }
+
+
+    private boolean firstTuple()
+    {
+        K first = table.firstKey();
+
+        if ( first == null )
+        {
+            return false;
+        }
+
+        return higherTuple( first, null, true );
+    }
+
+
+    private boolean lastTuple()
+    {
+        K last = table.lastKey();
+
+        if ( last == null )
+        {
+            return false;
+        }
+
+        return lowerTuple( last, null, true );
+    }
+
+
+    /**
+     * Move to the first tuple after the given key and value. A null value
+     * stands for all the values of the key.
+     */
+    private boolean higherTuple( K fromKey, V fromValue, boolean inclusive )
+    {
+        V found;
+
+        if ( fromValue == null )
+        {
+            found = inclusive ? table.firstValue( fromKey ) : null;
+        }
+        else
+        {
+            found = table.higherValue( fromKey, fromValue, inclusive );
+        }
+
+        if ( found != null )
+        {
+            key = fromKey;
+            value = found;
+
+            return true;
+        }
+
+        if ( onlyKey != null )
+        {
+            return false;
+        }
+
+        // Move to the next key, skipping the ones which are being removed
+        K nextKey = table.higherKey( fromKey );
+
+        while ( nextKey != null )
+        {
+            found = table.firstValue( nextKey );
+
+            if ( found != null )
+            {
+                key = nextKey;
+                value = found;
+
+                return true;
+            }
+
+            nextKey = table.higherKey( nextKey );
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Move to the last tuple before the given key and value. A null value
+     * stands for all the values of the key.
+     */
+    private boolean lowerTuple( K fromKey, V fromValue, boolean inclusive )
+    {
+        V found;
+
+        if ( fromValue == null )
+        {
+            found = inclusive ? table.lastValue( fromKey ) : null;
+        }
+        else
+        {
+            found = table.lowerValue( fromKey, fromValue, inclusive );
+        }
+
+        if ( found != null )
+        {
+            key = fromKey;
+            value = found;
+
+            return true;
+        }
+
+        if ( onlyKey != null )
+        {
+            return false;
+        }
+
+        // Move to the previous key, skipping the ones which are being removed
+        K previousKey = table.lowerKey( fromKey );
+
+        while ( previousKey != null )
+        {
+            found = table.lastValue( previousKey );
+
+            if ( found != null )
+            {
+                key = previousKey;
+                value = found;
+
+                return true;
+            }
+
+            previousKey = table.lowerKey( previousKey );
+        }
+
+        return false;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public E get() throws CursorException
+    {
+        checkNotClosed();
+
+        if ( position != Position.ON )
+        {
+            throw new InvalidCursorPositionException();
+        }
+
+        return create( key, value );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString( String tabs )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( tabs ).append( "MemoryTableCursor (" ).append( table.getName() ).append( ", " );
+        sb.append( position );
+
+        if ( ( position != Position.BEFORE_FIRST ) && ( position != Position.AFTER_LAST ) )
+        {
+            sb.append( " [" ).append( key ).append( ", " ).append( value ).append( ']' );
+        }
+
+        sb.append( ")" );
+
+        return sb.toString();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return toString( "" );
+    }
+}
@@ -20,9 +20,13 @@
 package org.apache.directory.server.xdbm.search;
 
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
-import org.apache.directory.api.ldap.model.cursor.SetCursor;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
@@ -41,12 +45,18 @@ import org.apache.directory.server.xdbm.IndexEntry;
  */
 public class PartitionSearchResult
 {
-    /** The set of candidate UUIDs selected by the search */
-    private SetCursor<IndexEntry<String, String>> resultSet;
+    /** The candidates selected by the search, ordered by UUID */
+    private List<IndexEntry<String, String>> results = Collections.emptyList();
+
+    /** The cursor on the selected candidates */
+    private Cursor<IndexEntry<String, String>> resultSet = new ListCursor<>( results );
 
     /** The set of candidate UUIDs */
     private Set<String> candidateSet;
 
+    /** Tells if the result set contains all the entries, the filter selecting no smaller candidate set */
+    private boolean fullScan;
+
     /** The flag indicating if we are dereferencing the aliases. Default to Never. */
     private AliasDerefMode aliasDerefMode = AliasDerefMode.NEVER_DEREF_ALIASES;
 
@@ -71,18 +81,55 @@ public class PartitionSearchResult
     /**
      * @return the resultSet
      */
-    public SetCursor<IndexEntry<String, String>> getResultSet()
+    public Cursor<IndexEntry<String, String>> getResultSet()
     {
         return resultSet;
     }
 
 
     /**
+     * Sets the candidates selected by the search. They are ordered by UUID, so that
+     * a cursor can be positioned on a given candidate, even when the search is run
+     * again.
+     *
      * @param set the resultSet to set
      */
     public void setResultSet( Set<IndexEntry<String, String>> set )
     {
-        resultSet = new SetCursor<>( set );
+        results = new ArrayList<>( set );
+        results.sort( ( entry1, entry2 ) -> entry1.getId().compareTo( entry2.getId() ) );
+        resultSet = new ListCursor<>( results );
+    }
+
+
+    /**
+     * Creates a cursor on the candidates following a given UUID, or starting with it.
+     *
+     * @param id The UUID
+     * @param after Tells if the candidate with this UUID is excluded
+     * @return The cursor, positioned before its first candidate
+     */
+    public Cursor<IndexEntry<String, String>> getResultSet( String id, boolean after )
+    {
+        int low = 0;
+        int high = results.size();
+
+        while ( low < high )
+        {
+            int middle = ( low + high ) >>> 1;
+            int comparison = results.get( middle ).getId().compareTo( id );
+
+            if ( ( comparison < 0 ) || ( after && ( comparison == 0 ) ) )
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+
+        return new ListCursor<>( results.subList( low, results.size() ) );
     }
 
 
@@ -104,6 +151,25 @@ public class PartitionSearchResult
     }
 
 
+    /**
+     * @return true if the result set contains all the entries of the partition. The
+     * candidate set is then not used
+     */
+    public boolean isFullScan()
+    {
+        return fullScan;
+    }
+
+
+    /**
+     * @param fullScan true if the result set contains all the entries of the partition
+     */
+    public void setFullScan( boolean fullScan )
+    {
+        this.fullScan = fullScan;
+    }
+
+
     /**
      * @return the evaluator
      */
@@ -73,6 +73,8 @@ public class EqualityEvaluator<T> extends LeafEvaluator<T>
             }
         }
 
+        indexOnly = canUseIndexOnly();
+
         MatchingRule mr = attributeType.getEquality();
 
         if ( mr == null )
@@ -102,10 +104,26 @@ public class EqualityEvaluator<T> extends LeafEvaluator<T>
      * {@inheritDoc}
      */
     @Override
+    @SuppressWarnings("unchecked")
     public boolean evaluate( PartitionTxn partitionTxn, IndexEntry<?, String> indexEntry ) throws LdapException
     {
         Entry entry = indexEntry.getEntry();
 
+        // Probe the index rather than fetching the entry
+        if ( ( null == entry ) && indexOnly )
+        {
+            T key = ( T ) node.getValue().getNormalized();
+
+            if ( idx.hasReverse() )
+            {
+                return idx.reverse( partitionTxn, indexEntry.getId(), key );
+            }
+            else
+            {
+                return idx.forward( partitionTxn, key, indexEntry.getId() );
+            }
+        }
+
         // resuscitate the entry if it has not been and set entry in IndexEntry
         if ( null == entry )
         {
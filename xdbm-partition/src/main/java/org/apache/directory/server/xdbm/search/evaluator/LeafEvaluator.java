@@ -20,6 +20,7 @@
 package org.apache.directory.server.xdbm.search.evaluator;
 
 
+import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.filter.SimpleNode;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.LdapComparator;
@@ -60,6 +61,9 @@ public abstract class LeafEvaluator<T> implements Evaluator<SimpleNode<T>>
     /** The index to use if any */
     protected Index<T, String> idx;
 
+    /** Tells if the assertion can be checked on the index alone, without fetching the entry */
+    protected boolean indexOnly;
+
 
     /**
      * Creates a new LeafEvaluator
@@ -77,6 +81,23 @@ public abstract class LeafEvaluator<T> implements Evaluator<SimpleNode<T>>
     }
 
 
+    /**
+     * Tells if the index is enough to evaluate the assertion, without fetching the
+     * entry. It has to be a user index, as the system indexes don't store all the
+     * values (the objectClass index does not contain 'top', for instance), and the
+     * AttributeType must not have any descendant, as their values are stored in
+     * their own index.
+     *
+     * @return <tt>true</tt> if the index can be used instead of the entry
+     * @throws LdapException If we can't check the indexes
+     */
+    protected boolean canUseIndexOnly() throws LdapException
+    {
+        return ( idx != null ) && db.hasUserIndexOn( attributeType )
+            && !schemaManager.getAttributeTypeRegistry().hasDescendants( attributeType );
+    }
+
+
     /**
      * @return The AttributeType
      */
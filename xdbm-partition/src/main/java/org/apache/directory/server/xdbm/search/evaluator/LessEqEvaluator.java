@@ -20,8 +20,11 @@
 package org.apache.directory.server.xdbm.search.evaluator;
 
 
+import java.io.IOException;
 import java.util.Iterator;
 
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Value;
@@ -77,6 +80,9 @@ public class LessEqEvaluator<T> extends LeafEvaluator<T>
             idx = null;
         }
 
+        // We need the reverse index to get the entry values
+        indexOnly = canUseIndexOnly() && idx.hasReverse();
+
         /*
          * We prefer matching using the Normalizer and Comparator pair from
          * the ordering matchingRule if one is available.  It may very well
@@ -118,6 +124,13 @@ public class LessEqEvaluator<T> extends LeafEvaluator<T>
     {
         Entry entry = indexEntry.getEntry();
 
+        // Check the values stored in the reverse index rather than fetching the entry
+        if ( ( null == entry ) && indexOnly )
+        {
+            //noinspection unchecked
+            return evaluateOnIndex( partitionTxn, ( IndexEntry<Object, String> ) indexEntry );
+        }
+
         // resuscitate the entry if it has not been and set entry in IndexEntry
         if ( null == entry )
         {
@@ -230,7 +243,8 @@ public class LessEqEvaluator<T> extends LeafEvaluator<T>
             {
                 if ( indexEntry != null )
                 {
-                    indexEntry.setKey( value.getString() );
+                    // The normalized value, as stored in the index
+                    indexEntry.setKey( value.getNormalized() );
                 }
                 
                 return true;
@@ -241,6 +255,35 @@ public class LessEqEvaluator<T> extends LeafEvaluator<T>
     }
 
 
+    private boolean evaluateOnIndex( PartitionTxn partitionTxn, IndexEntry<Object, String> indexEntry )
+        throws LdapException
+    {
+        Object assertion = node.getValue().getNormalized();
+
+        try ( Cursor<T> values = idx.reverseValueCursor( partitionTxn, indexEntry.getId() ) )
+        {
+            // The index contains the normalized values
+            while ( values.next() )
+            {
+                T value = values.get();
+
+                if ( ldapComparator.compare( value, assertion ) <= 0 )
+                {
+                    indexEntry.setKey( value );
+
+                    return true;
+                }
+            }
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        return false;
+    }
+
+
     /**
      * @see Object#toString()
      */
@@ -55,6 +55,9 @@ public class PresenceEvaluator implements Evaluator<PresenceNode>
     /** The SchemaManager instance */
     private final SchemaManager schemaManager;
 
+    /** Tells if the presence index can be used instead of the entry. Computed on the first evaluation */
+    private Boolean indexOnly;
+
 
     /**
      * Creates a new PresenceEvaluator
@@ -101,6 +104,20 @@ public class PresenceEvaluator implements Evaluator<PresenceNode>
     {
         Entry entry = indexEntry.getEntry();
 
+        if ( indexOnly == null )
+        {
+            // The presence index only contains the attributes having a user index,
+            // and the descendants' values are not stored with the attribute
+            indexOnly = db.hasUserIndexOn( attributeType )
+                && !schemaManager.getAttributeTypeRegistry().hasDescendants( attributeType );
+        }
+
+        // Probe the presence index rather than fetching the entry
+        if ( ( null == entry ) && indexOnly )
+        {
+            return db.getPresenceIndex().forward( partitionTxn, attributeType.getOid(), indexEntry.getId() );
+        }
+
         // resuscitate the entry if it has not been and set entry in IndexEntry
         if ( null == entry )
         {
@@ -20,13 +20,17 @@
 package org.apache.directory.server.xdbm.search.evaluator;
 
 
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.regex.Pattern;
 
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
 import org.apache.directory.api.ldap.model.filter.SubstringNode;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.MatchingRule;
@@ -34,7 +38,9 @@ import org.apache.directory.api.ldap.model.schema.Normalizer;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.normalizers.NoOpNormalizer;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.IndexNotFoundException;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Evaluator;
 
@@ -64,6 +70,9 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
     /** The associated normalizer */
     private final Normalizer normalizer;
 
+    /** The index, if the values can be checked on it without fetching the entry */
+    private final Index<String, String> idx;
+
 
     /**
      * Creates a new SubstringEvaluator for substring expressions.
@@ -74,37 +83,93 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
      * @throws LdapException if there are failures accessing resources and the db
      */
     public SubstringEvaluator( SubstringNode node, Store db, SchemaManager schemaManager ) throws LdapException
+    {
+        this( node, db, schemaManager, compileRegex( node ) );
+    }
+
+
+    /**
+     * Creates a new SubstringEvaluator for substring expressions, using a regular
+     * expression already compiled for this node.
+     *
+     * @param node the substring expression node
+     * @param db the database this evaluator uses
+     * @param schemaManager the schema manager
+     * @param regex the regular expression returned by {@link #compileRegex(SubstringNode)} for this node
+     * @throws LdapException if there are failures accessing resources and the db
+     */
+    @SuppressWarnings("unchecked")
+    public SubstringEvaluator( SubstringNode node, Store db, SchemaManager schemaManager, Pattern regex )
+        throws LdapException
     {
         this.db = db;
         this.node = node;
         this.schemaManager = schemaManager;
         this.attributeType = node.getAttributeType();
+        this.normalizer = getNormalizer( attributeType );
+        this.regex = regex;
 
-        MatchingRule rule = attributeType.getSubstring();
-
-        if ( rule == null )
-        {
-            rule = attributeType.getEquality();
-        }
-
-        if ( rule != null )
+        // We need the normalized values stored in the reverse index
+        if ( ( regex != null ) && db.hasUserIndexOn( attributeType )
+            && !schemaManager.getAttributeTypeRegistry().hasDescendants( attributeType ) )
         {
-            normalizer = rule.getNormalizer();
+            try
+            {
+                Index<String, String> index = ( Index<String, String> ) db.getIndex( attributeType );
+                idx = index.hasReverse() ? index : null;
+            }
+            catch ( IndexNotFoundException infe )
+            {
+                throw new LdapOtherException( infe.getMessage(), infe );
+            }
         }
         else
         {
-            normalizer = new NoOpNormalizer( attributeType.getSyntaxOid() );
+            idx = null;
         }
+    }
+
+
+    /**
+     * Compiles the regular expression a substring expression is matched with.
+     *
+     * @param node the substring expression node
+     * @return The regular expression, or null if the attributeType is not human readable
+     * @throws LdapException if the regular expression can't be built
+     */
+    public static Pattern compileRegex( SubstringNode node ) throws LdapException
+    {
+        AttributeType attributeType = node.getAttributeType();
 
         // compile the regular expression to search for a matching attribute
         // if the attributeType is humanReadable
         if ( attributeType.getSyntax().isHumanReadable() )
         {
-            regex = node.getRegex( normalizer );
+            return node.getRegex( getNormalizer( attributeType ) );
         }
         else
         {
-            regex = null;
+            return null;
+        }
+    }
+
+
+    private static Normalizer getNormalizer( AttributeType attributeType )
+    {
+        MatchingRule rule = attributeType.getSubstring();
+
+        if ( rule == null )
+        {
+            rule = attributeType.getEquality();
+        }
+
+        if ( rule != null )
+        {
+            return rule.getNormalizer();
+        }
+        else
+        {
+            return new NoOpNormalizer( attributeType.getSyntaxOid() );
         }
     }
 
@@ -120,6 +185,31 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
 
         Entry entry = indexEntry.getEntry();
 
+        // Match the values stored in the reverse index rather than fetching the entry
+        if ( ( null == entry ) && ( idx != null ) )
+        {
+            try ( Cursor<String> values = idx.reverseValueCursor( partitionTxn, indexEntry.getId() ) )
+            {
+                while ( values.next() )
+                {
+                    String normalizedValue = values.get();
+
+                    if ( regex.matcher( normalizedValue ).matches() )
+                    {
+                        indexEntry.setKey( normalizedValue );
+
+                        return true;
+                    }
+                }
+            }
+            catch ( CursorException | IOException e )
+            {
+                throw new LdapOtherException( e.getMessage(), e );
+            }
+
+            return false;
+        }
+
         // resuscitate the entry if it has not been and set entry in IndexEntry
         if ( null == entry )
         {
@@ -162,8 +252,8 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
                     // Once match is found cleanup and return true
                     if ( regex.matcher( normalizedValue ).matches() )
                     {
-                        // before returning we set the normalized value
-                        indexEntry.setKey( strValue );
+                        // before returning we set the normalized value, as stored in the index
+                        indexEntry.setKey( value.getNormalized() );
                         return true;
                     }
                 }
@@ -225,8 +315,8 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
                         // Once match is found cleanup and return true
                         if ( regex.matcher( normalizedValue ).matches() )
                         {
-                            // before returning we set the normalized value
-                            indexEntry.setKey( strValue );
+                            // before returning we set the normalized value, as stored in the index
+                            indexEntry.setKey( value.getNormalized() );
                             return true;
                         }
                     }
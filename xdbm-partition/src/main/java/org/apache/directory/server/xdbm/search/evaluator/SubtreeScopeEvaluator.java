@@ -31,6 +31,7 @@ import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.SubtreeLabels;
 import org.apache.directory.server.xdbm.search.Evaluator;
 
 
@@ -66,6 +67,9 @@ public class SubtreeScopeEvaluator implements Evaluator<ScopeNode>
     /** The entry database/store */
     private final Store db;
 
+    /** The subtree labels, used to check the scope without fetching the candidates */
+    private final SubtreeLabels labels;
+
 
     /**
      * Creates a subtree scope node evaluator for search expressions.
@@ -89,6 +93,15 @@ public class SubtreeScopeEvaluator implements Evaluator<ScopeNode>
         
         baseIsContextEntry = db.getSuffixId( partitionTxn ) == baseId;
 
+        if ( baseIsContextEntry )
+        {
+            labels = null;
+        }
+        else
+        {
+            labels = db.getSubtreeLabels( partitionTxn );
+        }
+
         dereferencing = node.getDerefAliases().isDerefInSearching() || node.getDerefAliases().isDerefAlways();
     }
 
@@ -133,21 +146,6 @@ public class SubtreeScopeEvaluator implements Evaluator<ScopeNode>
     public boolean evaluate( PartitionTxn partitionTxn, IndexEntry<?, String> indexEntry ) throws LdapException
     {
         String id = indexEntry.getId();
-        Entry entry = indexEntry.getEntry();
-
-        // Fetch the entry
-        if ( null == entry )
-        {
-            entry = db.fetch( partitionTxn, indexEntry.getId() );
-
-            if ( null == entry )
-            {
-                // The entry is not anymore present : get out
-                return false;
-            }
-
-            indexEntry.setEntry( entry );
-        }
 
         /*
          * This condition catches situations where the candidate is equal to 
@@ -156,7 +154,38 @@ public class SubtreeScopeEvaluator implements Evaluator<ScopeNode>
          * to all it's subordinates since that would be the entire set of 
          * entries in the db.
          */
-        boolean isDescendant = baseIsContextEntry || baseId.equals( id ) || entry.getDn().isDescendantOf( node.getBaseDn() );
+        boolean isDescendant = baseIsContextEntry || baseId.equals( id );
+
+        if ( !isDescendant )
+        {
+            // Compare the candidate and base labels, if we know them
+            Boolean labelled = labels.isDescendant( baseId, id );
+
+            if ( labelled != null )
+            {
+                isDescendant = labelled;
+            }
+            else
+            {
+                Entry entry = indexEntry.getEntry();
+
+                // Fetch the entry
+                if ( null == entry )
+                {
+                    entry = db.fetch( partitionTxn, indexEntry.getId() );
+
+                    if ( null == entry )
+                    {
+                        // The entry is not anymore present : get out
+                        return false;
+                    }
+
+                    indexEntry.setEntry( entry );
+                }
+
+                isDescendant = entry.getDn().isDescendantOf( node.getBaseDn() );
+            }
+        }
 
         /*
          * The candidate id could be any entry in the db.  If search
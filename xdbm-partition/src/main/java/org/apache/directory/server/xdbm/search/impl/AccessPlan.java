@@ -0,0 +1,39 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+/**
+ * The way the candidates of a conjunction are computed, as chosen by the
+ * {@link DefaultOptimizer} cost model.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public enum AccessPlan
+{
+    /** The candidates are read from the most selective child index, the other children are evaluated on the entries */
+    INDEX_THEN_EVALUATE,
+
+    /** The candidates of the most selective children indexes are intersected before fetching the entries */
+    INTERSECTION,
+
+    /** All the entries are read from the master table and evaluated */
+    FULL_SCAN
+}
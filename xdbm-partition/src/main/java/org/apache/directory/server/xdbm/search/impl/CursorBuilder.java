@@ -21,6 +21,8 @@ package org.apache.directory.server.xdbm.search.impl;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.regex.Pattern;
@@ -45,10 +47,7 @@ import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
-import org.apache.directory.api.ldap.model.schema.MatchingRule;
-import org.apache.directory.api.ldap.model.schema.Normalizer;
 import org.apache.directory.api.ldap.model.schema.PrepareString;
-import org.apache.directory.api.ldap.model.schema.normalizers.NoOpNormalizer;
 import org.apache.directory.api.util.exception.NotImplementedException;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
@@ -509,11 +508,24 @@ public class CursorBuilder
             return Long.MAX_VALUE;
         }
 
-        int nbResults = 0;
+        long nbResults = 0L;
+        String baseId = node.getBaseId();
+
+        // The subtree labels give us all the descendants with a range scan
+        List<String> subtree = db.getSubtreeLabels( partitionTxn ).getSubtree( baseId );
+
+        if ( subtree != null )
+        {
+            for ( String uuid : subtree )
+            {
+                nbResults += addSubLevelCandidate( partitionTxn, node, searchResult, uuid );
+            }
+
+            return nbResults;
+        }
 
         // We use the RdnIndex to get all the entries from a starting point
         // and below up to the number of descendant
-        String baseId = node.getBaseId();
         ParentIdAndRdn parentIdAndRdn = db.getRdnIndex().reverseLookup( partitionTxn, baseId );
         IndexEntry<ParentIdAndRdn, String> startingPos = new IndexEntry<>();
 
@@ -525,7 +537,6 @@ public class CursorBuilder
         String parentId = parentIdAndRdn.getParentId();
 
         Cursor<IndexEntry<String, String>> scopeCursor = new DescendantCursor( partitionTxn, db, baseId, parentId, rdnCursor );
-        Set<String> candidateSet = searchResult.getCandidateSet();
 
         // Fetch all the UUIDs if we have an index
         // And loop on it
@@ -533,67 +544,61 @@ public class CursorBuilder
         {
             IndexEntry<String, String> indexEntry = scopeCursor.get();
 
-            String uuid = indexEntry.getId();
+            nbResults += addSubLevelCandidate( partitionTxn, node, searchResult, indexEntry.getId() );
+        }
 
-            // If the entry is an alias, and we asked for it to be dereferenced,
-            // we will dereference the alias
-            if ( searchResult.isDerefAlways() || searchResult.isDerefInSearching() )
-            {
-                Dn aliasedDn = db.getAliasIndex().reverseLookup( partitionTxn, uuid );
+        scopeCursor.close();
 
-                if ( aliasedDn != null )
-                {
-                    if ( !aliasedDn.isSchemaAware() )
-                    {
-                        aliasedDn = new Dn( evaluatorBuilder.getSchemaManager(), aliasedDn );
-                    }
+        return nbResults;
+    }
 
-                    String aliasedId = db.getEntryId( partitionTxn, aliasedDn );
 
-                    // This is an alias. Add it to the set of candidates to process, if it's not already
-                    // present in the candidate set 
-                    boolean added = candidateSet.add( aliasedId );
-                    
-                    if ( added )
-                    {
-                        nbResults++;
+    /**
+     * Adds an entry of a SubLevelScope to the set of candidates, dereferencing it
+     * if it's an alias and if we have been asked to.
+     * 
+     * @return The number of added candidates
+     */
+    private long addSubLevelCandidate( PartitionTxn partitionTxn, ScopeNode node, PartitionSearchResult searchResult,
+        String uuid ) throws LdapException, IOException, CursorException
+    {
+        Set<String> candidateSet = searchResult.getCandidateSet();
 
-                        ScopeNode newScopeNode = new ScopeNode(
-                            node.getDerefAliases(),
-                            aliasedDn,
-                            aliasedId,
-                            node.getScope() );
+        // If the entry is an alias, and we asked for it to be dereferenced,
+        // we will dereference the alias
+        if ( searchResult.isDerefAlways() || searchResult.isDerefInSearching() )
+        {
+            Dn aliasedDn = db.getAliasIndex().reverseLookup( partitionTxn, uuid );
 
-                        nbResults += computeSubLevelScope( partitionTxn, newScopeNode, searchResult );
-                    }
-                }
-                else
+            if ( aliasedDn != null )
+            {
+                if ( !aliasedDn.isSchemaAware() )
                 {
-                    // This is not an alias
-                    // The UUID is not present in the Set, we add it
-                    boolean added = candidateSet.add( uuid );
-                    
-                    if ( added )
-                    {
-                        nbResults++;
-                    }
+                    aliasedDn = new Dn( evaluatorBuilder.getSchemaManager(), aliasedDn );
                 }
-            }
-            else
-            {
-                // The UUID is not present in the Set, we add it
-                boolean added = candidateSet.add( uuid );
-                
-                if ( added )
+
+                String aliasedId = db.getEntryId( partitionTxn, aliasedDn );
+
+                // This is an alias. Add it to the set of candidates to process, if it's not already
+                // present in the candidate set 
+                if ( candidateSet.add( aliasedId ) )
                 {
-                    nbResults++;
+                    ScopeNode newScopeNode = new ScopeNode(
+                        node.getDerefAliases(),
+                        aliasedDn,
+                        aliasedId,
+                        node.getScope() );
+
+                    return 1L + computeSubLevelScope( partitionTxn, newScopeNode, searchResult );
                 }
+
+                return 0L;
             }
         }
 
-        scopeCursor.close();
-
-        return nbResults;
+        // This is not an alias
+        // The UUID is not present in the Set, we add it
+        return candidateSet.add( uuid ) ? 1L : 0L;
     }
 
 
@@ -639,35 +644,8 @@ public class CursorBuilder
             
             int nbResults = 0;
 
-            MatchingRule rule = attributeType.getSubstring();
-
-            if ( rule == null )
-            {
-                rule = attributeType.getEquality();
-            }
-
-            Normalizer normalizer;
-            Pattern regexp;
-
-            if ( rule != null )
-            {
-                normalizer = rule.getNormalizer();
-            }
-            else
-            {
-                normalizer = new NoOpNormalizer( attributeType.getSyntaxOid() );
-            }
-
-            // compile the regular expression to search for a matching attribute
-            // if the attributeType is humanReadable
-            if ( attributeType.getSyntax().isHumanReadable() )
-            {
-                regexp = node.getRegex( normalizer );
-            }
-            else
-            {
-                regexp = null;
-            }
+            // The regular expression is compiled once for all the searches using this filter
+            Pattern regexp = evaluatorBuilder.getRegex( node );
 
             Set<String> uuidSet = searchResult.getCandidateSet();
 
@@ -818,6 +796,20 @@ public class CursorBuilder
             }
         }
 
+        Object plan = node.get( DefaultOptimizer.PLAN_ANNOTATION );
+
+        if ( plan == AccessPlan.FULL_SCAN )
+        {
+            // Cheaper than fetching the candidates one by one
+            return Long.MAX_VALUE;
+        }
+
+        if ( plan == AccessPlan.INTERSECTION )
+        {
+            return computeIntersection( partitionTxn,
+                ( List<ExprNode> ) node.get( DefaultOptimizer.INTERSECTION_ANNOTATION ), searchResult );
+        }
+
         // Once found we return the number of candidates for this child
         ExprNode minChild = children.get( minIndex );
 
@@ -825,6 +817,208 @@ public class CursorBuilder
     }
 
 
+    /**
+     * Computes the candidates of some children of an AND node, and keeps the ones which
+     * are candidates for all of them.
+     *
+     * @param children The children to intersect, the most selective first
+     * @return The number of candidates
+     */
+    private long computeIntersection( PartitionTxn partitionTxn, List<ExprNode> children,
+        PartitionSearchResult searchResult ) throws LdapException
+    {
+        String[] intersection = intersectIds( partitionTxn, children, searchResult );
+
+        if ( intersection == null )
+        {
+            return Long.MAX_VALUE;
+        }
+
+        Set<String> uuidSet = searchResult.getCandidateSet();
+        long nbResults = 0L;
+
+        for ( String uuid : intersection )
+        {
+            if ( uuidSet.add( uuid ) )
+            {
+                nbResults++;
+            }
+        }
+
+        return nbResults;
+    }
+
+
+    /**
+     * Intersects the sorted candidates of some nodes.
+     *
+     * @param nodes The nodes to intersect, the most selective first
+     * @return The sorted candidates, or null if none of the nodes can restrict them
+     */
+    private String[] intersectIds( PartitionTxn partitionTxn, List<ExprNode> nodes,
+        PartitionSearchResult searchResult ) throws LdapException
+    {
+        String[] intersection = null;
+
+        for ( ExprNode node : nodes )
+        {
+            String[] ids = collectIds( partitionTxn, node, searchResult );
+
+            if ( ids == null )
+            {
+                // This node can't restrict the candidates
+                continue;
+            }
+
+            intersection = ( intersection == null ) ? ids : SortedIds.intersect( intersection, ids );
+
+            if ( intersection.length == 0 )
+            {
+                break;
+            }
+        }
+
+        return intersection;
+    }
+
+
+    /**
+     * Computes the candidates of a node as a sorted array of IDs. The IDs of the indexed
+     * equality and presence nodes are read directly from the index, those of the OR nodes
+     * are merged, and those of the AND nodes intersected when it's their plan. The other
+     * nodes go through {@link #build(PartitionTxn, ExprNode, PartitionSearchResult)}.
+     *
+     * @param node The node
+     * @return The sorted candidates, or null if all the entries are candidates
+     */
+    @SuppressWarnings("unchecked")
+    private String[] collectIds( PartitionTxn partitionTxn, ExprNode node, PartitionSearchResult searchResult )
+        throws LdapException
+    {
+        Object count = node.get( DefaultOptimizer.COUNT_ANNOTATION );
+
+        if ( count != null )
+        {
+            if ( ( Long ) count == 0L )
+            {
+                return SortedIds.EMPTY;
+            }
+            else if ( ( Long ) count == Long.MAX_VALUE )
+            {
+                // We will anyway do a full scan
+                return null;
+            }
+        }
+
+        try
+        {
+            switch ( node.getAssertionType() )
+            {
+                case EQUALITY:
+                    EqualityNode<?> equalityNode = ( EqualityNode<?> ) node;
+
+                    if ( ( node.get( DefaultOptimizer.CANDIDATES_ANNOTATION_KEY ) == null )
+                        && db.hasIndexOn( equalityNode.getAttributeType() ) )
+                    {
+                        Index<String, String> index = ( Index<String, String> ) db.getIndex( equalityNode
+                            .getAttributeType() );
+
+                        return readIds( index.forwardValueCursor( partitionTxn, equalityNode.getValue()
+                            .getNormalized() ) );
+                    }
+
+                    break;
+
+                case PRESENCE:
+                    AttributeType attributeType = ( ( PresenceNode ) node ).getAttributeType();
+
+                    if ( db.hasUserIndexOn( attributeType ) )
+                    {
+                        return readIds( db.getPresenceIndex().forwardValueCursor( partitionTxn,
+                            attributeType.getOid() ) );
+                    }
+
+                    break;
+
+                case OR:
+                    String[] union = SortedIds.EMPTY;
+
+                    for ( ExprNode child : ( ( OrNode ) node ).getChildren() )
+                    {
+                        String[] ids = collectIds( partitionTxn, child, searchResult );
+
+                        if ( ids == null )
+                        {
+                            return null;
+                        }
+
+                        union = SortedIds.union( union, ids );
+                    }
+
+                    return union;
+
+                case AND:
+                    if ( node.get( DefaultOptimizer.PLAN_ANNOTATION ) == AccessPlan.INTERSECTION )
+                    {
+                        return intersectIds( partitionTxn,
+                            ( List<ExprNode> ) node.get( DefaultOptimizer.INTERSECTION_ANNOTATION ), searchResult );
+                    }
+
+                    break;
+
+                default:
+                    break;
+            }
+        }
+        catch ( IndexNotFoundException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        // Let the node feed a set of its own
+        Set<String> uuidSet = searchResult.getCandidateSet();
+        Set<String> candidates = new HashSet<>();
+        searchResult.setCandidateSet( candidates );
+
+        try
+        {
+            if ( build( partitionTxn, node, searchResult ) == Long.MAX_VALUE )
+            {
+                return null;
+            }
+        }
+        finally
+        {
+            searchResult.setCandidateSet( uuidSet );
+        }
+
+        return SortedIds.of( candidates );
+    }
+
+
+    /**
+     * Reads all the IDs returned by an index cursor, and sorts them.
+     */
+    private String[] readIds( Cursor<String> cursor ) throws LdapException
+    {
+        List<String> ids = new ArrayList<>();
+
+        try ( Cursor<String> idCursor = cursor )
+        {
+            while ( idCursor.next() )
+            {
+                ids.add( idCursor.get() );
+            }
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        return SortedIds.of( ids );
+    }
+
+
     /**
      * Creates an AndCursor over a conjunction expression branch node.
      *
@@ -21,6 +21,7 @@ package org.apache.directory.server.xdbm.search.impl;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -45,18 +46,22 @@ import org.apache.directory.api.ldap.model.filter.PresenceNode;
 import org.apache.directory.api.ldap.model.filter.ScopeNode;
 import org.apache.directory.api.ldap.model.filter.SimpleNode;
 import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.PrepareString;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
+import org.apache.directory.server.xdbm.IndexStatistics;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Optimizer;
 
 
 /**
- * Optimizer that annotates the filter using scan counts.
+ * Optimizer that annotates the filter using scan counts. The counts are estimated
+ * using the statistics of the indexes, and the AND nodes are annotated with the
+ * {@link AccessPlan} a simple cost model finds the cheapest.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -66,10 +71,35 @@ public class DefaultOptimizer implements Optimizer
     
     /* Package protected*/ static final String COUNT_ANNOTATION = "count"; 
 
+    /* Package protected*/ static final String PLAN_ANNOTATION = "plan";
+
+    /* Package protected*/ static final String INTERSECTION_ANNOTATION = "intersection";
+
+    /** Set on the children of an AND node which are not counted, because a cached plan does not read them */
+    /* Package protected*/ static final String SKIPPED_ANNOTATION = "skipped";
+
+    /** The cost of reading a candidate ID from an index */
+    private static final double INDEX_READ_COST = 0.05d;
+
+    /** The cost of fetching and evaluating an entry given its ID */
+    private static final double FETCH_COST = 1d;
+
+    /** The cost of reading and evaluating an entry while scanning the master table */
+    private static final double SCAN_COST = 0.8d;
+
+    /** The minimal number of candidates before a cached plan is checked against its estimate */
+    private static final long PLAN_DRIFT_MIN = 1000L;
+
+    /** The factor by which the candidates of a cached plan may exceed its estimate */
+    private static final long PLAN_DRIFT_FACTOR = 10L;
+
     /** the database this optimizer operates on */
     private final Store db;
     private String contextEntryId;
 
+    /** The plans already chosen for the AND nodes */
+    private final QueryPlanCache planCache = new QueryPlanCache( QueryPlanCache.DEFAULT_SIZE );
+
 
     /**
      * Creates an optimizer on a database.
@@ -201,7 +231,7 @@ public class DefaultOptimizer implements Optimizer
         {
             if ( node instanceof AndNode )
             {
-                count = getConjunctionScan( partitionTxn, ( AndNode ) node );
+                count = annotateAnd( partitionTxn, ( AndNode ) node );
             }
             else if ( node instanceof OrNode )
             {
@@ -237,6 +267,151 @@ public class DefaultOptimizer implements Optimizer
     }
 
 
+    /**
+     * Forgets the plans already chosen. This must be called when the indexes or the
+     * schema are modified.
+     */
+    public void clearPlanCache()
+    {
+        planCache.clear();
+    }
+
+
+    /**
+     * Annotates an AND node, reusing the plan chosen for the previous AND nodes of the
+     * same shape if any. When the plan is reused, only the children the candidates are
+     * read from are annotated : the other ones are only evaluated. The plan is chosen
+     * again if these children select many more candidates than expected.
+     *
+     * @param node The AND node
+     * @return The number of candidates
+     */
+    @SuppressWarnings("unchecked")
+    private long annotateAnd( PartitionTxn partitionTxn, AndNode node ) throws LdapException
+    {
+        String shape = QueryPlanCache.shapeOf( node );
+
+        if ( shape != null )
+        {
+            QueryPlanCache.CachedPlan cachedPlan = planCache.get( shape );
+
+            if ( cachedPlan != null )
+            {
+                Long count = applyPlan( partitionTxn, node, cachedPlan );
+
+                if ( count != null )
+                {
+                    return count;
+                }
+
+                planCache.remove( shape );
+            }
+        }
+
+        long count = getConjunctionScan( partitionTxn, node );
+        choosePlan( partitionTxn, node );
+
+        if ( ( shape != null ) && ( count > 0L ) )
+        {
+            AccessPlan plan = ( AccessPlan ) node.get( PLAN_ANNOTATION );
+            List<ExprNode> children = node.getChildren();
+            int[] positions = null;
+
+            if ( plan == AccessPlan.INTERSECTION )
+            {
+                List<ExprNode> intersected = ( List<ExprNode> ) node.get( INTERSECTION_ANNOTATION );
+                positions = new int[intersected.size()];
+
+                for ( int i = 0; i < positions.length; i++ )
+                {
+                    positions[i] = indexOf( children, intersected.get( i ) );
+                }
+            }
+            else if ( plan == AccessPlan.INDEX_THEN_EVALUATE )
+            {
+                // The child the cursor builder will read the candidates from
+                for ( int i = 0; i < children.size(); i++ )
+                {
+                    Object childCount = children.get( i ).get( COUNT_ANNOTATION );
+
+                    if ( ( childCount != null ) && ( ( Long ) childCount == count ) )
+                    {
+                        positions = new int[]
+                            { i };
+                        break;
+                    }
+                }
+            }
+
+            // A full scan is not cached : another value could select a few entries
+            if ( ( positions != null ) && ( count < Long.MAX_VALUE ) )
+            {
+                planCache.put( shape, new QueryPlanCache.CachedPlan( plan, positions, count ) );
+            }
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Annotates an AND node using a cached plan.
+     *
+     * @return The number of candidates, or null if the plan is not good for this node
+     */
+    private Long applyPlan( PartitionTxn partitionTxn, AndNode node, QueryPlanCache.CachedPlan cachedPlan )
+        throws LdapException
+    {
+        List<ExprNode> children = node.getChildren();
+        List<ExprNode> read = new ArrayList<>( cachedPlan.positions.length );
+        long count = Long.MAX_VALUE;
+
+        for ( int position : cachedPlan.positions )
+        {
+            ExprNode child = children.get( position );
+            annotate( partitionTxn, child );
+            count = Math.min( ( Long ) child.get( COUNT_ANNOTATION ), count );
+            read.add( child );
+        }
+
+        if ( ( count > PLAN_DRIFT_MIN ) && ( count / PLAN_DRIFT_FACTOR > cachedPlan.count ) )
+        {
+            return null;
+        }
+
+        // The other children are not counted : they are only evaluated on the candidates
+        for ( ExprNode child : children )
+        {
+            if ( indexOf( read, child ) < 0 )
+            {
+                child.set( SKIPPED_ANNOTATION, Boolean.TRUE );
+            }
+        }
+
+        node.set( PLAN_ANNOTATION, cachedPlan.plan );
+        node.set( INTERSECTION_ANNOTATION, ( cachedPlan.plan == AccessPlan.INTERSECTION ) ? read : null );
+
+        return count;
+    }
+
+
+    /**
+     * @return The position of a node in a list, comparing the references
+     */
+    private static int indexOf( List<ExprNode> nodes, ExprNode node )
+    {
+        for ( int i = 0; i < nodes.size(); i++ )
+        {
+            if ( nodes.get( i ) == node )
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+
     /**
      * ANDs or Conjunctions take the count of the smallest child as their count.
      * This is the best that a conjunction can do and should be used rather than
@@ -275,6 +450,209 @@ public class DefaultOptimizer implements Optimizer
     }
 
 
+    /**
+     * Chooses the cheapest way to compute the candidates of an annotated AND node :
+     * <ul>
+     *   <li>reading the candidates from the most selective child, and evaluating the
+     *   other children on each fetched entry</li>
+     *   <li>intersecting the candidates of the most selective children, before fetching
+     *   the entries. The number of remaining candidates is estimated assuming the
+     *   children are independent</li>
+     *   <li>scanning the whole master table</li>
+     * </ul>
+     * The chosen plan is stored in the node annotations, along with the children to
+     * intersect when the intersection is the cheapest.
+     *
+     * @param node The AND node
+     * @throws LdapException If the number of entries can't be read
+     */
+    private void choosePlan( PartitionTxn partitionTxn, AndNode node ) throws LdapException
+    {
+        List<ExprNode> indexed = new ArrayList<>();
+
+        for ( ExprNode child : node.getChildren() )
+        {
+            Object count = child.get( COUNT_ANNOTATION );
+
+            if ( ( count != null ) && ( ( Long ) count < Long.MAX_VALUE ) && isIntersectable( child ) )
+            {
+                indexed.add( child );
+            }
+        }
+
+        if ( indexed.isEmpty() )
+        {
+            // The cursor builder will pick the smallest child anyway, and fall back to a full scan
+            node.set( PLAN_ANNOTATION, AccessPlan.INDEX_THEN_EVALUATE );
+
+            return;
+        }
+
+        indexed.sort( ( node1, node2 ) -> Long.compare( ( Long ) node1.get( COUNT_ANNOTATION ),
+            ( Long ) node2.get( COUNT_ANNOTATION ) ) );
+
+        double total = Math.max( 1L, db.count( partitionTxn ) );
+        long driverCount = ( Long ) indexed.get( 0 ).get( COUNT_ANNOTATION );
+        double readCost = driverCount * INDEX_READ_COST;
+        double bestCost = readCost + driverCount * FETCH_COST;
+        AccessPlan plan = AccessPlan.INDEX_THEN_EVALUATE;
+        int nbIntersected = 1;
+        double selectivity = driverCount / total;
+
+        for ( int i = 1; i < indexed.size(); i++ )
+        {
+            long childCount = ( Long ) indexed.get( i ).get( COUNT_ANNOTATION );
+            readCost += childCount * INDEX_READ_COST;
+            selectivity *= Math.min( 1d, childCount / total );
+            double cost = readCost + total * selectivity * FETCH_COST;
+
+            if ( cost < bestCost )
+            {
+                bestCost = cost;
+                plan = AccessPlan.INTERSECTION;
+                nbIntersected = i + 1;
+            }
+        }
+
+        if ( total * SCAN_COST < bestCost )
+        {
+            plan = AccessPlan.FULL_SCAN;
+        }
+
+        node.set( PLAN_ANNOTATION, plan );
+
+        if ( plan == AccessPlan.INTERSECTION )
+        {
+            node.set( INTERSECTION_ANNOTATION, new ArrayList<>( indexed.subList( 0, nbIntersected ) ) );
+        }
+        else
+        {
+            node.set( INTERSECTION_ANNOTATION, null );
+        }
+    }
+
+
+    /**
+     * Tells if the cursor builder computes exactly the candidates of a node, or a superset
+     * of them, so that they can be intersected with the candidates of its siblings.
+     */
+    private boolean isIntersectable( ExprNode node ) throws LdapException
+    {
+        switch ( node.getAssertionType() )
+        {
+            case PRESENCE:
+                // The presence index only contains the user indexed attributes
+                return db.hasUserIndexOn( ( ( PresenceNode ) node ).getAttributeType() );
+
+            case EQUALITY:
+            case GREATEREQ:
+            case LESSEQ:
+            case SUBSTRING:
+            case AND:
+                return true;
+
+            case OR:
+                for ( ExprNode child : ( ( OrNode ) node ).getChildren() )
+                {
+                    if ( !isIntersectable( child ) )
+                    {
+                        return false;
+                    }
+                }
+
+                return true;
+
+            case SCOPE:
+                // The aliases dereferenced while searching are not in the scope candidates
+                return !( ( ScopeNode ) node ).getDerefAliases().isDerefInSearching();
+
+            default:
+                return false;
+        }
+    }
+
+
+    /**
+     * Produces a readable description of the plan chosen for an annotated filter, with the
+     * estimated number of candidates of each node.
+     *
+     * @param node The annotated filter
+     * @return The plan description
+     */
+    public static String explain( ExprNode node )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        explain( sb, node, "" );
+
+        return sb.toString();
+    }
+
+
+    private static void explain( StringBuilder sb, ExprNode node, String tabs )
+    {
+        Object count = node.get( COUNT_ANNOTATION );
+
+        sb.append( tabs );
+
+        if ( node instanceof BranchNode )
+        {
+            switch ( node.getAssertionType() )
+            {
+                case AND:
+                    sb.append( '&' );
+                    break;
+
+                case OR:
+                    sb.append( '|' );
+                    break;
+
+                default:
+                    sb.append( '!' );
+                    break;
+            }
+        }
+        else
+        {
+            sb.append( node );
+        }
+
+        if ( node.get( SKIPPED_ANNOTATION ) != null )
+        {
+            sb.append( " : not counted, evaluated on the candidates of the cached plan" );
+        }
+        else if ( count == null )
+        {
+            sb.append( " : not annotated" );
+        }
+        else if ( ( Long ) count == Long.MAX_VALUE )
+        {
+            sb.append( " : evaluated on each entry" );
+        }
+        else
+        {
+            sb.append( " : ~" ).append( count ).append( " candidates" );
+        }
+
+        Object plan = node.get( PLAN_ANNOTATION );
+
+        if ( plan != null )
+        {
+            sb.append( ", " ).append( plan );
+        }
+
+        sb.append( '\n' );
+
+        if ( node instanceof BranchNode )
+        {
+            for ( ExprNode child : ( ( BranchNode ) node ).getChildren() )
+            {
+                explain( sb, child, tabs + "  " );
+            }
+        }
+    }
+
+
     /**
      * Disjunctions (OR) are the union of candidates across all subexpressions 
      * so we add all the counts of the child nodes. Notice that we annotate the 
@@ -320,17 +698,8 @@ public class DefaultOptimizer implements Optimizer
         {
             Index<V, String> idx = ( Index<V, String> ) db.getIndex( node.getAttributeType() );
 
-            String normalizedKey;
-            
-            if ( node.getValue().isSchemaAware() )
-            {
-                normalizedKey = node.getValue().getNormalized();
-            }
-            else
-            {
-                normalizedKey = node.getAttributeType().getEquality().getNormalizer().normalize( node.getValue().getString() );
-            }
-            
+            String normalizedKey = getNormalizedValue( node );
+
             Cursor<String> result = idx.forwardValueCursor( partitionTxn, ( V ) normalizedKey );
             Set<String> values = new HashSet<>();
             int nbFound = 0;
@@ -361,7 +730,7 @@ public class DefaultOptimizer implements Optimizer
                 // Reset the candidates annotation
                 node.set( CANDIDATES_ANNOTATION_KEY, null );
 
-                return idx.count( partitionTxn, ( V ) node.getValue().getNormalized() );
+                return db.getIndexStatistics( partitionTxn, idx ).estimateEqual( normalizedKey );
             }
         }
 
@@ -370,6 +739,22 @@ public class DefaultOptimizer implements Optimizer
     }
 
 
+    /**
+     * Gets the normalized value of a simple node, as it's stored in the indexes.
+     */
+    private <V> String getNormalizedValue( SimpleNode<V> node ) throws LdapException
+    {
+        if ( node.getValue().isSchemaAware() )
+        {
+            return node.getValue().getNormalized();
+        }
+        else
+        {
+            return node.getAttributeType().getEquality().getNormalizer().normalize( node.getValue().getString() );
+        }
+    }
+
+
     /**
      * Gets a scan count of the nodes that satisfy the greater or less than test
      * specified by the node.
@@ -379,20 +764,20 @@ public class DefaultOptimizer implements Optimizer
      * @return the scan count of all nodes satisfying the Ava
      * @throws Exception if there is an error accessing an index
      */
-    @SuppressWarnings("unchecked")
     private <V> long getGreaterLessScan( PartitionTxn partitionTxn, SimpleNode<V> node, boolean isGreaterThan ) throws LdapException, IndexNotFoundException
     {
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
-            Index<V, String> idx = ( Index<V, String> ) db.getIndex( node.getAttributeType() );
+            IndexStatistics statistics = db.getIndexStatistics( partitionTxn, db.getIndex( node.getAttributeType() ) );
+            String normalizedValue = getNormalizedValue( node );
 
             if ( isGreaterThan )
             {
-                return idx.greaterThanCount( partitionTxn, ( V ) node.getValue().getString() );
+                return statistics.estimateGreaterOrEqual( normalizedValue );
             }
             else
             {
-                return idx.lessThanCount( partitionTxn, ( V ) node.getValue().getString() );
+                return statistics.estimateLessOrEqual( normalizedValue );
             }
         }
 
@@ -402,10 +787,10 @@ public class DefaultOptimizer implements Optimizer
 
 
     /**
-     * Get a scan count based on a Substring node : we will count the entries that are greater
-     * than ABC where the filter is (attr=ABC*). Any other filter won't be evaluated (for instance,
-     * a filter like (attr=*ABC) will resolve to a full scan atm - we could have created a reverted
-     * index for such a case -, and filters like (attr=*ABC*) also esolve to a full scan).
+     * Get a scan count based on a Substring node : we will estimate the number of entries starting
+     * with ABC where the filter is (attr=ABC*). Any other filter won't be evaluated (for instance,
+     * a filter like (attr=*ABC) will resolve to a full index scan atm - we could have created a reverted
+     * index for such a case -, and filters like (attr=*ABC*) also esolve to a full index scan).
      * 
      * @param node The substring node
      * @return The number of candidates
@@ -415,18 +800,21 @@ public class DefaultOptimizer implements Optimizer
     {
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
-            Index<String, String> idx = ( Index<String, String> ) db.getIndex( node.getAttributeType() );
+            IndexStatistics statistics = db.getIndexStatistics( partitionTxn, db.getIndex( node.getAttributeType() ) );
 
             String initial = node.getInitial();
 
             if ( Strings.isEmpty( initial ) )
             {
                 // Not a (attr=ABC*) filter : full index scan
-                return idx.count( partitionTxn );
+                return statistics.getCount();
             }
             else
             {
-                return idx.greaterThanCount( partitionTxn, initial );
+                String normalizedInitial = node.getAttributeType().getEquality().getNormalizer().normalize( initial,
+                    PrepareString.AssertionType.SUBSTRING_INITIAL );
+
+                return statistics.estimatePrefix( normalizedInitial );
             }
         }
         else
@@ -473,7 +861,7 @@ public class DefaultOptimizer implements Optimizer
         {
             Index<String, String> presenceIndex = db.getPresenceIndex();
 
-            return presenceIndex.count( partitionTxn, node.getAttributeType().getOid() );
+            return db.getIndexStatistics( partitionTxn, presenceIndex ).estimateEqual( node.getAttributeType().getOid() );
         }
         else if ( db.hasSystemIndexOn( node.getAttributeType() )
             || ( node.getAttributeType().getOid() == SchemaConstants.ENTRY_UUID_AT_OID ) )
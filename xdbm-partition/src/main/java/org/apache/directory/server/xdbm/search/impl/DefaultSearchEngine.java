@@ -37,6 +37,7 @@ import org.apache.directory.api.ldap.model.message.AliasDerefMode;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.registries.Registries;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
@@ -76,6 +77,9 @@ public class DefaultSearchEngine implements SearchEngine
     /** creates evaluators which check to see if candidates satisfy a filter expression */
     private final EvaluatorBuilder evaluatorBuilder;
 
+    /** The schema registries the cached plans and evaluators have been built with */
+    private volatile Registries cachedRegistries;
+
 
     // ------------------------------------------------------------------------
     // C O N S T R U C T O R S
@@ -111,6 +115,37 @@ public class DefaultSearchEngine implements SearchEngine
     }
 
 
+    /**
+     * Forgets the plans and the evaluators built for the previous searches. This must
+     * be called when the indexes or the schema are modified.
+     */
+    public void clearCache()
+    {
+        evaluatorBuilder.clearCache();
+
+        if ( optimizer instanceof DefaultOptimizer )
+        {
+            ( ( DefaultOptimizer ) optimizer ).clearPlanCache();
+        }
+    }
+
+
+    /**
+     * Clears the caches if the schema has been modified since they have been filled : the
+     * schema manager replaces its registries on each modification.
+     */
+    private void checkSchema( SchemaManager schemaManager )
+    {
+        Registries registries = schemaManager.getRegistries();
+
+        if ( registries != cachedRegistries )
+        {
+            clearCache();
+            cachedRegistries = registries;
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -123,6 +158,8 @@ public class DefaultSearchEngine implements SearchEngine
         AliasDerefMode aliasDerefMode = searchContext.getAliasDerefMode();
         ExprNode filter = searchContext.getFilter();
 
+        checkSchema( schemaManager );
+
         // Compute the UUID of the baseDN entry
         String baseId = db.getEntryId( partitionTxn, baseDn );
 
@@ -204,8 +241,15 @@ public class DefaultSearchEngine implements SearchEngine
             }
             else
             {
-                optimizer.annotate( partitionTxn, filter );
-                evaluator = evaluatorBuilder.build( partitionTxn, filter );
+                // The entry is evaluated : there is no need to count the candidates if
+                // the filter has already been seen
+                evaluator = evaluatorBuilder.getCachedEvaluator( filter );
+
+                if ( evaluator == null )
+                {
+                    optimizer.annotate( partitionTxn, filter );
+                    evaluator = evaluatorBuilder.buildCached( partitionTxn, filter );
+                }
 
                 // Special case if the filter selects no candidate
                 if ( evaluator == null )
@@ -243,7 +287,13 @@ public class DefaultSearchEngine implements SearchEngine
 
         // Annotate the node with the optimizer and return search enumeration.
         optimizer.annotate( partitionTxn, root );
-        Evaluator<? extends ExprNode> evaluator = evaluatorBuilder.build( partitionTxn, root );
+
+        if ( LOG.isDebugEnabled() )
+        {
+            LOG.debug( "Search plan :\n{}", DefaultOptimizer.explain( root ) );
+        }
+
+        Evaluator<? extends ExprNode> evaluator = evaluatorBuilder.buildCached( partitionTxn, root );
 
         Set<String> uuidSet = new HashSet<>();
         searchResult.setAliasDerefMode( aliasDerefMode );
@@ -265,6 +315,7 @@ public class DefaultSearchEngine implements SearchEngine
         else
         {
             // Full scan : use the MasterTable
+            searchResult.setFullScan( true );
             Cursor<IndexEntry<String, String>> cursor = new IndexCursorAdaptor( partitionTxn, db.getMasterTable().cursor(), true );
 
             try
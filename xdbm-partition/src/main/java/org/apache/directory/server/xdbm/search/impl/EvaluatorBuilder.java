@@ -22,6 +22,7 @@ package org.apache.directory.server.xdbm.search.impl;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.filter.AndNode;
@@ -68,6 +69,9 @@ public class EvaluatorBuilder
 
     private static final EmptyEvaluator EMPTY_EVALLUATOR = new EmptyEvaluator();
 
+    /** The evaluators and regular expressions already built */
+    private final QueryPlanCache queryCache = new QueryPlanCache( QueryPlanCache.DEFAULT_SIZE );
+
     /**
      * Creates a top level Evaluator where leaves are delegated to a leaf node
      * evaluator which will be created.
@@ -83,10 +87,92 @@ public class EvaluatorBuilder
 
 
     public <T> Evaluator<? extends ExprNode> build( PartitionTxn partitionTxn, ExprNode node ) throws LdapException
+    {
+        return build( partitionTxn, node, true );
+    }
+
+
+    /**
+     * Gets the evaluator already built for a normalized filter.
+     *
+     * @param node The normalized filter
+     * @return The cached evaluator, or null if the filter has not been seen yet
+     */
+    public Evaluator<? extends ExprNode> getCachedEvaluator( ExprNode node )
+    {
+        String key = QueryPlanCache.keyOf( node );
+
+        return ( key != null ) ? queryCache.getEvaluator( key ) : null;
+    }
+
+
+    /**
+     * Builds an evaluator for a normalized filter, or gets the one already built for the
+     * same filter. The evaluator does not depend on the candidates counted on the filter :
+     * it is valid until the schema or the indexes change.
+     *
+     * @param partitionTxn The transaction to use
+     * @param node The normalized filter, possibly annotated by the optimizer
+     * @return The evaluator
+     * @throws LdapException If the evaluator can't be built
+     */
+    public Evaluator<? extends ExprNode> buildCached( PartitionTxn partitionTxn, ExprNode node ) throws LdapException
+    {
+        String key = QueryPlanCache.keyOf( node );
+
+        if ( key == null )
+        {
+            return build( partitionTxn, node, true );
+        }
+
+        Evaluator<? extends ExprNode> evaluator = queryCache.getEvaluator( key );
+
+        if ( evaluator == null )
+        {
+            // The evaluator keeps its own copy of the filter : the search modifies the annotations
+            evaluator = build( partitionTxn, node.clone(), false );
+            queryCache.putEvaluator( key, evaluator );
+        }
+
+        return evaluator;
+    }
+
+
+    /**
+     * Gets the regular expression a substring filter is matched with.
+     *
+     * @param node The substring filter
+     * @return The regular expression, or null if the attributeType is not human readable
+     * @throws LdapException If the regular expression can't be built
+     */
+    public Pattern getRegex( SubstringNode node ) throws LdapException
+    {
+        return queryCache.getRegex( node );
+    }
+
+
+    /**
+     * Forgets the evaluators and regular expressions already built. This must be called
+     * when the indexes or the schema are modified.
+     */
+    public void clearCache()
+    {
+        queryCache.clear();
+    }
+
+
+    /**
+     * Builds an evaluator.
+     *
+     * @param useCounts If the nodes without any candidate are evaluated as the empty
+     * filter, otherwise the evaluator does not depend on the counts.
+     */
+    private <T> Evaluator<? extends ExprNode> build( PartitionTxn partitionTxn, ExprNode node, boolean useCounts )
+        throws LdapException
     {
         Object count = node.get( "count" );
 
-        if ( ( count != null ) && ( ( Long ) count == 0L ) )
+        if ( useCounts && ( count != null ) && ( ( Long ) count == 0L ) )
         {
             return EMPTY_EVALLUATOR;
         }
@@ -121,18 +207,20 @@ public class EvaluatorBuilder
                 }
 
             case SUBSTRING:
-                return new SubstringEvaluator( ( SubstringNode ) node, db, schemaManager );
+                return new SubstringEvaluator( ( SubstringNode ) node, db, schemaManager,
+                    queryCache.getRegex( ( SubstringNode ) node ) );
 
                 /* ---------- LOGICAL OPERATORS ---------- */
 
             case AND:
-                return buildAndEvaluator( partitionTxn, ( AndNode ) node );
+                return buildAndEvaluator( partitionTxn, ( AndNode ) node, useCounts );
 
             case NOT:
-                return new NotEvaluator( ( NotNode ) node, build( partitionTxn, ( ( NotNode ) node ).getFirstChild() ) );
+                return new NotEvaluator( ( NotNode ) node,
+                    build( partitionTxn, ( ( NotNode ) node ).getFirstChild(), useCounts ) );
 
             case OR:
-                return buildOrEvaluator( partitionTxn, ( OrNode ) node );
+                return buildOrEvaluator( partitionTxn, ( OrNode ) node, useCounts );
 
                 /* ----------  NOT IMPLEMENTED  ---------- */
 
@@ -146,10 +234,11 @@ public class EvaluatorBuilder
     }
 
 
-    private <T> Evaluator<? extends ExprNode> buildAndEvaluator( PartitionTxn partitionTxn, AndNode node ) throws LdapException
+    private <T> Evaluator<? extends ExprNode> buildAndEvaluator( PartitionTxn partitionTxn, AndNode node,
+        boolean useCounts ) throws LdapException
     {
         List<ExprNode> children = node.getChildren();
-        List<Evaluator<? extends ExprNode>> evaluators = buildList( partitionTxn, children );
+        List<Evaluator<? extends ExprNode>> evaluators = buildList( partitionTxn, children, useCounts );
 
         int size = evaluators.size();
 
@@ -167,10 +256,11 @@ public class EvaluatorBuilder
     }
 
 
-    private <T> Evaluator<? extends ExprNode> buildOrEvaluator( PartitionTxn partitionTxn, OrNode node ) throws LdapException
+    private <T> Evaluator<? extends ExprNode> buildOrEvaluator( PartitionTxn partitionTxn, OrNode node,
+        boolean useCounts ) throws LdapException
     {
         List<ExprNode> children = node.getChildren();
-        List<Evaluator<? extends ExprNode>> evaluators = buildList( partitionTxn, children );
+        List<Evaluator<? extends ExprNode>> evaluators = buildList( partitionTxn, children, useCounts );
 
         int size = evaluators.size();
 
@@ -188,14 +278,15 @@ public class EvaluatorBuilder
     }
 
 
-    private List<Evaluator<? extends ExprNode>> buildList( PartitionTxn partitionTxn, List<ExprNode> children ) throws LdapException
+    private List<Evaluator<? extends ExprNode>> buildList( PartitionTxn partitionTxn, List<ExprNode> children,
+        boolean useCounts ) throws LdapException
     {
         List<Evaluator<? extends ExprNode>> evaluators = new ArrayList<>(
             children.size() );
 
         for ( ExprNode child : children )
         {
-            Evaluator<? extends ExprNode> evaluator = build( partitionTxn, child );
+            Evaluator<? extends ExprNode> evaluator = build( partitionTxn, child, useCounts );
 
             if ( evaluator != null )
             {
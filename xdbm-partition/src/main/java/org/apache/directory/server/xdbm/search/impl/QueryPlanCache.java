@@ -0,0 +1,427 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.ApproximateNode;
+import org.apache.directory.api.ldap.model.filter.BranchNode;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.GreaterEqNode;
+import org.apache.directory.api.ldap.model.filter.LeafNode;
+import org.apache.directory.api.ldap.model.filter.LessEqNode;
+import org.apache.directory.api.ldap.model.filter.NotNode;
+import org.apache.directory.api.ldap.model.filter.OrNode;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.filter.ScopeNode;
+import org.apache.directory.api.ldap.model.filter.SimpleNode;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.xdbm.search.Evaluator;
+import org.apache.directory.server.xdbm.search.evaluator.SubstringEvaluator;
+
+
+/**
+ * The caches used to skip the planning of the searches already seen :
+ * <ul>
+ *   <li>the plans chosen by the {@link DefaultOptimizer} for the AND nodes, keyed
+ *   by the shape of the node : its structure, the attributes and the operators used,
+ *   the search base and the scope, but not the asserted values. The same filters sent
+ *   with different values then reuse the same plan, and only the children the plan
+ *   reads candidates from have to be counted.</li>
+ *   <li>the evaluators built for the normalized filters, keyed by the filter itself,
+ *   the asserted values included.</li>
+ *   <li>the regular expressions compiled for the substring filters.</li>
+ * </ul>
+ * The caches must be cleared when the schema or the indexes are modified.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class QueryPlanCache
+{
+    /** The default number of cached plans */
+    static final int DEFAULT_SIZE = 256;
+
+    /** The cached plans, the least recently used first */
+    private final Map<String, CachedPlan> plans;
+
+    /** The cached evaluators, by normalized filter */
+    private final Map<String, Evaluator<? extends ExprNode>> evaluators;
+
+    /** The compiled substring regular expressions, by normalized substring filter */
+    private final Map<String, Pattern> regexes;
+
+    /**
+     * A plan chosen for an AND node.
+     */
+    static final class CachedPlan
+    {
+        /** The chosen plan */
+        final AccessPlan plan;
+
+        /** The positions of the children the candidates are read from */
+        final int[] positions;
+
+        /** The number of candidates estimated when the plan was chosen */
+        final long count;
+
+
+        CachedPlan( AccessPlan plan, int[] positions, long count )
+        {
+            this.plan = plan;
+            this.positions = positions;
+            this.count = count;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of QueryPlanCache.
+     *
+     * @param size The maximum number of cached plans, evaluators and regular expressions
+     */
+    QueryPlanCache( int size )
+    {
+        plans = newLruMap( size );
+        evaluators = newLruMap( size );
+        regexes = newLruMap( size );
+    }
+
+
+    private static <V> Map<String, V> newLruMap( final int size )
+    {
+        return new LinkedHashMap<String, V>( 16, 0.75f, true )
+        {
+            private static final long serialVersionUID = 1L;
+
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String, V> eldest )
+            {
+                return size() > size;
+            }
+        };
+    }
+
+
+    /**
+     * @param shape The shape of an AND node
+     * @return The plan cached for this shape, or null
+     */
+    synchronized CachedPlan get( String shape )
+    {
+        return plans.get( shape );
+    }
+
+
+    /**
+     * Caches the plan chosen for an AND node.
+     *
+     * @param shape The shape of the AND node
+     * @param plan The plan
+     */
+    synchronized void put( String shape, CachedPlan plan )
+    {
+        plans.put( shape, plan );
+    }
+
+
+    /**
+     * Removes a cached plan, which is not good anymore.
+     *
+     * @param shape The shape of the AND node
+     */
+    synchronized void remove( String shape )
+    {
+        plans.remove( shape );
+    }
+
+
+    /**
+     * @param key The normalized filter, as returned by {@link #keyOf(ExprNode)}
+     * @return The evaluator cached for this filter, or null
+     */
+    synchronized Evaluator<? extends ExprNode> getEvaluator( String key )
+    {
+        return evaluators.get( key );
+    }
+
+
+    /**
+     * Caches the evaluator built for a filter. The evaluator must not depend on the
+     * number of candidates the filter selects, which changes with the data.
+     *
+     * @param key The normalized filter, as returned by {@link #keyOf(ExprNode)}
+     * @param evaluator The evaluator
+     */
+    synchronized void putEvaluator( String key, Evaluator<? extends ExprNode> evaluator )
+    {
+        evaluators.put( key, evaluator );
+    }
+
+
+    /**
+     * Gets the regular expression a substring filter is matched with, compiling it
+     * only if it has not been seen yet.
+     *
+     * @param node The substring filter
+     * @return The regular expression, or null if the attributeType is not human readable
+     * @throws LdapException If the regular expression can't be built
+     */
+    Pattern getRegex( SubstringNode node ) throws LdapException
+    {
+        String key = keyOf( node );
+
+        if ( key == null )
+        {
+            return SubstringEvaluator.compileRegex( node );
+        }
+
+        Pattern regex;
+
+        synchronized ( this )
+        {
+            regex = regexes.get( key );
+        }
+
+        if ( regex == null )
+        {
+            regex = SubstringEvaluator.compileRegex( node );
+
+            if ( regex != null )
+            {
+                synchronized ( this )
+                {
+                    regexes.put( key, regex );
+                }
+            }
+        }
+
+        return regex;
+    }
+
+
+    /**
+     * Forgets all the cached plans, evaluators and regular expressions.
+     */
+    synchronized void clear()
+    {
+        plans.clear();
+        evaluators.clear();
+        regexes.clear();
+    }
+
+
+    /**
+     * @return The number of cached plans
+     */
+    synchronized int size()
+    {
+        return plans.size();
+    }
+
+
+    /**
+     * Computes the shape of a filter : the filter where the asserted values are replaced by '?'.
+     *
+     * @param node The filter
+     * @return The filter shape, or null if the filter can't be cached
+     */
+    static String shapeOf( ExprNode node )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        return shapeOf( sb, node, false ) ? sb.toString() : null;
+    }
+
+
+    /**
+     * Computes the key of a normalized filter : its shape, with the normalized asserted values.
+     * Two filters with the same key select the same entries.
+     *
+     * @param node The normalized filter
+     * @return The filter key, or null if the filter can't be cached
+     */
+    static String keyOf( ExprNode node )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        return shapeOf( sb, node, true ) ? sb.toString() : null;
+    }
+
+
+    private static boolean shapeOf( StringBuilder sb, ExprNode node, boolean withValues )
+    {
+        if ( node instanceof ScopeNode )
+        {
+            ScopeNode scopeNode = ( ScopeNode ) node;
+            sb.append( "(#" ).append( scopeNode.getScope() ).append( ':' ).append( scopeNode.getBaseId() )
+                .append( ':' ).append( scopeNode.getDerefAliases() ).append( ')' );
+
+            return true;
+        }
+
+        if ( node instanceof BranchNode )
+        {
+            if ( node instanceof AndNode )
+            {
+                sb.append( "(&" );
+            }
+            else if ( node instanceof OrNode )
+            {
+                sb.append( "(|" );
+            }
+            else if ( node instanceof NotNode )
+            {
+                sb.append( "(!" );
+            }
+            else
+            {
+                return false;
+            }
+
+            for ( ExprNode child : ( ( BranchNode ) node ).getChildren() )
+            {
+                if ( !shapeOf( sb, child, withValues ) )
+                {
+                    return false;
+                }
+            }
+
+            sb.append( ')' );
+
+            return true;
+        }
+
+        if ( !( node instanceof LeafNode ) || ( ( ( LeafNode ) node ).getAttributeType() == null ) )
+        {
+            return false;
+        }
+
+        sb.append( '(' ).append( ( ( LeafNode ) node ).getAttributeType().getOid() );
+
+        if ( node instanceof PresenceNode )
+        {
+            sb.append( "=*" );
+        }
+        else if ( node instanceof EqualityNode )
+        {
+            sb.append( '=' );
+            appendValue( sb, ( SimpleNode<?> ) node, withValues );
+        }
+        else if ( node instanceof GreaterEqNode )
+        {
+            sb.append( ">=" );
+            appendValue( sb, ( SimpleNode<?> ) node, withValues );
+        }
+        else if ( node instanceof LessEqNode )
+        {
+            sb.append( "<=" );
+            appendValue( sb, ( SimpleNode<?> ) node, withValues );
+        }
+        else if ( node instanceof ApproximateNode )
+        {
+            sb.append( "~=" );
+            appendValue( sb, ( SimpleNode<?> ) node, withValues );
+        }
+        else if ( node instanceof SubstringNode )
+        {
+            SubstringNode substringNode = ( SubstringNode ) node;
+            sb.append( '=' );
+
+            if ( substringNode.getInitial() != null )
+            {
+                appendString( sb, substringNode.getInitial(), withValues );
+            }
+
+            sb.append( '*' );
+            List<String> any = substringNode.getAny();
+
+            if ( any != null )
+            {
+                for ( String value : any )
+                {
+                    appendString( sb, value, withValues );
+                    sb.append( '*' );
+                }
+            }
+
+            if ( substringNode.getFinal() != null )
+            {
+                appendString( sb, substringNode.getFinal(), withValues );
+            }
+        }
+        else
+        {
+            // Extensible and assertion nodes are not cached
+            return false;
+        }
+
+        sb.append( ')' );
+
+        return true;
+    }
+
+
+    private static void appendValue( StringBuilder sb, SimpleNode<?> node, boolean withValues )
+    {
+        Value value = node.getValue();
+
+        if ( !withValues || ( value == null ) )
+        {
+            appendString( sb, null, withValues );
+        }
+        else if ( value.isHumanReadable() )
+        {
+            String normalized = value.getNormalized();
+
+            appendString( sb, ( normalized != null ) ? normalized : value.getString(), true );
+        }
+        else
+        {
+            appendString( sb, Strings.dumpBytes( value.getBytes() ), true );
+        }
+    }
+
+
+    /**
+     * Appends a value, prefixed by its length so that the key can't be ambiguous,
+     * or '?' if the values are not part of the key.
+     */
+    private static void appendString( StringBuilder sb, String value, boolean withValues )
+    {
+        if ( !withValues || ( value == null ) )
+        {
+            sb.append( '?' );
+        }
+        else
+        {
+            sb.append( value.length() ).append( ':' ).append( value );
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import java.util.Arrays;
+import java.util.Collection;
+
+
+/**
+ * Helper methods combining the candidates of several filters, stored as sorted arrays
+ * of distinct entry IDs. An intersection walks both arrays in step, or gallops in the
+ * biggest one when their sizes are very different, and a union merges them : none of
+ * them hashes the IDs.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class SortedIds
+{
+    /** An empty array of IDs */
+    static final String[] EMPTY = new String[0];
+
+
+    private SortedIds()
+    {
+    }
+
+
+    /**
+     * Creates a sorted array of distinct IDs. The IDs are not sorted again if they
+     * already are, which is the case when they come from a single index key.
+     *
+     * @param ids The IDs
+     * @return The sorted IDs
+     */
+    static String[] of( Collection<String> ids )
+    {
+        String[] sorted = ids.toArray( EMPTY );
+        boolean isSorted = true;
+
+        for ( int i = 1; i < sorted.length; i++ )
+        {
+            if ( sorted[i - 1].compareTo( sorted[i] ) >= 0 )
+            {
+                isSorted = false;
+                break;
+            }
+        }
+
+        if ( isSorted )
+        {
+            return sorted;
+        }
+
+        Arrays.sort( sorted );
+
+        // Remove the duplicates
+        int length = 0;
+
+        for ( int i = 0; i < sorted.length; i++ )
+        {
+            if ( ( length == 0 ) || !sorted[length - 1].equals( sorted[i] ) )
+            {
+                sorted[length++] = sorted[i];
+            }
+        }
+
+        return ( length == sorted.length ) ? sorted : Arrays.copyOf( sorted, length );
+    }
+
+
+    /**
+     * Computes the intersection of two sorted arrays of IDs.
+     *
+     * @param ids1 The first IDs
+     * @param ids2 The second IDs
+     * @return The IDs present in both arrays
+     */
+    static String[] intersect( String[] ids1, String[] ids2 )
+    {
+        String[] small = ( ids1.length <= ids2.length ) ? ids1 : ids2;
+        String[] large = ( small == ids1 ) ? ids2 : ids1;
+
+        if ( small.length == 0 )
+        {
+            return EMPTY;
+        }
+
+        String[] result = new String[small.length];
+        int length = 0;
+
+        int log = 32 - Integer.numberOfLeadingZeros( large.length );
+
+        if ( ( long ) small.length * log < large.length )
+        {
+            // Gallop in the large array, looking for each ID of the small one
+            int position = 0;
+
+            for ( String id : small )
+            {
+                int bound = 1;
+
+                while ( ( position + bound < large.length ) && ( large[position + bound].compareTo( id ) < 0 ) )
+                {
+                    bound <<= 1;
+                }
+
+                int found = Arrays.binarySearch( large, position, Math.min( position + bound + 1, large.length ),
+                    id );
+
+                if ( found >= 0 )
+                {
+                    result[length++] = id;
+                    position = found + 1;
+                }
+                else
+                {
+                    position = -found - 1;
+                }
+
+                if ( position >= large.length )
+                {
+                    break;
+                }
+            }
+        }
+        else
+        {
+            // Walk both arrays in step
+            int i = 0;
+            int j = 0;
+
+            while ( ( i < small.length ) && ( j < large.length ) )
+            {
+                int comparison = small[i].compareTo( large[j] );
+
+                if ( comparison == 0 )
+                {
+                    result[length++] = small[i];
+                    i++;
+                    j++;
+                }
+                else if ( comparison < 0 )
+                {
+                    i++;
+                }
+                else
+                {
+                    j++;
+                }
+            }
+        }
+
+        return ( length == result.length ) ? result : Arrays.copyOf( result, length );
+    }
+
+
+    /**
+     * Computes the union of two sorted arrays of IDs.
+     *
+     * @param ids1 The first IDs
+     * @param ids2 The second IDs
+     * @return The IDs present in any of the arrays
+     */
+    static String[] union( String[] ids1, String[] ids2 )
+    {
+        if ( ids1.length == 0 )
+        {
+            return ids2;
+        }
+
+        if ( ids2.length == 0 )
+        {
+            return ids1;
+        }
+
+        String[] result = new String[ids1.length + ids2.length];
+        int length = 0;
+        int i = 0;
+        int j = 0;
+
+        while ( ( i < ids1.length ) && ( j < ids2.length ) )
+        {
+            int comparison = ids1[i].compareTo( ids2[j] );
+
+            if ( comparison == 0 )
+            {
+                result[length++] = ids1[i];
+                i++;
+                j++;
+            }
+            else if ( comparison < 0 )
+            {
+                result[length++] = ids1[i++];
+            }
+            else
+            {
+                result[length++] = ids2[j++];
+            }
+        }
+
+        while ( i < ids1.length )
+        {
+            result[length++] = ids1[i++];
+        }
+
+        while ( j < ids2.length )
+        {
+            result[length++] = ids2[j++];
+        }
+
+        return ( length == result.length ) ? result : Arrays.copyOf( result, length );
+    }
+}
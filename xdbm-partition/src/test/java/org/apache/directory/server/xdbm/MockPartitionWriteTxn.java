@@ -31,18 +31,6 @@ import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 public class MockPartitionWriteTxn extends PartitionWriteTxn
 {
 
-    @Override
-    public void commit() throws IOException
-    {
-    }
-
-
-    @Override
-    public void abort() throws IOException
-    {
-    }
-
-
     @Override
     public boolean isClosed()
     {
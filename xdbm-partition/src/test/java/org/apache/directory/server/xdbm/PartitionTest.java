@@ -25,11 +25,18 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -44,6 +51,8 @@ import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
@@ -427,6 +436,320 @@ public class PartitionTest
     }
 
 
+    @Test
+    public void testSubtreeLabels() throws Exception
+    {
+        PartitionTxn txn = partition.beginReadTransaction();
+
+        String salesId = partition.getEntryId( txn, new Dn( schemaManager, "ou=Sales,o=Good Times Co." ) );
+        String engineeringId = partition.getEntryId( txn, new Dn( schemaManager, "ou=Engineering,o=Good Times Co." ) );
+        Dn johnnyDn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+        String johnnyId = partition.getEntryId( txn, johnnyDn );
+
+        SubtreeLabels labels = partition.buildSubtreeLabels();
+
+        assertSame( labels, partition.getSubtreeLabels( txn ) );
+        assertTrue( labels.isDescendant( salesId, johnnyId ) );
+        assertFalse( labels.isDescendant( engineeringId, johnnyId ) );
+        assertFalse( labels.isDescendant( johnnyId, salesId ) );
+        assertEquals( 3, labels.getSubtree( salesId ).size() );
+        assertEquals( salesId, labels.getSubtree( salesId ).get( 0 ) );
+
+        // Add enough children to exhaust the room kept under ou=Engineering
+        for ( int i = 0; i < 100; i++ )
+        {
+            Dn dn = new Dn( schemaManager, "cn=user" + i + ",ou=Engineering,o=Good Times Co." );
+            Entry entry = new DefaultEntry( schemaManager, dn,
+                "objectClass: top",
+                "objectClass: person",
+                "cn: user" + i,
+                "sn: user sn" );
+
+            StoreUtils.injectEntryInStore( partition, entry, 100 + i );
+        }
+
+        assertEquals( 103, labels.getSubtree( engineeringId ).size() );
+
+        // Move Johnny under Engineering
+        Dn newSuperior = new Dn( schemaManager, "ou=Engineering,o=Good Times Co." );
+        partition.move( txn, johnnyDn, newSuperior, newSuperior.add( johnnyDn.getRdn() ), null );
+
+        assertFalse( labels.isDescendant( salesId, johnnyId ) );
+        assertTrue( labels.isDescendant( engineeringId, johnnyId ) );
+        assertEquals( 2, labels.getSubtree( salesId ).size() );
+        assertEquals( 104, labels.getSubtree( engineeringId ).size() );
+    }
+
+
+    @Test
+    public void testSubtreeLabelsAbortedTransaction() throws Exception
+    {
+        PartitionTxn txn = partition.beginReadTransaction();
+
+        String salesId = partition.getEntryId( txn, new Dn( schemaManager, "ou=Sales,o=Good Times Co." ) );
+        String engineeringId = partition.getEntryId( txn, new Dn( schemaManager, "ou=Engineering,o=Good Times Co." ) );
+        Dn johnnyDn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+        String johnnyId = partition.getEntryId( txn, johnnyDn );
+
+        SubtreeLabels labels = partition.buildSubtreeLabels();
+        assertTrue( labels.isBuilt() );
+
+        // A committed move keeps the labels
+        MockPartitionWriteTxn writeTxn = new MockPartitionWriteTxn();
+        Dn newSuperior = new Dn( schemaManager, "ou=Engineering,o=Good Times Co." );
+        Dn movedDn = newSuperior.add( johnnyDn.getRdn() );
+        partition.move( writeTxn, johnnyDn, newSuperior, movedDn, null );
+        writeTxn.commit();
+
+        assertTrue( labels.isBuilt() );
+        assertTrue( labels.isDescendant( engineeringId, johnnyId ) );
+
+        // An aborted one discards them, they are computed again in the background from
+        // the Rdn index. We hold the lock to check them before they are computed
+        writeTxn = new MockPartitionWriteTxn();
+        partition.move( writeTxn, movedDn, new Dn( schemaManager, "ou=Sales,o=Good Times Co." ), johnnyDn, null );
+        partition.getReadWriteLock().writeLock().lock();
+
+        try
+        {
+            writeTxn.abort();
+
+            assertFalse( labels.isBuilt() );
+            assertNull( labels.getSubtree( salesId ) );
+        }
+        finally
+        {
+            partition.getReadWriteLock().writeLock().unlock();
+        }
+
+        assertSame( labels, partition.buildSubtreeLabels() );
+        assertTrue( labels.isBuilt() );
+        assertEquals( 3, labels.getSubtree( salesId ).size() );
+    }
+
+
+    @Test
+    public void testSubtreeLabelsMaxSize() throws Exception
+    {
+        PartitionTxn txn = partition.beginReadTransaction();
+        String salesId = partition.getEntryId( txn, new Dn( schemaManager, "ou=Sales,o=Good Times Co." ) );
+
+        // Too many entries to be labelled
+        SubtreeLabels labels = new SubtreeLabels( 5 );
+        labels.build( txn, partition.getRdnIndex() );
+
+        assertFalse( labels.isBuilt() );
+        assertNull( labels.isDescendant( salesId, salesId ) );
+
+        labels = new SubtreeLabels( ( int ) partition.getRdnIndex().count( txn ) );
+        labels.build( txn, partition.getRdnIndex() );
+        assertTrue( labels.isBuilt() );
+
+        // An added entry goes over the limit
+        String salesChildId = labels.getSubtree( salesId ).get( 1 );
+        labels.add( txn, partition.getRdnIndex(), salesId, "new-entry" );
+        assertFalse( labels.isBuilt() );
+        assertEquals( 0, labels.size() );
+        assertNull( labels.isDescendant( salesId, salesChildId ) );
+    }
+
+
+    @Test
+    public void testIndexStatistics() throws Exception
+    {
+        PartitionTxn txn = partition.beginReadTransaction();
+        Index<?, String> ouIndex = partition.getUserIndex( OU_AT );
+
+        // The statistics are computed in the background : until then, we only know the index size
+        IndexStatistics statistics = partition.buildIndexStatistics( ouIndex );
+
+        // Sales, Engineering, Apache and Board of Directors
+        assertEquals( 9, statistics.getCount() );
+        assertEquals( 4, statistics.getDistinctCount() );
+        assertEquals( 3, statistics.estimateEqual( "sales" ) );
+        assertEquals( 2, statistics.estimateEqual( "apache" ) );
+        assertEquals( 6, statistics.estimateLessOrEqual( "engineering" ) );
+        assertTrue( statistics.estimateEqual( "unknown" ) >= 1 );
+
+        // The position of the keys, and the histogram buckets around a position
+        assertEquals( 0, statistics.estimatePosition( "apache" ) );
+        assertEquals( 3, statistics.estimatePosition( "engineering" ) );
+        assertEquals( 9, statistics.estimatePosition( "zzz" ) );
+        assertEquals( 1, statistics.findBucketEnd( 4, false ) );
+        assertEquals( 2, statistics.findBucketEnd( 4, true ) );
+        assertEquals( "board of directors", statistics.getBound( 1 ) );
+        assertEquals( 6, statistics.getEndPosition( 2 ) );
+        assertEquals( -1, statistics.findBucketEnd( 1, false ) );
+
+        // The statistics are cached
+        assertSame( statistics, partition.getIndexStatistics( txn, ouIndex ) );
+
+        // And they can be saved and read back
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        IndexStatistics.writeAll( new DataOutputStream( baos ), Collections.singletonList( statistics ) );
+        List<IndexStatistics> read = IndexStatistics.readAll(
+            new DataInputStream( new ByteArrayInputStream( baos.toByteArray() ) ), schemaManager );
+
+        assertEquals( 1, read.size() );
+        assertEquals( OU_AT.getOid(), read.get( 0 ).getAttributeOid() );
+        assertEquals( 4, read.get( 0 ).getDistinctCount() );
+        assertEquals( 3, read.get( 0 ).estimateEqual( "sales" ) );
+
+        // The statistics are updated along with the index
+        for ( int i = 0; i < 150; i++ )
+        {
+            Dn dn = new Dn( schemaManager, "cn=user" + i + ",ou=Sales,o=Good Times Co." );
+            Entry entry = new DefaultEntry( schemaManager, dn,
+                "objectClass: top",
+                "objectClass: person",
+                "objectClass: organizationalPerson",
+                "ou: Sales",
+                "cn: user" + i,
+                "sn: user sn" );
+
+            StoreUtils.injectEntryInStore( partition, entry, 100 + i );
+
+            if ( i == 49 )
+            {
+                // Not enough updates to compute the statistics again
+                assertFalse( statistics.isStale() );
+                assertSame( statistics, partition.getIndexStatistics( txn, ouIndex ) );
+                assertEquals( 59, statistics.getCount() );
+                assertEquals( 53, statistics.estimateEqual( "sales" ) );
+                assertEquals( 6, statistics.estimateLessOrEqual( "engineering" ) );
+                assertEquals( 59, statistics.getEndPosition( 3 ) );
+            }
+        }
+
+        // The statistics are stale, but still up to date
+        assertTrue( statistics.isStale() );
+        assertEquals( 159, statistics.getCount() );
+        assertEquals( 153, statistics.estimateEqual( "sales" ) );
+
+        // They are computed again
+        statistics = partition.buildIndexStatistics( ouIndex );
+
+        assertFalse( statistics.isStale() );
+        assertSame( statistics, partition.getIndexStatistics( txn, ouIndex ) );
+        assertEquals( 159, statistics.getCount() );
+        assertEquals( 153, statistics.estimateEqual( "sales" ) );
+    }
+
+
+    @Test
+    public void testBackupAndRestore() throws Exception
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        assertEquals( 11, partition.backup( baos ) );
+
+        AvlPartition restored = new AvlPartition( schemaManager, dnFactory );
+        restored.setId( "restored" );
+        restored.setSyncOnWrite( false );
+        restored.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        restored.addIndex( new AvlIndex<String>( SchemaConstants.UID_AT_OID ) );
+        restored.addIndex( new AvlIndex<String>( SchemaConstants.CN_AT_OID ) );
+        restored.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        restored.initialize();
+
+        try
+        {
+            assertEquals( 11, restored.restore( new ByteArrayInputStream( baos.toByteArray() ) ) );
+
+            PartitionTxn txn = partition.beginReadTransaction();
+            PartitionTxn restoredTxn = restored.beginReadTransaction();
+
+            assertEquals( 11, restored.count( restoredTxn ) );
+            assertEquals( 3, restored.getAliasIndex().count( restoredTxn ) );
+            assertEquals( 9, restored.getUserIndex( OU_AT ).count( restoredTxn ) );
+            assertEquals( 6, restored.getUserIndex( CN_AT ).count( restoredTxn ) );
+
+            // The entries keep their IDs
+            Dn dn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+            String entryId = partition.getEntryId( txn, dn );
+
+            assertEquals( entryId, restored.getEntryId( restoredTxn, dn ) );
+            assertEquals( partition.fetch( txn, entryId ), restored.fetch( restoredTxn, entryId ) );
+        }
+        finally
+        {
+            restored.destroy( null );
+        }
+    }
+
+
+    @Test
+    public void testRestoreNonEmptyPartition() throws Exception
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        partition.backup( baos );
+
+        // The entries can't be mixed with the existing ones
+        try
+        {
+            partition.restore( new ByteArrayInputStream( baos.toByteArray() ) );
+            fail();
+        }
+        catch ( LdapUnwillingToPerformException lutpe )
+        {
+            // Expected
+        }
+
+        PartitionTxn txn = partition.beginReadTransaction();
+        assertEquals( 11, partition.count( txn ) );
+    }
+
+
+    @Test
+    public void testRestoreFailureRemovesTheRestoredEntries() throws Exception
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        partition.backup( baos );
+        String ldif = new String( baos.toByteArray(), StandardCharsets.UTF_8 );
+
+        // An entry whose parent does not exist can't be restored
+        String orphan =
+            "dn: cn=orphan,ou=Nowhere,o=Good Times Co.\n" +
+            "objectClass: top\n" +
+            "objectClass: person\n" +
+            "cn: orphan\n" +
+            "sn: orphan\n" +
+            "entryUUID: f290425c-8272-4e62-8a67-92b06f38dbf5\n" +
+            "entryCSN: " + new CsnFactory( 1 ).newInstance().toString() + "\n\n";
+
+        AvlPartition restored = new AvlPartition( schemaManager, dnFactory );
+        restored.setId( "restored" );
+        restored.setSyncOnWrite( false );
+        restored.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        restored.initialize();
+
+        try
+        {
+            try
+            {
+                restored.restore( new ByteArrayInputStream( ( ldif + orphan ).getBytes( StandardCharsets.UTF_8 ) ) );
+                fail();
+            }
+            catch ( LdapException le )
+            {
+                // Expected
+            }
+
+            // The partition is left empty, the restore can be run again
+            PartitionTxn restoredTxn = restored.beginReadTransaction();
+            assertEquals( 0, restored.count( restoredTxn ) );
+
+            assertEquals( 11, restored.restore( new ByteArrayInputStream( baos.toByteArray() ) ) );
+            restoredTxn = restored.beginReadTransaction();
+            assertEquals( 11, restored.count( restoredTxn ) );
+        }
+        finally
+        {
+            restored.destroy( null );
+        }
+    }
+
+
     private Entry verifyParentId( PartitionTxn txn, Dn dn ) throws Exception
     {
         String entryId = partition.getEntryId( txn, dn );
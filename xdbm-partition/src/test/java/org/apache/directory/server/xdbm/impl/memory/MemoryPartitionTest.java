@@ -0,0 +1,206 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.impl.memory;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.memory.MemoryPartition;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+
+/**
+ * Tests the {@link MemoryPartition} : browsing the entries while they are
+ * modified, and the snapshots.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@Execution(ExecutionMode.SAME_THREAD)
+public class MemoryPartitionTest
+{
+    private static SchemaManager schemaManager;
+
+    private MemoryPartition partition;
+
+    private File snapshotFile;
+
+
+    @BeforeAll
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = MemoryPartitionTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    @BeforeEach
+    public void createPartition() throws Exception
+    {
+        StoreUtils.createdExtraAttributes( schemaManager );
+        snapshotFile = File.createTempFile( getClass().getSimpleName(), ".ldif" );
+        Files.delete( snapshotFile.toPath() );
+
+        partition = createPartition( snapshotFile );
+        StoreUtils.loadExampleData( partition, schemaManager );
+    }
+
+
+    @AfterEach
+    public void destroyPartition() throws Exception
+    {
+        if ( partition != null )
+        {
+            partition.destroy( null );
+        }
+
+        Files.deleteIfExists( snapshotFile.toPath() );
+    }
+
+
+    private MemoryPartition createPartition( File snapshot ) throws Exception
+    {
+        MemoryPartition memoryPartition = new MemoryPartition( schemaManager );
+        memoryPartition.setId( "example" );
+        memoryPartition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        memoryPartition.addIndex( new MemoryIndex<String>( SchemaConstants.OU_AT_OID ) );
+        memoryPartition.addIndex( new MemoryIndex<String>( SchemaConstants.UID_AT_OID ) );
+        memoryPartition.addIndex( new MemoryIndex<String>( SchemaConstants.CN_AT_OID ) );
+        memoryPartition.setSnapshotFile( snapshot );
+        memoryPartition.initialize();
+
+        return memoryPartition;
+    }
+
+
+    @Test
+    public void testBrowseWhileModifying() throws Exception
+    {
+        PartitionTxn txn = partition.beginWriteTransaction();
+        AttributeType postalCodeAt = schemaManager.getAttributeType( "postalCode" );
+        Set<String> ids = new HashSet<>();
+
+        try ( Cursor<Tuple<String, Entry>> cursor = partition.getMasterTable().cursor() )
+        {
+            while ( cursor.next() )
+            {
+                String id = cursor.get().getKey();
+                ids.add( id );
+
+                // Modify an entry which has already been browsed
+                Dn dn = partition.fetch( txn, id ).getDn();
+                partition.modify( txn, dn,
+                    new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, postalCodeAt, "99" ) );
+            }
+        }
+
+        // The cursor has seen every entry once
+        assertEquals( 11, ids.size() );
+
+        for ( long i = 1L; i <= 11L; i++ )
+        {
+            assertEquals( "99", partition.fetch( txn, Strings.getUUID( i ) ).get( postalCodeAt ).getString() );
+        }
+    }
+
+
+    @Test
+    public void testSnapshotReload() throws Exception
+    {
+        PartitionTxn txn = partition.beginWriteTransaction();
+
+        // Remove a leaf entry before saving the partition
+        partition.delete( txn, Strings.getUUID( 10L ) );
+        partition.snapshot();
+        assertTrue( snapshotFile.exists() );
+
+        partition.destroy( null );
+        partition = null;
+
+        // The parents are saved before their children, the snapshot is loaded as is
+        partition = createPartition( snapshotFile );
+        txn = partition.beginReadTransaction();
+
+        assertEquals( 10L, partition.getMasterTable().count( txn ) );
+        assertEquals( 10L, partition.getRdnIndex().count( txn ) );
+
+        for ( long i = 1L; i <= 11L; i++ )
+        {
+            if ( i == 10L )
+            {
+                assertNull( partition.getEntryId( txn, new Dn( schemaManager,
+                    "commonName=Jim Bean,ou=Board of Directors,o=Good Times Co." ) ) );
+            }
+            else
+            {
+                Entry entry = partition.fetch( txn, Strings.getUUID( i ) );
+                assertEquals( Strings.getUUID( i ), entry.get( SchemaConstants.ENTRY_UUID_AT ).getString() );
+            }
+        }
+    }
+}
@@ -20,12 +20,19 @@
 package org.apache.directory.server.xdbm.search.impl;
 
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.directory.api.util.FileUtils;
@@ -33,8 +40,11 @@ import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.AndNode;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.filter.NotNode;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
 import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
@@ -50,6 +60,9 @@ import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
 import org.apache.directory.server.xdbm.StoreUtils;
 import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.search.Evaluator;
+import org.apache.directory.server.xdbm.search.PartitionSearchResult;
+import org.apache.directory.server.xdbm.search.evaluator.EmptyEvaluator;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -295,4 +308,107 @@ public class AndCursorTest extends AbstractCursorTest
         cursor.close();
         assertTrue( cursor.isClosed() );
     }
+
+
+    @Test
+    public void testAndIntersectionWithCursorBuilder() throws Exception
+    {
+        String filter = "(&(ou=Sales)(|(cn=Jim Bean)(cn=Jack Daniels)))";
+
+        ExprNode exprNode = FilterParser.parse( schemaManager, filter );
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+        new DefaultOptimizer( store ).annotate( txn, exprNode );
+
+        // Force the intersection of both children
+        List<ExprNode> children = ( ( AndNode ) exprNode ).getChildren();
+        exprNode.set( DefaultOptimizer.PLAN_ANNOTATION, AccessPlan.INTERSECTION );
+        exprNode.set( DefaultOptimizer.INTERSECTION_ANNOTATION, new ArrayList<>( children ) );
+
+        PartitionSearchResult searchResult = new PartitionSearchResult( schemaManager );
+        Set<String> uuids = new HashSet<>();
+        searchResult.setCandidateSet( uuids );
+
+        assertEquals( 1L, cursorBuilder.build( txn, exprNode, searchResult ) );
+        assertEquals( Collections.singleton( Strings.getUUID( 6 ) ), uuids );
+    }
+
+
+    @Test
+    public void testAndPlanCacheWithOtherValues() throws Exception
+    {
+        ExprNode first = FilterParser.parse( schemaManager, "(&(ou=Engineering)(cn=Jack Daniels)(!(sn=Walker)))" );
+        ExprNode second = FilterParser.parse( schemaManager, "(&(ou=Sales)(cn=Jim Bean)(!(sn=Daniels)))" );
+        ExprNode other = FilterParser.parse( schemaManager, "(&(ou=Sales)(sn=Bean)(!(sn=Daniels)))" );
+
+        assertEquals( QueryPlanCache.shapeOf( first ), QueryPlanCache.shapeOf( second ) );
+        assertFalse( QueryPlanCache.shapeOf( first ).equals( QueryPlanCache.shapeOf( other ) ) );
+
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+        DefaultOptimizer optimizer = new DefaultOptimizer( store );
+
+        optimizer.annotate( txn, first );
+        List<ExprNode> children = ( ( AndNode ) first ).getChildren();
+        assertNotNull( ( ( NotNode ) children.get( 2 ) ).getFirstChild().get( DefaultOptimizer.COUNT_ANNOTATION ) );
+
+        PartitionSearchResult searchResult = new PartitionSearchResult( schemaManager );
+        Set<String> uuids = new HashSet<>();
+        searchResult.setCandidateSet( uuids );
+        cursorBuilder.build( txn, first, searchResult );
+
+        assertEquals( Collections.singleton( Strings.getUUID( 8 ) ), uuids );
+
+        // The plan is reused : the NOT child is only evaluated, so it is not annotated anymore
+        optimizer.annotate( txn, second );
+        children = ( ( AndNode ) second ).getChildren();
+        assertNull( children.get( 2 ).get( DefaultOptimizer.COUNT_ANNOTATION ) );
+        assertEquals( Boolean.TRUE, children.get( 2 ).get( DefaultOptimizer.SKIPPED_ANNOTATION ) );
+        assertNull( ( ( NotNode ) children.get( 2 ) ).getFirstChild().get( DefaultOptimizer.COUNT_ANNOTATION ) );
+        assertEquals( first.get( DefaultOptimizer.PLAN_ANNOTATION ), second.get( DefaultOptimizer.PLAN_ANNOTATION ) );
+
+        searchResult = new PartitionSearchResult( schemaManager );
+        uuids = new HashSet<>();
+        searchResult.setCandidateSet( uuids );
+        cursorBuilder.build( txn, second, searchResult );
+
+        assertEquals( Collections.singleton( Strings.getUUID( 6 ) ), uuids );
+    }
+
+
+    @Test
+    public void testEvaluatorCache() throws Exception
+    {
+        ExprNode first = FilterParser.parse( schemaManager, "(&(cn=J*)(ou=Sales))" );
+        ExprNode second = FilterParser.parse( schemaManager, "(&(cn=J*)(ou=SALES))" );
+        ExprNode other = FilterParser.parse( schemaManager, "(&(cn=J*)(ou=Engineering))" );
+
+        // The normalized values are part of the key
+        assertEquals( QueryPlanCache.keyOf( first ), QueryPlanCache.keyOf( second ) );
+        assertFalse( QueryPlanCache.keyOf( first ).equals( QueryPlanCache.keyOf( other ) ) );
+
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+        DefaultOptimizer optimizer = new DefaultOptimizer( store );
+        optimizer.annotate( txn, first );
+        Evaluator<? extends ExprNode> evaluator = evaluatorBuilder.buildCached( txn, first );
+
+        // The same filter gets the same evaluator, without being annotated
+        assertSame( evaluator, evaluatorBuilder.getCachedEvaluator( second ) );
+        assertNull( evaluatorBuilder.getCachedEvaluator( other ) );
+        assertTrue( evaluator.evaluate( store.fetch( txn, Strings.getUUID( 6 ) ) ) );
+        assertFalse( evaluator.evaluate( store.fetch( txn, Strings.getUUID( 8 ) ) ) );
+
+        // The substring regex is compiled once
+        SubstringNode substring = ( SubstringNode ) ( ( AndNode ) first ).getChildren().get( 0 );
+        assertSame( evaluatorBuilder.getRegex( substring ),
+            evaluatorBuilder.getRegex( ( SubstringNode ) ( ( AndNode ) second ).getChildren().get( 0 ) ) );
+
+        // A cached evaluator does not depend on the counts : a filter without any candidate
+        // is still evaluated
+        ExprNode none = FilterParser.parse( schemaManager, "(cn=Nobody)" );
+        optimizer.annotate( txn, none );
+        assertEquals( 0L, none.get( DefaultOptimizer.COUNT_ANNOTATION ) );
+        assertFalse( evaluatorBuilder.buildCached( txn, none ) instanceof EmptyEvaluator );
+
+        evaluatorBuilder.clearCache();
+        assertNull( evaluatorBuilder.getCachedEvaluator( second ) );
+    }
 }
@@ -22,6 +22,7 @@ package org.apache.directory.server.xdbm.search.impl;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -477,6 +478,43 @@ public class EqualityTest
     }
 
 
+    /**
+     * Checks that the evaluation on the cn index gives the same result as the evaluation
+     * on the entries.
+     */
+    @Test
+    public void testEvaluatorIndexOnly() throws Exception
+    {
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+        AttributeType cnAt = schemaManager.getAttributeType( "cn" );
+        EqualityNode<String> node = new EqualityNode<String>( cnAt, new Value( cnAt, "JOhnny WAlkeR" ) );
+        EqualityEvaluator<String> evaluator = new EqualityEvaluator<String>( node, store, schemaManager );
+        int matches = 0;
+
+        for ( long id = 1L; id <= 11L; id++ )
+        {
+            IndexEntry<String, String> onIndex = new IndexEntry<String, String>();
+            onIndex.setId( Strings.getUUID( id ) );
+            boolean matched = evaluator.evaluate( txn, onIndex );
+
+            // The entry has not been fetched
+            assertNull( onIndex.getEntry() );
+
+            IndexEntry<String, String> onEntry = new IndexEntry<String, String>();
+            onEntry.setId( Strings.getUUID( id ) );
+            onEntry.setEntry( store.fetch( txn, Strings.getUUID( id ) ) );
+            assertEquals( matched, evaluator.evaluate( txn, onEntry ) );
+
+            if ( matched )
+            {
+                matches++;
+            }
+        }
+
+        assertEquals( 2, matches );
+    }
+
+
     @Test
     public void testInvalidCursorPositionException() throws Exception
     {
@@ -23,6 +23,7 @@ package org.apache.directory.server.xdbm.search.impl;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -647,6 +648,45 @@ public class LessEqTest
     }
 
 
+    /**
+     * Checks that the evaluation on the cn reverse index gives the same result and the
+     * same normalized key as the evaluation on the entries.
+     */
+    @Test
+    public void testEvaluatorIndexOnly() throws Exception
+    {
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+        // The cn AttributeType has no descendant, the index is enough
+        AttributeType cnAt = schemaManager.getAttributeType( "cn" );
+        LessEqNode<String> node = new LessEqNode<String>( cnAt, new Value( cnAt, "Jim" ) );
+        LessEqEvaluator<String> evaluator = new LessEqEvaluator<String>( node, store, schemaManager );
+        int matches = 0;
+
+        for ( long id = 1L; id <= 11L; id++ )
+        {
+            IndexEntry<String, String> onIndex = new IndexEntry<String, String>();
+            onIndex.setId( Strings.getUUID( id ) );
+            boolean matched = evaluator.evaluate( txn, onIndex );
+
+            // The entry has not been fetched
+            assertNull( onIndex.getEntry() );
+
+            IndexEntry<String, String> onEntry = new IndexEntry<String, String>();
+            onEntry.setId( Strings.getUUID( id ) );
+            onEntry.setEntry( store.fetch( txn, Strings.getUUID( id ) ) );
+            assertEquals( matched, evaluator.evaluate( txn, onEntry ) );
+
+            if ( matched )
+            {
+                assertEquals( onEntry.getKey(), onIndex.getKey() );
+                matches++;
+            }
+        }
+
+        assertEquals( 1, matches );
+    }
+
+
     @Test
     public void testEvaluatorWithDescendantValue() throws Exception
     {
@@ -20,6 +20,7 @@
 package org.apache.directory.server.xdbm.search.impl;
 
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -305,6 +306,67 @@ public class OrCursorTest extends AbstractCursorTest
     }
 
 
+    @Test
+    public void testOrCursorAfterAndBeforeEntry() throws Exception
+    {
+        String filter = "(|(cn=J*)(sn=W*))";
+
+        ExprNode exprNode = FilterParser.parse( schemaManager, filter );
+        PartitionTxn txn = new MockPartitionReadTxn();
+
+        // The candidates are returned ordered by UUID
+        Cursor<Entry> cursor = buildCursor( txn, exprNode );
+        List<Entry> entries = new ArrayList<Entry>();
+
+        while ( cursor.next() )
+        {
+            entries.add( cursor.get() );
+        }
+
+        cursor.close();
+
+        assertEquals( 6, entries.size() );
+        assertEquals( Strings.getUUID( 5 ), entries.get( 0 ).get( "entryUUID" ).getString() );
+        assertEquals( Strings.getUUID( 6 ), entries.get( 1 ).get( "entryUUID" ).getString() );
+        assertEquals( Strings.getUUID( 8 ), entries.get( 2 ).get( "entryUUID" ).getString() );
+        assertEquals( Strings.getUUID( 9 ), entries.get( 3 ).get( "entryUUID" ).getString() );
+        assertEquals( Strings.getUUID( 10 ), entries.get( 4 ).get( "entryUUID" ).getString() );
+        assertEquals( Strings.getUUID( 11 ), entries.get( 5 ).get( "entryUUID" ).getString() );
+
+        // Resume after the third candidate, on a new cursor
+        cursor = buildCursor( txn, exprNode );
+        cursor.after( entries.get( 2 ) );
+
+        assertTrue( cursor.next() );
+        assertEquals( Strings.getUUID( 9 ), cursor.get().get( "entryUUID" ).getString() );
+        assertTrue( cursor.next() );
+        assertEquals( Strings.getUUID( 10 ), cursor.get().get( "entryUUID" ).getString() );
+        assertTrue( cursor.next() );
+        assertEquals( Strings.getUUID( 11 ), cursor.get().get( "entryUUID" ).getString() );
+        assertFalse( cursor.next() );
+
+        // Position before the same candidate
+        cursor.before( entries.get( 2 ) );
+
+        assertTrue( cursor.next() );
+        assertEquals( Strings.getUUID( 8 ), cursor.get().get( "entryUUID" ).getString() );
+
+        // The entry 7 is not a candidate, the cursor is positioned before the next one
+        cursor.after( store.fetch( txn, Strings.getUUID( 7 ) ) );
+
+        assertTrue( cursor.next() );
+        assertEquals( Strings.getUUID( 8 ), cursor.get().get( "entryUUID" ).getString() );
+
+        // After the last candidate, there is nothing left
+        cursor.after( entries.get( 5 ) );
+
+        assertFalse( cursor.next() );
+
+        cursor.close();
+        assertTrue( cursor.isClosed() );
+    }
+
+
     @Test
     @SuppressWarnings("unchecked")
     public void testOrCursor() throws Exception
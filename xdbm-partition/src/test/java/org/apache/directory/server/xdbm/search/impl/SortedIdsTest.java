@@ -0,0 +1,91 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.directory.api.util.Strings;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests the sorted IDs operations.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SortedIdsTest
+{
+    private static String[] ids( int... values )
+    {
+        List<String> ids = new ArrayList<>();
+
+        for ( int value : values )
+        {
+            ids.add( Strings.getUUID( value ) );
+        }
+
+        return SortedIds.of( ids );
+    }
+
+
+    @Test
+    public void testOf()
+    {
+        assertArrayEquals( ids( 1, 2, 3 ), SortedIds.of( Arrays.asList( ids( 3, 1, 2, 3, 1 ) ) ) );
+        assertArrayEquals( SortedIds.EMPTY, SortedIds.of( new ArrayList<>() ) );
+    }
+
+
+    @Test
+    public void testIntersect()
+    {
+        assertArrayEquals( ids( 2, 4 ), SortedIds.intersect( ids( 1, 2, 3, 4 ), ids( 2, 4, 6 ) ) );
+        assertArrayEquals( SortedIds.EMPTY, SortedIds.intersect( ids( 1, 3 ), ids( 2, 4 ) ) );
+        assertArrayEquals( SortedIds.EMPTY, SortedIds.intersect( ids(), ids( 2, 4 ) ) );
+    }
+
+
+    @Test
+    public void testIntersectGalloping()
+    {
+        int[] values = new int[1000];
+
+        for ( int i = 0; i < values.length; i++ )
+        {
+            values[i] = i;
+        }
+
+        assertArrayEquals( ids( 0, 500, 999 ), SortedIds.intersect( ids( 0, 500, 999, 2000 ), ids( values ) ) );
+        assertArrayEquals( ids( 999 ), SortedIds.intersect( ids( values ), ids( 999 ) ) );
+    }
+
+
+    @Test
+    public void testUnion()
+    {
+        assertArrayEquals( ids( 1, 2, 3, 4, 6 ), SortedIds.union( ids( 1, 2, 3, 4 ), ids( 2, 4, 6 ) ) );
+        assertArrayEquals( ids( 2, 4 ), SortedIds.union( ids(), ids( 2, 4 ) ) );
+    }
+}
@@ -22,6 +22,7 @@ package org.apache.directory.server.xdbm.search.impl;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -526,7 +527,7 @@ public class SubstringTest
         assertTrue( cursor.next() );
         assertTrue( cursor.available() );
         assertEquals( Strings.getUUID( 6 ), cursor.get().getId() );
-        assertEquals( "BEAN", cursor.get().getKey() );
+        assertEquals( " bean ", cursor.get().getKey() );
 
         assertFalse( cursor.next() );
         assertFalse( cursor.available() );
@@ -539,7 +540,7 @@ public class SubstringTest
 
         assertTrue( cursor.available() );
         assertEquals( Strings.getUUID( 6 ), cursor.get().getId() );
-        assertEquals( "BEAN", cursor.get().getKey() );
+        assertEquals( " bean ", cursor.get().getKey() );
 
         assertFalse( cursor.next() );
         assertFalse( cursor.available() );
@@ -554,7 +555,7 @@ public class SubstringTest
         assertTrue( cursor.previous() );
         assertTrue( cursor.available() );
         assertEquals( Strings.getUUID( 6 ), cursor.get().getId() );
-        assertEquals( "BEAN", cursor.get().getKey() );
+        assertEquals( " bean ", cursor.get().getKey() );
 
         assertFalse( cursor.previous() );
         assertFalse( cursor.available() );
@@ -568,7 +569,7 @@ public class SubstringTest
 
         assertTrue( cursor.available() );
         assertEquals( Strings.getUUID( 6 ), cursor.get().getId() );
-        assertEquals( "BEAN", cursor.get().getKey() );
+        assertEquals( " bean ", cursor.get().getKey() );
 
         assertFalse( cursor.previous() );
         assertFalse( cursor.available() );
@@ -591,7 +592,7 @@ public class SubstringTest
         assertTrue( cursor.next() );
         assertTrue( cursor.available() );
         assertEquals( Strings.getUUID( 5 ), cursor.get().getId() );
-        assertEquals( "WAlkeR", cursor.get().getKey() );
+        assertEquals( " walker ", cursor.get().getKey() );
 
         assertFalse( cursor.next() );
         assertFalse( cursor.available() );
@@ -604,7 +605,7 @@ public class SubstringTest
 
         assertTrue( cursor.available() );
         assertEquals( Strings.getUUID( 5 ), cursor.get().getId() );
-        assertEquals( "WAlkeR", cursor.get().getKey() );
+        assertEquals( " walker ", cursor.get().getKey() );
 
         assertFalse( cursor.next() );
         assertFalse( cursor.available() );
@@ -619,7 +620,7 @@ public class SubstringTest
         assertTrue( cursor.previous() );
         assertTrue( cursor.available() );
         assertEquals( Strings.getUUID( 5 ), cursor.get().getId() );
-        assertEquals( "WAlkeR", cursor.get().getKey() );
+        assertEquals( " walker ", cursor.get().getKey() );
 
         assertFalse( cursor.previous() );
         assertFalse( cursor.available() );
@@ -633,7 +634,7 @@ public class SubstringTest
 
         assertTrue( cursor.available() );
         assertEquals( Strings.getUUID( 5L ), cursor.get().getId() );
-        assertEquals( "WAlkeR", cursor.get().getKey() );
+        assertEquals( " walker ", cursor.get().getKey() );
 
         assertFalse( cursor.previous() );
         assertFalse( cursor.available() );
@@ -730,6 +731,43 @@ public class SubstringTest
     }
 
 
+    /**
+     * Checks that the evaluation on the cn reverse index gives the same result and the
+     * same normalized key as the evaluation on the entries.
+     */
+    @Test
+    public void testEvaluatorIndexOnly() throws Exception
+    {
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+        SubstringNode node = new SubstringNode( schemaManager.getAttributeType( "cn" ), "j", null );
+        SubstringEvaluator evaluator = new SubstringEvaluator( node, store, schemaManager );
+        int matches = 0;
+
+        for ( long id = 1L; id <= 11L; id++ )
+        {
+            IndexEntry<String, String> onIndex = new IndexEntry<String, String>();
+            onIndex.setId( Strings.getUUID( id ) );
+            boolean matched = evaluator.evaluate( txn, onIndex );
+
+            // The entry has not been fetched
+            assertNull( onIndex.getEntry() );
+
+            IndexEntry<String, String> onEntry = new IndexEntry<String, String>();
+            onEntry.setId( Strings.getUUID( id ) );
+            onEntry.setEntry( store.fetch( txn, Strings.getUUID( id ) ) );
+            assertEquals( matched, evaluator.evaluate( txn, onEntry ) );
+
+            if ( matched )
+            {
+                assertEquals( onEntry.getKey(), onIndex.getKey() );
+                matches++;
+            }
+        }
+
+        assertEquals( 6, matches );
+    }
+
+
     @Test
     public void testEvaluatorNotIndexed() throws Exception
     {